@@ -0,0 +1,80 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.base;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StrBenchmark {
+
+	private String text;
+	private List<String> words;
+
+	@Setup
+	public void setup() {
+		StringBuilder sb = new StringBuilder();
+		words = new ArrayList<String>();
+		for (int i = 0; i < 50; i++) {
+			String word = "W" + Str.ue + "rter & <Zeichen> " + i;
+			sb.append(word).append('\n');
+			words.add(word);
+		}
+		text = sb.toString();
+	}
+
+	@Benchmark
+	public String toHtml() {
+		return Str.toHtml(text);
+	}
+
+	@Benchmark
+	public String concat() {
+		return Str.concat(words, ", ");
+	}
+
+	@Benchmark
+	public String toFileCompatibleString() {
+		return Str.toFileCompatibleString(text);
+	}
+
+	@Benchmark
+	public String formatWithThousandsSeparator() {
+		return Str.formatWithThousandsSeparator(1234567890L, ".");
+	}
+
+	@Benchmark
+	public List<String> parseCommaSeparatedString() {
+		return Str.parseCommaSeparatedString("a, b, c, d, e, f, g, h, i, j", true);
+	}
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.diff;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Dynamic programming LCS against <code>MyersDiff</code> on a document with some edited lines.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiffBenchmark {
+
+	@Param({ "200", "2000" })
+	private int lines;
+
+	private String left;
+	private String right;
+	private List<String> leftLines;
+	private List<String> rightLines;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(1);
+		StringBuilder l = new StringBuilder();
+		StringBuilder r = new StringBuilder();
+		for (int i = 0; i < lines; i++) {
+			String line = "line " + i + " with some text " + random.nextInt(1000) + "\n";
+			int edit = random.nextInt(20);
+			if (edit != 0) l.append(line);
+			if (edit != 1) r.append(edit == 2 ? "changed " + line : line);
+		}
+		left = l.toString();
+		right = r.toString();
+		LineTokenizer tokenizer = new LineTokenizer();
+		leftLines = new ArrayList<String>(tokenizer.tokenize(left));
+		rightLines = new ArrayList<String>(tokenizer.tokenize(right));
+	}
+
+	@Benchmark
+	public List<String> linesDynamicProgramming() {
+		return LongestCommonSubsequenceList.execute(leftLines, rightLines);
+	}
+
+	@Benchmark
+	public List<String> linesMyers() {
+		return MyersDiff.longestCommonSubsequence(leftLines, rightLines);
+	}
+
+	@Benchmark
+	public String lineDiff() {
+		return TokenDiff.lineDiff(left, right, new TxtDiffMarker());
+	}
+
+	@Benchmark
+	public String charsMyers() {
+		return MyersDiff.longestCommonSubsequence(left, right);
+	}
+
+}
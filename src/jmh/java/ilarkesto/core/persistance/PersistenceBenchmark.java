@@ -0,0 +1,102 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.persistance;
+
+import ilarkesto.persistence.ThreadlocalTransactionManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PersistenceBenchmark {
+
+	private static final int ENTITY_COUNT = 10000;
+
+	private EntitiesCache<AEntity> cache;
+	private AEntityQuery<Flower> redFlowersQuery;
+	private Flower flower;
+	private Runnable persistFlower;
+
+	@Setup
+	public void setup() {
+		cache = new EntitiesCache<AEntity>();
+		for (int i = 0; i < ENTITY_COUNT; i++) {
+			cache.add(new Flower(i % 10 == 0 ? "red" : "green"));
+			cache.add(new Tree());
+		}
+		redFlowersQuery = new AEntityQuery<Flower>() {
+
+			@Override
+			public boolean test(Flower entity) {
+				return "red".equals(entity.color);
+			}
+
+			@Override
+			public Class<Flower> getType() {
+				return Flower.class;
+			}
+		};
+
+		Persistence.initialize(new InMemoryEntitiesBackend(), new ThreadlocalTransactionManager());
+		flower = new Flower("blue");
+		persistFlower = new Runnable() {
+
+			@Override
+			public void run() {
+				flower.persist();
+			}
+		};
+	}
+
+	@Benchmark
+	public List<AEntity> entitiesCacheFind() {
+		return cache.find((AEntityQuery) redFlowersQuery, new ArrayList<AEntity>());
+	}
+
+	@Benchmark
+	public void transactionCommit() {
+		Persistence.runInTransaction("benchmark", persistFlower);
+	}
+
+	public static class Flower extends AEntity {
+
+		private String color;
+
+		public Flower(String color) {
+			this.color = color;
+		}
+
+	}
+
+	public static class Tree extends AEntity {}
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.id;
+
+import ilarkesto.core.base.RandomIdGenerator;
+import ilarkesto.core.base.Uuid;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Id generation from several threads, against the former <code>Math.random()</code> based <code>Uuid</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class IdGeneratorBenchmark {
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private RandomIdGenerator random = new RandomIdGenerator();
+	private ThreadLocalRandomIdGenerator threadLocalRandom = new ThreadLocalRandomIdGenerator();
+	private ThreadLocalRandomIdGenerator threadLocalTimeOrdered = new ThreadLocalRandomIdGenerator(true);
+	private CountingIdGenerator counting = new CountingIdGenerator("id");
+
+	@Benchmark
+	public String mathRandom() {
+		char[] uuid = new char[36];
+		uuid[8] = uuid[13] = uuid[18] = uuid[23] = '-';
+		uuid[14] = '4';
+		for (int i = 0; i < 36; i++) {
+			if (uuid[i] == 0) {
+				int r = (int) (Math.random() * 16);
+				uuid[i] = HEX[(i == 19) ? (r & 0x3) | 0x8 : r & 0xf];
+			}
+		}
+		return new String(uuid);
+	}
+
+	@Benchmark
+	public String uuid() {
+		return Uuid.create();
+	}
+
+	@Benchmark
+	public String random() {
+		return random.generateId();
+	}
+
+	@Benchmark
+	public String threadLocalRandom() {
+		return threadLocalRandom.generateId();
+	}
+
+	@Benchmark
+	public String threadLocalTimeOrdered() {
+		return threadLocalTimeOrdered.generateId();
+	}
+
+	@Benchmark
+	public String counting() {
+		return counting.generateId();
+	}
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io.nio.httpserver;
+
+import ilarkesto.concurrent.TaskManager;
+import ilarkesto.di.Context;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Local load generator for <code>HttpServer</code>: every benchmark thread is a client with one keep-alive
+ * connection.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class HttpServerBenchmark {
+
+	private static final int PORT = 18765;
+	private static final int PIPELINE_DEPTH = 16;
+
+	private static final byte[] GET_REQUEST = ("GET /hello HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes();
+	private static final byte[] POST_REQUEST = ("POST /hello HTTP/1.1\r\nHost: localhost\r\nContent-Length: 64\r\n\r\n"
+			+ "0123456789012345678901234567890123456789012345678901234567890123").getBytes();
+	private static final byte[] PIPELINED_REQUESTS = repeat(GET_REQUEST, PIPELINE_DEPTH);
+
+	@State(Scope.Benchmark)
+	public static class Server {
+
+		private static boolean contextCreated;
+
+		private HttpServer server;
+		private TaskManager taskManager;
+
+		@Setup(Level.Trial)
+		public void start() throws InterruptedException {
+			synchronized (Server.class) {
+				if (!contextCreated) {
+					Context.createRootContext("benchmark");
+					contextCreated = true;
+				}
+			}
+			server = new HttpServer(PORT, "benchmark", 2, Runtime.getRuntime().availableProcessors());
+			server.addRequestHandler(new HttpRequestHandler() {
+
+				private final byte[] body = "Hello".getBytes();
+
+				@Override
+				public boolean onHttpRequest(HttpRequest request) {
+					request.sendResponse(HttpStatusCode.OK, "text/plain", body);
+					return true;
+				}
+			});
+			taskManager = new TaskManager();
+			server.start(taskManager);
+			Thread.sleep(500);
+		}
+
+		@TearDown(Level.Trial)
+		public void stop() {
+			server.stop();
+			taskManager.shutdown(1000);
+		}
+
+	}
+
+	@State(Scope.Thread)
+	public static class Client {
+
+		private Socket socket;
+		private OutputStream out;
+		private InputStream in;
+		private byte[] buffer = new byte[64 * 1024];
+		private int responseLength;
+
+		@Setup(Level.Trial)
+		public void connect(Server server) throws IOException {
+			socket = new Socket("localhost", PORT);
+			socket.setTcpNoDelay(true);
+			out = socket.getOutputStream();
+			in = socket.getInputStream();
+
+			out.write(GET_REQUEST);
+			out.flush();
+			int length = 0;
+			while (!endsWithResponse(buffer, length)) {
+				length += in.read(buffer, length, buffer.length - length);
+			}
+			responseLength = length;
+		}
+
+		private static boolean endsWithResponse(byte[] buffer, int length) {
+			return length >= 5 && new String(buffer, length - 5, 5).equals("Hello");
+		}
+
+		int exchange(byte[] request, int responses) throws IOException {
+			out.write(request);
+			out.flush();
+			int expected = responseLength * responses;
+			int length = 0;
+			while (length < expected) {
+				int read = in.read(buffer, 0, Math.min(buffer.length, expected - length));
+				if (read < 0) throw new IOException("Connection closed by server");
+				length += read;
+			}
+			return length;
+		}
+
+		@TearDown(Level.Trial)
+		public void close() throws IOException {
+			socket.close();
+		}
+
+	}
+
+	@Benchmark
+	public int keepAliveGet(Client client) throws IOException {
+		return client.exchange(GET_REQUEST, 1);
+	}
+
+	@Benchmark
+	public int keepAlivePost(Client client) throws IOException {
+		return client.exchange(POST_REQUEST, 1);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PIPELINE_DEPTH)
+	public int pipelinedGet(Client client) throws IOException {
+		return client.exchange(PIPELINED_REQUESTS, PIPELINE_DEPTH);
+	}
+
+	private static byte[] repeat(byte[] data, int count) {
+		byte[] ret = new byte[data.length * count];
+		for (int i = 0; i < count; i++) {
+			System.arraycopy(data, 0, ret, i * data.length, data.length);
+		}
+		return ret;
+	}
+
+}
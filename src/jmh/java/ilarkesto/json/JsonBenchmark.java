@@ -0,0 +1,178 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.json;
+
+import ilarkesto.json.JsonSaxParser.ContentHandler;
+import ilarkesto.json.JsonSaxParser.ParseException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+	private Person person;
+	private String personJson;
+	private String objectJson;
+	private JsonObject object;
+	private JsonMapper.TypeResolver typeResolver;
+
+	@Setup
+	public void setup() {
+		person = new Person();
+		person.name = "Witoslaw \"Witek\" Koczewski";
+		person.age = 42;
+		for (int i = 0; i < 20; i++) {
+			Address address = new Address();
+			address.street = "Street " + i;
+			address.city = "City";
+			person.addresses.add(address);
+		}
+		personJson = JsonMapper.serialize(person);
+
+		object = new JsonObject();
+		for (int i = 0; i < 100; i++) {
+			JsonObject item = object.putNewObject("item" + i);
+			item.put("name", "Item\t" + i);
+			item.put("count", i);
+			item.put("price", 23.42);
+			item.put("active", i % 2 == 0);
+			item.addToArray("tags", "a");
+			item.addToArray("tags", "b");
+		}
+		objectJson = object.toString();
+
+		typeResolver = new JsonMapper.TypeResolver() {
+
+			@Override
+			public Class resolveArrayType(Object object, String field) {
+				return Address.class;
+			}
+		};
+	}
+
+	@Benchmark
+	public String jsonMapperSerialize() {
+		return JsonMapper.serialize(person);
+	}
+
+	@Benchmark
+	public Person jsonMapperDeserialize() throws ParseException {
+		return JsonMapper.deserialize(personJson, Person.class, typeResolver);
+	}
+
+	@Benchmark
+	public void jsonSaxParser(Blackhole blackhole) throws ParseException {
+		CountingContentHandler handler = new CountingContentHandler();
+		new JsonSaxParser().parse(objectJson, handler);
+		blackhole.consume(handler.count);
+	}
+
+	@Benchmark
+	public JsonObject jsonObjectParse() {
+		return JsonObject.parse(objectJson);
+	}
+
+	@Benchmark
+	public String jsonObjectToString() {
+		return object.toString();
+	}
+
+	public static class Person {
+
+		private String name;
+		private int age;
+		private List<Address> addresses = new ArrayList<Address>();
+
+	}
+
+	public static class Address {
+
+		private String street;
+		private String city;
+
+	}
+
+	private static class CountingContentHandler implements ContentHandler {
+
+		private int count;
+
+		@Override
+		public void onBegin() {}
+
+		@Override
+		public void onEnd() {}
+
+		@Override
+		public boolean onBeginObject() {
+			count++;
+			return true;
+		}
+
+		@Override
+		public boolean onEndObject() {
+			return true;
+		}
+
+		@Override
+		public boolean onBeginAttribute(String key) {
+			count++;
+			return true;
+		}
+
+		@Override
+		public boolean onEndAttribute() {
+			return true;
+		}
+
+		@Override
+		public boolean onBeginArray() {
+			count++;
+			return true;
+		}
+
+		@Override
+		public boolean onEndArray() {
+			return true;
+		}
+
+		@Override
+		public boolean onPrimitiveValue(Object value) throws ParseException, IOException {
+			count++;
+			return true;
+		}
+
+	}
+
+}
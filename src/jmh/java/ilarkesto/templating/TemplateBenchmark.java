@@ -0,0 +1,100 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.templating;
+
+import ilarkesto.core.parsing.sax.ParseException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateBenchmark {
+
+	private Template template;
+	private List<Item> items;
+	private StringBuilder out = new StringBuilder();
+
+	@Setup
+	public void setup() throws ParseException {
+		template = MustacheLikeTemplateParser.parseTemplate("<ul>{{#items}}<li class=\"{{$loop/index}}\">"
+				+ "{{name}}: {{details/text}} ({{/title}})</li>{{/}}</ul>");
+		items = new ArrayList<Item>();
+		for (int i = 0; i < 100; i++) {
+			items.add(new Item("item " + i, "details <" + i + ">"));
+		}
+	}
+
+	@Benchmark
+	public int process() {
+		out.setLength(0);
+		Context context = new Context(out);
+		context.put("title", "Items");
+		context.put("items", items);
+		template.process(context);
+		return out.length();
+	}
+
+	public static class Item {
+
+		private String name;
+		private Details details;
+
+		public Item(String name, String text) {
+			this.name = name;
+			this.details = new Details(text);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Details getDetails() {
+			return details;
+		}
+
+	}
+
+	public static class Details {
+
+		private String text;
+
+		public Details(String text) {
+			this.text = text;
+		}
+
+		public String getText() {
+			return text;
+		}
+
+	}
+
+}
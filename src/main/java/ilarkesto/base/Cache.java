@@ -12,55 +12,381 @@
  * You should have received a copy of the GNU General Public License along with this program. If not, see
  * <http://www.gnu.org/licenses/>.
  */
-package ilarkesto.base;
-
-import ilarkesto.core.logging.Log;
-
-import java.util.HashMap;
-import java.util.Map;
-
-/**
- * A simple cache, where keys are mapped to value objects. When no value-object is assigned to a key, then a
- * create method is called on the user provided factory.
- */
-public class Cache<K, V> {
-
-	private static final Log LOG = Log.get(Cache.class);
-
-	private Map<K, V> cache = new HashMap<K, V>();
-
-	private Factory<K, V> factory;
-
-	public Cache(Factory<K, V> factory) {
-		this.factory = factory;
-	}
-
-	Cache() {}
-
-	void setFactory(Factory<K, V> factory) {
-		this.factory = factory;
-	}
-
-	public void clear() {
-		cache = new HashMap<K, V>();
-	}
-
-	public V get(K key) {
-		V value = cache.get(key);
-		if (value == null) {
-			value = factory.create(key);
-			// LOG.debug("Returning new:", key, "->", value);
-			cache.put(key, value);
-			// } else {
-			// LOG.debug("Returning cached:", key, "->", value);
-		}
-		return value;
-	}
-
-	public static interface Factory<K, V> {
-
-		V create(K key);
-
-	}
-
-}
+package ilarkesto.base;
+
+import ilarkesto.core.logging.Log;
+import ilarkesto.core.time.Tm;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread safe cache, where keys are mapped to value objects. When no value-object is assigned to a key, then a
+ * create method is called on the user provided factory. Concurrent requests for the same key wait for a single
+ * creation. <code>null</code> values are not cached.
+ * <p>
+ * Unbounded by default. With a maximum size or weight, the least recently used values are evicted. Values can
+ * expire after a time to live. The cache is split into segments with their own locks, each segment evicts on its
+ * own.
+ */
+public class Cache<K, V> {
+
+	private static final Log LOG = Log.get(Cache.class);
+
+	private static final int SEGMENT_COUNT = 16;
+
+	private Factory<K, V> factory;
+
+	private volatile Segment<K, V>[] segments;
+	private int maxSize;
+	private long maxWeight;
+	private Weigher<K, V> weigher;
+	private long timeToLive;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong loadCount = new AtomicLong();
+	private final AtomicLong loadFailureCount = new AtomicLong();
+	private final AtomicLong loadTime = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	public Cache(Factory<K, V> factory) {
+		this();
+		this.factory = factory;
+	}
+
+	Cache() {
+		createSegments();
+	}
+
+	void setFactory(Factory<K, V> factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * Limits the number of cached values, <code>0</code> for unlimited. Clears the cache.
+	 */
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		createSegments();
+	}
+
+	/**
+	 * Limits the total weight of the cached values. Clears the cache.
+	 */
+	public void setMaxWeight(long maxWeight, Weigher<K, V> weigher) {
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+		createSegments();
+	}
+
+	/**
+	 * Values expire the given milliseconds after creation, <code>0</code> for never. Clears the cache.
+	 */
+	public void setTimeToLive(long timeToLive) {
+		this.timeToLive = timeToLive;
+		createSegments();
+	}
+
+	private void createSegments() {
+		int count = SEGMENT_COUNT;
+		if (maxSize > 0 && maxSize < SEGMENT_COUNT * 16) count = 1;
+		if (maxWeight > 0 && maxWeight < SEGMENT_COUNT * 16) count = 1;
+		Segment<K, V>[] newSegments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			newSegments[i] = new Segment<K, V>(divide(maxSize, count), divide(maxWeight, count));
+		}
+		segments = newSegments;
+	}
+
+	private static long divide(long limit, int count) {
+		if (limit <= 0) return 0;
+		return (limit + count - 1) / count;
+	}
+
+	public void clear() {
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	public V get(K key) {
+		Segment<K, V> segment = getSegment(key);
+		Loader<V> loader;
+		synchronized (segment) {
+			Object o = segment.map.get(key);
+			if (o instanceof Entry) {
+				Entry<V> entry = (Entry<V>) o;
+				if (!isExpired(entry)) {
+					hitCount.incrementAndGet();
+					return entry.value;
+				}
+				segment.remove(key);
+				evictionCount.incrementAndGet();
+				o = null;
+			}
+			missCount.incrementAndGet();
+			if (o != null) {
+				loader = (Loader<V>) o;
+			} else {
+				loader = new Loader<V>();
+				segment.map.put(key, loader);
+				loader.owner = Thread.currentThread();
+			}
+		}
+		if (loader.owner != Thread.currentThread()) return loader.await();
+		return load(segment, key, loader);
+	}
+
+	private V load(Segment<K, V> segment, K key, Loader<V> loader) {
+		long start = System.nanoTime();
+		V value;
+		try {
+			value = factory.create(key);
+		} catch (RuntimeException ex) {
+			loadFailed(segment, key, loader, ex);
+			throw ex;
+		} catch (Error ex) {
+			loadFailed(segment, key, loader, ex);
+			throw ex;
+		}
+		loadCount.incrementAndGet();
+		loadTime.addAndGet(System.nanoTime() - start);
+		synchronized (segment) {
+			// not stored when cleared or invalidated while loading
+			if (segment.map.get(key) == loader) {
+				segment.map.remove(key);
+				if (value != null) store(segment, key, value);
+			}
+		}
+		loader.complete(value, null);
+		return value;
+	}
+
+	private void loadFailed(Segment<K, V> segment, K key, Loader<V> loader, Throwable ex) {
+		loadFailureCount.incrementAndGet();
+		synchronized (segment) {
+			if (segment.map.get(key) == loader) segment.map.remove(key);
+		}
+		loader.complete(null, ex);
+	}
+
+	/**
+	 * Provides the cached value without creating it.
+	 */
+	public V getIfPresent(K key) {
+		Segment<K, V> segment = getSegment(key);
+		synchronized (segment) {
+			Object o = segment.map.get(key);
+			if (o instanceof Entry) {
+				Entry<V> entry = (Entry<V>) o;
+				if (!isExpired(entry)) {
+					hitCount.incrementAndGet();
+					return entry.value;
+				}
+				segment.remove(key);
+				evictionCount.incrementAndGet();
+			}
+			missCount.incrementAndGet();
+			return null;
+		}
+	}
+
+	public void put(K key, V value) {
+		Segment<K, V> segment = getSegment(key);
+		synchronized (segment) {
+			segment.remove(key);
+			if (value != null) store(segment, key, value);
+		}
+	}
+
+	public void invalidate(K key) {
+		Segment<K, V> segment = getSegment(key);
+		synchronized (segment) {
+			segment.remove(key);
+		}
+	}
+
+	private void store(Segment<K, V> segment, K key, V value) {
+		long weight = weigher == null ? 1 : weigher.weigh(key, value);
+		segment.map.put(key, new Entry<V>(value, weight, timeToLive > 0 ? Tm.getCurrentTimeMillis() : 0));
+		segment.weight += weight;
+		segment.size++;
+		evictionCount.addAndGet(segment.evict());
+	}
+
+	private boolean isExpired(Entry<V> entry) {
+		return timeToLive > 0 && Tm.getCurrentTimeMillis() - entry.creationTime >= timeToLive;
+	}
+
+	private Segment<K, V> getSegment(K key) {
+		Segment<K, V>[] s = segments;
+		if (s.length == 1) return s[0];
+		int h = key == null ? 0 : key.hashCode();
+		h ^= (h >>> 16);
+		return s[h & (s.length - 1)];
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				size += segment.size;
+			}
+		}
+		return size;
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	public long getLoadCount() {
+		return loadCount.get();
+	}
+
+	public long getLoadFailureCount() {
+		return loadFailureCount.get();
+	}
+
+	/**
+	 * Total time spent in the factory in nanoseconds.
+	 */
+	public long getLoadTime() {
+		return loadTime.get();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	public double getHitRate() {
+		long hits = hitCount.get();
+		long requests = hits + missCount.get();
+		return requests == 0 ? 1 : (double) hits / requests;
+	}
+
+	public String getStatisticsAsString() {
+		return size() + " values, " + hitCount.get() + " hits, " + missCount.get() + " misses, " + loadCount.get()
+				+ " loads, " + loadFailureCount.get() + " failed loads, " + evictionCount.get() + " evictions";
+	}
+
+	public static interface Factory<K, V> {
+
+		V create(K key);
+
+	}
+
+	public static interface Weigher<K, V> {
+
+		long weigh(K key, V value);
+
+	}
+
+	private static final class Segment<K, V> {
+
+		private final long maxSize;
+		private final long maxWeight;
+		/**
+		 * Values in access order, <code>Entry</code> or <code>Loader</code> objects.
+		 */
+		private final LinkedHashMap<K, Object> map = new LinkedHashMap<K, Object>(16, 0.75f, true);
+		private int size;
+		private long weight;
+
+		private Segment(long maxSize, long maxWeight) {
+			this.maxSize = maxSize;
+			this.maxWeight = maxWeight;
+		}
+
+		private void remove(K key) {
+			Object o = map.remove(key);
+			if (o instanceof Entry) removed((Entry) o);
+		}
+
+		private void removed(Entry entry) {
+			size--;
+			weight -= entry.weight;
+		}
+
+		private int evict() {
+			if (!isOverLimit()) return 0;
+			int count = 0;
+			Iterator<Map.Entry<K, Object>> iterator = map.entrySet().iterator();
+			while (isOverLimit() && iterator.hasNext()) {
+				Object o = iterator.next().getValue();
+				if (!(o instanceof Entry)) continue;
+				iterator.remove();
+				removed((Entry) o);
+				count++;
+			}
+			return count;
+		}
+
+		private boolean isOverLimit() {
+			if (maxSize > 0 && size > maxSize) return true;
+			if (maxWeight > 0 && weight > maxWeight) return true;
+			return false;
+		}
+
+		private void clear() {
+			map.clear();
+			size = 0;
+			weight = 0;
+		}
+
+	}
+
+	private static final class Entry<V> {
+
+		private final V value;
+		private final long weight;
+		private final long creationTime;
+
+		private Entry(V value, long weight, long creationTime) {
+			this.value = value;
+			this.weight = weight;
+			this.creationTime = creationTime;
+		}
+
+	}
+
+	/**
+	 * Placeholder for a value which is being created, other threads requesting the key wait for it.
+	 */
+	private static final class Loader<V> {
+
+		private final CountDownLatch latch = new CountDownLatch(1);
+		private Thread owner;
+		private V value;
+		private Throwable error;
+
+		private void complete(V value, Throwable error) {
+			this.value = value;
+			this.error = error;
+			latch.countDown();
+		}
+
+		private V await() {
+			try {
+				latch.await();
+			} catch (InterruptedException ex) {
+				throw new RuntimeException("Waiting for cache value interrupted", ex);
+			}
+			if (error instanceof RuntimeException) throw (RuntimeException) error;
+			if (error instanceof Error) throw (Error) error;
+			return value;
+		}
+
+	}
+
+}
@@ -0,0 +1,412 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.base;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable hash map (hash array mapped trie). <code>with()</code> and <code>without()</code> return a new map
+ * which shares all untouched nodes with this one, so a change costs O(log32 n) instead of copying the whole map.
+ * Keys must not be <code>null</code>. The <code>Map</code> mutators are not supported.
+ */
+public final class PersistentHashMap<K, V> extends AbstractMap<K, V> {
+
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+	private static final Object NOT_FOUND = new Object();
+	private static final PersistentHashMap EMPTY = new PersistentHashMap(null, 0);
+
+	private final Node root;
+	private final int size;
+
+	private PersistentHashMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	public static <K, V> PersistentHashMap<K, V> empty() {
+		return EMPTY;
+	}
+
+	public static <K, V> PersistentHashMap<K, V> copyOf(Map<K, V> map) {
+		if (map instanceof PersistentHashMap) return (PersistentHashMap<K, V>) map;
+		PersistentHashMap<K, V> ret = empty();
+		for (Map.Entry<K, V> entry : map.entrySet()) {
+			ret = ret.with(entry.getKey(), entry.getValue());
+		}
+		return ret;
+	}
+
+	public PersistentHashMap<K, V> with(K key, V value) {
+		if (key == null) throw new IllegalArgumentException("key == null");
+		int hash = hash(key);
+		boolean[] added = new boolean[1];
+		Node newRoot = root == null ? new BitmapNode(bit(hash, 0), new Object[] { key, value }) : root.with(key,
+			hash, value, 0, added);
+		if (root == null) added[0] = true;
+		if (newRoot == root) return this;
+		return new PersistentHashMap<K, V>(newRoot, added[0] ? size + 1 : size);
+	}
+
+	public PersistentHashMap<K, V> without(Object key) {
+		if (root == null || key == null) return this;
+		Node newRoot = root.without(key, hash(key), 0);
+		if (newRoot == root) return this;
+		return new PersistentHashMap<K, V>(newRoot, size - 1);
+	}
+
+	@Override
+	public V get(Object key) {
+		if (root == null || key == null) return null;
+		Object value = root.get(key, hash(key), 0);
+		return value == NOT_FOUND ? null : (V) value;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		if (root == null || key == null) return false;
+		return root.get(key, hash(key), 0) != NOT_FOUND;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		return new AbstractSet<Map.Entry<K, V>>() {
+
+			@Override
+			public Iterator<Map.Entry<K, V>> iterator() {
+				return new EntryIterator<K, V>(root);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	private static int hash(Object key) {
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private static Object[] copy(Object[] array) {
+		Object[] ret = new Object[array.length];
+		System.arraycopy(array, 0, ret, 0, array.length);
+		return ret;
+	}
+
+	private static int bit(int hash, int shift) {
+		return 1 << ((hash >>> shift) & MASK);
+	}
+
+	/**
+	 * Nodes store their entries as key/value pairs in one array. A pair with a <code>null</code> key holds a sub
+	 * node as value.
+	 */
+	private static abstract class Node {
+
+		final Object[] array;
+
+		Node(Object[] array) {
+			this.array = array;
+		}
+
+		abstract Object get(Object key, int hash, int shift);
+
+		abstract Node with(Object key, int hash, Object value, int shift, boolean[] added);
+
+		/**
+		 * @return this node if the key does not exist, <code>null</code> if the node got empty
+		 */
+		abstract Node without(Object key, int hash, int shift);
+
+		boolean isSingleEntry() {
+			return array.length == 2 && array[0] != null;
+		}
+
+	}
+
+	private static final class BitmapNode extends Node {
+
+		private final int bitmap;
+
+		BitmapNode(int bitmap, Object[] array) {
+			super(array);
+			this.bitmap = bitmap;
+		}
+
+		private int index(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1)) * 2;
+		}
+
+		@Override
+		Object get(Object key, int hash, int shift) {
+			int bit = bit(hash, shift);
+			if ((bitmap & bit) == 0) return NOT_FOUND;
+			int i = index(bit);
+			Object k = array[i];
+			if (k == null) return ((Node) array[i + 1]).get(key, hash, shift + BITS);
+			return key.equals(k) ? array[i + 1] : NOT_FOUND;
+		}
+
+		@Override
+		Node with(Object key, int hash, Object value, int shift, boolean[] added) {
+			int bit = bit(hash, shift);
+			int i = index(bit);
+			if ((bitmap & bit) == 0) {
+				Object[] newArray = new Object[array.length + 2];
+				System.arraycopy(array, 0, newArray, 0, i);
+				newArray[i] = key;
+				newArray[i + 1] = value;
+				System.arraycopy(array, i, newArray, i + 2, array.length - i);
+				added[0] = true;
+				return new BitmapNode(bitmap | bit, newArray);
+			}
+			Object k = array[i];
+			Object v = array[i + 1];
+			if (k == null) {
+				Node sub = ((Node) v).with(key, hash, value, shift + BITS, added);
+				if (sub == v) return this;
+				return replace(i, null, sub);
+			}
+			if (key.equals(k)) {
+				if (value == v) return this;
+				return replace(i, k, value);
+			}
+			added[0] = true;
+			return replace(i, null, createNode(k, v, key, hash, value, shift + BITS));
+		}
+
+		@Override
+		Node without(Object key, int hash, int shift) {
+			int bit = bit(hash, shift);
+			if ((bitmap & bit) == 0) return this;
+			int i = index(bit);
+			Object k = array[i];
+			if (k == null) {
+				Node sub = (Node) array[i + 1];
+				Node newSub = sub.without(key, hash, shift + BITS);
+				if (newSub == sub) return this;
+				if (newSub == null) return remove(i, bit);
+				if (newSub.isSingleEntry()) return replace(i, newSub.array[0], newSub.array[1]);
+				return replace(i, null, newSub);
+			}
+			if (!key.equals(k)) return this;
+			return remove(i, bit);
+		}
+
+		private Node replace(int i, Object key, Object value) {
+			Object[] newArray = copy(array);
+			newArray[i] = key;
+			newArray[i + 1] = value;
+			return new BitmapNode(bitmap, newArray);
+		}
+
+		private Node remove(int i, int bit) {
+			if (array.length == 2) return null;
+			Object[] newArray = new Object[array.length - 2];
+			System.arraycopy(array, 0, newArray, 0, i);
+			System.arraycopy(array, i + 2, newArray, i, array.length - i - 2);
+			return new BitmapNode(bitmap & ~bit, newArray);
+		}
+
+		private static Node createNode(Object key1, Object value1, Object key2, int hash2, Object value2, int shift) {
+			int hash1 = hash(key1);
+			if (hash1 == hash2) return new CollisionNode(hash1, new Object[] { key1, value1, key2, value2 });
+			boolean[] added = new boolean[1];
+			return new BitmapNode(bit(hash1, shift), new Object[] { key1, value1 }).with(key2, hash2, value2,
+				shift, added);
+		}
+
+	}
+
+	/**
+	 * Keys with the same hash.
+	 */
+	private static final class CollisionNode extends Node {
+
+		private final int hash;
+
+		CollisionNode(int hash, Object[] array) {
+			super(array);
+			this.hash = hash;
+		}
+
+		private int indexOf(Object key) {
+			for (int i = 0; i < array.length; i += 2) {
+				if (key.equals(array[i])) return i;
+			}
+			return -1;
+		}
+
+		@Override
+		Object get(Object key, int hash, int shift) {
+			if (hash != this.hash) return NOT_FOUND;
+			int i = indexOf(key);
+			return i < 0 ? NOT_FOUND : array[i + 1];
+		}
+
+		@Override
+		Node with(Object key, int hash, Object value, int shift, boolean[] added) {
+			if (hash != this.hash)
+				return new BitmapNode(bit(this.hash, shift), new Object[] { null, this }).with(key, hash, value,
+					shift, added);
+			int i = indexOf(key);
+			if (i >= 0) {
+				if (array[i + 1] == value) return this;
+				Object[] newArray = copy(array);
+				newArray[i + 1] = value;
+				return new CollisionNode(hash, newArray);
+			}
+			Object[] newArray = new Object[array.length + 2];
+			System.arraycopy(array, 0, newArray, 0, array.length);
+			newArray[array.length] = key;
+			newArray[array.length + 1] = value;
+			added[0] = true;
+			return new CollisionNode(hash, newArray);
+		}
+
+		@Override
+		Node without(Object key, int hash, int shift) {
+			if (hash != this.hash) return this;
+			int i = indexOf(key);
+			if (i < 0) return this;
+			if (array.length == 2) return null;
+			Object[] newArray = new Object[array.length - 2];
+			System.arraycopy(array, 0, newArray, 0, i);
+			System.arraycopy(array, i + 2, newArray, i, array.length - i - 2);
+			return new CollisionNode(hash, newArray);
+		}
+
+	}
+
+	private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+
+		// 32 bit hashes need at most 7 levels of bitmap nodes plus a collision node
+		private final Object[][] arrays = new Object[9][];
+		private final int[] positions = new int[9];
+		private int depth = -1;
+		private Map.Entry<K, V> next;
+
+		EntryIterator(Node root) {
+			if (root != null) push(root);
+			next = findNext();
+		}
+
+		private void push(Node node) {
+			depth++;
+			arrays[depth] = node.array;
+			positions[depth] = 0;
+		}
+
+		private Map.Entry<K, V> findNext() {
+			while (depth >= 0) {
+				Object[] array = arrays[depth];
+				int i = positions[depth];
+				if (i >= array.length) {
+					arrays[depth] = null;
+					depth--;
+					continue;
+				}
+				positions[depth] = i + 2;
+				if (array[i] == null) {
+					push((Node) array[i + 1]);
+					continue;
+				}
+				return new Entry<K, V>((K) array[i], (V) array[i + 1]);
+			}
+			return null;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<K, V> next() {
+			if (next == null) throw new NoSuchElementException();
+			Map.Entry<K, V> ret = next;
+			next = findNext();
+			return ret;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+	private static final class Entry<K, V> implements Map.Entry<K, V> {
+
+		private final K key;
+		private final V value;
+
+		Entry(K key, V value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		@Override
+		public K getKey() {
+			return key;
+		}
+
+		@Override
+		public V getValue() {
+			return value;
+		}
+
+		@Override
+		public V setValue(V value) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Map.Entry)) return false;
+			Map.Entry e = (Map.Entry) obj;
+			return Utl.equals(key, e.getKey()) && Utl.equals(value, e.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + value;
+		}
+
+	}
+
+}
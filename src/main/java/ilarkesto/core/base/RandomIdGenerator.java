@@ -0,0 +1,55 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.base;
+
+import ilarkesto.core.time.Tm;
+
+import java.util.Random;
+
+/**
+ * Generates RFC4122 IDs from 122 random bits, optionally prefixed with the current time for index locality (see
+ * <code>Uuid.createTimeOrdered()</code>). Each generator has its own <code>Random</code>, so generators do not
+ * contend with each other or with <code>Math.random()</code>.
+ */
+public class RandomIdGenerator implements IdGenerator {
+
+	private final boolean timeOrdered;
+	private final Random random = new Random();
+
+	public RandomIdGenerator(boolean timeOrdered) {
+		super();
+		this.timeOrdered = timeOrdered;
+	}
+
+	public RandomIdGenerator() {
+		this(false);
+	}
+
+	@Override
+	public String generateId() {
+		Random random = getRandom();
+		if (timeOrdered) return Uuid.createTimeOrdered(Tm.getCurrentTimeMillis(), random.nextLong(), random.nextLong());
+		return Uuid.create(random.nextLong(), random.nextLong());
+	}
+
+	protected Random getRandom() {
+		return random;
+	}
+
+	public boolean isTimeOrdered() {
+		return timeOrdered;
+	}
+
+}
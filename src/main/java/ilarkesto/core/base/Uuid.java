@@ -14,18 +14,21 @@
  */
 package ilarkesto.core.base;
 
+import java.util.Random;
 
 public class Uuid {
 
 	private static final char[] CHARS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz"
 			.toCharArray();
 
+	private static final Random random = new Random();
+
 	public static String create(int len, int radix) {
 		if (radix > CHARS.length) { throw new IllegalArgumentException(); }
 		char[] uuid = new char[len];
 		// Compact form
 		for (int i = 0; i < len; i++) {
-			uuid[i] = CHARS[(int) (Math.random() * radix)];
+			uuid[i] = CHARS[random.nextInt(radix)];
 		}
 		return new String(uuid);
 	}
@@ -34,22 +37,46 @@ public class Uuid {
 	 * Generate a RFC4122, version 4 ID. Example: "92329D39-6F5C-4520-ABFC-AAB64544E172"
 	 */
 	public static String create() {
-		char[] uuid = new char[36];
-		int r;
+		return create(random.nextLong(), random.nextLong());
+	}
+
+	/**
+	 * Generate a RFC4122, version 4 ID from the given random bits. Version and variant bits are overwritten.
+	 */
+	public static String create(long mostSignificantBits, long leastSignificantBits) {
+		mostSignificantBits = (mostSignificantBits & ~0xF000L) | 0x4000L;
+		return format(mostSignificantBits, setVariant(leastSignificantBits));
+	}
+
+	/**
+	 * Generate an ID in the layout of RFC4122 which starts with the time in milliseconds (version 7), so IDs
+	 * created later sort after IDs created earlier. Example: "0157A3B4-C1D2-7E3F-8A4B-5C6D7E8F9A0B"
+	 */
+	public static String createTimeOrdered(long timeMillis, long randomBits, long moreRandomBits) {
+		long mostSignificantBits = (timeMillis << 16) | 0x7000L | (randomBits & 0xFFFL);
+		return format(mostSignificantBits, setVariant(moreRandomBits));
+	}
 
-		// rfc4122 requires these characters
+	private static long setVariant(long leastSignificantBits) {
+		return (leastSignificantBits & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+	}
+
+	private static String format(long mostSignificantBits, long leastSignificantBits) {
+		char[] uuid = new char[36];
 		uuid[8] = uuid[13] = uuid[18] = uuid[23] = '-';
-		uuid[14] = '4';
-
-		// Fill in random data. At i==19 set the high bits of clock sequence as
-		// per rfc4122, sec. 4.1.5
-		for (int i = 0; i < 36; i++) {
-			if (uuid[i] == 0) {
-				r = (int) (Math.random() * 16);
-				uuid[i] = CHARS[(i == 19) ? (r & 0x3) | 0x8 : r & 0xf];
-			}
-		}
+		setHex(uuid, 0, mostSignificantBits >>> 32, 8);
+		setHex(uuid, 9, mostSignificantBits >>> 16, 4);
+		setHex(uuid, 14, mostSignificantBits, 4);
+		setHex(uuid, 19, leastSignificantBits >>> 48, 4);
+		setHex(uuid, 24, leastSignificantBits, 12);
 		return new String(uuid);
 	}
 
+	private static void setHex(char[] chars, int offset, long value, int digits) {
+		for (int i = offset + digits - 1; i >= offset; i--) {
+			chars[i] = CHARS[(int) (value & 0xF)];
+			value >>>= 4;
+		}
+	}
+
 }
@@ -22,6 +22,9 @@ public class CharDiff {
 	private DiffMarker marker;
 
 	private String lcs;
+	private int lcsPos;
+	private int leftPos;
+	private int rightPos;
 	private int lcsLen;
 	private int leftLen;
 	private int rightLen;
@@ -41,7 +44,7 @@ public class CharDiff {
 	}
 
 	public CharDiff diff() {
-		lcs = LongestCommonSubsequenceString.execute(left, right);
+		lcs = MyersDiff.longestCommonSubsequence(left, right);
 		updateLengths();
 
 		while (skipBurn || (lcsLen > 0 && leftLen > 0 && rightLen > 0)) {
@@ -49,16 +52,16 @@ public class CharDiff {
 		}
 		if (leftLen == 0 && rightLen == 0) return this;
 		if (leftLen == 0) {
-			out.append(marker.added(right));
+			out.append(marker.added(right.substring(rightPos)));
 			return this;
 		}
 		if (rightLen == 0) {
-			out.append(marker.removed(left));
+			out.append(marker.removed(left.substring(leftPos)));
 			return this;
 		}
 		if (lcsLen == 0) {
-			out.append(marker.removed(left));
-			out.append(marker.added(right));
+			out.append(marker.removed(left.substring(leftPos)));
+			out.append(marker.added(right.substring(rightPos)));
 			return this;
 		}
 
@@ -120,13 +123,9 @@ public class CharDiff {
 		if (leftLen == 0) return false;
 		if (rightLen == 0) return false;
 
-		chLcs = lcs.charAt(0);
-		chLeft = left.charAt(0);
-		chRight = right.charAt(0);
-
-		lcs = lcs.substring(1);
-		left = left.substring(1);
-		right = right.substring(1);
+		chLcs = lcs.charAt(lcsPos++);
+		chLeft = left.charAt(leftPos++);
+		chRight = right.charAt(rightPos++);
 
 		lcsLen--;
 		leftLen--;
@@ -138,9 +137,7 @@ public class CharDiff {
 	private boolean nextCharRight() {
 		if (rightLen == 0) return false;
 
-		chRight = right.charAt(0);
-
-		right = right.substring(1);
+		chRight = right.charAt(rightPos++);
 
 		rightLen--;
 
@@ -150,9 +147,7 @@ public class CharDiff {
 	private boolean nextCharLeft() {
 		if (leftLen == 0) return false;
 
-		chLeft = left.charAt(0);
-
-		left = left.substring(1);
+		chLeft = left.charAt(leftPos++);
 
 		leftLen--;
 
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.diff;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Longest common subsequence by Myers' O((N+M)D) difference algorithm in linear space: the middle snake of the
+ * shortest edit script is searched from both ends and both halves are solved recursively. Common prefixes and
+ * suffixes are trimmed before each step. Tokens are interned to int ids, so they are compared only once by
+ * <code>equals()</code>.
+ */
+public class MyersDiff {
+
+	private final int[] a;
+	private final int[] b;
+	private final boolean[] matched;
+
+	private final int[] forward;
+	private final int[] backward;
+	private final int center;
+
+	private int snakeStartX;
+	private int snakeStartY;
+	private int snakeEndX;
+	private int snakeEndY;
+
+	public static List<String> longestCommonSubsequence(List<String> a, List<String> b) {
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		String[] tokens = a.toArray(new String[a.size()]);
+		MyersDiff diff = new MyersDiff(intern(tokens, ids), intern(b.toArray(new String[b.size()]), ids));
+		diff.execute();
+		List<String> ret = new LinkedList<String>();
+		for (int i = 0; i < tokens.length; i++) {
+			if (diff.matched[i]) ret.add(tokens[i]);
+		}
+		return ret;
+	}
+
+	public static String longestCommonSubsequence(String a, String b) {
+		MyersDiff diff = new MyersDiff(toChars(a), toChars(b));
+		diff.execute();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < a.length(); i++) {
+			if (diff.matched[i]) sb.append(a.charAt(i));
+		}
+		return sb.toString();
+	}
+
+	private static int[] intern(String[] tokens, Map<String, Integer> ids) {
+		int[] ret = new int[tokens.length];
+		for (int i = 0; i < tokens.length; i++) {
+			Integer id = ids.get(tokens[i]);
+			if (id == null) {
+				id = ids.size();
+				ids.put(tokens[i], id);
+			}
+			ret[i] = id;
+		}
+		return ret;
+	}
+
+	private static int[] toChars(String s) {
+		int[] ret = new int[s.length()];
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = s.charAt(i);
+		}
+		return ret;
+	}
+
+	MyersDiff(int[] a, int[] b) {
+		this.a = a;
+		this.b = b;
+		this.matched = new boolean[a.length];
+		int total = a.length + b.length;
+		this.center = 2 * total + 2;
+		this.forward = new int[2 * center + 1];
+		this.backward = new int[2 * center + 1];
+	}
+
+	/**
+	 * Marks the elements of <code>a</code> which are part of the longest common subsequence.
+	 */
+	boolean[] execute() {
+		compare(0, a.length, 0, b.length);
+		return matched;
+	}
+
+	private void compare(int aStart, int aEnd, int bStart, int bEnd) {
+		while (aStart < aEnd && bStart < bEnd && a[aStart] == b[bStart]) {
+			matched[aStart] = true;
+			aStart++;
+			bStart++;
+		}
+		while (aStart < aEnd && bStart < bEnd && a[aEnd - 1] == b[bEnd - 1]) {
+			aEnd--;
+			bEnd--;
+			matched[aEnd] = true;
+		}
+		// without common prefix and suffix an edit distance below 2 leaves one side empty
+		if (aStart == aEnd || bStart == bEnd) return;
+
+		findMiddleSnake(aStart, aEnd, bStart, bEnd);
+		int startX = snakeStartX;
+		int startY = snakeStartY;
+		int endX = snakeEndX;
+		int endY = snakeEndY;
+
+		compare(aStart, startX, bStart, startY);
+		for (int x = startX; x < endX; x++) {
+			matched[x] = true;
+		}
+		compare(endX, aEnd, endY, bEnd);
+	}
+
+	/**
+	 * Extends furthest reaching D-paths from the top left (forward) and from the bottom right (backward) on
+	 * alternating turns until they overlap. Both arrays are indexed by the diagonal k = x - y relative to
+	 * <code>(aStart, bStart)</code>.
+	 */
+	private void findMiddleSnake(int aStart, int aEnd, int bStart, int bEnd) {
+		int n = aEnd - aStart;
+		int m = bEnd - bStart;
+		int delta = n - m;
+		boolean odd = (delta & 1) != 0;
+		int max = (n + m + 1) / 2;
+
+		forward[center + 1] = 0;
+		backward[center + delta - 1] = n;
+
+		for (int d = 0; d <= max; d++) {
+			for (int k = -d; k <= d; k += 2) {
+				int x;
+				if (k == -d || (k != d && forward[center + k - 1] < forward[center + k + 1])) {
+					x = forward[center + k + 1];
+				} else {
+					x = forward[center + k - 1] + 1;
+				}
+				int y = x - k;
+				int startX = x;
+				int startY = y;
+				while (x < n && y < m && a[aStart + x] == b[bStart + y]) {
+					x++;
+					y++;
+				}
+				forward[center + k] = x;
+				if (odd && k >= delta - (d - 1) && k <= delta + (d - 1) && x >= backward[center + k]) {
+					setSnake(aStart + startX, bStart + startY, aStart + x, bStart + y);
+					return;
+				}
+			}
+
+			for (int k = -d; k <= d; k += 2) {
+				int kk = k + delta;
+				int x;
+				if (k == d || (k != -d && backward[center + kk - 1] < backward[center + kk + 1])) {
+					x = backward[center + kk - 1];
+				} else {
+					x = backward[center + kk + 1] - 1;
+				}
+				int y = x - kk;
+				int endX = x;
+				int endY = y;
+				while (x > 0 && y > 0 && a[aStart + x - 1] == b[bStart + y - 1]) {
+					x--;
+					y--;
+				}
+				backward[center + kk] = x;
+				if (!odd && kk >= -d && kk <= d && x <= forward[center + kk]) {
+					setSnake(aStart + x, bStart + y, aStart + endX, bStart + endY);
+					return;
+				}
+			}
+		}
+		throw new IllegalStateException("Middle snake not found");
+	}
+
+	private void setSnake(int startX, int startY, int endX, int endY) {
+		snakeStartX = startX;
+		snakeStartY = startY;
+		snakeEndX = endX;
+		snakeEndY = endY;
+	}
+
+}
@@ -19,25 +19,64 @@ import ilarkesto.core.base.Str;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Logger with a level per logger. Levels are configured for categories: the full class name of a logger, its
+ * packages or its simple name. The most specific configured category wins, the root category <code>""</code> applies
+ * to all loggers. Messages below the level of a logger are discarded before a <code>LogRecord</code> is created.
+ */
 public class Log {
 
-	private static final Log ANONYMOUS = new Log("----- ANONYMOUS ----->");
+	public static final String ROOT_CATEGORY = "";
+
 	private static final Map<String, Log> LOGGERS = new HashMap<String, Log>();
+	private static final Map<String, Level> LEVELS = new HashMap<String, Level>();
 	private static boolean debugEnabled = true;
 	private static LogRecordHandler logRecordHandler = new PrintStreamLogRecordHandler(System.err);
 
-	private String name;
+	private static final Log ANONYMOUS = new Log("----- ANONYMOUS ----->");
+
+	private final String name;
+	private final String category;
+	private volatile Level level;
 
 	public Log(String name) {
+		this(name, name);
+	}
+
+	private Log(String name, String category) {
 		this.name = name;
+		this.category = category;
+		synchronized (LOGGERS) {
+			this.level = resolveLevel(name, category);
+		}
 	}
 
 	public void log(Level level, Object... parameters) {
+		if (level.compareTo(this.level) < 0) return;
 		if (logRecordHandler == null) return;
-		if (level.isDebug() && !isDebugEnabled()) return;
 		logRecordHandler.log(new LogRecord(System.currentTimeMillis(), name, level, parameters));
 	}
 
+	public boolean isEnabled(Level level) {
+		return level.compareTo(this.level) >= 0;
+	}
+
+	public boolean isInfoEnabled() {
+		return isEnabled(Level.INFO);
+	}
+
+	public Level getLevel() {
+		return level;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getCategory() {
+		return category;
+	}
+
 	/**
 	 * Logs an fatal error to the system admin. A fatal error indicates an error that prevents the system from
 	 * working at all.
@@ -73,7 +112,7 @@ public class Log {
 	 * @see #debug(Object[])
 	 */
 	public boolean isDebugEnabled() {
-		return debugEnabled;
+		return isEnabled(Level.DEBUG);
 	}
 
 	/**
@@ -82,7 +121,7 @@ public class Log {
 	 * @see #isDebugEnabled()
 	 */
 	public void debug(Object... s) {
-		if (!isDebugEnabled()) return;
+		if (Level.DEBUG.compareTo(level) < 0) return;
 		log(Level.DEBUG, s);
 	}
 
@@ -91,22 +130,33 @@ public class Log {
 	}
 
 	public static final Log get(Class type) {
-		return get(Str.getSimpleName(type));
+		return get(Str.getSimpleName(type), type.getName());
 	}
 
 	public static final Log get(String name) {
-		Log logger = LOGGERS.get(name);
-		if (logger == null) {
-			logger = new Log(name);
-			LOGGERS.put(name, logger);
-		}
-		return logger;
+		return get(name, name);
+	}
 
+	private static Log get(String name, String category) {
+		synchronized (LOGGERS) {
+			Log logger = LOGGERS.get(category);
+			if (logger == null) {
+				logger = new Log(name, category);
+				LOGGERS.put(category, logger);
+			}
+			return logger;
+		}
 	}
 
+	/**
+	 * Enables or disables debug messages for all loggers which have no configured level.
+	 */
 	public static void setDebugEnabled(boolean debugEnabled) {
 		if (Log.debugEnabled == debugEnabled) return;
-		Log.debugEnabled = debugEnabled;
+		synchronized (LOGGERS) {
+			Log.debugEnabled = debugEnabled;
+			updateLevels();
+		}
 		if (debugEnabled) {
 			Log.get(Log.class).info("Debug-logging enabled.");
 		} else {
@@ -114,6 +164,64 @@ public class Log {
 		}
 	}
 
+	/**
+	 * Configures the level of a category. A category is a full class name, a package, a simple class name or
+	 * <code>ROOT_CATEGORY</code>.
+	 *
+	 * @param level <code>null</code> to remove the configuration
+	 */
+	public static void setLevel(String category, Level level) {
+		synchronized (LOGGERS) {
+			if (level == null) {
+				LEVELS.remove(category);
+			} else {
+				LEVELS.put(category, level);
+			}
+			updateLevels();
+		}
+	}
+
+	/**
+	 * Replaces the whole level configuration, for example after reloading a configuration file.
+	 */
+	public static void setLevels(Map<String, Level> levelsByCategory) {
+		synchronized (LOGGERS) {
+			LEVELS.clear();
+			LEVELS.putAll(levelsByCategory);
+			updateLevels();
+		}
+	}
+
+	public static Map<String, Level> getLevels() {
+		synchronized (LOGGERS) {
+			return new HashMap<String, Level>(LEVELS);
+		}
+	}
+
+	private static void updateLevels() {
+		for (Log logger : LOGGERS.values()) {
+			logger.level = resolveLevel(logger.name, logger.category);
+		}
+		ANONYMOUS.level = resolveLevel(ANONYMOUS.name, ANONYMOUS.category);
+	}
+
+	private static Level resolveLevel(String name, String category) {
+		Level level = LEVELS.get(category);
+		if (level != null) return level;
+		level = LEVELS.get(name);
+		if (level != null) return level;
+		String parent = category;
+		int idx;
+		while ((idx = parent.lastIndexOf('.')) > 0) {
+			parent = parent.substring(0, idx);
+			level = LEVELS.get(parent);
+			if (level != null) return level;
+		}
+		level = LEVELS.get(ROOT_CATEGORY);
+		if (level != null) return level;
+		return debugEnabled ? Level.DEBUG : Level.INFO;
+	}
+
 	@Deprecated
 	public static void TEST(Object... s) {
 		ANONYMOUS.warn(s);
@@ -40,11 +40,15 @@ public class LogRecord {
 
 	@Override
 	public String toString() {
-		String nameFormated = Str.cutLeft(name, 20);
-		nameFormated = Str.fillUpRight(nameFormated, " ", 20);
-
-		StringBuilder sb = new StringBuilder();
+		StringBuilder sb = new StringBuilder(160);
+		appendTo(sb);
+		return sb.toString();
+	}
 
+	/**
+	 * Appends the formatted record to a buffer, without intermediate strings for the padded columns.
+	 */
+	public void appendTo(StringBuilder sb) {
 		// time
 		sb.append(new Date(time)).append(" ");
 
@@ -53,24 +57,30 @@ public class LogRecord {
 		if (level != Level.DEBUG) sb.append(level);
 
 		// logger
-		sb.append(" ").append(nameFormated);
+		sb.append(" ");
+		appendPadded(sb, Str.cutLeft(name, 20), 20);
 
 		// text
-		sb.append(getText());
+		appendPadded(sb, getParametersAsString(), 100);
 
 		// context
 		if (context != null) sb.append(" | ").append(context);
 
 		// extra line for high prio logs
 		if ((level != Level.DEBUG) && (level != Level.INFO)) sb.append('\n');
-
-		return sb.toString();
 	}
 
 	public String getText() {
 		return Str.fillUpRight(getParametersAsString(), " ", 100);
 	}
 
+	private static void appendPadded(StringBuilder sb, String s, int minLength) {
+		sb.append(s);
+		for (int i = s.length(); i < minLength; i++) {
+			sb.append(' ');
+		}
+	}
+
 	public String getParametersAsString() {
 		if (parameters == null) return " <null>";
 		return Str.formatMessage(parameters);
@@ -16,7 +16,6 @@ package ilarkesto.core.persistance;
 
 import ilarkesto.core.base.Str;
 import ilarkesto.core.base.Utl;
-import ilarkesto.core.base.Uuid;
 import ilarkesto.core.logging.Log;
 import ilarkesto.core.persistance.meta.EntityMetadata;
 
@@ -125,7 +124,7 @@ public abstract class ABaseEntity implements Entity, TransferableEntity {
 
 	@Override
 	public final String getId() {
-		if (id == null) id = Uuid.create();
+		if (id == null) id = EntityIdGenerators.generateId(getClass());
 		return id;
 	}
 
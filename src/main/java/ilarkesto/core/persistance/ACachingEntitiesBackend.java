@@ -14,6 +14,10 @@
  */
 package ilarkesto.core.persistance;
 
+import ilarkesto.core.search.SearchIndex;
+import ilarkesto.core.search.SearchText;
+import ilarkesto.core.search.Searchable;
+
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
@@ -21,34 +25,81 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-public abstract class ACachingEntitiesBackend extends AEntitiesBackend {
+public abstract class ACachingEntitiesBackend extends AEntitiesBackend implements ReferencesIndexProvider,
+		SearchIndexProvider {
 
 	protected EntitiesCache<AEntity> cache = new EntitiesCache<AEntity>();
 
+	private volatile boolean snapshotReads;
+
 	protected abstract void onUpdate(Collection<AEntity> entities, Collection<String> entityIds,
 			Map<String, Map<String, String>> modifiedPropertiesByEntityId, Runnable callback);
 
+	public synchronized void addIndex(EntityIndex<? extends AEntity> index) {
+		cache.addIndex(index);
+	}
+
+	public synchronized void enableReferencesIndex() {
+		if (cache.getReferencesIndex() != null) return;
+		cache.setReferencesIndex(new ReferencesIndex());
+	}
+
+	public synchronized void enableSearchIndex() {
+		if (cache.getSearchIndex() != null) return;
+		cache.setSearchIndex(new SearchIndex<Searchable>());
+	}
+
+	@Override
+	public synchronized List<Entity> search(SearchText searchText, Class type, int maxResults) {
+		if (cache.getSearchIndex() == null) return null;
+		return new ArrayList<Entity>(cache.search(searchText, type, maxResults));
+	}
+
+	/**
+	 * Lets reads by id, by type and by non-indexed queries work on the latest committed snapshot of the cache
+	 * without locking. Commits copy the id index and the modified type maps and publish them at once.
+	 */
+	public synchronized void enableSnapshotReads() {
+		cache.setCopyOnWrite(true);
+		snapshotReads = true;
+	}
+
+	@Override
+	public synchronized Set<String> getReferencingIds(String referencedId) {
+		ReferencesIndex referencesIndex = cache.getReferencesIndex();
+		if (referencesIndex == null) return null;
+		return referencesIndex.getReferencingIds(referencedId);
+	}
+
 	@Override
 	public synchronized void update(Collection<AEntity> modified, Collection<String> deletedIds,
 			Map<String, Map<String, String>> modifiedPropertiesByEntityId, Runnable callback) {
 		onUpdate(modified, deletedIds, modifiedPropertiesByEntityId, callback);
-		cache.addAll(modified);
-		cache.removeAll(deletedIds);
+		cache.update(modified, deletedIds);
 	}
 
 	@Override
-	public synchronized AEntity getById(String id) throws EntityDoesNotExistException {
-		return cache.getById(id);
+	public AEntity getById(String id) throws EntityDoesNotExistException {
+		if (snapshotReads) return cache.getById(id);
+		synchronized (this) {
+			return cache.getById(id);
+		}
 	}
 
 	@Override
-	public synchronized boolean containsWithId(String id) {
-		return cache.containsWithId(id);
+	public boolean containsWithId(String id) {
+		if (snapshotReads) return cache.containsWithId(id);
+		synchronized (this) {
+			return cache.containsWithId(id);
+		}
 	}
 
 	@Override
-	public synchronized Set<AEntity> getByIdsAsSet(Collection<String> ids) throws EntityDoesNotExistException {
-		return cache.getByIdsAsSet(ids);
+	public Set<AEntity> getByIdsAsSet(Collection<String> ids) throws EntityDoesNotExistException {
+		if (snapshotReads) return cache.getByIdsAsSet(ids);
+		synchronized (this) {
+			return cache.getByIdsAsSet(ids);
+		}
 	}
 
 	@Override
@@ -64,16 +115,27 @@ public abstract class ACachingEntitiesBackend extends AEntitiesBackend {
 
 	@Override
 	public AEntity findFirst(AEntityQuery query) {
+		if (query instanceof AIndexedEntityQuery || query instanceof SearchQuery) {
+			// indexes are not copy-on-write
+			synchronized (this) {
+				return cache.findFirst(query);
+			}
+		}
 		return cache.findFirst(query);
 	}
 
 	@Override
 	public Set<AEntity> findAllAsSet(AEntityQuery query) {
-		return cache.findAllAsSet(query);
+		return find(query, new HashSet<AEntity>());
 	}
 
 	@Override
 	public <C extends Collection<AEntity>> C find(AEntityQuery<AEntity> query, C resultCollection) {
+		if (query instanceof AIndexedEntityQuery || query instanceof SearchQuery) {
+			synchronized (this) {
+				return cache.find(query, resultCollection);
+			}
+		}
 		return cache.find(query, resultCollection);
 	}
 
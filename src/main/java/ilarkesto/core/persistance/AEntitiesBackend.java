@@ -35,6 +35,11 @@ public abstract class AEntitiesBackend implements EntitiesBackend<AEntity, Trans
 		return false;
 	}
 
+	/**
+	 * Writes changes which have been committed but not persisted yet. Called on shutdown.
+	 */
+	public void flush() {}
+
 	@Override
 	public boolean containsWithId(String id) {
 		try {
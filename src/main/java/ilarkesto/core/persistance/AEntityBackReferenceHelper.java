@@ -17,6 +17,7 @@ package ilarkesto.core.persistance;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 public abstract class AEntityBackReferenceHelper<E extends AEntity> {
 
@@ -24,6 +25,18 @@ public abstract class AEntityBackReferenceHelper<E extends AEntity> {
 
 	protected abstract E loadById(String id);
 
+	/**
+	 * Type of the referencing entities. Implement together with <code>isReferencing()</code> to resolve back
+	 * references through the references index of the backend instead of <code>loadById()</code>.
+	 */
+	protected Class<E> getType() {
+		return null;
+	}
+
+	protected boolean isReferencing(E entity, String id) {
+		return false;
+	}
+
 	public synchronized E getById(String id) {
 		// if (AEntityDatabase.instance.isPartial()) return loadById(id);
 		String cache = cachesById.get(id);
@@ -34,7 +47,7 @@ public abstract class AEntityBackReferenceHelper<E extends AEntity> {
 			} catch (EntityDoesNotExistException ex) {}
 		}
 
-		E entity = loadById(id);
+		E entity = loadByIdFromReferencesIndex(id);
 		if (entity == null) return null;
 		if (!Persistence.transactionManager.isTransactionWithChangesOpen()) {
 			cachesById.put(id, entity.getId());
@@ -42,6 +55,18 @@ public abstract class AEntityBackReferenceHelper<E extends AEntity> {
 		return entity;
 	}
 
+	private E loadByIdFromReferencesIndex(String id) {
+		Class<E> type = getType();
+		if (type == null) return loadById(id);
+		Set<Entity> referencingEntities = ATransaction.get().getReferencingEntities(id);
+		if (referencingEntities == null) return loadById(id);
+		for (Entity entity : referencingEntities) {
+			if (!AEntityQuery.isInstanceOf(entity.getClass(), type)) continue;
+			if (isReferencing((E) entity, id)) return (E) entity;
+		}
+		return null;
+	}
+
 	public synchronized void clear(String id) {
 		cachesById.remove(id);
 	}
@@ -16,6 +16,7 @@ package ilarkesto.core.persistance;
 
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -25,6 +26,18 @@ public abstract class AEntitySetBackReferenceHelper<E extends AEntity> {
 
 	protected abstract Set<E> loadById(String id);
 
+	/**
+	 * Type of the referencing entities. Implement together with <code>isReferencing()</code> to resolve back
+	 * references through the references index of the backend instead of <code>loadById()</code>.
+	 */
+	protected Class<E> getType() {
+		return null;
+	}
+
+	protected boolean isReferencing(E entity, String id) {
+		return false;
+	}
+
 	public synchronized Set<E> getById(String id) {
 		// if (AEntityDatabase.instance.isPartial()) return loadById(id);
 		Set<String> cache = cachesById.get(id);
@@ -37,13 +50,26 @@ public abstract class AEntitySetBackReferenceHelper<E extends AEntity> {
 			}
 		}
 
-		Set<E> entities = loadById(id);
+		Set<E> entities = loadByIdFromReferencesIndex(id);
 		if (!Persistence.transactionManager.isTransactionWithChangesOpen()) {
 			cachesById.put(id, Persistence.getIdsAsSet(entities));
 		}
 		return entities;
 	}
 
+	private Set<E> loadByIdFromReferencesIndex(String id) {
+		Class<E> type = getType();
+		if (type == null) return loadById(id);
+		Set<Entity> referencingEntities = ATransaction.get().getReferencingEntities(id);
+		if (referencingEntities == null) return loadById(id);
+		Set<E> ret = new HashSet<E>();
+		for (Entity entity : referencingEntities) {
+			if (!AEntityQuery.isInstanceOf(entity.getClass(), type)) continue;
+			if (isReferencing((E) entity, id)) ret.add((E) entity);
+		}
+		return ret;
+	}
+
 	public synchronized void clear(String id) {
 		cachesById.remove(id);
 	}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.persistance;
+
+import java.util.Collection;
+
+/**
+ * Query which can be answered from an <code>EntityIndex</code>. Caches without the index fall back to
+ * <code>test()</code>.
+ */
+public abstract class AIndexedEntityQuery<E extends Entity> extends AEntityQuery<E> {
+
+	protected final EntityIndex<E> index;
+
+	public AIndexedEntityQuery(EntityIndex<E> index) {
+		super();
+		this.index = index;
+	}
+
+	abstract <C extends Collection<E>> C findInIndex(EntityIndexStorage<E> storage, C resultCollection);
+
+	public final EntityIndex<E> getIndex() {
+		return index;
+	}
+
+	@Override
+	public Class<E> getType() {
+		return index.getType();
+	}
+
+}
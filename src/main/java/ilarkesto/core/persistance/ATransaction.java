@@ -18,6 +18,8 @@ import ilarkesto.core.base.Args;
 import ilarkesto.core.base.RuntimeTracker;
 import ilarkesto.core.base.Str;
 import ilarkesto.core.logging.Log;
+import ilarkesto.core.search.SearchText;
+import ilarkesto.core.search.Searchable;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -266,6 +268,60 @@ public abstract class ATransaction<E extends Entity> implements EntitiesProvider
 		return resultCollection;
 	}
 
+	/**
+	 * Provides entities which possibly reference the entity with the given id, or <code>null</code> if the backend
+	 * does not maintain a references index.
+	 */
+	public Set<E> getReferencingEntities(String referencedId) {
+		EntitiesBackend<E, ATransaction<E>> backend = getBackend();
+		if (!(backend instanceof ReferencesIndexProvider)) return null;
+		Set<String> referencingIds = ((ReferencesIndexProvider) backend).getReferencingIds(referencedId);
+		if (referencingIds == null) return null;
+
+		Set<E> ret = new HashSet<E>();
+		for (String id : referencingIds) {
+			if (deleted.contains(id)) continue;
+			try {
+				ret.add(getById(id));
+			} catch (EntityDoesNotExistException ex) {
+				continue;
+			}
+		}
+		for (E entity : modified.getAllAsList()) {
+			if (ReferencesIndex.isReferencing(entity, referencedId)) ret.add(entity);
+		}
+		return ret;
+	}
+
+	/**
+	 * Provides entities matching the search text from the search index of the backend, best matches first, or
+	 * <code>null</code> if the backend does not maintain a search index. Entities modified in this transaction are
+	 * tested directly and added after the indexed ones.
+	 */
+	public List<E> search(SearchText searchText, Class type, int maxResults) {
+		EntitiesBackend<E, ATransaction<E>> backend = getBackend();
+		if (!(backend instanceof SearchIndexProvider)) return null;
+		boolean unchanged = modified.isEmpty() && deleted.isEmpty();
+		List<Entity> found = ((SearchIndexProvider) backend).search(searchText, type, unchanged ? maxResults : 0);
+		if (found == null) return null;
+
+		List<E> ret = new ArrayList<E>();
+		Set<String> ids = new HashSet<String>();
+		for (Entity entity : found) {
+			String id = entity.getId();
+			if (deleted.contains(id) || modified.containsWithId(id)) continue;
+			ret.add((E) entity);
+			ids.add(id);
+		}
+		for (E entity : modified.getAllAsList()) {
+			if (type != null && !type.isAssignableFrom(entity.getClass())) continue;
+			if (!(entity instanceof Searchable) || !((Searchable) entity).matches(searchText)) continue;
+			ret.add(entity);
+		}
+		if (maxResults > 0 && ret.size() > maxResults) return new ArrayList<E>(ret.subList(0, maxResults));
+		return ret;
+	}
+
 	public void setIgnoreModificationEvents(boolean disabled) {
 		this.ignoreModificationEvents = disabled;
 	}
@@ -14,6 +14,12 @@
  */
 package ilarkesto.core.persistance;
 
+import ilarkesto.core.base.PersistentHashMap;
+import ilarkesto.core.fp.Predicate;
+import ilarkesto.core.search.SearchIndex;
+import ilarkesto.core.search.SearchText;
+import ilarkesto.core.search.Searchable;
+
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -23,13 +29,110 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+/**
+ * Entities by type and id, plus an index of all entities by id for lookups without knowing the type. In
+ * copy-on-write mode modified maps are replaced instead of changed, so reads work on a consistent snapshot without
+ * locking while a single writer is active. The id index and the per-type maps are persistent then, so a write costs
+ * O(log n) instead of copying the touched maps. Secondary indexes, the references index and the search index are not
+ * covered by this and need the lock of the writer.
+ */
 public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 
-	private Map<Class, Map<String, E>> entitiesByTypeById = new HashMap<Class, Map<String, E>>();
+	private volatile Map<Class, Map<String, E>> entitiesByTypeById = new HashMap<Class, Map<String, E>>();
+	private volatile Map<String, E> allEntitiesById = new HashMap<String, E>();
+	private boolean copyOnWrite;
+	private Map<EntityIndex, EntityIndexStorage> indexStorages = new HashMap<EntityIndex, EntityIndexStorage>();
+	private ReferencesIndex referencesIndex;
+	private SearchIndex<Searchable> searchIndex;
+
+	public void setReferencesIndex(ReferencesIndex referencesIndex) {
+		this.referencesIndex = referencesIndex;
+		if (referencesIndex == null) return;
+		referencesIndex.clear();
+		for (Map<String, E> entitiesById : entitiesByTypeById.values()) {
+			for (E entity : entitiesById.values()) {
+				referencesIndex.update(entity);
+			}
+		}
+	}
+
+	public ReferencesIndex getReferencesIndex() {
+		return referencesIndex;
+	}
+
+	public void setSearchIndex(SearchIndex<Searchable> searchIndex) {
+		this.searchIndex = searchIndex;
+		if (searchIndex == null) return;
+		searchIndex.clear();
+		for (E entity : allEntitiesById.values()) {
+			if (entity instanceof Searchable) searchIndex.update(entity.getId(), (Searchable) entity);
+		}
+	}
+
+	public SearchIndex<Searchable> getSearchIndex() {
+		return searchIndex;
+	}
+
+	/**
+	 * Entities of the given type matching the search text, best matches first. Requires the search index.
+	 */
+	public List<E> search(SearchText searchText, final Class type, int maxResults) {
+		List<Searchable> found = searchIndex.search(searchText, maxResults, type == null ? null
+				: new Predicate<Searchable>() {
+
+					@Override
+					public boolean test(Searchable e) {
+						return type.isAssignableFrom(e.getClass());
+					}
+				});
+		return (List<E>) (List) found;
+	}
+
+	/**
+	 * Not thread safe, needs the lock of the writer.
+	 */
+	public void setCopyOnWrite(boolean copyOnWrite) {
+		if (this.copyOnWrite == copyOnWrite) return;
+		this.copyOnWrite = copyOnWrite;
+		Map<Class, Map<String, E>> converted = new HashMap<Class, Map<String, E>>();
+		for (Entry<Class, Map<String, E>> entry : entitiesByTypeById.entrySet()) {
+			Map<String, E> entitiesById = entry.getValue();
+			converted.put(entry.getKey(), copyOnWrite ? PersistentHashMap.copyOf(entitiesById)
+					: new HashMap<String, E>(entitiesById));
+		}
+		entitiesByTypeById = converted;
+		allEntitiesById = copyOnWrite ? PersistentHashMap.copyOf(allEntitiesById) : new HashMap<String, E>(
+				allEntitiesById);
+	}
+
+	private Map<String, E> createMap() {
+		return copyOnWrite ? PersistentHashMap.<String, E> empty() : new HashMap<String, E>();
+	}
+
+	public boolean isCopyOnWrite() {
+		return copyOnWrite;
+	}
+
+	public void addIndex(EntityIndex<? extends E> index) {
+		if (indexStorages.containsKey(index)) return;
+		EntityIndexStorage storage = new EntityIndexStorage(index);
+		for (Entry<Class, Map<String, E>> entry : entitiesByTypeById.entrySet()) {
+			if (!index.testType(entry.getKey())) continue;
+			for (E entity : entry.getValue().values()) {
+				storage.add(entity);
+			}
+		}
+		indexStorages.put(index, storage);
+	}
+
+	public boolean containsIndex(EntityIndex index) {
+		return indexStorages.containsKey(index);
+	}
 
 	@Override
 	public <C extends Collection<E>> C getAll(C resultCollection) {
-		for (Map<String, E> entitiesById : entitiesByTypeById.values()) {
+		Map<Class, Map<String, E>> snapshot = entitiesByTypeById;
+		for (Map<String, E> entitiesById : snapshot.values()) {
 			resultCollection.addAll(entitiesById.values());
 		}
 		return resultCollection;
@@ -46,11 +149,7 @@ public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 	}
 
 	public Set<String> getAllIds() {
-		Set<String> ret = new HashSet<String>();
-		for (Map<String, E> entitiesById : entitiesByTypeById.values()) {
-			ret.addAll(entitiesById.keySet());
-		}
-		return ret;
+		return new HashSet<String>(allEntitiesById.keySet());
 	}
 
 	public Set<E> findAllAsSet(AEntityQuery query) {
@@ -59,7 +158,13 @@ public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 
 	@Override
 	public <C extends Collection<E>> C find(AEntityQuery<E> query, C resultCollection) {
-		for (Entry<Class, Map<String, E>> entry : entitiesByTypeById.entrySet()) {
+		EntityIndexStorage<E> indexStorage = getIndexStorage(query);
+		if (indexStorage != null) return ((AIndexedEntityQuery<E>) query).findInIndex(indexStorage, resultCollection);
+		if (searchIndex != null && query instanceof SearchQuery)
+			return (C) ((SearchQuery) query).findInIndex(searchIndex, (Collection) resultCollection);
+
+		Map<Class, Map<String, E>> snapshot = entitiesByTypeById;
+		for (Entry<Class, Map<String, E>> entry : snapshot.entrySet()) {
 			if (!query.testType(entry.getKey())) continue;
 
 			Map<String, E> entitiesById = entry.getValue();
@@ -77,7 +182,14 @@ public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 
 	@Override
 	public E findFirst(AEntityQuery query) {
-		for (Entry<Class, Map<String, E>> entry : entitiesByTypeById.entrySet()) {
+		EntityIndexStorage<E> indexStorage = getIndexStorage(query);
+		if (indexStorage != null) {
+			List<E> result = ((AIndexedEntityQuery<E>) query).findInIndex(indexStorage, new ArrayList<E>());
+			return result.isEmpty() ? null : result.get(0);
+		}
+
+		Map<Class, Map<String, E>> snapshot = entitiesByTypeById;
+		for (Entry<Class, Map<String, E>> entry : snapshot.entrySet()) {
 			if (!query.testType(entry.getKey())) continue;
 
 			Map<String, E> entitiesById = entry.getValue();
@@ -90,53 +202,66 @@ public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 	}
 
 	public void add(E entity) {
-		Class type = entity.getClass();
-		Map<String, E> entitiesById = entitiesByTypeById.get(type);
-		if (entitiesById == null) {
-			entitiesById = new HashMap<String, E>();
-			entitiesByTypeById.put(type, entitiesById);
-		}
-		entitiesById.put(entity.getId(), entity);
+		Modification modification = new Modification();
+		modification.put(entity);
+		modification.publish();
 	}
 
 	public void addAll(Collection<E> entities) {
-		if (entities == null) return;
-		for (E entity : entities) {
-			add(entity);
-		}
+		update(entities, null);
 	}
 
 	public E remove(String entityId) {
 		if (entityId == null) return null;
-		for (Map<String, E> entitiesById : entitiesByTypeById.values()) {
-			E removed = entitiesById.remove(entityId);
-			if (removed != null) return removed;
+		Modification modification = new Modification();
+		E removed = modification.delete(entityId);
+		modification.publish();
+		return removed;
+	}
+
+	/**
+	 * Adds and removes entities. In copy-on-write mode all changes become visible at once.
+	 */
+	public void update(Collection<E> added, Collection<String> removedIds) {
+		if ((added == null || added.isEmpty()) && (removedIds == null || removedIds.isEmpty())) return;
+		Modification modification = new Modification();
+		if (added != null) {
+			for (E entity : added) {
+				modification.put(entity);
+			}
 		}
-		return null;
+		if (removedIds != null) {
+			for (String id : removedIds) {
+				if (id != null) modification.delete(id);
+			}
+		}
+		modification.publish();
 	}
 
-	public void removeAll(Collection<String> ids) {
-		if (ids == null) return;
-		for (String id : ids) {
-			remove(id);
+	private void removeFromIndexes(String entityId) {
+		if (indexStorages.isEmpty()) return;
+		for (EntityIndexStorage indexStorage : indexStorages.values()) {
+			indexStorage.remove(entityId);
 		}
 	}
 
+	private EntityIndexStorage<E> getIndexStorage(AEntityQuery query) {
+		if (!(query instanceof AIndexedEntityQuery)) return null;
+		return indexStorages.get(((AIndexedEntityQuery) query).getIndex());
+	}
+
+	public void removeAll(Collection<String> ids) {
+		update(null, ids);
+	}
+
 	@Override
 	public boolean containsWithId(String id) {
-		for (Map<String, E> entitiesById : entitiesByTypeById.values()) {
-			if (entitiesById.containsKey(id)) return true;
-		}
-		return false;
+		return allEntitiesById.containsKey(id);
 	}
 
 	@Override
 	public E getById(String id) throws EntityDoesNotExistException {
-		E entity = null;
-		for (Map<String, E> entitiesById : entitiesByTypeById.values()) {
-			entity = entitiesById.get(id);
-			if (entity != null) break;
-		}
+		E entity = allEntitiesById.get(id);
 		if (entity == null) throw new EntityDoesNotExistException(id);
 		return entity;
 	}
@@ -154,35 +279,100 @@ public class EntitiesCache<E extends Entity> implements EntitiesProvider<E> {
 	@Override
 	public <C extends Collection<E>> C getByIds(Collection<String> ids, C resultContainer)
 			throws EntityDoesNotExistException {
+		Map<String, E> snapshot = allEntitiesById;
 		for (String id : ids) {
-			resultContainer.add(getById(id));
+			E entity = snapshot.get(id);
+			if (entity == null) throw new EntityDoesNotExistException(id);
+			resultContainer.add(entity);
 		}
 		return resultContainer;
 	}
 
 	public int size() {
-		int sum = 0;
-		for (Map<String, E> entitiesById : entitiesByTypeById.values()) {
-			sum += entitiesById.size();
-		}
-		return sum;
+		return allEntitiesById.size();
 	}
 
 	public boolean isEmpty() {
-		for (Map<String, E> entitiesById : entitiesByTypeById.values()) {
-			if (!entitiesById.isEmpty()) return false;
-		}
-		return true;
+		return allEntitiesById.isEmpty();
 	}
 
 	public final Map<Class, Integer> countEntities() {
 		Map<Class, Integer> countsByType = new HashMap<Class, Integer>();
 
-		for (Entry<Class, Map<String, E>> entry : entitiesByTypeById.entrySet()) {
+		Map<Class, Map<String, E>> snapshot = entitiesByTypeById;
+		for (Entry<Class, Map<String, E>> entry : snapshot.entrySet()) {
 			countsByType.put(entry.getKey(), entry.getValue().size());
 		}
 
 		return countsByType;
 	}
 
+	/**
+	 * Changes of a single write operation. In copy-on-write mode it works on a copy of the type map (one entry per
+	 * type). The id index and the per-type maps are <code>PersistentHashMap</code>s then, so changing them does not
+	 * copy any entities. The new maps replace the current maps on <code>publish()</code>.
+	 */
+	private class Modification {
+
+		private Map<Class, Map<String, E>> byTypeById;
+		private Map<String, E> byId;
+
+		public Modification() {
+			byTypeById = copyOnWrite ? new HashMap<Class, Map<String, E>>(entitiesByTypeById) : entitiesByTypeById;
+			byId = allEntitiesById;
+		}
+
+		void put(E entity) {
+			String id = entity.getId();
+			E previous = byId.get(id);
+			byId = put(byId, id, entity);
+			if (previous != null && previous.getClass() != entity.getClass()) removeFromType(previous.getClass(), id);
+			Class type = entity.getClass();
+			Map<String, E> entitiesById = byTypeById.get(type);
+			if (entitiesById == null) entitiesById = createMap();
+			byTypeById.put(type, put(entitiesById, id, entity));
+
+			if (referencesIndex != null) referencesIndex.update(entity);
+			if (searchIndex != null && entity instanceof Searchable) searchIndex.update(id, (Searchable) entity);
+			if (indexStorages.isEmpty()) return;
+			for (EntityIndexStorage indexStorage : indexStorages.values()) {
+				indexStorage.add(entity);
+			}
+		}
+
+		E delete(String entityId) {
+			E removed = byId.get(entityId);
+			if (removed == null) return null;
+			byId = remove(byId, entityId);
+			removeFromType(removed.getClass(), entityId);
+			if (referencesIndex != null) referencesIndex.remove(entityId);
+			if (searchIndex != null) searchIndex.remove(entityId);
+			removeFromIndexes(entityId);
+			return removed;
+		}
+
+		void publish() {
+			entitiesByTypeById = byTypeById;
+			allEntitiesById = byId;
+		}
+
+		private void removeFromType(Class type, String id) {
+			Map<String, E> entitiesById = byTypeById.get(type);
+			if (entitiesById != null) byTypeById.put(type, remove(entitiesById, id));
+		}
+
+		private Map<String, E> put(Map<String, E> map, String id, E entity) {
+			if (map instanceof PersistentHashMap) return ((PersistentHashMap<String, E>) map).with(id, entity);
+			map.put(id, entity);
+			return map;
+		}
+
+		private Map<String, E> remove(Map<String, E> map, String id) {
+			if (map instanceof PersistentHashMap) return ((PersistentHashMap<String, E>) map).without(id);
+			map.remove(id);
+			return map;
+		}
+
+	}
+
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.persistance;
+
+import ilarkesto.core.base.IdGenerator;
+import ilarkesto.core.base.RandomIdGenerator;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Generators for the ids of new entities, selectable per entity type. A generator registered for a type is used for
+ * its subtypes too. Lookups do not lock, registrations replace the whole map.
+ */
+public class EntityIdGenerators {
+
+	private static volatile IdGenerator defaultGenerator = new RandomIdGenerator();
+	private static volatile Map<Class, IdGenerator> generatorsByType = Collections.emptyMap();
+
+	public static String generateId(Class<? extends Entity> type) {
+		return get(type).generateId();
+	}
+
+	public static IdGenerator get(Class<? extends Entity> type) {
+		Map<Class, IdGenerator> generators = generatorsByType;
+		if (!generators.isEmpty()) {
+			Class t = type;
+			while (t != null) {
+				IdGenerator generator = generators.get(t);
+				if (generator != null) return generator;
+				t = t.getSuperclass();
+			}
+		}
+		return defaultGenerator;
+	}
+
+	/**
+	 * Registers the generator for the type and its subtypes. <code>null</code> removes the registration.
+	 */
+	public static synchronized void set(Class<? extends Entity> type, IdGenerator generator) {
+		Map<Class, IdGenerator> generators = new HashMap<Class, IdGenerator>(generatorsByType);
+		if (generator == null) {
+			generators.remove(type);
+		} else {
+			generators.put(type, generator);
+		}
+		generatorsByType = generators;
+	}
+
+	public static void setDefault(IdGenerator generator) {
+		if (generator == null) throw new IllegalArgumentException("generator == null");
+		defaultGenerator = generator;
+	}
+
+	public static IdGenerator getDefault() {
+		return defaultGenerator;
+	}
+
+}
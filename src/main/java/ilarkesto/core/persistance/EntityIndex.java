@@ -0,0 +1,68 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.persistance;
+
+import ilarkesto.core.base.Utl;
+
+/**
+ * Declaration of a secondary index on a property of entities of a type (including subtypes). Register it with
+ * <code>EntitiesCache.addIndex()</code> and query it with <code>IndexQuery</code> or <code>IndexRangeQuery</code>.
+ * Sorted indexes require the keys to be <code>Comparable</code>.
+ */
+public abstract class EntityIndex<E extends Entity> {
+
+	private String name;
+	private Class<E> type;
+	private boolean sorted;
+
+	public EntityIndex(String name, Class<E> type, boolean sorted) {
+		super();
+		this.name = name;
+		this.type = type;
+		this.sorted = sorted;
+	}
+
+	public abstract Object getKey(E entity);
+
+	public boolean testType(Class typeToTest) {
+		return AEntityQuery.isInstanceOf(typeToTest, type);
+	}
+
+	public final String getName() {
+		return name;
+	}
+
+	public final Class<E> getType() {
+		return type;
+	}
+
+	public final boolean isSorted() {
+		return sorted;
+	}
+
+	public IndexQuery<E> query(Object key) {
+		return new IndexQuery<E>(this, key);
+	}
+
+	public IndexRangeQuery<E> queryRange(Comparable fromKey, Comparable toKey) {
+		return new IndexRangeQuery<E>(this, fromKey, toKey);
+	}
+
+	@Override
+	public String toString() {
+		return Utl.getSimpleName(type) + "." + name + (sorted ? " (sorted)" : "");
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.persistance;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Index data of an <code>EntityIndex</code> within an <code>EntitiesCache</code>. Keys are remembered per entity
+ * id, so an entity which is added again after modification gets moved to its new key. Entities modified in place
+ * since they were added may still sit under their old key, so results are verified with the query.
+ */
+final class EntityIndexStorage<E extends Entity> {
+
+	private EntityIndex<E> index;
+	private Map<Object, Map<String, E>> entitiesByKey;
+	private Map<String, E> entitiesWithNullKey = new HashMap<String, E>();
+	private Map<String, Object> keysById = new HashMap<String, Object>();
+
+	EntityIndexStorage(EntityIndex<E> index) {
+		super();
+		this.index = index;
+		if (index.isSorted()) {
+			entitiesByKey = new TreeMap<Object, Map<String, E>>();
+		} else {
+			entitiesByKey = new HashMap<Object, Map<String, E>>();
+		}
+	}
+
+	void add(E entity) {
+		if (!index.testType(entity.getClass())) return;
+		String id = entity.getId();
+		remove(id);
+
+		Object key = index.getKey(entity);
+		keysById.put(id, key);
+		if (key == null) {
+			entitiesWithNullKey.put(id, entity);
+			return;
+		}
+		Map<String, E> entitiesById = entitiesByKey.get(key);
+		if (entitiesById == null) {
+			entitiesById = new HashMap<String, E>(4);
+			entitiesByKey.put(key, entitiesById);
+		}
+		entitiesById.put(id, entity);
+	}
+
+	void remove(String id) {
+		if (!keysById.containsKey(id)) return;
+		Object key = keysById.remove(id);
+		if (key == null) {
+			entitiesWithNullKey.remove(id);
+			return;
+		}
+		Map<String, E> entitiesById = entitiesByKey.get(key);
+		if (entitiesById == null) return;
+		entitiesById.remove(id);
+		if (entitiesById.isEmpty()) entitiesByKey.remove(key);
+	}
+
+	<C extends Collection<E>> C find(Object key, AEntityQuery<E> query, C resultCollection) {
+		Map<String, E> entitiesById = key == null ? entitiesWithNullKey : entitiesByKey.get(key);
+		if (entitiesById == null) return resultCollection;
+		addMatching(entitiesById, query, resultCollection);
+		return resultCollection;
+	}
+
+	<C extends Collection<E>> C findRange(Comparable fromKey, Comparable toKey, AEntityQuery<E> query,
+			C resultCollection) {
+		SortedMap<Object, Map<String, E>> sortedEntities = (SortedMap<Object, Map<String, E>>) entitiesByKey;
+		if (fromKey != null && toKey != null) {
+			if (fromKey.compareTo(toKey) >= 0) return resultCollection;
+			sortedEntities = sortedEntities.subMap(fromKey, toKey);
+		} else if (fromKey != null) {
+			sortedEntities = sortedEntities.tailMap(fromKey);
+		} else if (toKey != null) {
+			sortedEntities = sortedEntities.headMap(toKey);
+		}
+		for (Map<String, E> entitiesById : sortedEntities.values()) {
+			addMatching(entitiesById, query, resultCollection);
+		}
+		return resultCollection;
+	}
+
+	private void addMatching(Map<String, E> entitiesById, AEntityQuery<E> query, Collection<E> resultCollection) {
+		for (E entity : entitiesById.values()) {
+			if (query.test(entity)) resultCollection.add(entity);
+		}
+	}
+
+	EntityIndex<E> getIndex() {
+		return index;
+	}
+
+	int getKeyCount() {
+		return entitiesByKey.size();
+	}
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.persistance;
+
+import ilarkesto.core.base.Utl;
+
+import java.util.Collection;
+
+public final class IndexQuery<E extends Entity> extends AIndexedEntityQuery<E> {
+
+	private Object key;
+
+	public IndexQuery(EntityIndex<E> index, Object key) {
+		super(index);
+		this.key = key;
+	}
+
+	@Override
+	public boolean test(E entity) {
+		return Utl.equals(key, index.getKey(entity));
+	}
+
+	@Override
+	<C extends Collection<E>> C findInIndex(EntityIndexStorage<E> storage, C resultCollection) {
+		return storage.find(key, this, resultCollection);
+	}
+
+	public Object getKey() {
+		return key;
+	}
+
+	@Override
+	public String toString() {
+		return "IndexQuery(" + index + " = " + key + ")";
+	}
+
+}
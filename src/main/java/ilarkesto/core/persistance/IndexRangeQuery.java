@@ -0,0 +1,54 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.persistance;
+
+import java.util.Collection;
+
+/**
+ * Finds entities with index keys from <code>fromKey</code> (inclusive) to <code>toKey</code> (exclusive). A
+ * <code>null</code> bound is open. Entities with <code>null</code> keys never match.
+ */
+public final class IndexRangeQuery<E extends Entity> extends AIndexedEntityQuery<E> {
+
+	private Comparable fromKey;
+	private Comparable toKey;
+
+	public IndexRangeQuery(EntityIndex<E> index, Comparable fromKey, Comparable toKey) {
+		super(index);
+		if (!index.isSorted()) throw new IllegalArgumentException("Range query on unsorted index: " + index);
+		this.fromKey = fromKey;
+		this.toKey = toKey;
+	}
+
+	@Override
+	public boolean test(E entity) {
+		Comparable key = (Comparable) index.getKey(entity);
+		if (key == null) return false;
+		if (fromKey != null && key.compareTo(fromKey) < 0) return false;
+		if (toKey != null && key.compareTo(toKey) >= 0) return false;
+		return true;
+	}
+
+	@Override
+	<C extends Collection<E>> C findInIndex(EntityIndexStorage<E> storage, C resultCollection) {
+		return storage.findRange(fromKey, toKey, this, resultCollection);
+	}
+
+	@Override
+	public String toString() {
+		return "IndexRangeQuery(" + index + " in [" + fromKey + ", " + toKey + "))";
+	}
+
+}
@@ -27,8 +27,8 @@ import ilarkesto.core.time.TimePeriod;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -39,7 +39,9 @@ public class Persistence {
 
 	public static EntitiesBackend backend;
 	public static ATransactionManager transactionManager;
-	public static Map<String, ValuesCache> valuesCachesById = new HashMap<String, ValuesCache>();
+	private static final int MAX_VALUES_CACHES = 10000;
+	private static final Object VALUES_CACHES_LOCK = new Object();
+	public static Map<String, ValuesCache> valuesCachesById = createValuesCachesMap();
 
 	public static void initialize(EntitiesBackend backend, ATransactionManager transactionManager) {
 		Persistence.backend = backend;
@@ -83,16 +85,35 @@ public class Persistence {
 	}
 
 	static ValuesCache getValuesCache(String id) {
-		ValuesCache cache = valuesCachesById.get(id);
-		if (cache == null) {
-			cache = new ValuesCache();
-			valuesCachesById.put(id, cache);
+		synchronized (VALUES_CACHES_LOCK) {
+			ValuesCache cache = valuesCachesById.get(id);
+			if (cache == null) {
+				cache = new ValuesCache();
+				valuesCachesById.put(id, cache);
+			}
+			return cache;
 		}
-		return cache;
 	}
 
+	/**
+	 * Drops the values caches of all entities. Replaces the map instead of clearing it, since this is called on
+	 * every modification.
+	 */
 	public static void clearCaches() {
-		valuesCachesById.clear();
+		synchronized (VALUES_CACHES_LOCK) {
+			if (valuesCachesById.isEmpty()) return;
+			valuesCachesById = createValuesCachesMap();
+		}
+	}
+
+	private static Map<String, ValuesCache> createValuesCachesMap() {
+		return new LinkedHashMap<String, ValuesCache>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, ValuesCache> eldest) {
+				return size() > MAX_VALUES_CACHES;
+			}
+		};
 	}
 
 	public static int parsePropertyint(String value) {
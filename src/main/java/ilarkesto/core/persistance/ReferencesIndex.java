@@ -0,0 +1,92 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.persistance;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reverse references (referenced id -> referencing ids) of entities. References are taken from the properties map
+ * of an entity: <code>xxxId</code> and <code>xxxIds</code> properties. Properties which only look like
+ * references are indexed too, so the index may provide more referencing ids than there are real references, but
+ * never less.
+ */
+public class ReferencesIndex {
+
+	private Map<String, Set<String>> referencingIdsByReferencedId = new HashMap<String, Set<String>>();
+	private Map<String, Set<String>> referencedIdsByReferencingId = new HashMap<String, Set<String>>();
+
+	public void update(Entity entity) {
+		String id = entity.getId();
+		remove(id);
+
+		Set<String> referencedIds = getReferencedIds(entity.createPropertiesMap());
+		if (referencedIds.isEmpty()) return;
+		referencedIdsByReferencingId.put(id, referencedIds);
+		for (String referencedId : referencedIds) {
+			Set<String> referencingIds = referencingIdsByReferencedId.get(referencedId);
+			if (referencingIds == null) {
+				referencingIds = new HashSet<String>(4);
+				referencingIdsByReferencedId.put(referencedId, referencingIds);
+			}
+			referencingIds.add(id);
+		}
+	}
+
+	public void remove(String referencingId) {
+		Set<String> referencedIds = referencedIdsByReferencingId.remove(referencingId);
+		if (referencedIds == null) return;
+		for (String referencedId : referencedIds) {
+			Set<String> referencingIds = referencingIdsByReferencedId.get(referencedId);
+			if (referencingIds == null) continue;
+			referencingIds.remove(referencingId);
+			if (referencingIds.isEmpty()) referencingIdsByReferencedId.remove(referencedId);
+		}
+	}
+
+	public Set<String> getReferencingIds(String referencedId) {
+		Set<String> referencingIds = referencingIdsByReferencedId.get(referencedId);
+		if (referencingIds == null) return Collections.emptySet();
+		return new HashSet<String>(referencingIds);
+	}
+
+	public void clear() {
+		referencingIdsByReferencedId.clear();
+		referencedIdsByReferencingId.clear();
+	}
+
+	public static boolean isReferencing(Entity entity, String referencedId) {
+		return getReferencedIds(entity.createPropertiesMap()).contains(referencedId);
+	}
+
+	public static Set<String> getReferencedIds(Map<String, String> properties) {
+		Set<String> ret = new HashSet<String>();
+		for (Map.Entry<String, String> entry : properties.entrySet()) {
+			String value = entry.getValue();
+			if (value == null) continue;
+			String name = entry.getKey();
+			if (name.endsWith("Ids")) {
+				ret.addAll(Persistence.parsePropertyReferenceSet(value));
+			} else if (name.endsWith("Id")) {
+				ret.add(value);
+			}
+		}
+		return ret;
+	}
+
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.persistance;
+
+import ilarkesto.core.search.SearchText;
+
+import java.util.List;
+
+public interface SearchIndexProvider {
+
+	/**
+	 * Provides committed entities of the given type matching the search text, best matches first, or
+	 * <code>null</code> if no search index is maintained.
+	 *
+	 * @param type <code>null</code> for all types
+	 * @param maxResults <code>0</code> for unlimited
+	 */
+	List<Entity> search(SearchText searchText, Class type, int maxResults);
+
+}
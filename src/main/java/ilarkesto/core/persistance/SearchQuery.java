@@ -14,21 +14,58 @@
  */
 package ilarkesto.core.persistance;
 
+import ilarkesto.core.fp.Predicate;
+import ilarkesto.core.search.SearchIndex;
 import ilarkesto.core.search.SearchText;
+import ilarkesto.core.search.Searchable;
 
 import java.util.ArrayList;
 import java.util.Collection;
 
+/**
+ * Entities matching a search text. Caches with a search index answer it from the index, ranked and limited to
+ * <code>maxResults</code>. Without an index all entities are tested and the limit is not applied.
+ */
 public class SearchQuery extends AEntityQuery<AEntity> {
 
 	private SearchText searchText;
+	private int maxResults;
 
 	private Collection<Class> types;
 	private Collection<Class> excludedTypes;
 
 	public SearchQuery(String text) {
+		this(new SearchText(text));
+	}
+
+	public SearchQuery(SearchText searchText) {
 		super();
-		this.searchText = new SearchText(text);
+		this.searchText = searchText;
+	}
+
+	<C extends Collection<AEntity>> C findInIndex(SearchIndex<Searchable> index, C resultCollection) {
+		for (Searchable searchable : index.search(searchText, maxResults, new Predicate<Searchable>() {
+
+			@Override
+			public boolean test(Searchable e) {
+				return e instanceof AEntity && acceptType((AEntity) e);
+			}
+		})) {
+			resultCollection.add((AEntity) searchable);
+		}
+		return resultCollection;
+	}
+
+	/**
+	 * @param maxResults <code>0</code> for unlimited
+	 */
+	public SearchQuery setMaxResults(int maxResults) {
+		this.maxResults = maxResults;
+		return this;
+	}
+
+	public SearchText getSearchText() {
+		return searchText;
 	}
 
 	@Override
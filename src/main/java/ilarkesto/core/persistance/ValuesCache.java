@@ -14,35 +14,91 @@
  */
 package ilarkesto.core.persistance;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
+/**
+ * Computed values of an entity. Keys are the name of the value and its parameters, entities as parameters are
+ * represented by their ids. Holds the most recently used values only.
+ * <p>
+ * Parameters are compared with <code>equals()</code>, arrays by their elements. Parameters without value equality,
+ * like ad-hoc objects which do not override <code>equals()</code>, never hit a cached value.
+ */
 public class ValuesCache {
 
-	private Map<String, Object> valuesByKey = new HashMap<String, Object>();
+	private static final int MAX_SIZE = 256;
+
+	private Map<Key, Object> valuesByKey = new LinkedHashMap<Key, Object>(16, 0.75f, true) {
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+			return size() > MAX_SIZE;
+		}
+	};
+
+	private int hitCount;
+	private int missCount;
 
-	public Object get(String name, Object... keyParts) {
-		String key = createKey(name, keyParts);
-		return valuesByKey.get(key);
+	public synchronized Object get(String name, Object... keyParts) {
+		Object value = valuesByKey.get(new Key(name, keyParts));
+		if (value == null) {
+			missCount++;
+		} else {
+			hitCount++;
+		}
+		return value;
 	}
 
-	public <T> T put(T value, String name, Object... keyParts) {
-		String key = createKey(name, keyParts);
-		valuesByKey.put(key, value);
+	public synchronized <T> T put(T value, String name, Object... keyParts) {
+		valuesByKey.put(new Key(name, keyParts), value);
 		return value;
 	}
 
-	private String createKey(String name, Object... keyParts) {
-		StringBuilder sb = new StringBuilder();
-		sb.append(name);
-		for (Object keyPart : keyParts) {
-			if (keyPart instanceof AEntity) {
-				sb.append(((AEntity) keyPart).getId());
-			} else {
-				sb.append(keyPart);
+	public synchronized void clear() {
+		valuesByKey.clear();
+	}
+
+	public synchronized int size() {
+		return valuesByKey.size();
+	}
+
+	public synchronized int getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized int getMissCount() {
+		return missCount;
+	}
+
+	private static final class Key {
+
+		private final String name;
+		private final Object[] parts;
+		private final int hashCode;
+
+		private Key(String name, Object[] keyParts) {
+			this.name = name;
+			this.parts = new Object[keyParts.length];
+			for (int i = 0; i < keyParts.length; i++) {
+				Object keyPart = keyParts[i];
+				parts[i] = keyPart instanceof AEntity ? ((AEntity) keyPart).getId() : keyPart;
 			}
+			this.hashCode = name.hashCode() * 31 + Arrays.deepHashCode(parts);
 		}
-		return sb.toString();
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) return false;
+			Key other = (Key) obj;
+			return hashCode == other.hashCode && name.equals(other.name) && Arrays.deepEquals(parts, other.parts);
+		}
+
 	}
 
 }
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.search;
+
+import ilarkesto.core.fp.Predicate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Inverted index of the searchable values of objects. The values are collected by calling
+ * <code>Searchable.matches()</code> with a recording <code>SearchText</code>. They are split into lowercase tokens,
+ * which are mapped to the ids of the objects.
+ * <p>
+ * A search looks up the tokens which contain the words of the search text instead of checking every object. Results
+ * are verified with <code>matches()</code>, so they are the same as with a full scan, and ranked: exact tokens
+ * before token prefixes before other substrings. Not thread safe.
+ * <p>
+ * Exact and prefix matches are found in the sorted token map. For substrings every token is additionally indexed by
+ * its n-grams of up to three characters, which costs about three map entries per token character. Words up to
+ * that length are looked up directly, longer words only check the tokens of their rarest trigram.
+ */
+public class SearchIndex<T extends Searchable> {
+
+	private static final int SCORE_EXACT = 3;
+	private static final int SCORE_PREFIX = 2;
+	private static final int SCORE_CONTAINS = 1;
+	private static final int GRAM_LENGTH = 3;
+	private static final ScoreComparator SCORE_COMPARATOR = new ScoreComparator();
+
+	private TreeMap<String, Set<String>> idsByToken = new TreeMap<String, Set<String>>();
+	private Map<String, Set<String>> tokensByGram = new HashMap<String, Set<String>>();
+	private Map<String, String[]> tokensById = new HashMap<String, String[]>();
+	private Map<String, T> itemsById = new HashMap<String, T>();
+
+	public void update(String id, T item) {
+		remove(id);
+		itemsById.put(id, item);
+
+		Set<String> tokens = new LinkedHashSet<String>();
+		for (Object value : collectValues(item)) {
+			tokenize(value.toString().toLowerCase(), tokens);
+		}
+		if (tokens.isEmpty()) return;
+		tokensById.put(id, tokens.toArray(new String[tokens.size()]));
+		for (String token : tokens) {
+			Set<String> ids = idsByToken.get(token);
+			if (ids == null) {
+				ids = new HashSet<String>(4);
+				idsByToken.put(token, ids);
+				addGrams(token);
+			}
+			ids.add(id);
+		}
+	}
+
+	public void remove(String id) {
+		if (itemsById.remove(id) == null) return;
+		String[] tokens = tokensById.remove(id);
+		if (tokens == null) return;
+		for (String token : tokens) {
+			Set<String> ids = idsByToken.get(token);
+			if (ids == null) continue;
+			ids.remove(id);
+			if (ids.isEmpty()) {
+				idsByToken.remove(token);
+				removeGrams(token);
+			}
+		}
+	}
+
+	public void clear() {
+		idsByToken.clear();
+		tokensByGram.clear();
+		tokensById.clear();
+		itemsById.clear();
+	}
+
+	public int size() {
+		return itemsById.size();
+	}
+
+	public int getTokenCount() {
+		return idsByToken.size();
+	}
+
+	int getGramCount() {
+		return tokensByGram.size();
+	}
+
+	/**
+	 * @param maxResults <code>0</code> for unlimited
+	 * @param filter optional, applied before limiting the results
+	 * @return matching objects, best matches first
+	 */
+	public List<T> search(SearchText searchText, int maxResults, Predicate<T> filter) {
+		Map<String, Integer> scoresById = null;
+		for (String word : searchText.getWords()) {
+			Map<String, Integer> wordScores = scoreWord(word);
+			if (wordScores == null) continue; // word can not be looked up, checked by matches()
+			if (scoresById == null) {
+				scoresById = wordScores;
+			} else {
+				Iterator<Map.Entry<String, Integer>> iterator = scoresById.entrySet().iterator();
+				while (iterator.hasNext()) {
+					Map.Entry<String, Integer> entry = iterator.next();
+					Integer score = wordScores.get(entry.getKey());
+					if (score == null) {
+						iterator.remove();
+					} else {
+						entry.setValue(entry.getValue() + score);
+					}
+				}
+			}
+			if (scoresById.isEmpty()) return Collections.emptyList();
+		}
+
+		List<Map.Entry<String, Integer>> candidates;
+		if (scoresById == null) {
+			scoresById = new HashMap<String, Integer>();
+			for (String id : itemsById.keySet()) {
+				scoresById.put(id, 0);
+			}
+		}
+		candidates = new ArrayList<Map.Entry<String, Integer>>(scoresById.entrySet());
+		Collections.sort(candidates, SCORE_COMPARATOR);
+
+		List<T> ret = new ArrayList<T>();
+		for (Map.Entry<String, Integer> candidate : candidates) {
+			T item = itemsById.get(candidate.getKey());
+			if (filter != null && !filter.test(item)) continue;
+			if (!item.matches(searchText)) continue;
+			ret.add(item);
+			if (maxResults > 0 && ret.size() >= maxResults) break;
+		}
+		return ret;
+	}
+
+	/**
+	 * @return best score per id of the tokens containing the word, <code>null</code> if the word has no token
+	 *         characters
+	 */
+	private Map<String, Integer> scoreWord(String word) {
+		List<String> parts = new ArrayList<String>(1);
+		tokenize(word, parts);
+		if (parts.isEmpty()) return null;
+
+		if (parts.size() > 1) {
+			// the word spans multiple tokens, every part has to be contained in a token
+			Map<String, Integer> scoresById = null;
+			for (String part : parts) {
+				Map<String, Integer> partScores = scoreToken(part);
+				if (scoresById == null) {
+					scoresById = partScores;
+				} else {
+					scoresById.keySet().retainAll(partScores.keySet());
+				}
+			}
+			for (Map.Entry<String, Integer> entry : scoresById.entrySet()) {
+				entry.setValue(SCORE_CONTAINS);
+			}
+			return scoresById;
+		}
+
+		return scoreToken(parts.get(0));
+	}
+
+	private Map<String, Integer> scoreToken(String part) {
+		Map<String, Integer> scoresById = new HashMap<String, Integer>();
+		for (Map.Entry<String, Set<String>> entry : idsByToken.subMap(part, part + Character.MAX_VALUE).entrySet()) {
+			addScore(scoresById, entry.getValue(), entry.getKey().equals(part) ? SCORE_EXACT : SCORE_PREFIX);
+		}
+		for (String token : getTokensContaining(part)) {
+			if (token.startsWith(part)) continue;
+			addScore(scoresById, idsByToken.get(token), SCORE_CONTAINS);
+		}
+		return scoresById;
+	}
+
+	private Collection<String> getTokensContaining(String part) {
+		if (part.length() <= GRAM_LENGTH) {
+			Set<String> tokens = tokensByGram.get(part);
+			return tokens == null ? Collections.<String> emptySet() : tokens;
+		}
+
+		Set<String> candidates = null;
+		for (int i = 0; i + GRAM_LENGTH <= part.length(); i++) {
+			Set<String> tokens = tokensByGram.get(part.substring(i, i + GRAM_LENGTH));
+			if (tokens == null) return Collections.emptySet();
+			if (candidates == null || tokens.size() < candidates.size()) candidates = tokens;
+		}
+		List<String> ret = new ArrayList<String>();
+		for (String token : candidates) {
+			if (token.contains(part)) ret.add(token);
+		}
+		return ret;
+	}
+
+	private void addGrams(String token) {
+		int len = token.length();
+		for (int i = 0; i < len; i++) {
+			for (int end = i + 1; end <= len && end - i <= GRAM_LENGTH; end++) {
+				String gram = token.substring(i, end);
+				Set<String> tokens = tokensByGram.get(gram);
+				if (tokens == null) {
+					tokens = new HashSet<String>(4);
+					tokensByGram.put(gram, tokens);
+				}
+				tokens.add(token);
+			}
+		}
+	}
+
+	private void removeGrams(String token) {
+		int len = token.length();
+		for (int i = 0; i < len; i++) {
+			for (int end = i + 1; end <= len && end - i <= GRAM_LENGTH; end++) {
+				String gram = token.substring(i, end);
+				Set<String> tokens = tokensByGram.get(gram);
+				if (tokens == null) continue;
+				tokens.remove(token);
+				if (tokens.isEmpty()) tokensByGram.remove(gram);
+			}
+		}
+	}
+
+	private static void addScore(Map<String, Integer> scoresById, Collection<String> ids, int score) {
+		for (String id : ids) {
+			Integer previous = scoresById.get(id);
+			if (previous == null || previous < score) scoresById.put(id, score);
+		}
+	}
+
+	static void tokenize(String s, Collection<String> tokens) {
+		int start = -1;
+		int len = s.length();
+		for (int i = 0; i < len; i++) {
+			if (Character.isLetterOrDigit(s.charAt(i))) {
+				if (start < 0) start = i;
+			} else if (start >= 0) {
+				tokens.add(s.substring(start, i));
+				start = -1;
+			}
+		}
+		if (start >= 0) tokens.add(s.substring(start));
+	}
+
+	private static List<Object> collectValues(Searchable item) {
+		ValuesCollector collector = new ValuesCollector();
+		item.matches(collector);
+		return collector.values;
+	}
+
+	private static final class ScoreComparator implements Comparator<Map.Entry<String, Integer>> {
+
+		@Override
+		public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+			int ret = b.getValue().compareTo(a.getValue());
+			if (ret != 0) return ret;
+			return a.getKey().compareTo(b.getKey());
+		}
+
+	}
+
+	/**
+	 * Records the values a <code>Searchable</code> would check.
+	 */
+	private static final class ValuesCollector extends SearchText {
+
+		private List<Object> values = new ArrayList<Object>();
+
+		private ValuesCollector() {
+			super(Collections.<String> emptyList());
+		}
+
+		@Override
+		public boolean matches(Object... values) {
+			for (Object value : values) {
+				if (value != null) this.values.add(value);
+			}
+			return false;
+		}
+
+	}
+
+}
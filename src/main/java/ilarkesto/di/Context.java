@@ -83,7 +83,10 @@ public final class Context {
 		Thread.currentThread().setName(toString());
 	}
 
-	private final void releaseCurrentThread() {
+	/**
+	 * Unbinds the context bound to the current thread, if any.
+	 */
+	public static void releaseCurrentThread() {
 		if (threadLocal != null) threadLocal.set(null);
 		Thread.currentThread().setName("<no context>");
 	}
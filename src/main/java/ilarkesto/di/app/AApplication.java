@@ -21,15 +21,19 @@ import ilarkesto.base.Utl;
 import ilarkesto.concurrent.ATask;
 import ilarkesto.concurrent.DefaultSynchronizer;
 import ilarkesto.concurrent.TaskManager;
+import ilarkesto.core.base.IdGenerator;
 import ilarkesto.core.logging.Log;
+import ilarkesto.core.persistance.AEntitiesBackend;
 import ilarkesto.core.persistance.ATransactionManager;
 import ilarkesto.core.persistance.EntitiesBackend;
+import ilarkesto.core.persistance.EntityIdGenerators;
 import ilarkesto.core.persistance.EntityIntegrityEnsurer;
 import ilarkesto.core.persistance.Persistence;
 import ilarkesto.core.persistance.SingletonTransactionManager;
 import ilarkesto.core.time.DateAndTime;
 import ilarkesto.core.time.TimePeriod;
 import ilarkesto.di.Context;
+import ilarkesto.id.ThreadLocalRandomIdGenerator;
 import ilarkesto.integration.xstream.XStreamSerializer;
 import ilarkesto.io.AFileStorage;
 import ilarkesto.io.ExclusiveFileLock;
@@ -38,6 +42,7 @@ import ilarkesto.io.IO;
 import ilarkesto.io.SimpleFileStorage;
 import ilarkesto.io.Zip;
 import ilarkesto.logging.DefaultLogRecordHandler;
+import ilarkesto.logging.LogLevelsConfigFile;
 import ilarkesto.persistence.DaoListener;
 import ilarkesto.persistence.DaoService;
 import ilarkesto.persistence.EntityStore;
@@ -120,6 +125,14 @@ public abstract class AApplication {
 
 	protected void ensureIntegrity() {}
 
+	/**
+	 * Default generator for the ids of new entities. Generators for specific entity types can be registered in
+	 * <code>EntityIdGenerators</code>.
+	 */
+	protected IdGenerator createEntityIdGenerator() {
+		return new ThreadLocalRandomIdGenerator();
+	}
+
 	protected boolean isSingleton() {
 		return true;
 	}
@@ -162,6 +175,7 @@ public abstract class AApplication {
 				startupFailed = true;
 				throw new RuntimeException("Application startup failed. Loading configuration failed.", ex);
 			}
+			getLogLevelsConfigFile().reloadIfModified();
 
 			try {
 				onPreStart();
@@ -175,6 +189,8 @@ public abstract class AApplication {
 				log.error("Backing up application data directory failed.", ex);
 			}
 
+			EntityIdGenerators.setDefault(createEntityIdGenerator());
+
 			log.info("Initializing persistence");
 			try {
 				initializePersistence();
@@ -215,6 +231,7 @@ public abstract class AApplication {
 			}
 
 			try {
+				getTaskManager().scheduleWithFixedDelay(getLogLevelsConfigFile(), 10000);
 				scheduleTasks(getTaskManager());
 			} catch (Throwable ex) {
 				startupFailed = true;
@@ -276,6 +293,8 @@ public abstract class AApplication {
 						log.warn("Aborting tasks on shutdown failed:", tasks);
 					}
 					if (entityStore != null) entityStore.lock();
+					if (Persistence.backend instanceof AEntitiesBackend)
+						((AEntitiesBackend) Persistence.backend).flush();
 					shutdown = true;
 
 					if (context != null) context.destroy(true);
@@ -458,6 +477,15 @@ public abstract class AApplication {
 		return applicationConfig;
 	}
 
+	private LogLevelsConfigFile logLevelsConfigFile;
+
+	public LogLevelsConfigFile getLogLevelsConfigFile() {
+		if (logLevelsConfigFile == null) {
+			logLevelsConfigFile = new LogLevelsConfigFile(new File(getApplicationDataDir() + "/logging.properties"));
+		}
+		return logLevelsConfigFile;
+	}
+
 	public BuildProperties getBuildProperties() {
 		if (buildProperties == null) buildProperties = new BuildProperties(getClass());
 		return buildProperties;
@@ -39,9 +39,11 @@ public abstract class ADataTransferObject implements Serializable, IsSerializabl
 	private String userId;
 	private Set<String> deletedEntities;
 	private Map<String, Map<String, String>> entities;
+	private Map<String, Map<String, String>> entityDeltas;
 
 	public synchronized void clear() {
 		entities = null;
+		entityDeltas = null;
 		deletedEntities = null;
 	}
 
@@ -92,6 +94,33 @@ public abstract class ADataTransferObject implements Serializable, IsSerializabl
 		if (deletedEntities != null && deletedEntities.contains(id)) return;
 		if (entities == null) entities = new HashMap<String, Map<String, String>>();
 		entities.put(id, data);
+		if (entityDeltas != null) entityDeltas.remove(id);
+	}
+
+	/**
+	 * Adds changed properties of an entity the client already has. Deltas are applied after the complete entities,
+	 * multiple deltas for the same entity are merged.
+	 */
+	public synchronized final void addEntityDelta(Map<String, String> delta) {
+		String id = delta.get("id");
+		if (deletedEntities != null && deletedEntities.contains(id)) return;
+		if (entityDeltas == null) entityDeltas = new HashMap<String, Map<String, String>>();
+		Map<String, String> previousDelta = entityDeltas.get(id);
+		if (previousDelta != null) {
+			Map<String, String> merged = new HashMap<String, String>(previousDelta);
+			merged.putAll(delta);
+			delta = merged;
+		}
+		entityDeltas.put(id, delta);
+	}
+
+	public synchronized final boolean containsEntityDeltas() {
+		return entityDeltas != null && !entityDeltas.isEmpty();
+	}
+
+	public synchronized final Collection<Map<String, String>> getEntityDeltas() {
+		if (entityDeltas == null) return Collections.emptyList();
+		return entityDeltas.values();
 	}
 
 	public synchronized final Collection<Map<String, String>> getEntities() {
@@ -107,6 +136,7 @@ public abstract class ADataTransferObject implements Serializable, IsSerializabl
 		if (deletedEntities == null) deletedEntities = new HashSet<String>();
 		deletedEntities.add(entityId);
 		if (entities != null) entities.remove(entityId);
+		if (entityDeltas != null) entityDeltas.remove(entityId);
 	}
 
 	public synchronized final Set<String> getDeletedEntities() {
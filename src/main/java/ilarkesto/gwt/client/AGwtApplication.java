@@ -133,6 +133,12 @@ public abstract class AGwtApplication<D extends ADataTransferObject> implements
 			Set<AEntity> entities = getEntitiesBackend().updateFromServer(entityDatas);
 			onEntitiesReceived(entities);
 		}
+		if (data.containsEntityDeltas()) {
+			Collection<Map<String, String>> entityDeltas = data.getEntityDeltas();
+			log.debug("entity deltas received:", entitiesDataAsString(entityDeltas));
+			Set<AEntity> entities = getEntitiesBackend().updateDeltasFromServer(entityDeltas);
+			onEntitiesReceived(entities);
+		}
 		if (data.isUserSet()) {
 			String userId = data.getUserId();
 			log.info("user-id received:", userId);
@@ -65,6 +65,33 @@ public class GwtRpcDatabase extends ACachingEntitiesBackend {
 		return entities;
 	}
 
+	/**
+	 * Applies changed properties to entities which are already in the cache. Deltas for unknown entities are
+	 * ignored, the server sends complete entities when the versions differ.
+	 */
+	public Set<AEntity> updateDeltasFromServer(Collection<Map<String, String>> entityDeltas) {
+		HashSet<AEntity> entities = new HashSet<AEntity>();
+		Transaction t = Transaction.get();
+		t.setIgnoreModificationEvents(true);
+		try {
+			for (Map<String, String> delta : entityDeltas) {
+				String id = delta.get("id");
+				AEntity entity;
+				try {
+					entity = cache.getById(id);
+				} catch (EntityDoesNotExistException ex) {
+					log.warn("Delta for unknown entity received:", delta.get("@type"), id);
+					continue;
+				}
+				entity.updateProperties(delta);
+				entities.add(entity);
+			}
+		} finally {
+			t.setIgnoreModificationEvents(false);
+		}
+		return entities;
+	}
+
 	@Override
 	public String loadOutsourcedString(Entity entity, String propertyName) {
 		throw new RuntimeException(getClass().getName() + ".loadOutsourcedString() is not implemented");
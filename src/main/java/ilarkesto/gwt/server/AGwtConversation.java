@@ -30,12 +30,11 @@ import ilarkesto.gwt.client.ClientDataTransporter;
 import ilarkesto.gwt.client.Transportable;
 import ilarkesto.webapp.AWebSession;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.UUID;
 
@@ -45,12 +44,20 @@ public abstract class AGwtConversation<S extends AWebSession>
 	private static final Log log = Log.get(AGwtConversation.class);
 	private static final TimePeriod DEFAULT_TIMEOUT = TimePeriod.minutes(10);
 
+	private static final ThreadLocal<AGwtConversation> currentConversation = new ThreadLocal<AGwtConversation>();
+
 	/**
 	 * Data that will be transferred to the client at the next request.
 	 */
 	private ADataTransferObject nextData;
 	private Object nextDataLock = new Object();
-	private Map<Entity, Long> remoteEntityModificationTimes = Collections.synchronizedMap(new HashMap<Entity, Long>());
+	private Map<String, RemoteEntity> remoteEntitiesById = Collections.synchronizedMap(new HashMap<String, RemoteEntity>());
+	private final boolean entityPropertiesFiltered = isFilterEntityPropertiesOverridden(getClass());
+	/**
+	 * Sequence of the last batch of the <code>EntityChangeBroadcaster</code> applied, written under the next data
+	 * lock.
+	 */
+	private volatile long lastBatchSequence;
 
 	private S session;
 	private int number;
@@ -83,23 +90,26 @@ public abstract class AGwtConversation<S extends AWebSession>
 	}
 
 	public final void clearRemoteEntities() {
-		remoteEntityModificationTimes.clear();
+		remoteEntitiesById.clear();
 	}
 
 	public final void clearRemoteEntity(Entity entity) {
-		remoteEntityModificationTimes.remove(entity);
+		remoteEntitiesById.remove(entity.getId());
 	}
 
 	public final void clearRemoteEntitiesByType(Class<? extends Entity> type) {
-		List<Entity> toRemove = new ArrayList<Entity>();
-		for (Entity entity : remoteEntityModificationTimes.keySet()) {
-			if (entity.getClass().equals(type)) toRemove.add(entity);
-		}
-		for (Entity entity : toRemove) {
-			remoteEntityModificationTimes.remove(entity);
+		synchronized (remoteEntitiesById) {
+			Iterator<RemoteEntity> iterator = remoteEntitiesById.values().iterator();
+			while (iterator.hasNext()) {
+				if (iterator.next().type.equals(type)) iterator.remove();
+			}
 		}
 	}
 
+	/**
+	 * Also called by the background thread of the <code>EntityChangeBroadcaster</code>, in the context of the
+	 * session instead of the request.
+	 */
 	protected boolean isEntityVisible(Entity entity) {
 		return true;
 	}
@@ -107,7 +117,7 @@ public abstract class AGwtConversation<S extends AWebSession>
 	protected void filterEntityProperties(Entity entity, Map propertiesMap) {}
 
 	public boolean isAvailableOnClient(Entity entity) {
-		return remoteEntityModificationTimes.containsKey(entity);
+		return remoteEntitiesById.containsKey(entity.getId());
 	}
 
 	@Override
@@ -180,12 +190,7 @@ public abstract class AGwtConversation<S extends AWebSession>
 	public void deleteFromClient(String entityId) {
 		if (entityId == null) return;
 		getNextData().addDeletedEntity(entityId);
-		for (Entity entity : remoteEntityModificationTimes.keySet()) {
-			if (entity.getId().equals(entityId)) {
-				remoteEntityModificationTimes.remove(entity);
-				break;
-			}
-		}
+		remoteEntitiesById.remove(entityId);
 	}
 
 	public void sendToClientIfTracking(Entity entity) {
@@ -194,27 +199,141 @@ public abstract class AGwtConversation<S extends AWebSession>
 		sendToClient(entity);
 	}
 
-	private void addToNextData(Entity entity) {
-		Long timeRemote = remoteEntityModificationTimes.get(entity);
-		Long timeLocal = entity.getModificationTime();
+	/**
+	 * Marks this conversation as the one of the request handled by the current thread. Entity changes saved while
+	 * handling the request are applied to it synchronously, so they are part of the response.
+	 */
+	public final void bindCurrentThread() {
+		currentConversation.set(this);
+	}
+
+	public final void releaseCurrentThread() {
+		if (currentConversation.get() == this) currentConversation.remove();
+	}
+
+	/**
+	 * @return the conversation of the request handled by the current thread or <code>null</code>
+	 */
+	public static AGwtConversation getCurrent() {
+		return currentConversation.get();
+	}
+
+	final long getLastBatchSequence() {
+		return lastBatchSequence;
+	}
+
+	/**
+	 * Applies changes sent by the <code>EntityChangeBroadcaster</code> in sequence order, skipping batches which
+	 * were applied before. Uses the properties maps of the batches, which are shared with the other conversations.
+	 */
+	final void applyChanges(Collection<EntityChangeBroadcaster.Batch> batches) {
+		synchronized (nextDataLock) {
+			for (EntityChangeBroadcaster.Batch batch : batches) {
+				if (batch.sequence <= lastBatchSequence) continue;
+				applyChanges(batch);
+				lastBatchSequence = batch.sequence;
+			}
+		}
+	}
 
+	private void applyChanges(EntityChangeBroadcaster.Batch batch) {
+		for (String id : batch.deletedIds) {
+			deleteFromClient(id);
+		}
+		for (EntityChangeBroadcaster.EntityState state : batch.modified) {
+			RemoteEntity remoteEntity = remoteEntitiesById.get(state.entity.getId());
+			if (remoteEntity == null) continue;
+			addToNextDataWithPassengers(state, batch, state.isDeltaAvailable(remoteEntity.modificationTime));
+		}
+		for (EntityChangeBroadcaster.EntityState state : batch.created) {
+			addToNextDataWithPassengers(state, batch, false);
+		}
+	}
+
+	/**
+	 * @param delta whether the entity itself is sent as delta, passengers are always sent completely
+	 */
+	private void addToNextDataWithPassengers(EntityChangeBroadcaster.EntityState state,
+			EntityChangeBroadcaster.Batch batch, boolean delta) {
+		if (!isEntityVisible(state.entity)) return;
+		TransferBus transferBus = new TransferBus();
+		loadTransferBus(state.entity, transferBus);
+		for (Entity e : transferBus.getEntities()) {
+			if (batch.deletedIds.contains(e.getId())) continue;
+			if (e == state.entity) {
+				if (delta) {
+					addDeltaToNextData(state);
+				} else {
+					addToNextData(e, state.modificationTime, state.propertiesMap);
+				}
+				continue;
+			}
+			EntityChangeBroadcaster.EntityState passengerState = batch.getState(e);
+			addToNextData(e, passengerState.modificationTime, passengerState.propertiesMap);
+		}
+	}
+
+	private void addDeltaToNextData(EntityChangeBroadcaster.EntityState state) {
+		Entity entity = state.entity;
 		ADataTransferObject nd = getNextData();
 		if (nd.containsDeletedEntity(entity.getId())) return;
 
-		if (timeLocal.equals(timeRemote)) {
+		Map<String, String> delta = state.deltaPropertiesMap;
+		if (entityPropertiesFiltered) {
+			delta = new HashMap<String, String>(delta);
+			filterEntityProperties(entity, delta);
+		}
+
+		nd.addEntityDelta(delta);
+		remoteEntitiesById.put(entity.getId(), new RemoteEntity(entity.getClass(), state.modificationTime));
+		if (log.isDebugEnabled()) log.debug("Sending delta", toString(entity), "to", this, "->", delta.keySet());
+	}
+
+	private void addToNextData(Entity entity) {
+		addToNextData(entity, entity.getModificationTime(), null);
+	}
+
+	/**
+	 * @param sharedPropertiesMap properties of the entity shared with other conversations or <code>null</code>
+	 */
+	private void addToNextData(Entity entity, Long timeLocal, Map<String, String> sharedPropertiesMap) {
+		String id = entity.getId();
+		ADataTransferObject nd = getNextData();
+		if (nd.containsDeletedEntity(id)) return;
+
+		RemoteEntity remoteEntity = remoteEntitiesById.get(id);
+		if (remoteEntity != null && timeLocal.equals(remoteEntity.modificationTime)) {
 			if (log.isDebugEnabled()) log.debug("Remote entity already up to date:", toString(entity), "for", this,
-				"->", timeLocal, "/", timeRemote);
+				"->", timeLocal);
 			return;
 		}
 
-		Map<String, String> propertiesMap = entity.createPropertiesMap();
-		filterEntityProperties(entity, propertiesMap);
+		Map<String, String> propertiesMap;
+		if (sharedPropertiesMap == null) {
+			propertiesMap = entity.createPropertiesMap();
+			filterEntityProperties(entity, propertiesMap);
+		} else if (entityPropertiesFiltered) {
+			propertiesMap = new HashMap<String, String>(sharedPropertiesMap);
+			filterEntityProperties(entity, propertiesMap);
+		} else {
+			propertiesMap = sharedPropertiesMap;
+		}
 
 		nd.addEntity(propertiesMap);
-		remoteEntityModificationTimes.put(entity, timeLocal);
+		remoteEntitiesById.put(id, new RemoteEntity(entity.getClass(), timeLocal));
 		if (log.isDebugEnabled()) log.debug("Sending", toString(entity), "to", this);
 	}
 
+	private static boolean isFilterEntityPropertiesOverridden(Class type) {
+		for (Class c = type; c != null && c != AGwtConversation.class; c = c.getSuperclass()) {
+			try {
+				c.getDeclaredMethod("filterEntityProperties", Entity.class, Map.class);
+				return true;
+			} catch (NoSuchMethodException ex) {}
+		}
+		return false;
+	}
+
 	private String toString(Entity entity) {
 		if (entity == null) return "<null>";
 		return Str.getSimpleName(entity.getClass()) + " " + entity.getId() + " " + entity.toString();
@@ -269,4 +388,17 @@ public abstract class AGwtConversation<S extends AWebSession>
 	public int compareTo(AGwtConversation o) {
 		return Utl.compare(o.getLastTouched(), getLastTouched());
 	}
+
+	private static final class RemoteEntity {
+
+		private final Class type;
+		private final Long modificationTime;
+
+		private RemoteEntity(Class type, Long modificationTime) {
+			this.type = type;
+			this.modificationTime = modificationTime;
+		}
+
+	}
+
 }
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.gwt.server;
+
+import ilarkesto.concurrent.DeamonThreadFactory;
+import ilarkesto.core.base.RuntimeTracker;
+import ilarkesto.core.base.Utl;
+import ilarkesto.core.logging.Log;
+import ilarkesto.core.persistance.Entity;
+import ilarkesto.di.Context;
+import ilarkesto.webapp.AWebApplication;
+import ilarkesto.webapp.AWebSession;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sends the entity changes of saved transactions to all GWT conversations. Each entity is serialized once, on the
+ * saving thread, and its properties map is shared by all conversations.
+ * <p>
+ * The conversation of the request which saved the changes (see <code>AGwtConversation.bindCurrentThread()</code>)
+ * gets them synchronously on the saving thread, so they are part of the response to that request. The other
+ * conversations get them from a single background thread. Every batch has a sequence number and each conversation
+ * applies pending batches in that order, no matter which thread delivers them.
+ * <p>
+ * On the background thread <code>isEntityVisible()</code> and <code>loadTransferBus()</code> of the conversations
+ * run in the context of the conversation's session, not in the context and transaction of the saving request.
+ * Entities a conversation can not see are skipped silently, unlike <code>sendToClient()</code>, which throws a
+ * <code>PermissionDeniedException</code>.
+ * <p>
+ * With delta transfer enabled, the last broadcasted properties of the most recently changed entities are kept (see
+ * <code>setMaxLastStates()</code>). Conversations which have the previous version of a modified entity only get
+ * the changed properties. Without a kept previous version the complete entity is sent.
+ */
+public class EntityChangeBroadcaster {
+
+	private static final Log log = Log.get(EntityChangeBroadcaster.class);
+
+	private AWebApplication webApplication;
+	private ExecutorService executor = Executors.newSingleThreadExecutor(new DeamonThreadFactory());
+	private volatile boolean deltaTransferEnabled = true;
+	private int maxLastStates = 10000;
+
+	/**
+	 * Batches which have not been fanned out yet, in sequence order. Guarded by <code>this</code>.
+	 */
+	private LinkedList<Batch> pendingBatches = new LinkedList<Batch>();
+	private long lastSequence;
+
+	/**
+	 * Last broadcasted state per entity id, least recently changed first. Guarded by <code>this</code>.
+	 */
+	private Map<String, EntityState> lastStatesById = new LinkedHashMap<String, EntityState>(16, 0.75f, true) {
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, EntityState> eldest) {
+			return size() > maxLastStates;
+		}
+	};
+
+	public EntityChangeBroadcaster(AWebApplication webApplication) {
+		super();
+		this.webApplication = webApplication;
+	}
+
+	/**
+	 * @param modified sent to conversations which already have the entity
+	 * @param deleted removed from all conversations
+	 * @param created sent to all conversations which can see the entity
+	 */
+	public void broadcast(Collection<? extends Entity> modified, Collection<String> deleted,
+			Collection<? extends Entity> created) {
+		final Batch batch = new Batch(modified, deleted, created);
+		if (batch.isEmpty()) return;
+		synchronized (this) {
+			batch.sequence = ++lastSequence;
+			updateLastStates(batch);
+			pendingBatches.add(batch);
+			executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					fanOut(batch);
+				}
+			});
+		}
+
+		AGwtConversation conversation = AGwtConversation.getCurrent();
+		if (conversation == null) return;
+		try {
+			deliver(conversation, batch.sequence);
+		} catch (Throwable ex) {
+			log.error("Sending entity changes to", conversation, "failed:", ex);
+		}
+	}
+
+	private void fanOut(Batch batch) {
+		RuntimeTracker rt = new RuntimeTracker();
+		Set<AGwtConversation> conversations = getConversations();
+		try {
+			for (AGwtConversation conversation : conversations) {
+				AWebSession session = conversation.getSession();
+				if (session != null) session.getContext().bindCurrentThread();
+				try {
+					deliver(conversation, batch.sequence);
+				} catch (Throwable ex) {
+					log.error("Sending entity changes to", conversation, "failed:", ex);
+				}
+			}
+		} finally {
+			Context.releaseCurrentThread();
+			synchronized (this) {
+				pendingBatches.remove(batch);
+			}
+		}
+		if (rt.getRuntime() > 1000) {
+			log.warn("Sending entity changes to", conversations.size(), "conversations took",
+				rt.getRuntimeFormated(), "->", batch);
+		}
+	}
+
+	/**
+	 * Applies all pending batches up to the sequence, which the conversation did not get yet.
+	 */
+	private void deliver(AGwtConversation conversation, long sequence) {
+		List<Batch> batches = new ArrayList<Batch>(1);
+		synchronized (this) {
+			long lastApplied = conversation.getLastBatchSequence();
+			for (Batch batch : pendingBatches) {
+				if (batch.sequence > sequence) break;
+				if (batch.sequence > lastApplied) batches.add(batch);
+			}
+		}
+		if (!batches.isEmpty()) conversation.applyChanges(batches);
+	}
+
+	protected Set<AGwtConversation> getConversations() {
+		return webApplication.getGwtConversations();
+	}
+
+	private void updateLastStates(Batch batch) {
+		for (String id : batch.deletedIds) {
+			lastStatesById.remove(id);
+		}
+		if (!deltaTransferEnabled) {
+			lastStatesById.clear();
+			return;
+		}
+		for (EntityState state : batch.modified) {
+			EntityState lastState = lastStatesById.put(state.entity.getId(), state);
+			if (lastState != null) state.setPreviousState(lastState);
+		}
+		for (EntityState state : batch.created) {
+			lastStatesById.put(state.entity.getId(), state);
+		}
+	}
+
+	/**
+	 * Delta transfer costs memory for the last broadcasted properties of the recently changed entities.
+	 */
+	public void setDeltaTransferEnabled(boolean deltaTransferEnabled) {
+		this.deltaTransferEnabled = deltaTransferEnabled;
+	}
+
+	/**
+	 * Maximum number of entities whose last broadcasted properties are kept for delta transfer. The least recently
+	 * changed ones are dropped first. Default is 10000.
+	 */
+	public synchronized void setMaxLastStates(int maxLastStates) {
+		this.maxLastStates = maxLastStates;
+		Iterator<String> iterator = lastStatesById.keySet().iterator();
+		while (lastStatesById.size() > maxLastStates) {
+			iterator.next();
+			iterator.remove();
+		}
+	}
+
+	synchronized int getLastStatesCount() {
+		return lastStatesById.size();
+	}
+
+	public boolean isDeltaTransferEnabled() {
+		return deltaTransferEnabled;
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Changes of one save, with the serialized entities.
+	 */
+	static final class Batch {
+
+		long sequence;
+		final Set<String> deletedIds;
+		final List<EntityState> modified;
+		final List<EntityState> created;
+		private final Map<String, EntityState> statesById = new HashMap<String, EntityState>();
+
+		private Batch(Collection<? extends Entity> modified, Collection<String> deleted,
+				Collection<? extends Entity> created) {
+			this.deletedIds = deleted == null ? Collections.<String> emptySet() : new HashSet<String>(deleted);
+			this.modified = createStates(modified);
+			this.created = createStates(created);
+		}
+
+		private List<EntityState> createStates(Collection<? extends Entity> entities) {
+			if (entities == null || entities.isEmpty()) return Collections.emptyList();
+			List<EntityState> ret = new ArrayList<EntityState>(entities.size());
+			for (Entity entity : entities) {
+				if (deletedIds.contains(entity.getId())) continue;
+				ret.add(getState(entity));
+			}
+			return ret;
+		}
+
+		/**
+		 * State of an entity of this batch or of a passenger loaded by a conversation. Called by the saving thread
+		 * and the fan-out thread concurrently.
+		 */
+		synchronized EntityState getState(Entity entity) {
+			EntityState state = statesById.get(entity.getId());
+			if (state == null || state.entity != entity) {
+				state = new EntityState(entity);
+				statesById.put(entity.getId(), state);
+			}
+			return state;
+		}
+
+		boolean isEmpty() {
+			return deletedIds.isEmpty() && modified.isEmpty() && created.isEmpty();
+		}
+
+		@Override
+		public String toString() {
+			return modified.size() + " modified, " + deletedIds.size() + " deleted, " + created.size() + " created";
+		}
+
+	}
+
+	static final class EntityState {
+
+		final Entity entity;
+		final Long modificationTime;
+		/**
+		 * Shared by all conversations, must not be modified.
+		 */
+		final Map<String, String> propertiesMap;
+		/**
+		 * Modification time of the previous broadcasted version or <code>null</code>.
+		 */
+		Long previousModificationTime;
+		/**
+		 * Properties which changed since the previous version, shared by all conversations.
+		 */
+		Map<String, String> deltaPropertiesMap;
+
+		private EntityState(Entity entity) {
+			this.entity = entity;
+			this.modificationTime = entity.getModificationTime();
+			this.propertiesMap = entity.createPropertiesMap();
+		}
+
+		private void setPreviousState(EntityState previous) {
+			if (previous.modificationTime == null || previous.modificationTime.equals(modificationTime)) return;
+			Map<String, String> delta = new HashMap<String, String>();
+			for (Map.Entry<String, String> entry : propertiesMap.entrySet()) {
+				String name = entry.getKey();
+				String value = entry.getValue();
+				if (previous.propertiesMap.containsKey(name) && Utl.equals(value, previous.propertiesMap.get(name)))
+					continue;
+				delta.put(name, value);
+			}
+			for (String name : previous.propertiesMap.keySet()) {
+				if (!propertiesMap.containsKey(name)) delta.put(name, null);
+			}
+			delta.put("id", entity.getId());
+			delta.put("@type", propertiesMap.get("@type"));
+			this.previousModificationTime = previous.modificationTime;
+			this.deltaPropertiesMap = delta;
+		}
+
+		boolean isDeltaAvailable(Long remoteModificationTime) {
+			return deltaPropertiesMap != null && previousModificationTime.equals(remoteModificationTime);
+		}
+
+	}
+
+}
@@ -14,7 +14,7 @@
  */
 package ilarkesto.id;
 
-public interface IdGenerator {
+public interface IdGenerator extends ilarkesto.core.base.IdGenerator {
 
     public String generateId();
 
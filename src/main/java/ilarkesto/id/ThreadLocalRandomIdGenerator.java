@@ -0,0 +1,48 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.id;
+
+import ilarkesto.core.base.RandomIdGenerator;
+
+import java.util.Random;
+
+/**
+ * Random or time ordered IDs from one <code>Random</code> per thread, so threads creating entities concurrently do
+ * not contend on a shared random seed.
+ */
+public class ThreadLocalRandomIdGenerator extends RandomIdGenerator {
+
+	private final ThreadLocal<Random> randoms = new ThreadLocal<Random>() {
+
+		@Override
+		protected Random initialValue() {
+			return new Random();
+		}
+	};
+
+	public ThreadLocalRandomIdGenerator(boolean timeOrdered) {
+		super(timeOrdered);
+	}
+
+	public ThreadLocalRandomIdGenerator() {
+		this(false);
+	}
+
+	@Override
+	protected Random getRandom() {
+		return randoms.get();
+	}
+
+}
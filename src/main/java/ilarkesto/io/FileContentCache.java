@@ -0,0 +1,109 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Contents of small, frequently served files. Entries are checked against length and modification time of the
+ * file on every access; the least recently used entries are evicted when the total size exceeds the limit.
+ */
+public class FileContentCache {
+
+	private final long maxTotalSize;
+	private final int maxFileSize;
+
+	private final LinkedHashMap<String, Entry> entriesByPath = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+	private long totalSize;
+
+	public FileContentCache(long maxTotalSize, int maxFileSize) {
+		this.maxTotalSize = maxTotalSize;
+		this.maxFileSize = maxFileSize;
+	}
+
+	/**
+	 * @return the content of the file or <code>null</code> if the file is too big to be cached
+	 */
+	public byte[] get(File file) {
+		long length = file.length();
+		if (length > maxFileSize) return null;
+		long lastModified = file.lastModified();
+		String path = file.getPath();
+
+		synchronized (this) {
+			Entry entry = entriesByPath.get(path);
+			if (entry != null) {
+				if (entry.lastModified == lastModified && entry.data.length == length) return entry.data;
+				remove(path);
+			}
+		}
+
+		byte[] data = IO.readFileToByteArray(file);
+		if (data.length != length) return data; // changed while reading, don't cache
+		synchronized (this) {
+			remove(path);
+			entriesByPath.put(path, new Entry(data, lastModified));
+			totalSize += data.length;
+			evict();
+		}
+		return data;
+	}
+
+	private void remove(String path) {
+		Entry entry = entriesByPath.remove(path);
+		if (entry != null) totalSize -= entry.data.length;
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, Entry>> iterator = entriesByPath.entrySet().iterator();
+		while (totalSize > maxTotalSize && iterator.hasNext()) {
+			totalSize -= iterator.next().getValue().data.length;
+			iterator.remove();
+		}
+	}
+
+	public synchronized void clear() {
+		entriesByPath.clear();
+		totalSize = 0;
+	}
+
+	public synchronized int getEntryCount() {
+		return entriesByPath.size();
+	}
+
+	public synchronized long getTotalSize() {
+		return totalSize;
+	}
+
+	public int getMaxFileSize() {
+		return maxFileSize;
+	}
+
+	private static final class Entry {
+
+		private final byte[] data;
+		private final long lastModified;
+
+		private Entry(byte[] data, long lastModified) {
+			this.data = data;
+			this.lastModified = lastModified;
+		}
+
+	}
+
+}
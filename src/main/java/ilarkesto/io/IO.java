@@ -50,6 +50,9 @@ import java.net.SocketException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -86,6 +89,8 @@ public abstract class IO {
 	public static final String ANSI = "Cp1252";
 	public static final String WINDOWS_1252 = "WINDOWS-1252";
 
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
 	private static LinkedList<Properties> properties = new LinkedList<Properties>();
 	private static LinkedList<File> propertiesFiles = new LinkedList<File>();
 
@@ -988,14 +993,47 @@ public abstract class IO {
 	}
 
 	public static void copyFile(String src, OutputStream dst) {
-		BufferedInputStream in;
+		File file = new File(src);
+		transferFile(file, 0, file.length(), dst);
+		try {
+			dst.flush();
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	public static long transferFile(File file, long position, long count, OutputStream out) {
+		return transferFile(file, position, count, Channels.newChannel(out));
+	}
+
+	/**
+	 * Copies a region of a file with <code>FileChannel.transferTo()</code>, which lets the operating system copy
+	 * directly into sockets and files without passing the data through user space. The target channel has to be
+	 * blocking.
+	 *
+	 * @return number of bytes transferred, less than <code>count</code> if the file is shorter
+	 */
+	public static long transferFile(File file, long position, long count, WritableByteChannel out) {
+		FileInputStream in;
 		try {
-			in = new BufferedInputStream(new FileInputStream(src));
+			in = new FileInputStream(file);
 		} catch (FileNotFoundException ex) {
 			throw new RuntimeException(ex);
 		}
 		try {
-			copyData(in, dst);
+			FileChannel channel = in.getChannel();
+			long transferred = 0;
+			while (transferred < count) {
+				long n = channel.transferTo(position + transferred, count - transferred, out);
+				if (n <= 0) {
+					if (position + transferred >= channel.size()) break;
+					continue;
+				}
+				transferred += n;
+			}
+			return transferred;
+		} catch (IOException ex) {
+			throw new RuntimeException("Transferring file failed: " + file, ex);
 		} finally {
 			close(in);
 		}
@@ -1076,7 +1114,7 @@ public abstract class IO {
 	}
 
 	public static void copyData(InputStream in, OutputStream out, CopyObserver observer) {
-		byte[] block = new byte[1000];
+		byte[] block = new byte[COPY_BUFFER_SIZE];
 		try {
 			while (true) {
 				if (observer != null && observer.isAbortRequested()) return;
@@ -1112,11 +1150,14 @@ public abstract class IO {
 		// if (!(out instanceof BufferedOutputStream)) out = new
 		// BufferedOutputStream(out);
 
-		byte[] ba = new byte[(int) length];
-		for (int i = 0; i < length; i++) {
-			ba[i] = (byte) in.read();
+		byte[] block = new byte[(int) Math.min(length, COPY_BUFFER_SIZE)];
+		long remaining = length;
+		while (remaining > 0) {
+			int amountRead = in.read(block, 0, (int) Math.min(remaining, block.length));
+			if (amountRead == -1) break;
+			out.write(block, 0, amountRead);
+			remaining -= amountRead;
 		}
-		out.write(ba, 0, (int) length);
 		out.flush();
 	}
 
@@ -19,19 +19,41 @@ import ilarkesto.io.nio.tcpserver.DataHandler;
 import ilarkesto.io.nio.tcpserver.ServerDataEvent;
 import ilarkesto.io.nio.tcpserver.TcpConnection;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental HTTP/1.1 parser of one connection. Bytes are consumed as they arrive, so requests may be split over
+ * any number of events and one event may contain several pipelined requests. Requests are handed to the server one
+ * after another; the connection stays open as long as the requests are keep-alive.
+ */
 public class HttpDataHandler implements DataHandler {
 
 	private static Log log = Log.get(HttpDataHandler.class);
 
-	private static final String CRLF = "\r\n";
+	private static final int MAX_LINE_LENGTH = 8192;
+	private static final int MAX_HEADER_COUNT = 100;
+
+	private static final int START_LINE = 0;
+	private static final int HEADERS = 1;
+	private static final int BODY = 2;
+	private static final int CHUNK_SIZE = 3;
+	private static final int CHUNK_DATA = 4;
+	private static final int CHUNK_END = 5;
+	private static final int TRAILERS = 6;
+	private static final int CLOSED = 7;
 
 	private HttpServer server;
+	private TcpConnection connection;
 
-	private ServerDataEvent event;
+	private int state = START_LINE;
+	private byte[] line = new byte[256];
+	private int lineLength;
+	private int headerCount;
 
 	private HttpRequest request;
-	private boolean startLineDone;
-	private boolean headerDone;
+	private long remainingBodyLength;
+	private ByteArrayOutputStream body;
 
 	public HttpDataHandler(HttpServer server) {
 		super();
@@ -40,118 +62,159 @@ public class HttpDataHandler implements DataHandler {
 
 	@Override
 	public void onDataReceived(ServerDataEvent event) {
-		this.event = event;
-
-		if (request == null) {
-			request = new HttpRequest(event.getConnection());
-			request.setResponseHeaderServer(server.getName());
-		}
-
+		connection = event.getConnection();
+		ByteBuffer data = event.getBuffer();
 		try {
-			processEvent(event);
+			while (data.hasRemaining() && state != CLOSED) {
+				processData(data);
+			}
 		} catch (Throwable ex) {
-			log.error("Processing request failed:", request.getUri() == null ? event.getConnection() : request, ex);
-			request.sendEmptyResponse(HttpStatusCode.INTERNAL_SERVER_ERROR, null);
+			log.error("Processing request failed:", request == null || request.getUri() == null ? connection : request,
+				ex);
+			fail(HttpStatusCode.INTERNAL_SERVER_ERROR, null);
 		}
 	}
 
-	private void processEvent(ServerDataEvent event) {
-		byte[] data = event.getData();
-
-		if (headerDone) {
-			onBodyData(data);
+	private void processData(ByteBuffer data) {
+		if (state == BODY || state == CHUNK_DATA) {
+			int length = (int) Math.min(remainingBodyLength, data.remaining());
+			appendBody(data, length);
+			remainingBodyLength -= length;
+			if (remainingBodyLength > 0) return;
+			if (state == BODY) {
+				dispatchRequest();
+			} else {
+				state = CHUNK_END;
+			}
 			return;
 		}
 
-		String s = new String(data);
+		if (!readLine(data)) return;
 
-		int from = 0;
-		int idx = s.indexOf(CRLF);
-		while (idx >= 0) {
-			String line = s.substring(from, idx);
-			onLineReceived(line);
-			if (headerDone) {
-				int len = data.length - idx;
-				byte[] remainingData = new byte[len];
-				System.arraycopy(data, idx, remainingData, 0, len);
-				onBodyData(remainingData);
+		if (state == START_LINE) {
+			if (lineLength == 0) return; // empty lines between requests are ignored
+			request = new HttpRequest(connection);
+			request.setResponseHeaderServer(server.getName());
+			parseStartLine(lineToString());
+			return;
+		}
+
+		if (state == HEADERS) {
+			if (lineLength == 0) {
+				onHeaderDone();
+				return;
+			}
+			if (++headerCount > MAX_HEADER_COUNT) {
+				fail(HttpStatusCode.REQUEST_HEADER_FIELDS_TOO_LARGE, null);
 				return;
 			}
-			from = idx + 2;
-			idx = s.indexOf(CRLF, from);
+			parseHeaderLine(lineToString());
+			return;
 		}
-	}
 
-	private void onBodyData(byte[] data) {}
+		if (state == CHUNK_SIZE) {
+			parseChunkSize(lineToString());
+			return;
+		}
 
-	private void onLineReceived(String line) {
-		if (!startLineDone) {
-			parseStartLine(line);
+		if (state == CHUNK_END) {
+			if (lineLength != 0) {
+				fail(HttpStatusCode.BAD_REQUEST, "Missing CRLF after chunk");
+				return;
+			}
+			state = CHUNK_SIZE;
 			return;
 		}
 
-		if (line.length() == 0) {
-			headerDone = true;
-			onHeaderDone();
+		if (state == TRAILERS) {
+			if (lineLength == 0) {
+				dispatchRequest();
+				return;
+			}
+			if (++headerCount > MAX_HEADER_COUNT) {
+				fail(HttpStatusCode.REQUEST_HEADER_FIELDS_TOO_LARGE, null);
+				return;
+			}
+			parseHeaderLine(lineToString());
 			return;
 		}
 
-		parseHeaderLine(line);
+		throw new IllegalStateException("Unexpected parser state: " + state);
 	}
 
-	private void onHeaderDone() {
-		if (!checkHeaders()) return;
-		server.onHttpRequest(request);
+	/**
+	 * Collects bytes up to the next LF.
+	 *
+	 * @return true if the line is complete, without CRLF
+	 */
+	private boolean readLine(ByteBuffer data) {
+		while (data.hasRemaining()) {
+			byte b = data.get();
+			if (b == '\n') {
+				if (lineLength > 0 && line[lineLength - 1] == '\r') lineLength--;
+				return true;
+			}
+			if (lineLength == line.length) {
+				if (lineLength >= MAX_LINE_LENGTH) {
+					fail(state == START_LINE ? HttpStatusCode.BAD_REQUEST
+							: HttpStatusCode.REQUEST_HEADER_FIELDS_TOO_LARGE, "Line too long");
+					return false;
+				}
+				byte[] newLine = new byte[line.length * 2];
+				System.arraycopy(line, 0, newLine, 0, lineLength);
+				line = newLine;
+			}
+			line[lineLength++] = b;
+		}
+		return false;
 	}
 
-	private boolean checkHeaders() {
-		if (request.getHeaderContentLenght() != null) {
-			request.sendEmptyResponse(HttpStatusCode.NOT_IMPLEMENTED, "Content-Length");
-			return false;
-		}
-		if (request.getHeaderTransferEncoding() != null) {
-			request.sendEmptyResponse(HttpStatusCode.NOT_IMPLEMENTED, "Transfer-Encoding");
-			return false;
-		}
-		return true;
+	private String lineToString() {
+		String s = new String(line, 0, lineLength, HttpRequest.HEADER_CHARSET);
+		lineLength = 0;
+		return s;
 	}
 
-	private void parseHeaderLine(String line) {
-		int idx = line.indexOf(":");
-		if (idx <= 0) {
-			request.sendEmptyResponse(HttpStatusCode.BAD_REQUEST, "Invalid header line: " + line);
+	private void appendBody(ByteBuffer data, int length) {
+		if (data.hasArray()) {
+			body.write(data.array(), data.arrayOffset() + data.position(), length);
+			data.position(data.position() + length);
 			return;
 		}
-		String name = line.substring(0, idx);
-		String value = line.substring(idx + 1).trim();
-		request.setHeader(name, value);
+		byte[] bytes = new byte[length];
+		data.get(bytes);
+		body.write(bytes, 0, length);
 	}
 
 	private void parseStartLine(String line) {
-		if (startLineDone) throw new IllegalStateException("Start line already parsed");
-		startLineDone = true;
+		int methodEnd = line.indexOf(' ');
+		if (methodEnd <= 0) {
+			fail(HttpStatusCode.BAD_REQUEST, "Invalid start line: " + line);
+			return;
+		}
+		String methodName = line.substring(0, methodEnd);
+		HttpMethod method = null;
 		for (HttpMethod m : HttpMethod.values()) {
-			if (line.startsWith(m.name())) {
-				request.setMethod(m);
+			if (m.name().equals(methodName)) {
+				method = m;
 				break;
 			}
 		}
-		if (request.getMethod() == null) {
-			int idx = line.indexOf(' ');
-			String methodName = idx > 0 ? line.substring(0, idx) : line;
-			request.sendEmptyResponse(HttpStatusCode.BAD_REQUEST, "Unknown method: " + methodName);
+		if (method == null) {
+			fail(HttpStatusCode.NOT_IMPLEMENTED, "Unknown method: " + methodName);
 			return;
 		}
+		request.setMethod(method);
 
-		int pathIdx = request.getMethod().name().length() + 1;
+		int pathIdx = methodEnd + 1;
 		if (pathIdx >= line.length()) {
-			request.sendEmptyResponse(HttpStatusCode.BAD_REQUEST, "Invalid start line: " + line);
+			fail(HttpStatusCode.BAD_REQUEST, "Invalid start line: " + line);
 			return;
 		}
 
 		int versionIdx = line.indexOf(' ', pathIdx);
 		if (versionIdx > 0 && versionIdx + 1 >= line.length()) {
-			request.sendEmptyResponse(HttpStatusCode.BAD_REQUEST, "Invalid start line: " + line);
+			fail(HttpStatusCode.BAD_REQUEST, "Invalid start line: " + line);
 			return;
 		}
 
@@ -162,6 +225,127 @@ public class HttpDataHandler implements DataHandler {
 		request.setVersion(version);
 
 		log.debug(request);
+
+		state = HEADERS;
+		headerCount = 0;
+	}
+
+	private void parseHeaderLine(String line) {
+		int idx = line.indexOf(":");
+		if (idx <= 0) {
+			fail(HttpStatusCode.BAD_REQUEST, "Invalid header line: " + line);
+			return;
+		}
+		String name = line.substring(0, idx);
+		String value = line.substring(idx + 1).trim();
+		request.setHeader(name, value);
+	}
+
+	private void onHeaderDone() {
+		request.updateKeepAlive();
+
+		String transferEncoding = request.getHeaderTransferEncoding();
+		if (transferEncoding != null) {
+			if (!"chunked".equalsIgnoreCase(transferEncoding.trim())) {
+				fail(HttpStatusCode.NOT_IMPLEMENTED, "Transfer-Encoding: " + transferEncoding);
+				return;
+			}
+			startBody(0);
+			state = CHUNK_SIZE;
+			return;
+		}
+
+		Long contentLength;
+		try {
+			contentLength = request.getHeaderContentLength();
+		} catch (NumberFormatException ex) {
+			fail(HttpStatusCode.BAD_REQUEST, "Invalid Content-Length");
+			return;
+		}
+		if (contentLength == null || contentLength == 0) {
+			body = null;
+			dispatchRequest();
+			return;
+		}
+		if (contentLength < 0) {
+			fail(HttpStatusCode.BAD_REQUEST, "Invalid Content-Length");
+			return;
+		}
+		if (contentLength > server.getMaxRequestBodySize()) {
+			fail(HttpStatusCode.REQUEST_ENTITY_TOO_LARGE, null);
+			return;
+		}
+		startBody((int) (long) contentLength);
+		remainingBodyLength = contentLength;
+		state = BODY;
+	}
+
+	private void startBody(int size) {
+		body = new ByteArrayOutputStream(size > 0 ? size : 256);
+		if (request.isHeaderTokenPresent("Expect", "100-continue")) {
+			request.getConnection().sendString(HttpRequest.PROTOCOL_VERSION + " " + HttpStatusCode.CONTINUE + "\r\n\r\n");
+		}
+	}
+
+	private void parseChunkSize(String line) {
+		int end = line.indexOf(';');
+		String hex = (end < 0 ? line : line.substring(0, end)).trim();
+		long size;
+		try {
+			size = Long.parseLong(hex, 16);
+		} catch (NumberFormatException ex) {
+			fail(HttpStatusCode.BAD_REQUEST, "Invalid chunk size: " + line);
+			return;
+		}
+		if (size < 0) {
+			fail(HttpStatusCode.BAD_REQUEST, "Invalid chunk size: " + line);
+			return;
+		}
+		if (size == 0) {
+			state = TRAILERS;
+			headerCount = 0;
+			return;
+		}
+		if (body.size() + size > server.getMaxRequestBodySize()) {
+			fail(HttpStatusCode.REQUEST_ENTITY_TOO_LARGE, null);
+			return;
+		}
+		remainingBodyLength = size;
+		state = CHUNK_DATA;
+	}
+
+	private void dispatchRequest() {
+		request.setBody(body == null ? new byte[0] : body.toByteArray());
+		body = null;
+		state = request.isKeepAlive() ? START_LINE : CLOSED;
+
+		server.onHttpRequest(request);
+		HttpRequest request = this.request;
+		this.request = null;
+		if (!request.isResponseComplete()) {
+			log.warn("Request handled without complete response:", request);
+			request.setKeepAlive(false);
+			request.completeResponse();
+			state = CLOSED;
+		}
+	}
+
+	/**
+	 * Answers with an error and closes the connection, since the position of the next request is unknown.
+	 */
+	private void fail(HttpStatusCode code, String message) {
+		state = CLOSED;
+		if (request == null) {
+			request = new HttpRequest(connection);
+			request.setResponseHeaderServer(server.getName());
+		}
+		request.setKeepAlive(false);
+		if (request.isResponseComplete()) return;
+		if (request.isResponseHeadersSent()) {
+			request.completeResponse();
+			return;
+		}
+		request.sendEmptyResponse(code, message);
 	}
 
 	@Override
@@ -18,6 +18,7 @@ import ilarkesto.core.base.Str;
 import ilarkesto.core.logging.Log;
 import ilarkesto.io.nio.tcpserver.TcpConnection;
 
+import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -25,6 +26,8 @@ public class HttpRequest<S> {
 
 	static String SERVER = "Ilarkesto/1.1";
 	static final String PROTOCOL_VERSION = "HTTP/1.1";
+	static final Charset HEADER_CHARSET = Charset.forName("ISO-8859-1");
+	private static final String CRLF = "\r\n";
 
 	private static Log log = Log.get(HttpRequest.class);
 
@@ -33,10 +36,13 @@ public class HttpRequest<S> {
 	private String version;
 	private TcpConnection connection;
 	private Map<String, String> headers = new HashMap<String, String>();
+	private byte[] body;
+	private boolean keepAlive = true;
 
 	private String responseStatusLine;
 	private Map<String, String> responseHeaders = new HashMap<String, String>();
 	private boolean responseHeadersSent;
+	private boolean responseComplete;
 
 	private HttpSession<S> session;
 
@@ -45,6 +51,10 @@ public class HttpRequest<S> {
 		this.connection = connection;
 	}
 
+	public TcpConnection getConnection() {
+		return connection;
+	}
+
 	void setSession(HttpSession<S> session) {
 		this.session = session;
 	}
@@ -63,6 +73,58 @@ public class HttpRequest<S> {
 		return Integer.parseInt(value);
 	}
 
+	public Long getHeaderAsLong(String name) {
+		String value = getHeader(name);
+		if (value == null) return null;
+		return Long.parseLong(value.trim());
+	}
+
+	/**
+	 * Tests whether the comma separated values of the header contain the token, ignoring case.
+	 */
+	public boolean isHeaderTokenPresent(String name, String token) {
+		String value = getHeader(name);
+		if (value == null) return false;
+		for (String element : value.split(",")) {
+			if (element.trim().equalsIgnoreCase(token)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Body of the request, empty if the request has no body.
+	 */
+	public byte[] getBody() {
+		return body;
+	}
+
+	void setBody(byte[] body) {
+		this.body = body;
+	}
+
+	/**
+	 * Whether the connection stays open for further requests after the response. HTTP/1.1 connections are
+	 * persistent unless the client sends <code>Connection: close</code>, HTTP/1.0 connections only with
+	 * <code>Connection: keep-alive</code>.
+	 */
+	public boolean isKeepAlive() {
+		return keepAlive;
+	}
+
+	void setKeepAlive(boolean keepAlive) {
+		this.keepAlive = keepAlive;
+	}
+
+	void updateKeepAlive() {
+		if (isHeaderTokenPresent("Connection", "close")) {
+			keepAlive = false;
+		} else if (PROTOCOL_VERSION.equals(version)) {
+			keepAlive = true;
+		} else {
+			keepAlive = isHeaderTokenPresent("Connection", "keep-alive");
+		}
+	}
+
 	void setMethod(HttpMethod method) {
 		this.method = method;
 	}
@@ -103,8 +165,37 @@ public class HttpRequest<S> {
 
 	public void sendEmptyResponse(HttpStatusCode code, String statusMessage) {
 		setResponseStatus(code, statusMessage);
+		if (code != HttpStatusCode.NOT_MODIFIED && code != HttpStatusCode.NO_CONTENT)
+			setResponseHeader("Content-Length", "0");
 		sendResponseHeaders();
-		closeConnection();
+		completeResponse();
+	}
+
+	public void sendResponse(HttpStatusCode code, String contentType, byte[] body) {
+		setResponseStatus(code, null);
+		if (contentType != null) setResponseHeader("Content-Type", contentType);
+		setResponseHeader("Content-Length", String.valueOf(body.length));
+		sendResponseHeaders();
+		if (method != HttpMethod.HEAD && body.length > 0) connection.sendData(body);
+		completeResponse();
+	}
+
+	/**
+	 * Marks the response as complete after headers and body have been sent, closing the connection unless it is
+	 * kept alive.
+	 */
+	public void completeResponse() {
+		if (responseComplete) return;
+		responseComplete = true;
+		if (!keepAlive) closeConnection();
+	}
+
+	public boolean isResponseHeadersSent() {
+		return responseHeadersSent;
+	}
+
+	public boolean isResponseComplete() {
+		return responseComplete;
 	}
 
 	public void sendResponseHeaders() {
@@ -115,18 +206,21 @@ public class HttpRequest<S> {
 			setResponseStatus(HttpStatusCode.INTERNAL_SERVER_ERROR, null);
 			log.error("sendHeaders() responseStatusLine==null");
 		}
-		sendLine(responseStatusLine);
 		completeResponseHeaders();
+		StringBuilder sb = new StringBuilder(256);
+		sb.append(responseStatusLine).append(CRLF);
 		for (Map.Entry<String, String> header : responseHeaders.entrySet()) {
-			sendLine(header.getKey() + ": " + header.getValue());
+			sb.append(header.getKey()).append(": ").append(header.getValue()).append(CRLF);
 		}
-		sendLine("");
+		sb.append(CRLF);
+		connection.sendData(sb.toString().getBytes(HEADER_CHARSET));
 		responseHeadersSent = true;
 		log.debug(responseStatusLine);
 	}
 
 	private void completeResponseHeaders() {
 		completeResponseHeader("Server", SERVER);
+		if (!keepAlive) setResponseHeader("Connection", "close");
 	}
 
 	private void completeResponseHeader(String name, String defaultValue) {
@@ -134,10 +228,6 @@ public class HttpRequest<S> {
 		if (!responseHeaders.containsKey(name)) responseHeaders.put(name, defaultValue);
 	}
 
-	private void sendLine(String line) {
-		connection.sendLineCrLf(line);
-	}
-
 	public HttpMethod getMethod() {
 		return method;
 	}
@@ -153,7 +243,7 @@ public class HttpRequest<S> {
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
-		sb.append(method.name());
+		sb.append(method);
 		sb.append(" ");
 		sb.append(uri);
 		sb.append(" ");
@@ -171,8 +261,16 @@ public class HttpRequest<S> {
 		return getHeader("Transfer-Encoding");
 	}
 
+	public Long getHeaderContentLength() {
+		return getHeaderAsLong("Content-Length");
+	}
+
+	/**
+	 * @deprecated use <code>getHeaderContentLength()</code>
+	 */
+	@Deprecated
 	public Integer getHeaderContentLenght() {
-		return getHeaderAsInteger("Content-Lenght");
+		return getHeaderAsInteger("Content-Length");
 	}
 
 	// --- response header fields ---
@@ -22,7 +22,9 @@ import ilarkesto.io.nio.tcpserver.TcpConnection;
 import ilarkesto.io.nio.tcpserver.TcpServer;
 
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class HttpServer<S> {
 
@@ -30,17 +32,43 @@ public class HttpServer<S> {
 	private String name;
 
 	private Set<HttpSession<S>> sessions = new HashSet<HttpSession<S>>();
+	private List<HttpRequestHandler> requestHandlers = new CopyOnWriteArrayList<HttpRequestHandler>();
+	private long maxRequestBodySize = 10 * 1024 * 1024;
 
 	public HttpServer(int port, String serverName) {
+		this(port, serverName, 1, 1);
+	}
+
+	public HttpServer(int port, String serverName, int selectorCount, int workerCount) {
 		this.name = serverName;
-		server = new TcpServer(port, new PerConnectionDataHandler(new LocalHandlerFactory()));
+		server = new TcpServer(port, new PerConnectionDataHandler(new LocalHandlerFactory()), selectorCount,
+				workerCount);
+	}
+
+	/**
+	 * Handlers are asked in the order they were added, the first one returning <code>true</code> has sent the
+	 * response. Requests no handler takes are answered with 404.
+	 */
+	public void addRequestHandler(HttpRequestHandler handler) {
+		requestHandlers.add(handler);
 	}
 
 	void onHttpRequest(HttpRequest request) {
 		updateSession(request);
+		for (HttpRequestHandler handler : requestHandlers) {
+			if (handler.onHttpRequest(request)) return;
+		}
 		request.sendEmptyResponse(HttpStatusCode.NOT_FOUND);
 	}
 
+	public void setMaxRequestBodySize(long maxRequestBodySize) {
+		this.maxRequestBodySize = maxRequestBodySize;
+	}
+
+	public long getMaxRequestBodySize() {
+		return maxRequestBodySize;
+	}
+
 	private void updateSession(HttpRequest request) {
 		HttpSession<S> session = getSession("todo");
 		if (session == null) {
@@ -62,6 +90,14 @@ public class HttpServer<S> {
 		server.start(taskManager);
 	}
 
+	public void stop() {
+		server.stop();
+	}
+
+	public TcpServer getTcpServer() {
+		return server;
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -15,8 +15,18 @@
 package ilarkesto.io.nio.httpserver;
 
 public enum HttpStatusCode {
-	BAD_REQUEST(400, "Bad Request"), NOT_FOUND(404, "Not Found"), INTERNAL_SERVER_ERROR(500, "Internal Server Error"), NOT_IMPLEMENTED(
-			501, "Not Implemented");
+	CONTINUE(100, "Continue"),
+	OK(200, "OK"),
+	NO_CONTENT(204, "No Content"),
+	PARTIAL_CONTENT(206, "Partial Content"),
+	NOT_MODIFIED(304, "Not Modified"),
+	BAD_REQUEST(400, "Bad Request"),
+	NOT_FOUND(404, "Not Found"),
+	REQUEST_ENTITY_TOO_LARGE(413, "Request Entity Too Large"),
+	REQUESTED_RANGE_NOT_SATISFIABLE(416, "Requested Range Not Satisfiable"),
+	REQUEST_HEADER_FIELDS_TOO_LARGE(431, "Request Header Fields Too Large"),
+	INTERNAL_SERVER_ERROR(500, "Internal Server Error"),
+	NOT_IMPLEMENTED(501, "Not Implemented");
 
 	private int code;
 	private String text;
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io.nio.httpserver;
+
+import ilarkesto.core.base.Filename;
+import ilarkesto.io.FileContentCache;
+import ilarkesto.net.ByteRange;
+import ilarkesto.net.Http;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Serves the files of a directory for GET and HEAD requests below an URI prefix. Small files come from a
+ * <code>FileContentCache</code>, bigger ones are sent with <code>FileChannel.transferTo()</code>. Supports
+ * <code>If-None-Match</code> and single byte ranges.
+ */
+public class StaticFilesRequestHandler implements HttpRequestHandler {
+
+	private File root;
+	private String rootPath;
+	private String uriPrefix;
+	private FileContentCache cache;
+
+	public StaticFilesRequestHandler(File root, String uriPrefix) {
+		this(root, uriPrefix, new FileContentCache(16 * 1024 * 1024, 64 * 1024));
+	}
+
+	public StaticFilesRequestHandler(File root, String uriPrefix, FileContentCache cache) {
+		super();
+		this.root = root;
+		this.uriPrefix = uriPrefix;
+		this.cache = cache;
+		try {
+			rootPath = root.getCanonicalPath();
+		} catch (IOException ex) {
+			throw new RuntimeException("Resolving root directory failed: " + root, ex);
+		}
+	}
+
+	@Override
+	public boolean onHttpRequest(HttpRequest request) {
+		HttpMethod method = request.getMethod();
+		if (method != HttpMethod.GET && method != HttpMethod.HEAD) return false;
+
+		File file = getFile(request.getUri());
+		if (file == null) return false;
+
+		String eTag = Http.createEtag(file.lastModified());
+		request.setResponseHeader(Http.REQUEST_HEADER_ETAG, eTag);
+		if (Http.isEtagMatching(request.getHeader(Http.REQUEST_HEADER_IF_NONE_MATCH), eTag)) {
+			request.sendEmptyResponse(HttpStatusCode.NOT_MODIFIED);
+			return true;
+		}
+
+		long length = file.length();
+		request.setResponseHeader(Http.RESPONSE_HEADER_ACCEPT_RANGES, "bytes");
+		request.setResponseHeader(Http.RESPONSE_HEADER_CONTENT_TYPE,
+			Http.getMimeTypeFromFilenameSuffix(new Filename(file.getName()).getSuffix()));
+
+		ByteRange range = ByteRange.parse(request.getHeader(Http.REQUEST_HEADER_RANGE), length);
+		if (range != null && Http.isIfRangeMatching(request.getHeader(Http.REQUEST_HEADER_IF_RANGE), eTag)) {
+			if (!range.isSatisfiable()) {
+				request.setResponseHeader(Http.RESPONSE_HEADER_CONTENT_RANGE, range.getUnsatisfiedContentRange());
+				request.sendEmptyResponse(HttpStatusCode.REQUESTED_RANGE_NOT_SATISFIABLE);
+				return true;
+			}
+			request.setResponseStatus(HttpStatusCode.PARTIAL_CONTENT, null);
+			request.setResponseHeader(Http.RESPONSE_HEADER_CONTENT_RANGE, range.getContentRange());
+			sendFile(request, file, range.getStart(), range.getLength());
+			return true;
+		}
+
+		if (length <= cache.getMaxFileSize()) {
+			byte[] data = cache.get(file);
+			if (data != null) {
+				request.sendResponse(HttpStatusCode.OK, null, data);
+				return true;
+			}
+		}
+
+		request.setResponseStatus(HttpStatusCode.OK, null);
+		sendFile(request, file, 0, length);
+		return true;
+	}
+
+	private void sendFile(HttpRequest request, File file, long position, long count) {
+		request.setResponseHeader(Http.RESPONSE_HEADER_CONTENT_LENGTH, String.valueOf(count));
+		request.sendResponseHeaders();
+		if (request.getMethod() != HttpMethod.HEAD && count > 0) request.getConnection().sendFile(file, position, count);
+		request.completeResponse();
+	}
+
+	/**
+	 * @return the existing regular file below the root for the URI or <code>null</code>
+	 */
+	private File getFile(String uri) {
+		if (!uri.startsWith(uriPrefix)) return null;
+		String path = uri.substring(uriPrefix.length());
+		int queryIdx = path.indexOf('?');
+		if (queryIdx >= 0) path = path.substring(0, queryIdx);
+		path = Http.decodeUrlPath(path);
+		if (path == null) return null;
+
+		File file = new File(root, path);
+		if (file.isDirectory()) file = new File(file, "index.html");
+		if (!file.isFile()) return null;
+		try {
+			String filePath = file.getCanonicalPath();
+			if (!filePath.startsWith(rootPath + File.separator)) return null;
+		} catch (IOException ex) {
+			return null;
+		}
+		return file;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + ":" + uriPrefix + " -> " + root;
+	}
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io.nio.tcpserver;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct buffers of a fixed size. Released buffers are kept for reuse up to <code>maxPooledBuffers</code>,
+ * further ones are left to the garbage collector.
+ */
+public class BufferPool {
+
+	private final int bufferSize;
+	private final int maxPooledBuffers;
+
+	private final Queue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final AtomicInteger freeCount = new AtomicInteger();
+	private final AtomicInteger allocatedCount = new AtomicInteger();
+
+	public BufferPool(int bufferSize, int maxPooledBuffers) {
+		this.bufferSize = bufferSize;
+		this.maxPooledBuffers = maxPooledBuffers;
+	}
+
+	public PooledBuffer acquire() {
+		ByteBuffer buffer = freeBuffers.poll();
+		if (buffer == null) {
+			buffer = ByteBuffer.allocateDirect(bufferSize);
+			allocatedCount.incrementAndGet();
+		} else {
+			freeCount.decrementAndGet();
+		}
+		return new PooledBuffer(this, buffer);
+	}
+
+	void recycle(ByteBuffer buffer) {
+		if (freeCount.get() >= maxPooledBuffers) return;
+		buffer.clear();
+		freeCount.incrementAndGet();
+		freeBuffers.add(buffer);
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public int getFreeCount() {
+		return freeCount.get();
+	}
+
+	public int getAllocatedCount() {
+		return allocatedCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + ":" + bufferSize + " (" + freeCount.get() + "/" + allocatedCount.get()
+				+ " free)";
+	}
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io.nio.tcpserver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Region of a file queued for sending. It is written with <code>FileChannel.transferTo()</code>, so the content
+ * goes from the page cache to the socket without being copied through the heap.
+ */
+final class FileRegion {
+
+	private final File file;
+	private FileInputStream in;
+	private long position;
+	private long remaining;
+
+	FileRegion(File file, long position, long count) {
+		this.file = file;
+		this.position = position;
+		this.remaining = count;
+	}
+
+	/**
+	 * @return bytes written, the region is complete when <code>hasRemaining()</code> returns false
+	 */
+	long transferTo(WritableByteChannel target) throws IOException {
+		if (in == null) in = new FileInputStream(file);
+		FileChannel channel = in.getChannel();
+		long written = channel.transferTo(position, remaining, target);
+		if (written <= 0 && position >= channel.size()) {
+			// file got shorter
+			remaining = 0;
+			return 0;
+		}
+		position += written;
+		remaining -= written;
+		return written;
+	}
+
+	boolean hasRemaining() {
+		return remaining > 0;
+	}
+
+	void close() {
+		if (in == null) return;
+		try {
+			in.close();
+		} catch (IOException ex) {
+			// nop
+		}
+		in = null;
+	}
+
+	@Override
+	public String toString() {
+		return file.getPath() + "@" + position + "+" + remaining;
+	}
+
+}
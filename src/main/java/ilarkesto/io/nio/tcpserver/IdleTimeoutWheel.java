@@ -0,0 +1,72 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io.nio.tcpserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed timer wheel for the idle timeouts of the connections of one selector. Not thread safe, it is only used by
+ * the selector thread. A connection is scheduled once for its deadline; when the deadline passes, the selector
+ * checks the last activity and either closes the connection or schedules it again. So activity costs nothing but
+ * updating a timestamp.
+ */
+final class IdleTimeoutWheel {
+
+	private final long tickMillis;
+	private final List<List<TcpConnection>> slots;
+	private long currentTick;
+
+	IdleTimeoutWheel(long tickMillis, int slotCount, long now) {
+		this.tickMillis = tickMillis;
+		slots = new ArrayList<List<TcpConnection>>(slotCount);
+		for (int i = 0; i < slotCount; i++) {
+			slots.add(new ArrayList<TcpConnection>());
+		}
+		currentTick = now / tickMillis;
+	}
+
+	void schedule(TcpConnection connection, long deadline) {
+		connection.idleDeadline = deadline;
+		long tick = Math.max(deadline / tickMillis, currentTick);
+		slots.get((int) (tick % slots.size())).add(connection);
+	}
+
+	/**
+	 * Removes and returns the connections whose deadline passed.
+	 */
+	List<TcpConnection> expire(long now, List<TcpConnection> result) {
+		long nowTick = now / tickMillis;
+		long ticks = Math.min(nowTick - currentTick + 1, slots.size());
+		for (long tick = nowTick - ticks + 1; tick <= nowTick; tick++) {
+			List<TcpConnection> slot = slots.get((int) (tick % slots.size()));
+			for (int i = slot.size() - 1; i >= 0; i--) {
+				TcpConnection connection = slot.get(i);
+				if (connection.idleDeadline > now) continue;
+				result.add(connection);
+				int last = slot.size() - 1;
+				slot.set(i, slot.get(last));
+				slot.remove(last);
+			}
+		}
+		currentTick = nowTick;
+		return result;
+	}
+
+	long getTickMillis() {
+		return tickMillis;
+	}
+
+}
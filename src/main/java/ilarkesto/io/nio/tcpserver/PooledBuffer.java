@@ -0,0 +1,70 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io.nio.tcpserver;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reference counted buffer of a <code>BufferPool</code>. It is created with one reference and goes back to the
+ * pool when the last reference is released.
+ */
+public final class PooledBuffer {
+
+	private final BufferPool pool;
+	private final ByteBuffer buffer;
+	private final AtomicInteger referenceCount = new AtomicInteger(1);
+
+	PooledBuffer(BufferPool pool, ByteBuffer buffer) {
+		this.pool = pool;
+		this.buffer = buffer;
+	}
+
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Independent view of the given region, sharing the content of this buffer.
+	 */
+	public ByteBuffer slice(int offset, int length) {
+		ByteBuffer slice = buffer.duplicate();
+		slice.limit(offset + length);
+		slice.position(offset);
+		return slice.slice();
+	}
+
+	public PooledBuffer retain() {
+		while (true) {
+			int count = referenceCount.get();
+			if (count <= 0) throw new IllegalStateException("Buffer already released");
+			if (referenceCount.compareAndSet(count, count + 1)) return this;
+		}
+	}
+
+	public void release() {
+		int count = referenceCount.decrementAndGet();
+		if (count == 0) {
+			pool.recycle(buffer);
+			return;
+		}
+		if (count < 0) throw new IllegalStateException("Buffer already released");
+	}
+
+	public int getReferenceCount() {
+		return referenceCount.get();
+	}
+
+}
@@ -16,40 +16,54 @@ package ilarkesto.io.nio.tcpserver;
 
 import ilarkesto.concurrent.ALoopTask;
 import ilarkesto.core.logging.Log;
+import ilarkesto.core.time.Tm;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
+/**
+ * Reactor of a <code>TcpServer</code>, doing the I/O of its share of the connections. The accepting selector owns
+ * the server socket and hands accepted connections over to the selectors of the server.
+ */
 public class SelectorTask extends ALoopTask {
 
 	private Log log = Log.get(getClass());
 
-	private WorkerTask worker;
+	private TcpServer server;
 	private int port;
+	private boolean acceptor;
 
 	private InetAddress hostAddress;
 	private ServerSocketChannel serverChannel;
-	private Selector selector;
+	private volatile Selector selector;
+
+	private static final int MIN_READ_SPACE = 4096;
 
-	private ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+	private PooledBuffer readBuffer;
+	private ByteBuffer[] writeBuffers = new ByteBuffer[64];
 
 	private List changeRequests = new LinkedList();
-	private List<TcpConnection> connections = new LinkedList<TcpConnection>();
 
-	public SelectorTask(int port, WorkerTask worker) {
+	private IdleTimeoutWheel idleTimeoutWheel;
+	private long nextIdleCheck;
+	private List<TcpConnection> expiredConnections = new ArrayList<TcpConnection>();
+
+	public SelectorTask(TcpServer server, int port, boolean acceptor) {
+		this.server = server;
 		this.port = port;
-		this.worker = worker;
+		this.acceptor = acceptor;
 	}
 
 	@Override
@@ -59,7 +73,12 @@ public class SelectorTask extends ALoopTask {
 		} catch (IOException ex) {
 			throw new RuntimeException("Initializing selector failed.", ex);
 		}
-		log.info("TCP server started on port", port);
+		long idleTimeout = server.getIdleTimeout();
+		if (idleTimeout > 0) {
+			long tick = Math.max(100, idleTimeout / 16);
+			idleTimeoutWheel = new IdleTimeoutWheel(tick, 256, Tm.getCurrentTimeMillis());
+		}
+		if (acceptor) log.info("TCP server started on port", port);
 	}
 
 	@Override
@@ -69,9 +88,17 @@ public class SelectorTask extends ALoopTask {
 			while (changes.hasNext()) {
 				ChangeRequest change = (ChangeRequest) changes.next();
 				switch (change.type) {
+					case ChangeRequest.REGISTER:
+						try {
+							registerConnection(change.socket);
+						} catch (IOException ex) {
+							log.warn("Registering connection failed:", change.socket, ex);
+							closeChannel(change.socket);
+						}
+						break;
 					case ChangeRequest.CHANGEOPS:
 						SelectionKey key = change.socket.keyFor(this.selector);
-						if (key.isValid()) {
+						if (key != null && key.isValid()) {
 							key.interestOps(change.ops);
 						}
 				}
@@ -80,7 +107,11 @@ public class SelectorTask extends ALoopTask {
 		}
 
 		try {
-			selector.select();
+			if (idleTimeoutWheel == null) {
+				selector.select();
+			} else {
+				selector.select(idleTimeoutWheel.getTickMillis());
+			}
 		} catch (IOException ex) {
 			throw new RuntimeException("Selector.select() failed.");
 		}
@@ -114,6 +145,28 @@ public class SelectorTask extends ALoopTask {
 				}
 			}
 		}
+
+		if (idleTimeoutWheel != null) closeIdleConnections();
+	}
+
+	private void closeIdleConnections() {
+		long now = Tm.getCurrentTimeMillis();
+		if (now < nextIdleCheck) return;
+		nextIdleCheck = now + idleTimeoutWheel.getTickMillis();
+
+		long idleTimeout = server.getIdleTimeout();
+		for (TcpConnection connection : idleTimeoutWheel.expire(now, expiredConnections)) {
+			if (!connection.socketChannel.isOpen()) continue;
+			long deadline = connection.lastActivityTime + idleTimeout;
+			if (deadline > now) {
+				idleTimeoutWheel.schedule(connection, deadline);
+				continue;
+			}
+			log.debug("Closing idle connection:", connection);
+			server.getStatistics().onIdleClosed();
+			closeConnectionInternal(connection);
+		}
+		expiredConnections.clear();
 	}
 
 	@Override
@@ -121,6 +174,19 @@ public class SelectorTask extends ALoopTask {
 		throw ex;
 	}
 
+	@Override
+	public void abort() {
+		super.abort();
+		wakeupSelector();
+	}
+
+	void register(SocketChannel socket) {
+		synchronized (changeRequests) {
+			changeRequests.add(new ChangeRequest(socket, ChangeRequest.REGISTER, SelectionKey.OP_READ));
+		}
+		wakeupSelector();
+	}
+
 	void sendChangeRequestForWrite(SocketChannel socket) {
 		synchronized (changeRequests) {
 			changeRequests.add(new ChangeRequest(socket, ChangeRequest.CHANGEOPS, SelectionKey.OP_WRITE));
@@ -128,26 +194,53 @@ public class SelectorTask extends ALoopTask {
 	}
 
 	void wakeupSelector() {
-		selector.wakeup();
+		Selector selector = this.selector;
+		if (selector != null) selector.wakeup();
 	}
 
 	private void write(SelectionKey key) throws IOException {
 		SocketChannel socketChannel = (SocketChannel) key.channel();
-		TcpConnection connection = getConnectionByChannel(socketChannel);
-		// Write until there's not more data ...
+		TcpConnection connection = (TcpConnection) key.attachment();
+		// Write until there's not more data or the socket's buffer fills up
 		while (!connection.pendingData.isEmpty()) {
-			ByteBuffer data = connection.pendingData.peek();
-			if (data == TcpConnection.CLOSE_CONNECTION) {
+			Object head = connection.pendingData.peek();
+			if (head == TcpConnection.CLOSE_CONNECTION) {
 				log.debug("Closing client connection:", connection);
 				closeConnectionInternal(connection);
 				return;
 			}
-			socketChannel.write(data);
-			if (data.remaining() > 0) {
-				// ... or the socket's buffer fills up
-				break;
+			if (head instanceof FileRegion) {
+				FileRegion region = (FileRegion) head;
+				long written = region.transferTo(socketChannel);
+				server.getStatistics().onWritten(written);
+				connection.onWritten(written);
+				if (region.hasRemaining()) break;
+				region.close();
+				connection.pendingData.poll();
+				continue;
 			}
-			connection.pendingData.remove(data);
+
+			int count = 0;
+			for (Object data : connection.pendingData) {
+				if (!(data instanceof ByteBuffer) || data == TcpConnection.CLOSE_CONNECTION
+						|| count == writeBuffers.length) break;
+				writeBuffers[count++] = (ByteBuffer) data;
+			}
+
+			long written = socketChannel.write(writeBuffers, 0, count);
+			server.getStatistics().onWritten(written);
+			connection.onWritten(written);
+
+			boolean socketFull = false;
+			for (int i = 0; i < count; i++) {
+				if (writeBuffers[i].hasRemaining()) {
+					socketFull = true;
+					break;
+				}
+				connection.pendingData.poll();
+			}
+			Arrays.fill(writeBuffers, 0, count, null);
+			if (socketFull) break;
 		}
 		if (connection.pendingData.isEmpty()) {
 			// We wrote away all data, so we're no longer interested
@@ -159,13 +252,17 @@ public class SelectorTask extends ALoopTask {
 
 	private void read(SelectionKey key) throws IOException {
 		SocketChannel socketChannel = (SocketChannel) key.channel();
-		TcpConnection connection = getConnectionByChannel(socketChannel);
+		TcpConnection connection = (TcpConnection) key.attachment();
 
-		this.readBuffer.clear();
+		if (readBuffer == null || readBuffer.getBuffer().remaining() < MIN_READ_SPACE) {
+			if (readBuffer != null) readBuffer.release();
+			readBuffer = server.getBufferPool().acquire();
+		}
+		int offset = readBuffer.getBuffer().position();
 
 		int numRead;
 		try {
-			numRead = socketChannel.read(this.readBuffer);
+			numRead = socketChannel.read(readBuffer.getBuffer());
 		} catch (IOException e) {
 			log.debug("Client forcibly closed connection:", connection);
 			closeConnection(key);
@@ -178,55 +275,65 @@ public class SelectorTask extends ALoopTask {
 			return;
 		}
 
-		worker.processData(connection, readBuffer.array(), numRead);
-	}
+		if (numRead == 0) return;
 
-	private TcpConnection getConnectionByKey(SelectionKey key) {
-		return getConnectionByChannel(key.channel());
-	}
-
-	private TcpConnection getConnectionByChannel(SelectableChannel channel) {
-		synchronized (connections) {
-			for (TcpConnection connection : connections) {
-				if (connection.socketChannel == channel) return connection;
-			}
-		}
-		throw new IllegalStateException("No TcpConnection found for channel " + channel);
+		server.getStatistics().onRead(numRead);
+		connection.onRead(numRead);
+		// the worker gets a slice of the read buffer, following reads go behind it
+		ServerDataEvent event = new ServerDataEvent(connection, readBuffer.retain(), readBuffer.slice(offset, numRead));
+		connection.worker.processEvent(event);
 	}
 
 	private void closeConnection(SelectionKey key) {
 		key.cancel();
-		closeConnectionInternal(getConnectionByKey(key));
+		closeConnectionInternal((TcpConnection) key.attachment());
 	}
 
 	private void closeConnectionInternal(TcpConnection connection) {
-		synchronized (connections) {
-			connections.remove(connection);
+		if (!connection.socketChannel.isOpen()) return;
+		closeChannel(connection.socketChannel);
+		for (Object data : connection.pendingData) {
+			if (data instanceof FileRegion) ((FileRegion) data).close();
 		}
+		server.getStatistics().onClosed();
+		connection.worker.processData(connection, null, -1);
+	}
+
+	private void closeChannel(SocketChannel channel) {
 		try {
-			connection.socketChannel.close();
+			channel.close();
 		} catch (IOException ex) {
 			// nop
 		}
-		worker.processData(connection, null, -1);
 	}
 
 	private void accept(SelectionKey key) throws IOException {
 		ServerSocketChannel serverSocketChannel = (ServerSocketChannel) key.channel();
 		SocketChannel socketChannel = serverSocketChannel.accept();
-		TcpConnection tcpConnection = new TcpConnection(this, socketChannel);
-		synchronized (connections) {
-			connections.add(tcpConnection);
+		if (socketChannel == null) return;
+		socketChannel.configureBlocking(false);
+		server.getStatistics().onAccepted();
+
+		SelectorTask target = server.nextSelector();
+		if (target == this) {
+			registerConnection(socketChannel);
+		} else {
+			target.register(socketChannel);
 		}
+	}
 
+	private void registerConnection(SocketChannel socketChannel) throws IOException {
+		TcpConnection tcpConnection = new TcpConnection(this, socketChannel, server.nextWorker());
 		log.debug("Client connected:", tcpConnection);
 
-		socketChannel.configureBlocking(false);
-		socketChannel.register(this.selector, SelectionKey.OP_READ);
+		socketChannel.register(this.selector, SelectionKey.OP_READ, tcpConnection);
+		if (idleTimeoutWheel != null)
+			idleTimeoutWheel.schedule(tcpConnection, tcpConnection.lastActivityTime + server.getIdleTimeout());
 	}
 
 	private Selector initSelector() throws IOException {
 		Selector socketSelector = SelectorProvider.provider().openSelector();
+		if (!acceptor) return socketSelector;
 		serverChannel = ServerSocketChannel.open();
 		serverChannel.configureBlocking(false);
 		InetSocketAddress isa = new InetSocketAddress(hostAddress, port);
@@ -235,6 +342,11 @@ public class SelectorTask extends ALoopTask {
 		return socketSelector;
 	}
 
+	@Override
+	protected boolean isRunInTransactionEnabled() {
+		return false;
+	}
+
 	public int getPort() {
 		return port;
 	}
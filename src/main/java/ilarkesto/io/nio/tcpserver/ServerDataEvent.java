@@ -14,22 +14,70 @@
  */
 package ilarkesto.io.nio.tcpserver;
 
+import java.nio.ByteBuffer;
+
+/**
+ * Data received on a connection. The data is a region of a pooled read buffer, which is released after
+ * <code>DataHandler.onDataReceived()</code> returned. Handlers which keep the buffer beyond that call
+ * <code>retain()</code> and later <code>release()</code>.
+ */
 public class ServerDataEvent {
 
 	private TcpConnection connection;
 	private byte[] data;
+	private ByteBuffer buffer;
+	private PooledBuffer pooledBuffer;
 
 	public ServerDataEvent(TcpConnection connection, byte[] data) {
 		this.connection = connection;
 		this.data = data;
+		if (data != null) buffer = ByteBuffer.wrap(data);
+	}
+
+	ServerDataEvent(TcpConnection connection, PooledBuffer pooledBuffer, ByteBuffer buffer) {
+		this.connection = connection;
+		this.pooledBuffer = pooledBuffer;
+		this.buffer = buffer;
 	}
 
 	public TcpConnection getConnection() {
 		return connection;
 	}
 
+	/**
+	 * Copy of the received data.
+	 */
 	public byte[] getData() {
+		if (data == null && buffer != null) {
+			ByteBuffer source = buffer.duplicate();
+			data = new byte[source.remaining()];
+			source.get(data);
+		}
 		return data;
 	}
 
+	/**
+	 * The received data without copying. The returned view can be consumed independently of other calls.
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer == null ? null : buffer.duplicate();
+	}
+
+	public int getLength() {
+		return buffer == null ? 0 : buffer.remaining();
+	}
+
+	public ServerDataEvent retain() {
+		if (pooledBuffer != null) pooledBuffer.retain();
+		return this;
+	}
+
+	public void release() {
+		if (pooledBuffer != null) pooledBuffer.release();
+	}
+
+	boolean isConnectionClosed() {
+		return buffer == null;
+	}
+
 }
@@ -14,6 +14,9 @@
  */
 package ilarkesto.io.nio.tcpserver;
 
+import ilarkesto.core.time.Tm;
+
+import java.io.File;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
@@ -24,27 +27,83 @@ public class TcpConnection {
 	static final ByteBuffer CLOSE_CONNECTION = ByteBuffer.wrap(new byte[0]);
 
 	SelectorTask server;
+	WorkerTask worker;
 	SocketChannel socketChannel;
 	String remoteHost;
 	int remotePort;
 	int localPort;
 
-	ConcurrentLinkedQueue<ByteBuffer> pendingData = new ConcurrentLinkedQueue<ByteBuffer>();
+	/**
+	 * <code>ByteBuffer</code>s and <code>FileRegion</code>s to be written.
+	 */
+	ConcurrentLinkedQueue<Object> pendingData = new ConcurrentLinkedQueue<Object>();
 	boolean closed;
 
-	TcpConnection(SelectorTask server, SocketChannel socketChannel) {
+	// updated by the selector thread only
+	volatile long lastActivityTime;
+	volatile long bytesRead;
+	volatile long bytesWritten;
+	long idleDeadline;
+
+	/**
+	 * Connection without a socket, for handlers which are driven without a server, e.g. in tests.
+	 */
+	protected TcpConnection() {}
+
+	TcpConnection(SelectorTask server, SocketChannel socketChannel, WorkerTask worker) {
 		this.server = server;
+		this.worker = worker;
 		this.socketChannel = socketChannel;
 		Socket socket = getSocket();
 		remoteHost = socket.getInetAddress().getHostAddress();
 		remotePort = socket.getPort();
 		localPort = socket.getLocalPort();
+		lastActivityTime = Tm.getCurrentTimeMillis();
+	}
+
+	void onRead(int bytes) {
+		bytesRead += bytes;
+		lastActivityTime = Tm.getCurrentTimeMillis();
+	}
+
+	void onWritten(long bytes) {
+		bytesWritten += bytes;
+		lastActivityTime = Tm.getCurrentTimeMillis();
+	}
+
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	public long getLastActivityTime() {
+		return lastActivityTime;
 	}
 
 	public void sendData(byte[] data) {
+		sendData(data == null ? CLOSE_CONNECTION : ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Queues the remaining content of the buffer. The buffer must not be modified until it is written.
+	 */
+	public void sendData(ByteBuffer data) {
+		if (closed) throw new IllegalStateException("Connection already closed: " + toString());
+		server.sendChangeRequestForWrite(socketChannel);
+		pendingData.add(data);
+		server.wakeupSelector();
+	}
+
+	/**
+	 * Queues a region of a file, which is sent by the operating system without copying it through the heap.
+	 */
+	public void sendFile(File file, long position, long count) {
 		if (closed) throw new IllegalStateException("Connection already closed: " + toString());
 		server.sendChangeRequestForWrite(socketChannel);
-		pendingData.add(data == null ? CLOSE_CONNECTION : ByteBuffer.wrap(data));
+		pendingData.add(new FileRegion(file, position, count));
 		server.wakeupSelector();
 	}
 
@@ -58,7 +117,7 @@ public class TcpConnection {
 	}
 
 	public void close() {
-		sendData(null);
+		sendData(CLOSE_CONNECTION);
 		closed = true;
 	}
 
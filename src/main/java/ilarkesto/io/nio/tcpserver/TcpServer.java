@@ -16,34 +16,113 @@ package ilarkesto.io.nio.tcpserver;
 
 import ilarkesto.concurrent.TaskManager;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 // http://rox-xmlrpc.sourceforge.net/niotut/
+/**
+ * NIO TCP server with <code>selectorCount</code> selectors and <code>workerCount</code> workers. Accepted
+ * connections are distributed round robin over the selectors, which do the I/O, and over the workers, which call
+ * the <code>DataHandler</code>. Every connection stays on its selector and its worker, so its events are handled in
+ * order.
+ */
 public class TcpServer {
 
-	private SelectorTask selectorTask;
-	private WorkerTask workerTask;
+	private SelectorTask[] selectorTasks;
+	private WorkerTask[] workerTasks;
+	private TcpServerStatistics statistics = new TcpServerStatistics();
+	private BufferPool bufferPool = new BufferPool(64 * 1024, 256);
+	private volatile long idleTimeout;
+
+	private AtomicInteger selectorCounter = new AtomicInteger();
+	private AtomicInteger workerCounter = new AtomicInteger();
 
 	public TcpServer(int port, DataHandler dataHandler) {
-		workerTask = new WorkerTask(dataHandler);
-		selectorTask = new SelectorTask(port, workerTask);
+		this(port, dataHandler, 1, 1);
+	}
+
+	public TcpServer(int port, DataHandler dataHandler, int selectorCount, int workerCount) {
+		if (selectorCount < 1) throw new IllegalArgumentException("selectorCount < 1");
+		if (workerCount < 1) throw new IllegalArgumentException("workerCount < 1");
+		workerTasks = new WorkerTask[workerCount];
+		for (int i = 0; i < workerCount; i++) {
+			workerTasks[i] = new WorkerTask(dataHandler, statistics);
+		}
+		selectorTasks = new SelectorTask[selectorCount];
+		for (int i = 0; i < selectorCount; i++) {
+			selectorTasks[i] = new SelectorTask(this, port, i == 0);
+		}
 	}
 
 	public void start(TaskManager taskManager) {
-		taskManager.start(workerTask);
-		taskManager.start(selectorTask);
+		for (WorkerTask workerTask : workerTasks) {
+			taskManager.start(workerTask);
+		}
+		for (SelectorTask selectorTask : selectorTasks) {
+			taskManager.start(selectorTask);
+		}
 	}
 
 	public void stop() {
-		selectorTask.abort();
-		workerTask.abort();
+		for (SelectorTask selectorTask : selectorTasks) {
+			selectorTask.abort();
+		}
+		for (WorkerTask workerTask : workerTasks) {
+			workerTask.abort();
+		}
+	}
+
+	/**
+	 * Connections without reads or writes for the given time get closed. Needs to be set before
+	 * <code>start()</code>; 0 (default) disables the timeout.
+	 */
+	public void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	public long getActiveConnectionCount() {
+		return statistics.getOpenConnections();
+	}
+
+	SelectorTask nextSelector() {
+		return selectorTasks[next(selectorCounter, selectorTasks.length)];
+	}
+
+	WorkerTask nextWorker() {
+		return workerTasks[next(workerCounter, workerTasks.length)];
+	}
+
+	private static int next(AtomicInteger counter, int count) {
+		if (count == 1) return 0;
+		return (counter.getAndIncrement() & Integer.MAX_VALUE) % count;
+	}
+
+	BufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	public TcpServerStatistics getStatistics() {
+		return statistics;
+	}
+
+	public int getSelectorCount() {
+		return selectorTasks.length;
+	}
+
+	public int getWorkerCount() {
+		return workerTasks.length;
 	}
 
 	public int getPort() {
-		return selectorTask.getPort();
+		return selectorTasks[0].getPort();
 	}
 
 	@Override
 	public String toString() {
-		return getClass().getSimpleName() + ":" + selectorTask.getPort();
+		return getClass().getSimpleName() + ":" + getPort();
 	}
 
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io.nio.tcpserver;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of a <code>TcpServer</code>, shared by all its selectors and workers.
+ */
+public class TcpServerStatistics {
+
+	private final AtomicLong acceptedConnections = new AtomicLong();
+	private final AtomicLong closedConnections = new AtomicLong();
+	private final AtomicLong idleClosedConnections = new AtomicLong();
+	private final AtomicLong reads = new AtomicLong();
+	private final AtomicLong bytesRead = new AtomicLong();
+	private final AtomicLong writes = new AtomicLong();
+	private final AtomicLong bytesWritten = new AtomicLong();
+	private final AtomicLong queuedEvents = new AtomicLong();
+	private final AtomicLong processedEvents = new AtomicLong();
+
+	void onAccepted() {
+		acceptedConnections.incrementAndGet();
+	}
+
+	void onClosed() {
+		closedConnections.incrementAndGet();
+	}
+
+	void onIdleClosed() {
+		idleClosedConnections.incrementAndGet();
+	}
+
+	void onRead(int bytes) {
+		reads.incrementAndGet();
+		bytesRead.addAndGet(bytes);
+	}
+
+	void onWritten(long bytes) {
+		writes.incrementAndGet();
+		bytesWritten.addAndGet(bytes);
+	}
+
+	void onEventQueued() {
+		queuedEvents.incrementAndGet();
+	}
+
+	void onEventProcessed() {
+		processedEvents.incrementAndGet();
+	}
+
+	public long getAcceptedConnections() {
+		return acceptedConnections.get();
+	}
+
+	public long getOpenConnections() {
+		return acceptedConnections.get() - closedConnections.get();
+	}
+
+	/**
+	 * Connections closed by the server because they exceeded the idle timeout.
+	 */
+	public long getIdleClosedConnections() {
+		return idleClosedConnections.get();
+	}
+
+	public long getReads() {
+		return reads.get();
+	}
+
+	public long getBytesRead() {
+		return bytesRead.get();
+	}
+
+	public long getWrites() {
+		return writes.get();
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+
+	public long getProcessedEvents() {
+		return processedEvents.get();
+	}
+
+	/**
+	 * Number of events waiting in the queues of all workers.
+	 */
+	public long getQueueDepth() {
+		return queuedEvents.get() - processedEvents.get();
+	}
+
+	@Override
+	public String toString() {
+		return "accepted=" + getAcceptedConnections() + ", open=" + getOpenConnections() + ", idleClosed="
+				+ getIdleClosedConnections() + ", reads=" + getReads() + ", bytesRead=" + getBytesRead() + ", writes="
+				+ getWrites() + ", bytesWritten=" + getBytesWritten() + ", queueDepth=" + getQueueDepth();
+	}
+
+}
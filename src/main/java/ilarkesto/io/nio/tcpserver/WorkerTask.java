@@ -16,18 +16,29 @@ package ilarkesto.io.nio.tcpserver;
 
 import ilarkesto.concurrent.ALoopTask;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Delivers the events of its connections to the <code>DataHandler</code>. Every connection is bound to one worker,
+ * so the events of a connection are processed one after another in the order they were received.
+ */
 public class WorkerTask extends ALoopTask {
 
 	private DataHandler handler;
+	private TcpServerStatistics statistics;
 
-	private List<ServerDataEvent> queue = new LinkedList<ServerDataEvent>();
+	private BlockingQueue<ServerDataEvent> queue = new LinkedBlockingQueue<ServerDataEvent>();
 
 	public WorkerTask(DataHandler handler) {
+		this(handler, new TcpServerStatistics());
+	}
+
+	public WorkerTask(DataHandler handler, TcpServerStatistics statistics) {
 		super();
 		this.handler = handler;
+		this.statistics = statistics;
 	}
 
 	public void processData(TcpConnection connection, byte[] data, int count) {
@@ -38,28 +49,38 @@ public class WorkerTask extends ALoopTask {
 			dataCopy = new byte[count];
 			System.arraycopy(data, 0, dataCopy, 0, count);
 		}
-		synchronized (queue) {
-			queue.add(new ServerDataEvent(connection, dataCopy));
-			queue.notify();
-		}
+		processEvent(new ServerDataEvent(connection, dataCopy));
+	}
+
+	void processEvent(ServerDataEvent event) {
+		statistics.onEventQueued();
+		queue.add(event);
 	}
 
 	@Override
 	protected void iteration() throws InterruptedException {
-		ServerDataEvent dataEvent;
+		ServerDataEvent dataEvent = queue.poll(1, TimeUnit.SECONDS);
+		if (dataEvent == null) return;
 
-		synchronized (queue) {
-			while (queue.isEmpty()) {
-				queue.wait();
+		try {
+			if (dataEvent.isConnectionClosed()) {
+				handler.onConnectionClosed(dataEvent.getConnection());
+			} else {
+				handler.onDataReceived(dataEvent);
 			}
-			dataEvent = queue.remove(0);
+		} finally {
+			dataEvent.release();
+			statistics.onEventProcessed();
 		}
+	}
 
-		if (dataEvent.getData() == null) {
-			handler.onConnectionClosed(dataEvent.getConnection());
-		} else {
-			handler.onDataReceived(dataEvent);
-		}
+	@Override
+	protected boolean isRunInTransactionEnabled() {
+		return false;
+	}
+
+	public int getQueueSize() {
+		return queue.size();
 	}
 
 }
@@ -24,12 +24,15 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 public class Jdbc {
 
 	private static Log log = Log.get(Jdbc.class);
 
+	public static final int DEFAULT_BATCH_SIZE = 500;
+
 	public static String createDbDescriptionText(Connection connection) {
 		StringBuilder sb = new StringBuilder();
 		List<String> tables = listTables(connection);
@@ -122,19 +125,23 @@ public class Jdbc {
 			} catch (SQLException ex) {
 				throw new RuntimeException("Preparing SQL statement failed", ex);
 			}
-			int len = params.length;
-			for (int i = 0; i < len; i++) {
-				Object value = params[i];
-				try {
-					stmt.setObject(i + 1, value);
-				} catch (SQLException ex) {
-					throw new RuntimeException("Setting param " + i + " in prepared SQL statement failed:" + value, ex);
-				}
-			}
+			setParams(stmt, params);
 			return stmt;
 		}
 	}
 
+	public static void setParams(PreparedStatement stmt, Object... params) {
+		int len = params.length;
+		for (int i = 0; i < len; i++) {
+			Object value = params[i];
+			try {
+				stmt.setObject(i + 1, value);
+			} catch (SQLException ex) {
+				throw new RuntimeException("Setting param " + i + " in prepared SQL statement failed:" + value, ex);
+			}
+		}
+	}
+
 	public static void executeQuery(Connection connection, RecordHandler handler, String sql, Object... params)
 			throws SQLException {
 		executeQuery(handler, prepareStatement(connection, sql, params));
@@ -153,13 +160,28 @@ public class Jdbc {
 	}
 
 	private static void execute(RecordHandler handler, PreparedStatement stmt) throws SQLException {
-		String sql = stmt.toString();
-		if (sql.startsWith("com.")) sql = sql.substring(sql.indexOf(": ") + 2);
-		log.debug("SQL:", sql);
+		try {
+			executeWithoutClosing(handler, stmt);
+		} finally {
+			closeQuiet(stmt);
+		}
+	}
+
+	/**
+	 * Executes the statement and passes the records to the handler while they are fetched. The statement stays
+	 * open, so cached statements can be executed again.
+	 */
+	public static void executeWithoutClosing(RecordHandler handler, PreparedStatement stmt) throws SQLException {
+		if (log.isDebugEnabled()) {
+			String sql = stmt.toString();
+			if (sql.startsWith("com.")) sql = sql.substring(sql.indexOf(": ") + 2);
+			log.debug("SQL:", sql);
+		}
 
 		synchronized (stmt.getConnection()) {
 			ResultSet rs = null;
 			try {
+				if (handler != null) stmt.setFetchSize(handler.getFetchSize());
 				stmt.execute();
 				if (handler != null) {
 					rs = stmt.getResultSet();
@@ -173,11 +195,61 @@ public class Jdbc {
 				}
 			} finally {
 				closeQuiet(rs);
-				closeQuiet(stmt);
 			}
 		}
 	}
 
+	public static int[] executeBatch(Connection connection, String sql, Collection<Object[]> paramsList)
+			throws SQLException {
+		PreparedStatement stmt = prepareStatement(connection, sql);
+		try {
+			return executeBatch(stmt, paramsList, DEFAULT_BATCH_SIZE);
+		} finally {
+			closeQuiet(stmt);
+		}
+	}
+
+	/**
+	 * Executes the statement once per parameters entry, sending <code>batchSize</code> entries to the database in
+	 * one round trip.
+	 *
+	 * @return update counts, one per parameters entry
+	 */
+	public static int[] executeBatch(PreparedStatement stmt, Collection<Object[]> paramsList, int batchSize)
+			throws SQLException {
+		int[] ret = new int[paramsList.size()];
+		synchronized (stmt.getConnection()) {
+			int count = 0;
+			int batchCount = 0;
+			for (Object[] params : paramsList) {
+				setParams(stmt, params);
+				stmt.addBatch();
+				batchCount++;
+				if (batchCount == batchSize) {
+					count = addUpdateCounts(stmt.executeBatch(), ret, count);
+					batchCount = 0;
+				}
+			}
+			if (batchCount > 0) addUpdateCounts(stmt.executeBatch(), ret, count);
+		}
+		log.debug("SQL batch:", ret.length, "x", stmt);
+		return ret;
+	}
+
+	private static int addUpdateCounts(int[] updateCounts, int[] ret, int offset) {
+		System.arraycopy(updateCounts, 0, ret, offset, updateCounts.length);
+		return offset + updateCounts.length;
+	}
+
+	public static void rollbackQuiet(Connection connection) {
+		if (connection == null) return;
+		try {
+			connection.rollback();
+		} catch (SQLException ex) {
+			log.error("Rolling back database transaction failed", ex);
+		}
+	}
+
 	public static void closeQuiet(Connection connection) {
 		if (connection == null) return;
 		try {
@@ -220,6 +292,13 @@ public class Jdbc {
 
 		public void onEmpty(ResultSet rs) {}
 
+		/**
+		 * Number of records to fetch from the database per round trip. 0 leaves the decision to the driver.
+		 */
+		public int getFetchSize() {
+			return 0;
+		}
+
 		public abstract void onRecord(ResultSet rs) throws SQLException;
 	}
 
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.jdbc;
+
+import ilarkesto.core.logging.Log;
+import ilarkesto.core.time.Tm;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded pool of database connections. A connection which was idle for longer than the validation idle time is
+ * validated before it is handed out again, a connection in use is never validated. Every pooled connection caches
+ * its prepared statements by SQL.
+ */
+public class JdbcConnectionPool {
+
+	private static Log log = Log.get(JdbcConnectionPool.class);
+
+	private Factory factory;
+	private int maxSize = 8;
+	private long maxWaitTime = 30000;
+	private long validationIdleTime = 30000;
+	private int validationTimeoutInSeconds = 5;
+	private int maxCachedStatements = 64;
+
+	private final Deque<PooledConnection> idleConnections = new ArrayDeque<PooledConnection>();
+	private int size;
+	private boolean closed;
+
+	public JdbcConnectionPool(Factory factory) {
+		super();
+		this.factory = factory;
+	}
+
+	/**
+	 * Takes an idle connection or creates a new one, as long as the pool is not exhausted. Otherwise waits for a
+	 * released connection up to the max wait time. The connection has to be given back by
+	 * <code>release()</code>.
+	 */
+	public PooledConnection borrow() {
+		long deadline = Tm.getCurrentTimeMillis() + maxWaitTime;
+		while (true) {
+			PooledConnection connection = null;
+			synchronized (this) {
+				while (true) {
+					if (closed) throw new IllegalStateException("Connection pool closed");
+					connection = idleConnections.pollLast();
+					if (connection != null || size < maxSize) break;
+					long waitTime = deadline - Tm.getCurrentTimeMillis();
+					if (waitTime <= 0)
+						throw new RuntimeException("No database connection available after " + maxWaitTime
+								+ " ms, all " + maxSize + " connections in use");
+					try {
+						wait(waitTime);
+					} catch (InterruptedException ex) {
+						throw new RuntimeException("Waiting for database connection interrupted", ex);
+					}
+				}
+				if (connection == null) size++;
+			}
+
+			if (connection == null) return createConnection();
+			if (isValid(connection)) return connection;
+			log.info("Discarding invalid database connection");
+			discard(connection);
+		}
+	}
+
+	private PooledConnection createConnection() {
+		try {
+			return new PooledConnection(factory.createConnection(), maxCachedStatements);
+		} catch (RuntimeException ex) {
+			synchronized (this) {
+				size--;
+				notifyAll();
+			}
+			throw ex;
+		}
+	}
+
+	private boolean isValid(PooledConnection connection) {
+		if (!connection.validationRequired && Tm.getCurrentTimeMillis() - connection.releaseTime < validationIdleTime)
+			return true;
+		connection.validationRequired = false;
+		try {
+			return connection.connection.isValid(validationTimeoutInSeconds);
+		} catch (SQLException ex) {
+			return false;
+		}
+	}
+
+	public void release(PooledConnection connection) {
+		if (connection == null) return;
+		connection.releaseTime = Tm.getCurrentTimeMillis();
+		synchronized (this) {
+			if (!closed) {
+				idleConnections.addLast(connection);
+				notifyAll();
+				return;
+			}
+		}
+		discard(connection);
+	}
+
+	/**
+	 * Closes a connection which is known to be broken instead of giving it back to the pool.
+	 */
+	public void discard(PooledConnection connection) {
+		if (connection == null) return;
+		connection.close();
+		synchronized (this) {
+			size--;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Closes the idle connections. Connections in use are closed when they are released.
+	 */
+	public void close() {
+		PooledConnection[] connections;
+		synchronized (this) {
+			closed = true;
+			connections = idleConnections.toArray(new PooledConnection[idleConnections.size()]);
+			idleConnections.clear();
+			notifyAll();
+		}
+		for (PooledConnection connection : connections) {
+			discard(connection);
+		}
+	}
+
+	public synchronized int getSize() {
+		return size;
+	}
+
+	public synchronized int getIdleCount() {
+		return idleConnections.size();
+	}
+
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public void setMaxWaitTime(long maxWaitTime) {
+		this.maxWaitTime = maxWaitTime;
+	}
+
+	public void setValidationIdleTime(long validationIdleTime) {
+		this.validationIdleTime = validationIdleTime;
+	}
+
+	public void setValidationTimeoutInSeconds(int validationTimeoutInSeconds) {
+		this.validationTimeoutInSeconds = validationTimeoutInSeconds;
+	}
+
+	public void setMaxCachedStatements(int maxCachedStatements) {
+		this.maxCachedStatements = maxCachedStatements;
+	}
+
+	public static class PooledConnection {
+
+		private final Connection connection;
+		private final Map<String, PreparedStatement> statementsBySql;
+		private long releaseTime;
+		private volatile boolean validationRequired;
+
+		private PooledConnection(Connection connection, final int maxCachedStatements) {
+			super();
+			this.connection = connection;
+			this.releaseTime = Tm.getCurrentTimeMillis();
+			this.statementsBySql = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+					if (size() <= maxCachedStatements) return false;
+					Jdbc.closeQuiet(eldest.getValue());
+					return true;
+				}
+			};
+		}
+
+		/**
+		 * Provides the cached statement for the SQL with the given parameters. The statement must not be closed by
+		 * the caller.
+		 */
+		public PreparedStatement prepareStatement(String sql, Object... params) throws SQLException {
+			PreparedStatement stmt = statementsBySql.get(sql);
+			if (stmt == null || stmt.isClosed()) {
+				stmt = connection.prepareStatement(sql);
+				statementsBySql.put(sql, stmt);
+			} else {
+				stmt.clearParameters();
+			}
+			Jdbc.setParams(stmt, params);
+			return stmt;
+		}
+
+		/**
+		 * Makes the pool validate the connection before handing it out again, for example after an error.
+		 */
+		public void requireValidation() {
+			validationRequired = true;
+		}
+
+		public Connection getConnection() {
+			return connection;
+		}
+
+		int getCachedStatementCount() {
+			return statementsBySql.size();
+		}
+
+		private void close() {
+			for (PreparedStatement stmt : statementsBySql.values()) {
+				Jdbc.closeQuiet(stmt);
+			}
+			statementsBySql.clear();
+			Jdbc.closeQuiet(connection);
+		}
+
+	}
+
+	public static interface Factory {
+
+		Connection createConnection();
+
+	}
+
+}
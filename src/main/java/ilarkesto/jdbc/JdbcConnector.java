@@ -15,15 +15,25 @@
 package ilarkesto.jdbc;
 
 import ilarkesto.core.logging.Log;
+import ilarkesto.core.time.Tm;
 import ilarkesto.jdbc.Jdbc.RecordHandler;
+import ilarkesto.jdbc.JdbcConnectionPool.PooledConnection;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
+/**
+ * Executes statements against one database. <code>executeQuery()</code>, <code>execute()</code>,
+ * <code>executeBatch()</code> and <code>inTransaction()</code> borrow a connection from the pool for each call.
+ * <code>getConnection()</code> and <code>prepareStatement()</code> use a separate direct connection instead, so
+ * statements executed through them never share a transaction with the pooled ones. Statements which have to be
+ * atomic are executed together with <code>inTransaction()</code>.
+ */
 public class JdbcConnector {
 
 	private static Log log = Log.get(JdbcConnector.class);
@@ -37,6 +47,10 @@ public class JdbcConnector {
 	private String password;
 
 	private Connection connection;
+	private long connectionLastUseTime;
+
+	private JdbcConnectionPool connectionPool;
+	private int maxConnections = 8;
 
 	public JdbcConnector(String driver, String protocol, String host, String port, String database, String login,
 			String password) {
@@ -100,35 +114,130 @@ public class JdbcConnector {
 		return Jdbc.prepareStatement(getConnection(), sql, params);
 	}
 
+	/**
+	 * Executes the query on a pooled connection with a cached statement. Records are passed to the handler while
+	 * they are fetched, see <code>RecordHandler.getFetchSize()</code>.
+	 */
 	public void executeQuery(RecordHandler handler, String sql, Object... params) throws SQLException {
-		Jdbc.executeQuery(getConnection(), handler, sql, params);
+		JdbcConnectionPool pool = getConnectionPool();
+		PooledConnection connection = pool.borrow();
+		try {
+			Jdbc.executeWithoutClosing(handler, connection.prepareStatement(sql, params));
+		} catch (SQLException ex) {
+			connection.requireValidation();
+			throw ex;
+		} finally {
+			pool.release(connection);
+		}
 	}
 
 	public void execute(String sql, Object... params) throws SQLException {
-		Jdbc.execute(getConnection(), sql, params);
+		executeQuery(null, sql, params);
+	}
+
+	/**
+	 * Executes the statement once per parameters entry in batches within one transaction.
+	 *
+	 * @return update counts, one per parameters entry
+	 */
+	public int[] executeBatch(final String sql, final Collection<Object[]> paramsList) throws SQLException {
+		return inTransaction(new TransactionHandler<int[]>() {
+
+			@Override
+			public int[] onTransaction(PooledConnection connection) throws SQLException {
+				return Jdbc.executeBatch(connection.prepareStatement(sql), paramsList, Jdbc.DEFAULT_BATCH_SIZE);
+			}
+		});
+	}
+
+	/**
+	 * Runs the handler on one pooled connection within one transaction. It is committed when the handler returns
+	 * and rolled back when it throws.
+	 *
+	 * @return the result of the handler
+	 */
+	public <T> T inTransaction(TransactionHandler<T> handler) throws SQLException {
+		JdbcConnectionPool pool = getConnectionPool();
+		PooledConnection pooledConnection = pool.borrow();
+		Connection connection = pooledConnection.getConnection();
+		boolean committed = false;
+		try {
+			connection.setAutoCommit(false);
+			T ret = handler.onTransaction(pooledConnection);
+			connection.commit();
+			committed = true;
+			return ret;
+		} catch (SQLException ex) {
+			pooledConnection.requireValidation();
+			throw ex;
+		} finally {
+			if (!committed) Jdbc.rollbackQuiet(connection);
+			try {
+				connection.setAutoCommit(true);
+			} catch (SQLException ex) {
+				pooledConnection.requireValidation();
+			}
+			pool.release(pooledConnection);
+		}
+	}
+
+	public synchronized JdbcConnectionPool getConnectionPool() {
+		if (connectionPool == null) {
+			connectionPool = new JdbcConnectionPool(new JdbcConnectionPool.Factory() {
+
+				@Override
+				public Connection createConnection() {
+					return Jdbc.createConnection(driver, protocol, host, port, database, login, password);
+				}
+			});
+			connectionPool.setMaxSize(maxConnections);
+		}
+		return connectionPool;
+	}
+
+	public synchronized void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+		if (connectionPool != null) connectionPool.setMaxSize(maxConnections);
 	}
 
+	/**
+	 * Connection for direct use, not taken from the pool. It is validated when it was not used for 30 seconds.
+	 * Statements executed on it are not part of the transactions of the pooled connections, use
+	 * <code>inTransaction()</code> for statements which have to be atomic.
+	 */
 	public synchronized Connection getConnection() {
+		long now = Tm.getCurrentTimeMillis();
 		if (connection == null) {
 			createConnection();
-		} else {
+		} else if (now - connectionLastUseTime > 30000) {
 			try {
-				if (connection.isClosed()) createConnection();
-				if (!connection.isValid(0)) createConnection();
+				if (connection.isClosed() || !connection.isValid(5)) createConnection();
 			} catch (SQLException ex) {
 				createConnection();
 			}
 		}
+		connectionLastUseTime = now;
 		return connection;
 	}
 
 	private synchronized void createConnection() {
+		Jdbc.closeQuiet(connection);
 		connection = Jdbc.createConnection(driver, protocol, host, port, database, login, password);
 	}
 
 	public synchronized void closeConnection() {
 		Jdbc.closeQuiet(connection);
 		connection = null;
+		if (connectionPool != null) {
+			connectionPool.close();
+			connectionPool = null;
+		}
+	}
+
+	public static interface TransactionHandler<T> {
+
+		T onTransaction(PooledConnection connection) throws SQLException;
+
 	}
 
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.json;
+
+import ilarkesto.base.Reflect;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fields of a class as used by <code>JsonMapper</code>, resolved once per class. Field lookup by name follows
+ * <code>Reflect.getDeclaredField()</code>: fields of subclasses hide fields of superclasses.
+ */
+final class ClassMapping {
+
+	private static final Map<Class, ClassMapping> mappingsByType = new ConcurrentHashMap<Class, ClassMapping>();
+
+	private final Class type;
+	private final FieldMapping[] serializableFields;
+	private final Map<String, FieldMapping> fieldsByName = new HashMap<String, FieldMapping>();
+	private Constructor constructor;
+
+	static ClassMapping get(Class type) {
+		ClassMapping mapping = mappingsByType.get(type);
+		if (mapping == null) {
+			mapping = new ClassMapping(type);
+			mappingsByType.put(type, mapping);
+		}
+		return mapping;
+	}
+
+	private ClassMapping(Class type) {
+		this.type = type;
+
+		for (Field field : Reflect.getFields(type, true, true, true)) {
+			if (fieldsByName.containsKey(field.getName())) continue;
+			fieldsByName.put(field.getName(), new FieldMapping(field));
+		}
+
+		List<Field> fields = Reflect.getFields(type, false, true, false);
+		serializableFields = new FieldMapping[fields.size()];
+		for (int i = 0; i < serializableFields.length; i++) {
+			Field field = fields.get(i);
+			FieldMapping fieldMapping = fieldsByName.get(field.getName());
+			serializableFields[i] = fieldMapping.field.equals(field) ? fieldMapping : new FieldMapping(field);
+		}
+	}
+
+	Object newInstance() {
+		try {
+			if (constructor == null) {
+				Constructor c = type.getConstructor();
+				c.setAccessible(true);
+				constructor = c;
+			}
+			return constructor.newInstance();
+		} catch (Exception ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	FieldMapping[] getSerializableFields() {
+		return serializableFields;
+	}
+
+	FieldMapping getField(String name) {
+		return fieldsByName.get(name);
+	}
+
+	FieldMapping getExistingField(String name) {
+		FieldMapping field = fieldsByName.get(name);
+		if (field == null) throw new RuntimeException("Field does not exist: " + type.getName() + "." + name);
+		return field;
+	}
+
+	static final class FieldMapping {
+
+		final Field field;
+		final Class<?> type;
+		/**
+		 * Escaped and quoted name followed by <code>: </code>.
+		 */
+		final String jsonName;
+		private final boolean intType;
+
+		private FieldMapping(Field field) {
+			this.field = field;
+			this.type = field.getType();
+			this.jsonName = "\"" + Json.escapeString(field.getName()) + "\": ";
+			this.intType = type == int.class || type == Integer.class;
+			field.setAccessible(true);
+		}
+
+		Object get(Object object) {
+			try {
+				return field.get(object);
+			} catch (Exception ex) {
+				throw new RuntimeException("Reading field value from " + field.getDeclaringClass() + "."
+						+ field.getName() + " failed.", ex);
+			}
+		}
+
+		void set(Object object, Object value) {
+			if (intType && value instanceof Long) value = ((Long) value).intValue();
+			try {
+				field.set(object, Reflect.convert(value, type));
+			} catch (IllegalArgumentException ex) {
+				throw new RuntimeException(ex);
+			} catch (IllegalAccessException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+	}
+
+}
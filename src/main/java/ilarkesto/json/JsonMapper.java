@@ -14,7 +14,6 @@
  */
 package ilarkesto.json;
 
-import ilarkesto.base.Reflect;
 import ilarkesto.core.logging.Log;
 import ilarkesto.core.money.Money;
 import ilarkesto.core.time.Date;
@@ -23,6 +22,7 @@ import ilarkesto.core.time.DateRange;
 import ilarkesto.core.time.DayAndMonth;
 import ilarkesto.core.time.Time;
 import ilarkesto.io.IO;
+import ilarkesto.json.ClassMapping.FieldMapping;
 import ilarkesto.json.JsonSaxParser.ContentHandler;
 import ilarkesto.json.JsonSaxParser.ParseException;
 
@@ -113,25 +113,15 @@ public class JsonMapper {
 		out.print('{');
 		indent++;
 		boolean first = true;
-		for (Field field : Reflect.getSerializableFields(object)) {
+		for (FieldMapping field : ClassMapping.get(object.getClass()).getSerializableFields()) {
 			if (first) {
 				first = false;
 			} else {
 				out.print(',');
 			}
 			nlindent(out, indent);
-			out.print('\"');
-			out.print(Json.escapeString(field.getName()));
-			out.print("\": ");
-			Object fieldValue;
-			if (!field.isAccessible()) field.setAccessible(true);
-			try {
-				fieldValue = field.get(object);
-			} catch (Exception ex) {
-				throw new RuntimeException("Reading field value from " + field.getClass() + "." + field.getName()
-						+ " failed.", ex);
-			}
-			serialize(fieldValue, out, indent);
+			out.print(field.jsonName);
+			serialize(field.get(object), out, indent);
 		}
 		indent--;
 		nlindent(out, indent);
@@ -180,7 +170,7 @@ public class JsonMapper {
 	public static abstract class TypeResolver {
 
 		public Class resolveType(Object object, String field) {
-			return Reflect.getDeclaredField(object.getClass(), field).getType();
+			return ClassMapping.get(object.getClass()).getExistingField(field).type;
 		}
 
 		public abstract Class resolveArrayType(Object object, String field);
@@ -216,6 +206,7 @@ public class JsonMapper {
 	private static class ObjectMappingContentHandler<T> implements ContentHandler {
 
 		private Class<T> objectType;
+		private ClassMapping mapping;
 		private T object;
 		private String currentAttributeName;
 		private Collection currentArray;
@@ -226,6 +217,7 @@ public class JsonMapper {
 		public ObjectMappingContentHandler(Class<T> type, TypeResolver typeResolver) {
 			super();
 			this.objectType = type;
+			this.mapping = ClassMapping.get(type);
 			this.typeResolver = typeResolver;
 		}
 
@@ -241,11 +233,11 @@ public class JsonMapper {
 			}
 			if (object == null) {
 				// log.debug("Instantiating:", objectType);
-				object = Reflect.newInstance(objectType);
+				object = (T) mapping.newInstance();
 				return true;
 			}
-			Class resolvedType = currentArray == null ? Reflect.getDeclaredField(objectType, currentAttributeName)
-					.getType() : typeResolver.resolveArrayType(object, currentAttributeName);
+			Class resolvedType = currentArray == null ? mapping.getExistingField(currentAttributeName).type
+					: typeResolver.resolveArrayType(object, currentAttributeName);
 			if (resolvedType == null)
 				throw new IllegalStateException("Type could not be resolved: " + objectType.getSimpleName() + "."
 						+ currentAttributeName);
@@ -267,7 +259,7 @@ public class JsonMapper {
 				if (parent.currentArray != null) {
 					parent.currentArray.add(getObject());
 				} else {
-					Reflect.setFieldValue(parent.object, parent.currentAttributeName, getObject());
+					parent.mapping.getExistingField(parent.currentAttributeName).set(parent.object, getObject());
 				}
 				parent.subHandler = null;
 				return true;
@@ -305,10 +297,10 @@ public class JsonMapper {
 				return true;
 			}
 
-			Field field = Reflect.getDeclaredField(object.getClass(), currentAttributeName);
+			FieldMapping field = mapping.getField(currentAttributeName);
 			if (field == null)
 				throw new IllegalStateException("Missing field: " + object.getClass() + "." + currentAttributeName);
-			Class<?> fieldType = field.getType();
+			Class<?> fieldType = field.type;
 			if (fieldType.isAssignableFrom(List.class)) {
 				currentArray = new ArrayList();
 			} else if (fieldType.isAssignableFrom(Set.class)) {
@@ -316,7 +308,7 @@ public class JsonMapper {
 			} else {
 				throw new IllegalStateException("Unsupported collection type: " + fieldType.getName());
 			}
-			Reflect.setFieldValue(object, currentAttributeName, currentArray);
+			field.set(object, currentArray);
 			return true;
 		}
 
@@ -345,15 +337,9 @@ public class JsonMapper {
 				return true;
 			}
 
-			if (value instanceof String) {
-				String s = (String) value;
-				Field field = Reflect.getDeclaredField(object.getClass(), currentAttributeName);
-				if (field != null) {
-					value = typeResolver.convertStringForField(field, (String) value);
-				}
-			}
-
-			Reflect.setFieldValue(object, currentAttributeName, value);
+			FieldMapping field = mapping.getExistingField(currentAttributeName);
+			if (value instanceof String) value = typeResolver.convertStringForField(field.field, (String) value);
+			field.set(object, value);
 			return true;
 		}
 
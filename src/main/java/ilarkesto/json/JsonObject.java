@@ -1,6 +1,5 @@
 package ilarkesto.json;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
@@ -11,6 +10,8 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.net.URL;
@@ -41,18 +42,18 @@ public class JsonObject {
 	}
 
 	private final Map<String, Object> elements = new LinkedHashMap<String, Object>();
-	private int idx = -1;
 	private JsonObject parent;
 	private File file;
 
 	public JsonObject() {}
 
-	private JsonObject(String json, int offset) {
-		parse(json, offset);
-	}
-
 	public JsonObject(String json) {
-		this(json, 0);
+		if (json.length() < 2) throw new ParseException("Empty string is invalid", json, 0);
+		try {
+			new Parser(new StringReader(json)).parseObject(this);
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
 	}
 
 	public JsonObject(Map<?, ?> map) {
@@ -73,7 +74,15 @@ public class JsonObject {
 
 	public static JsonObject parse(String json) {
 		if (json == null || json.length() == 0) return new JsonObject();
-		return new JsonObject(json, 0);
+		return new JsonObject(json);
+	}
+
+	/**
+	 * Parses the first JSON object from the reader without loading the whole content into memory. Returns an empty
+	 * object if the reader provides only whitespace. The reader is not closed.
+	 */
+	public static JsonObject parse(Reader in) throws IOException {
+		return new Parser(in).parseDocument();
 	}
 
 	public File getFile() {
@@ -95,7 +104,7 @@ public class JsonObject {
 		}
 		JsonObject object;
 		try {
-			object = parse(load(file));
+			object = load(file);
 		} catch (ParseException ex) {
 			if (!createEmptyIfNoFile) throw ex;
 			object = new JsonObject();
@@ -112,14 +121,14 @@ public class JsonObject {
 			if (createemptyIfNoResource) return new JsonObject();
 			return null;
 		}
-		return parse(load(is));
+		return load(is);
 	}
 
 	public static JsonObject loadFromUrl(String url) {
 		InputStream is = null;
 		try {
 			is = new URL(url).openStream();
-			return parse(load(is));
+			return load(is);
 		} catch (Exception ex) {
 			throw new RuntimeException(ex);
 		} finally {
@@ -130,7 +139,7 @@ public class JsonObject {
 	}
 
 	public static JsonObject loadFromStream(InputStream is) {
-		return parse(load(is));
+		return load(is);
 	}
 
 	public void assignFile(File file) {
@@ -444,110 +453,209 @@ public class JsonObject {
 
 	// --- parsing ---
 
-	private int parse(String json, int offset) {
-		if (json.length() < 2) throw new ParseException("Empty string is invalid", json, 0);
-		idx = offset;
-		parseWhitespace(json, "'{'");
-		if (json.charAt(idx) != '{') throw new ParseException("Expecting '{'", json, idx);
-		idx++;
-		parseWhitespace(json, "elements or '}'");
-		boolean first = true;
-		while (json.charAt(idx) != '}') {
-			if (first) {
-				first = false;
-			} else {
-				if (json.charAt(idx) == ',') {
-					idx++;
-				} else {
-					throw new ParseException("Expecting ','", json, idx);
+	/**
+	 * Recursive descent parser working on a reused char buffer, so content is never materialized as a whole. Strings
+	 * without escapes are created directly from the buffer, others through a reused scratch buffer.
+	 */
+	private static final class Parser {
+
+		private final Reader in;
+		private final char[] buffer = new char[8192];
+		private int position;
+		private int limit;
+		private long consumed;
+		private char[] scratch = new char[256];
+		private int scratchLength;
+
+		private Parser(Reader in) {
+			this.in = in;
+		}
+
+		private JsonObject parseDocument() throws IOException {
+			JsonObject object = new JsonObject();
+			if (skipWhitespace() < 0) return object;
+			parseObject(object);
+			return object;
+		}
+
+		private void parseObject(JsonObject object) throws IOException {
+			if (skipWhitespace() != '{') throw error("Expecting '{'");
+			position++;
+			int ch = skipWhitespace();
+			while (ch != '}') {
+				if (ch != '"') throw error("Expecting '\"'");
+				position++;
+				String name = parseString();
+				if (skipWhitespace() != ':') throw error("Expecting ':' after element name \"" + name + "\"");
+				position++;
+				skipWhitespace();
+				object.elements.put(name, parseValue(object));
+
+				ch = skipWhitespace();
+				if (ch == '}') break;
+				if (ch != ',') throw error("Expecting ',' or '}'");
+				position++;
+				ch = skipWhitespace();
+			}
+			position++;
+		}
+
+		private Object parseValue(JsonObject owner) throws IOException {
+			int ch = peek();
+			switch (ch) {
+				case '"':
+					position++;
+					return parseString();
+				case '{':
+					JsonObject object = new JsonObject();
+					object.parent = owner;
+					parseObject(object);
+					return object;
+				case '[':
+					position++;
+					List list = new ArrayList();
+					while (true) {
+						if (skipWhitespace() == ']') break;
+						list.add(parseValue(owner));
+						ch = skipWhitespace();
+						if (ch == ']') break;
+						if (ch != ',') throw error("Expecting array separator ','");
+						position++;
+					}
+					position++;
+					return list;
+				case 't':
+					parseLiteral("true");
+					return Boolean.TRUE;
+				case 'f':
+					parseLiteral("false");
+					return Boolean.FALSE;
+				case 'n':
+					parseLiteral("null");
+					return null;
+				case -1:
+					throw error("Expecting element value");
+				default:
+					return parseNumber();
+			}
+		}
+
+		private String parseString() throws IOException {
+			if (position < limit || fill()) {
+				for (int i = position; i < limit; i++) {
+					char ch = buffer[i];
+					if (ch == '\\') break;
+					if (ch == '"') {
+						String s = new String(buffer, position, i - position);
+						position = i + 1;
+						return s;
+					}
 				}
 			}
-			parseElement(json);
-			parseWhitespace(json, "',' or '}'");
-		}
-		idx++;
-		return idx;
-	}
-
-	private void parseWhitespace(String json, String expectation) {
-		idx = Json.getFirstNonWhitespaceIndex(json, idx);
-		if (idx < 0) throw new ParseException("Expecting " + expectation, json, idx);
-	}
-
-	private void parseElement(String json) {
-		parseWhitespace(json, "'\"'");
-		if (json.charAt(idx) == '}') return;
-		if (json.charAt(idx) != '"') throw new ParseException("Expecting '\"'", json, idx);
-		idx++;
-		int nameEndIdx = Json.getFirstQuoting(json, idx);
-		if (nameEndIdx < 0) throw new ParseException("Unclosed element name", json, idx);
-		String name = json.substring(idx, nameEndIdx);
-		idx = nameEndIdx + 1;
-		parseWhitespace(json, "':'");
-		if (json.charAt(idx) != ':')
-			throw new ParseException("Expecting ':' after element name \"" + name + "\"", json, idx);
-		idx++;
-		parseWhitespace(json, "element value");
-		Object value = parseValue(json);
-		put(name, value);
-	}
-
-	private Object parseValue(String json) {
-		if (json.startsWith("null", idx)) {
-			idx += 4;
-			return null;
-		} else if (json.startsWith("true", idx)) {
-			idx += 4;
-			return true;
-		} else if (json.startsWith("false", idx)) {
-			idx += 5;
-			return false;
-		} else if (json.charAt(idx) == '"') {
-			idx++;
-			int valueEndIdx = Json.getFirstQuoting(json, idx);
-			if (valueEndIdx < 0) throw new ParseException("Unclosed element string value", json, idx);
-			String value = json.substring(idx, valueEndIdx);
-			idx = valueEndIdx + 1;
-			return Json.parseString(value);
-		} else if (json.charAt(idx) == '{') {
-			JsonObject value = new JsonObject(json, idx);
-			idx = value.idx;
-			return value;
-		} else if (json.charAt(idx) == '[') {
-			List list = new ArrayList();
-			idx++;
+
+			scratchLength = 0;
 			while (true) {
-				parseWhitespace(json, "array");
-				if (json.charAt(idx) == ']') break;
-				Object value = parseValue(json);
-				list.add(value);
-				parseWhitespace(json, "array");
-				if (json.charAt(idx) == ']') break;
-				if (json.charAt(idx) != ',') throw new ParseException("Expecting array separator ','", json, idx);
-				idx++;
+				int ch = read();
+				if (ch < 0) throw error("Unclosed string");
+				if (ch == '"') return new String(scratch, 0, scratchLength);
+				if (ch == '\\') ch = parseEscape();
+				appendToScratch((char) ch);
 			}
-			idx++;
-			return list;
-		} else {
-			int len = json.length();
-			int endIdx = idx;
-			while (endIdx < len) {
-				endIdx++;
-				char endCh = json.charAt(endIdx);
-				if (endCh == ',' || endCh == '}' || endCh == ']' || Json.isWhitespace(endCh)) {
-					break;
-				}
+		}
+
+		private int parseEscape() throws IOException {
+			int ch = read();
+			switch (ch) {
+				case 'b':
+					return '\b';
+				case 'f':
+					return '\f';
+				case 'n':
+					return '\n';
+				case 'r':
+					return '\r';
+				case 't':
+					return '\t';
+				case 'u':
+					int code = 0;
+					for (int i = 0; i < 4; i++) {
+						int digit = Character.digit(read(), 16);
+						if (digit < 0) throw error("Invalid unicode escape sequence");
+						code = (code << 4) + digit;
+					}
+					return code;
+				case -1:
+					throw error("Unclosed string");
+				default:
+					return ch;
+			}
+		}
+
+		private Number parseNumber() throws IOException {
+			scratchLength = 0;
+			while (true) {
+				int ch = peek();
+				if (ch < 0 || ch == ',' || ch == '}' || ch == ']' || Json.isWhitespace((char) ch)) break;
+				appendToScratch((char) ch);
+				position++;
 			}
-			String sNumber = json.substring(idx, endIdx);
-			Number number;
+			String s = new String(scratch, 0, scratchLength);
 			try {
-				number = Json.parseNumber(sNumber);
+				return Json.parseNumber(s);
 			} catch (NumberFormatException ex) {
-				throw new ParseException("Expecting number in <" + sNumber + ">", json, idx);
+				throw error("Expecting number in <" + s + ">");
+			}
+		}
+
+		private void parseLiteral(String literal) throws IOException {
+			for (int i = 0; i < literal.length(); i++) {
+				if (read() != literal.charAt(i)) throw error("Expecting " + literal);
+			}
+		}
+
+		private void appendToScratch(char ch) {
+			if (scratchLength == scratch.length) {
+				char[] newScratch = new char[scratch.length * 2];
+				System.arraycopy(scratch, 0, newScratch, 0, scratchLength);
+				scratch = newScratch;
+			}
+			scratch[scratchLength++] = ch;
+		}
+
+		private int skipWhitespace() throws IOException {
+			while (true) {
+				int ch = peek();
+				if (ch < 0 || !Json.isWhitespace((char) ch)) return ch;
+				position++;
+			}
+		}
+
+		private int peek() throws IOException {
+			if (position >= limit && !fill()) return -1;
+			return buffer[position];
+		}
+
+		private int read() throws IOException {
+			if (position >= limit && !fill()) return -1;
+			return buffer[position++];
+		}
+
+		private boolean fill() throws IOException {
+			consumed += limit;
+			position = 0;
+			limit = 0;
+			while (limit == 0) {
+				int count = in.read(buffer, 0, buffer.length);
+				if (count < 0) return false;
+				limit = count;
 			}
-			idx = endIdx;
-			return number;
+			return true;
+		}
+
+		private ParseException error(String message) {
+			return new ParseException(message + " at character " + (consumed + position));
 		}
+
 	}
 
 	// --- IO ---
@@ -587,26 +695,23 @@ public class JsonObject {
 		out.flush();
 	}
 
-	private static String load(File file) {
+	private static JsonObject load(File file) {
 		if (!file.exists()) return null;
 		try {
 			return load(new FileInputStream(file));
+		} catch (ParseException ex) {
+			throw ex;
 		} catch (Exception ex) {
 			throw new RuntimeException("Loading file failed: +" + file.getAbsolutePath(), ex);
 		}
 	}
 
-	private static String load(InputStream is) {
-		BufferedReader in = null;
+	private static JsonObject load(InputStream is) {
+		Reader in = null;
 		try {
-			in = new BufferedReader(new InputStreamReader(is));
-			StringBuilder sb = new StringBuilder();
-			String line = null;
-			while ((line = in.readLine()) != null) {
-				sb.append(line).append('\n');
-			}
-			return sb.toString();
-		} catch (Exception ex) {
+			in = new InputStreamReader(is);
+			return parse(in);
+		} catch (IOException ex) {
 			throw new RuntimeException("Loading JSON failed", ex);
 		} finally {
 			if (in != null) try {
@@ -615,4 +720,4 @@ public class JsonObject {
 		}
 	}
 
-}
\ No newline at end of file
+}
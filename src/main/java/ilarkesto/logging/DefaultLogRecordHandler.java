@@ -21,29 +21,37 @@ import ilarkesto.core.logging.LogRecord;
 import ilarkesto.core.logging.LogRecordHandler;
 import ilarkesto.io.IO;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Asynchronous log record handler. Logging threads only publish records into a <code>LogRingBuffer</code>; a
+ * single thread formats them in batches, prints them to <code>System.err</code> and appends warnings and errors to
+ * the log file. When the buffer is full, debug records are dropped, others wait. Records which can not be queued
+ * because the logging thread is stopped, died or logs itself are printed directly by the calling thread.
+ */
 public class DefaultLogRecordHandler extends LogRecordHandler {
 
 	private static final Log LOG = Log.get(DefaultLogRecordHandler.class);
 	public static final DateFormat LOG_TIME_FORMAT = new SimpleDateFormat("EEE, dd. MMMM yyyy, HH:mm");
 	public static final DefaultLogRecordHandler INSTANCE = new DefaultLogRecordHandler();
 
-	private BlockingQueue<LogRecord> queue = new LinkedBlockingQueue<LogRecord>();
-	private File logFile;
+	private static final int BATCH_SIZE = 256;
+	private static final long LOG_FILE_MAX_SIZE = 1048576;
+	private static final int LOG_FILE_KEPT_FILES = 3;
+
+	private LogRingBuffer buffer = new LogRingBuffer(8192);
+	private volatile File logFile;
+	private RollingLogFileWriter logFileWriter;
 	private Thread sysoutThread;
-	private boolean shutdown = false;
+	private volatile boolean shutdown = false;
 	private LogRecordHandler errorHandler;
 
 	private LinkedList<LogRecord> latestRecords = new LinkedList<LogRecord>();
@@ -58,35 +66,35 @@ public class DefaultLogRecordHandler extends LogRecordHandler {
 
 			@Override
 			public void run() {
+				List<LogRecord> batch = new ArrayList<LogRecord>(BATCH_SIZE);
+				StringBuilder sb = new StringBuilder(16 * 1024);
 				while (true) {
-					try {
-						synchronized (Log.class) {
-							if (shutdown && queue.isEmpty()) {
-								System.err.println("Shutting down logging system");
-								return;
-							}
-						}
-						LogRecord record = queue.poll(1, TimeUnit.SECONDS);
-						if (record != null) {
-							System.err.println(record.toString());
-							if (record.level.isWarnOrWorse() && errorHandler != null) {
-								try {
-									errorHandler.log(record);
-									errorHandler.flush();
-								} catch (Exception ex) {
-									ex.printStackTrace();
-								}
+					if (buffer.drainTo(batch, BATCH_SIZE) == 0) {
+						if (shutdown) {
+							buffer.close();
+							// records queued while closing
+							while (buffer.drainTo(batch, BATCH_SIZE) > 0) {
+								writeBatch(batch, sb);
+								batch.clear();
+								sb.setLength(0);
 							}
+							closeLogFile();
+							System.err.println("Shutting down logging system");
+							return;
 						}
-					} catch (InterruptedException ignored) {
-						shutdown = true;
+						buffer.awaitRecords(TimeUnit.MILLISECONDS.toNanos(100));
+						continue;
 					}
+					writeBatch(batch, sb);
+					batch.clear();
+					sb.setLength(0);
 				}
 			}
 		});
 		sysoutThread.setName(getClass().getSimpleName() + "-sysoutThread");
 		sysoutThread.setPriority(Thread.MIN_PRIORITY);
 		sysoutThread.setDaemon(true);
+		buffer.setConsumerThread(sysoutThread);
 		sysoutThread.start();
 
 		Log.setLogRecordHandler(this);
@@ -95,43 +103,66 @@ public class DefaultLogRecordHandler extends LogRecordHandler {
 	public static void stopLogging() {
 		INSTANCE.flush();
 		INSTANCE.shutdown = true;
-		if (INSTANCE.sysoutThread != null) INSTANCE.sysoutThread.interrupt();
-		INSTANCE.latestRecords.clear();
+		synchronized (INSTANCE.latestRecords) {
+			INSTANCE.latestRecords.clear();
+		}
 	}
 
 	@Override
 	public void log(LogRecord record) {
-		super.log(record);
+		record.context = Thread.currentThread().getName();
+		if (buffer.offer(record)) return;
+		if (record.level.compareTo(buffer.getBlockingLevel()) < 0 && !buffer.isClosed()) return; // dropped
+		System.err.println(record.toString());
+	}
+
+	/**
+	 * Runs in the logging thread. Records are formatted only once and only if they are printed.
+	 */
+	private void writeBatch(List<LogRecord> batch, StringBuilder sb) {
+		boolean errorsInBatch = false;
+		for (LogRecord record : batch) {
+			record.appendTo(sb);
+			sb.append('\n');
+			if (record.level.isWarnOrWorse()) errorsInBatch = true;
+		}
+		System.err.print(sb);
 
 		synchronized (latestRecords) {
-			latestRecords.add(record);
-			if (latestRecords.size() > 256) latestRecords.remove(0);
+			for (LogRecord record : batch) {
+				latestRecords.add(record);
+				if (latestRecords.size() > 256) latestRecords.removeFirst();
+			}
 		}
 
-		if (record.level.isWarnOrWorse()) {
+		if (!errorsInBatch) return;
+		for (LogRecord record : batch) {
+			if (!record.level.isWarnOrWorse()) continue;
 			synchronized (errorRecords) {
 				if (!errorRecords.contains(record)) {
 					errorRecords.add(record);
-					if (errorRecords.size() > 256) errorRecords.remove(0);
+					if (errorRecords.size() > 256) errorRecords.removeFirst();
+				}
+			}
+			appendToFile(record.toString());
+			if (errorHandler != null) {
+				try {
+					errorHandler.log(record);
+					errorHandler.flush();
+				} catch (Exception ex) {
+					ex.printStackTrace();
 				}
 			}
 		}
-
-		record.context = Thread.currentThread().getName();
-		try {
-			queue.put(record);
-		} catch (InterruptedException e) {
-			return;
-		}
-
-		if (record.level.isWarnOrWorse()) appendToFile(record.toString());
+		flushLogFile();
 	}
 
 	@Override
 	public void flush() {
-		while (sysoutThread != null && sysoutThread.isAlive() && !queue.isEmpty()) {
+		long target = buffer.getProducedCount();
+		while (sysoutThread != null && sysoutThread.isAlive() && buffer.getConsumedCount() < target) {
 			try {
-				Thread.sleep(100);
+				Thread.sleep(10);
 			} catch (InterruptedException ex) {
 				throw new RuntimeException(ex);
 			}
@@ -153,6 +184,26 @@ public class DefaultLogRecordHandler extends LogRecordHandler {
 		this.errorHandler = errorHandler;
 	}
 
+	/**
+	 * Records below this level are dropped while the logging thread can not keep up, default is
+	 * <code>INFO</code>, which drops debug records only.
+	 */
+	public static void setBlockingLevel(Log.Level level) {
+		INSTANCE.buffer.setBlockingLevel(level);
+	}
+
+	public static long getQueuedCount() {
+		return INSTANCE.buffer.getQueuedCount();
+	}
+
+	public static long getDroppedCount() {
+		return INSTANCE.buffer.getDroppedCount();
+	}
+
+	public static long getWrittenCount() {
+		return INSTANCE.buffer.getConsumedCount();
+	}
+
 	public static boolean setLogFileToHomeOrWorkdir(String name) {
 		if (setLogFileToWorkdir(name)) return true;
 		return setLogFileToHome(name);
@@ -179,22 +230,40 @@ public class DefaultLogRecordHandler extends LogRecordHandler {
 				setLogFile(new File("error.log"));
 			}
 		}
-		if (logFile == null) return;
-		synchronized (logFile) {
-			try {
-				BufferedWriter out = new BufferedWriter(new FileWriter(logFile, logFile.length() < 1048576));
-				out.write("--------------------------------------------------------------------------------\n");
-				out.write(LOG_TIME_FORMAT.format(new Date()));
-				out.write(" -> ");
-				out.write(record);
-				out.write('\n');
-				out.close();
-			} catch (Exception e) {
-				System.err.println("Failed to write to logFile: " + logFile.getAbsolutePath() + ": " + Str.format(e));
-			}
+		File file = logFile;
+		if (file == null) return;
+		if (logFileWriter == null || !logFileWriter.getFile().equals(file)) {
+			closeLogFile();
+			logFileWriter = new RollingLogFileWriter(file, LOG_FILE_MAX_SIZE, LOG_FILE_KEPT_FILES);
+		}
+		try {
+			logFileWriter.write("--------------------------------------------------------------------------------\n");
+			logFileWriter.write(LOG_TIME_FORMAT.format(new Date()));
+			logFileWriter.write(" -> ");
+			logFileWriter.write(record);
+			logFileWriter.write("\n");
+		} catch (IOException e) {
+			System.err.println("Failed to write to logFile: " + file.getAbsolutePath() + ": " + Str.format(e));
 		}
 	}
 
+	private void flushLogFile() {
+		if (logFileWriter == null) return;
+		try {
+			logFileWriter.flush();
+		} catch (IOException e) {
+			System.err.println("Failed to write to logFile: " + logFileWriter.getFile().getAbsolutePath() + ": "
+					+ Str.format(e));
+		}
+	}
+
+	private void closeLogFile() {
+		if (logFileWriter == null) return;
+		flushLogFile();
+		logFileWriter.close();
+		logFileWriter = null;
+	}
+
 	public static List<LogRecord> getLatestRecords() {
 		synchronized (INSTANCE.latestRecords) {
 			return new ArrayList<LogRecord>(INSTANCE.latestRecords);
@@ -207,4 +276,18 @@ public class DefaultLogRecordHandler extends LogRecordHandler {
 		}
 	}
 
+	@Override
+	public List<LogRecord> getLatestLogs() {
+		return getLatestRecords();
+	}
+
+	@Override
+	public String getLatestLogsAsString() {
+		StringBuilder sb = new StringBuilder();
+		for (LogRecord record : getLatestRecords()) {
+			sb.append(record.toString()).append("\n");
+		}
+		return sb.toString();
+	}
+
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.logging;
+
+import ilarkesto.concurrent.ATask;
+import ilarkesto.core.logging.Log;
+import ilarkesto.core.logging.Log.Level;
+import ilarkesto.io.IO;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Properties file with log levels per category, for example <code>ilarkesto.persistence = WARN</code>. The key
+ * <code>root</code> configures all other loggers. Scheduled as task, the file is reloaded when it changes, so
+ * chatty loggers can be silenced without restart. A deleted file resets the configuration.
+ */
+public class LogLevelsConfigFile extends ATask {
+
+	public static final String ROOT_KEY = "root";
+
+	private File file;
+	private long lastModified = -1;
+
+	public LogLevelsConfigFile(File file) {
+		super();
+		this.file = file;
+	}
+
+	@Override
+	protected void perform() throws InterruptedException {
+		reloadIfModified();
+	}
+
+	/**
+	 * @return true if the configuration was (re)loaded
+	 */
+	public synchronized boolean reloadIfModified() {
+		long modified = file.exists() ? file.lastModified() : 0;
+		if (modified == lastModified) return false;
+		boolean initial = lastModified < 0;
+		lastModified = modified;
+		if (modified == 0 && initial) return false;
+
+		Map<String, Level> levels = modified == 0 ? new HashMap<String, Level>() : parse(IO.loadProperties(file,
+			IO.UTF_8));
+		Log.setLevels(levels);
+		log.info("Log levels loaded from", file.getPath() + ":", levels);
+		return true;
+	}
+
+	static Map<String, Level> parse(Properties properties) {
+		Map<String, Level> levels = new HashMap<String, Level>();
+		for (String key : properties.stringPropertyNames()) {
+			String value = properties.getProperty(key).trim().toUpperCase();
+			Level level;
+			try {
+				level = Level.valueOf(value);
+			} catch (IllegalArgumentException ex) {
+				Log.get(LogLevelsConfigFile.class).warn("Unknown log level in configuration:", key, "=", value);
+				continue;
+			}
+			String category = key.trim();
+			if (ROOT_KEY.equals(category)) category = Log.ROOT_CATEGORY;
+			levels.put(category, level);
+		}
+		return levels;
+	}
+
+	@Override
+	protected boolean isRunInTransactionEnabled() {
+		return false;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "(" + file.getPath() + ")";
+	}
+
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.logging;
+
+import ilarkesto.core.logging.Log.Level;
+import ilarkesto.core.logging.LogRecord;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded multi-producer, single-consumer queue of log records on a preallocated array. Producers claim a sequence
+ * with a CAS and publish the record into its slot, the consumer takes records in sequence order and clears the
+ * slots. No locks and no allocation per record.
+ * <p>
+ * When the buffer is full, records below the blocking level are dropped and counted, other records wait for the
+ * consumer. Records are not queued when no consumer could take them: after <code>close()</code>, when the consumer
+ * thread died, or when the consumer thread itself logs into the full buffer. <code>offer()</code> rejects them,
+ * so the caller can write them directly.
+ */
+public class LogRingBuffer {
+
+	private final int capacity;
+	private final int mask;
+	private final AtomicReferenceArray<LogRecord> slots;
+
+	private final AtomicLong producerSequence = new AtomicLong();
+	private volatile long consumerSequence;
+
+	private final AtomicLong droppedCount = new AtomicLong();
+	private volatile Level blockingLevel = Level.INFO;
+
+	private volatile Thread consumerThread;
+	private volatile boolean consumerParked;
+	private volatile boolean closed;
+
+	public LogRingBuffer(int capacity) {
+		if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("Capacity must be a power of 2");
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		this.slots = new AtomicReferenceArray<LogRecord>(capacity);
+	}
+
+	/**
+	 * @return false if the record was not queued, either dropped because it is below the blocking level or
+	 *         rejected because no consumer can take it
+	 */
+	public boolean offer(LogRecord record) {
+		long sequence;
+		while (true) {
+			if (closed) return false;
+			sequence = producerSequence.get();
+			if (sequence - consumerSequence >= capacity) {
+				if (record.level.compareTo(blockingLevel) < 0) {
+					droppedCount.incrementAndGet();
+					return false;
+				}
+				if (!isWaitingForConsumerPossible()) return false;
+				wakeConsumer();
+				LockSupport.parkNanos(100000);
+				continue;
+			}
+			if (producerSequence.compareAndSet(sequence, sequence + 1)) break;
+		}
+		slots.set((int) (sequence & mask), record);
+		if (consumerParked) wakeConsumer();
+		return true;
+	}
+
+	/**
+	 * Moves the published records to the batch, to be called by the consumer thread only.
+	 *
+	 * @return number of records taken
+	 */
+	public int drainTo(List<LogRecord> batch, int maxRecords) {
+		long sequence = consumerSequence;
+		int count = 0;
+		while (count < maxRecords) {
+			int index = (int) (sequence & mask);
+			LogRecord record = slots.get(index);
+			if (record == null) break; // not yet published
+			slots.lazySet(index, null);
+			batch.add(record);
+			sequence++;
+			count++;
+		}
+		consumerSequence = sequence;
+		return count;
+	}
+
+	/**
+	 * Parks the consumer thread until a producer publishes a record or the timeout elapses.
+	 */
+	public void awaitRecords(long timeoutNanos) {
+		consumerThread = Thread.currentThread();
+		consumerParked = true;
+		try {
+			if (slots.get((int) (consumerSequence & mask)) != null) return;
+			LockSupport.parkNanos(this, timeoutNanos);
+		} finally {
+			consumerParked = false;
+		}
+	}
+
+	private boolean isWaitingForConsumerPossible() {
+		Thread thread = consumerThread;
+		if (thread == null || !thread.isAlive()) return false;
+		return thread != Thread.currentThread();
+	}
+
+	/**
+	 * Stops queueing, following calls to <code>offer()</code> are rejected. Records queued before can still be
+	 * drained.
+	 */
+	public void close() {
+		closed = true;
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * The thread which drains the buffer. Producers wait for it only while it is alive.
+	 */
+	public void setConsumerThread(Thread consumerThread) {
+		this.consumerThread = consumerThread;
+	}
+
+	private void wakeConsumer() {
+		Thread thread = consumerThread;
+		if (thread != null) LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Records below this level are dropped when the buffer is full, others block the logging thread.
+	 */
+	public void setBlockingLevel(Level blockingLevel) {
+		this.blockingLevel = blockingLevel;
+	}
+
+	public Level getBlockingLevel() {
+		return blockingLevel;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public long getQueuedCount() {
+		return producerSequence.get() - consumerSequence;
+	}
+
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	public long getConsumedCount() {
+		return consumerSequence;
+	}
+
+	public long getProducedCount() {
+		return producerSequence.get();
+	}
+
+}
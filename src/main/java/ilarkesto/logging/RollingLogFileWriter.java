@@ -0,0 +1,114 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.logging;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Appends text to a log file through a buffer which is flushed per batch. When the file exceeds the maximum size
+ * it is rolled: <code>x.log</code> becomes <code>x.log.1</code>, <code>x.log.1</code> becomes <code>x.log.2</code>
+ * and so on, up to the number of kept files. Not thread safe.
+ */
+public class RollingLogFileWriter {
+
+	private final File file;
+	private final long maxFileSize;
+	private final int keptFiles;
+
+	private Writer out;
+	private long size;
+
+	public RollingLogFileWriter(File file, long maxFileSize, int keptFiles) {
+		this.file = file;
+		this.maxFileSize = maxFileSize;
+		this.keptFiles = keptFiles;
+	}
+
+	public void write(String s) throws IOException {
+		if (out == null) open();
+		out.write(s);
+		size += getUtf8Length(s);
+	}
+
+	/**
+	 * Flushes the buffer and rolls the file if it got too big.
+	 */
+	public void flush() throws IOException {
+		if (out == null) return;
+		out.flush();
+		if (size >= maxFileSize) roll();
+	}
+
+	public void close() {
+		if (out == null) return;
+		try {
+			out.close();
+		} catch (IOException ex) {
+			// nop
+		}
+		out = null;
+	}
+
+	private void open() throws IOException {
+		size = file.exists() ? file.length() : 0;
+		out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"), 64 * 1024);
+	}
+
+	private void roll() {
+		close();
+		for (int i = keptFiles - 1; i >= 1; i--) {
+			File older = new File(file.getPath() + "." + i);
+			if (!older.exists()) continue;
+			File target = new File(file.getPath() + "." + (i + 1));
+			target.delete();
+			older.renameTo(target);
+		}
+		if (keptFiles > 0) {
+			File target = new File(file.getPath() + ".1");
+			target.delete();
+			file.renameTo(target);
+		} else {
+			file.delete();
+		}
+	}
+
+	private static int getUtf8Length(String s) {
+		int length = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c)) {
+				length += 4;
+				i++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+}
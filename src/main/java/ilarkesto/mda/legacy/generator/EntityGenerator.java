@@ -532,6 +532,21 @@ public class EntityGenerator extends DatobGenerator<EntityModel> {
 		// ln("    }");
 	}
 
+	private void writeBackReferenceHelperIndexMethods(PropertyModel p) {
+		annotationOverride();
+		ln("        protected Class<" + bean.getName() + "> getType() {");
+		ln("            return " + bean.getName() + ".class;");
+		ln("        }");
+		annotationOverride();
+		ln("        protected boolean isReferencing(" + bean.getName() + " entity, String id) {");
+		if (p.isCollection()) {
+			ln("            return entity.get" + Str.uppercaseFirstLetter(p.getName()) + "Ids().contains(id);");
+		} else {
+			ln("            return id.equals(entity.get" + Str.uppercaseFirstLetter(p.getName()) + "Id());");
+		}
+		ln("        }");
+	}
+
 	private void writeGetByListBy() {
 		String queryName = "A" + bean.getName() + "Query";
 
@@ -568,6 +583,7 @@ public class EntityGenerator extends DatobGenerator<EntityModel> {
 					ln("                return \"" + bean.getName() + ":by" + Str.uppercaseFirstLetter(p.getName())
 							+ "\";");
 					ln("            }");
+					writeBackReferenceHelperIndexMethods(p);
 					ln("    };");
 					ln();
 				}
@@ -634,6 +650,7 @@ public class EntityGenerator extends DatobGenerator<EntityModel> {
 					ln("            }");
 					ln("        }.list();");
 					ln("        }");
+					writeBackReferenceHelperIndexMethods(p);
 					ln("    };");
 					ln();
 				}
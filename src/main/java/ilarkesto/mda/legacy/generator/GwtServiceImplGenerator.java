@@ -86,6 +86,7 @@ public class GwtServiceImplGenerator extends AClassGenerator {
 		ln("            final", Context.class.getName(), "context = ilarkesto.di.Context.get();");
 		ln("            context.setName(\"gwt-srv:" + method.getName() + "\");");
 		ln("            context.bindCurrentThread();");
+		ln("            conversation.bindCurrentThread();");
 		ln("            try {");
 		ln("                " + Persistence.class.getName() + ".runInTransaction(\"GwtService." + method.getName()
 				+ "()\", new Runnable() { public void run() {");
@@ -101,6 +102,8 @@ public class GwtServiceImplGenerator extends AClassGenerator {
 		ln("            } catch (Exception ex) {");
 		ln("                handleServiceMethodException(conversationNumber, \"" + method.getName()
 				+ "\", ex, context);");
+		ln("            } finally {");
+		ln("                conversation.releaseCurrentThread();");
 		ln("            }");
 		if (!ping) {
 			String paramsString = "";
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.net;
+
+/**
+ * Single byte range of a HTTP <code>Range</code> request header, resolved against the length of the content.
+ * Multiple ranges are not supported; for them, as for missing or malformed headers, the full content is served.
+ */
+public final class ByteRange {
+
+	private final long start;
+	private final long end;
+	private final long totalLength;
+
+	private ByteRange(long start, long end, long totalLength) {
+		this.start = start;
+		this.end = end;
+		this.totalLength = totalLength;
+	}
+
+	/**
+	 * @return <code>null</code> if the full content is to be served
+	 */
+	public static ByteRange parse(String header, long totalLength) {
+		if (header == null) return null;
+		header = header.trim();
+		if (!header.startsWith("bytes=")) return null;
+		String spec = header.substring(6).trim();
+		if (spec.indexOf(',') >= 0) return null;
+		int idx = spec.indexOf('-');
+		if (idx < 0) return null;
+
+		long start;
+		long end;
+		try {
+			String first = spec.substring(0, idx).trim();
+			String last = spec.substring(idx + 1).trim();
+			if (first.length() == 0) {
+				// suffix range: last n bytes
+				if (last.length() == 0) return null;
+				long suffixLength = Long.parseLong(last);
+				if (suffixLength <= 0) return new ByteRange(0, -1, totalLength);
+				start = Math.max(0, totalLength - suffixLength);
+				end = totalLength - 1;
+			} else {
+				start = Long.parseLong(first);
+				end = last.length() == 0 ? totalLength - 1 : Math.min(Long.parseLong(last), totalLength - 1);
+				if (last.length() > 0 && Long.parseLong(last) < start) return null;
+			}
+		} catch (NumberFormatException ex) {
+			return null;
+		}
+		if (start < 0) return null;
+		return new ByteRange(start, end, totalLength);
+	}
+
+	/**
+	 * An unsatisfiable range is answered with 416 and <code>getUnsatisfiedContentRange()</code>.
+	 */
+	public boolean isSatisfiable() {
+		return start < totalLength && start <= end;
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * Last byte of the range, inclusive.
+	 */
+	public long getEnd() {
+		return end;
+	}
+
+	public long getLength() {
+		return end - start + 1;
+	}
+
+	public String getContentRange() {
+		return "bytes " + start + "-" + end + "/" + totalLength;
+	}
+
+	public String getUnsatisfiedContentRange() {
+		return "bytes */" + totalLength;
+	}
+
+	@Override
+	public String toString() {
+		return isSatisfiable() ? getContentRange() : getUnsatisfiedContentRange();
+	}
+
+}
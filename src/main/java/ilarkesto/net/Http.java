@@ -15,6 +15,7 @@
 package ilarkesto.net;
 
 import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.util.Map;
 
@@ -26,10 +27,15 @@ public class Http {
 	public static final String REQUEST_HEADER_COOKIE = "Cookie";
 	public static final String REQUEST_HEADER_IF_NONE_MATCH = "If-None-Match";
 	public static final String REQUEST_HEADER_ETAG = "ETag";
+	public static final String REQUEST_HEADER_RANGE = "Range";
+	public static final String REQUEST_HEADER_IF_RANGE = "If-Range";
 
 	public static final String RESPONSE_HEADER_SET_COOKIE = "Set-Cookie";
 	public static final String RESPONSE_HEADER_CONTENT_TYPE = "Content-Type";
+	public static final String RESPONSE_HEADER_CONTENT_LENGTH = "Content-Length";
 	public static final String RESPONSE_HEADER_LOCATION = "Location";
+	public static final String RESPONSE_HEADER_ACCEPT_RANGES = "Accept-Ranges";
+	public static final String RESPONSE_HEADER_CONTENT_RANGE = "Content-Range";
 
 	public static final int RESPONSE_SC_CONTINUE = 100;
 	public static final int RESPONSE_SC_OK = 200;
@@ -37,6 +43,74 @@ public class Http {
 	public static final int RESPONSE_SC_MOVED_PERMANENTLY = 301; // redirect
 	public static final int RESPONSE_SC_FOUND = 302; // found
 	public static final int RESPONSE_SC_NOT_FOUND = 404;
+	public static final int RESPONSE_SC_PARTIAL_CONTENT = 206;
+	public static final int RESPONSE_SC_REQUESTED_RANGE_NOT_SATISFIABLE = 416;
+
+	public static String createEtag(long lastModified) {
+		return Long.toHexString(lastModified);
+	}
+
+	/**
+	 * Tests an <code>If-None-Match</code> header against an entity tag. The header may list several tags or
+	 * <code>*</code>; quotes and weak markers are ignored.
+	 */
+	public static boolean isEtagMatching(String ifNoneMatch, String eTag) {
+		if (ifNoneMatch == null || eTag == null) return false;
+		eTag = unquoteEtag(eTag);
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.equals("*")) return true;
+			if (unquoteEtag(tag).equals(eTag)) return true;
+		}
+		return false;
+	}
+
+	private static String unquoteEtag(String eTag) {
+		if (eTag.startsWith("W/")) eTag = eTag.substring(2);
+		if (eTag.length() >= 2 && eTag.startsWith("\"") && eTag.endsWith("\""))
+			eTag = eTag.substring(1, eTag.length() - 1);
+		return eTag;
+	}
+
+	/**
+	 * A range request is only served partially if its <code>If-Range</code> (if any) names the current entity tag.
+	 */
+	public static boolean isIfRangeMatching(String ifRange, String eTag) {
+		if (ifRange == null) return true;
+		return eTag != null && unquoteEtag(ifRange.trim()).equals(unquoteEtag(eTag));
+	}
+
+	/**
+	 * Decodes the percent escapes (UTF-8) of an URL path. Unlike form data, '+' stays as it is.
+	 *
+	 * @return <code>null</code> if the path is malformed
+	 */
+	public static String decodeUrlPath(String path) {
+		try {
+			String decoded = URLDecoder.decode(path.replace("+", "%2B"), "UTF-8");
+			if (decoded.indexOf(0) >= 0) return null;
+			return decoded;
+		} catch (IllegalArgumentException ex) {
+			return null;
+		} catch (UnsupportedEncodingException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	public static String getMimeTypeFromFilenameSuffix(String s) {
+		if (s == null || s.trim().length() == 0) return "application/octet-stream";
+		s = s.trim().toLowerCase();
+		if (s.equals("html") || s.equals("htm")) return "text/html";
+		if (s.equals("js")) return "text/javascript";
+		if (s.equals("css")) return "text/css";
+		if (s.equals("txt")) return "text/plain";
+		if (s.equals("ico")) return "image/x-icon";
+		if (s.equals("png")) return "image/png";
+		if (s.equals("jpg") || s.equals("jpeg")) return "image/jpeg";
+		if (s.equals("json")) return "application/json";
+		if (s.equals("xhtml")) return "application/xhtml+xml";
+		return "application/octet-stream";
+	}
 
 	public static String encodePostParametersToString(Map<String, String> parameters, String encoding) {
 		StringBuilder postData = new StringBuilder();
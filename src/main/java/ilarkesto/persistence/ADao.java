@@ -222,7 +222,7 @@ public abstract class ADao<E extends AEntity> implements IdentifiableResolver<E>
 	@Override
 	public void entityDeleted(EntityEvent event) {
 		AEntity entity = event.getEntity();
-		for (AEntity e : getEntities()) {
+		for (AEntity e : getEntitiesPossiblyReferencing(entity.getId())) {
 			try {
 				e.repairDeadReferences(entity.getId());
 			} catch (EnsureIntegrityCompletedException ex) {
@@ -234,6 +234,26 @@ public abstract class ADao<E extends AEntity> implements IdentifiableResolver<E>
 	@Override
 	public void entityModified(EntityEvent event) {}
 
+	private Collection<E> getEntitiesPossiblyReferencing(String entityId) {
+		if (!isRepairingDeadReferencesByIndex()) return getEntities();
+		Set<AEntity> referencingEntities = Transaction.get().getReferencingEntities(entityId);
+		if (referencingEntities == null) return getEntities();
+		Class entityClass = getEntityClass();
+		List<E> ret = new ArrayList<E>();
+		for (AEntity e : referencingEntities) {
+			if (entityClass.isAssignableFrom(e.getClass())) ret.add((E) e);
+		}
+		return ret;
+	}
+
+	/**
+	 * Value objects may reference entities without exposing the references in the properties of the entity, so
+	 * dead references of entities with value objects are repaired by checking all entities.
+	 */
+	protected boolean isRepairingDeadReferencesByIndex() {
+		return getValueObjectClasses().isEmpty();
+	}
+
 	@Override
 	public void feed(final SearchResultsConsumer searchBox) {
 		if (!Searchable.class.isAssignableFrom(getEntityClass())) return;
@@ -242,6 +262,15 @@ public abstract class ADao<E extends AEntity> implements IdentifiableResolver<E>
 		final AuthUser searcher = searchBox.getSearcher();
 
 		RuntimeTracker rt = new RuntimeTracker();
+		List<E> found = (List) Transaction.get().search(searchText, getEntityClass(), 0);
+		if (found != null) {
+			for (E entity : found) {
+				if (Auth.isVisible(entity, searcher)) searchBox.addEntity(entity);
+			}
+			log.info("Search in index took", rt);
+			return;
+		}
+
 		Predicate<E> filter = new Predicate<E>() {
 
 			@Override
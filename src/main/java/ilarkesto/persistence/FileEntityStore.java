@@ -16,12 +16,19 @@ package ilarkesto.persistence;
 
 import ilarkesto.core.base.Args;
 import ilarkesto.core.base.Str;
+import ilarkesto.core.fp.Predicate;
 import ilarkesto.core.logging.Log;
 import ilarkesto.core.persistance.AEntityQuery;
 import ilarkesto.core.persistance.AllByTypeQuery;
 import ilarkesto.core.persistance.Entity;
 import ilarkesto.core.persistance.EntityDoesNotExistException;
+import ilarkesto.core.persistance.ReferencesIndex;
+import ilarkesto.core.persistance.ReferencesIndexProvider;
+import ilarkesto.core.persistance.SearchIndexProvider;
 import ilarkesto.core.persistance.Transient;
+import ilarkesto.core.search.SearchIndex;
+import ilarkesto.core.search.SearchText;
+import ilarkesto.core.search.Searchable;
 import ilarkesto.io.IO;
 
 import java.io.BufferedInputStream;
@@ -40,7 +47,7 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
-public class FileEntityStore implements EntityStore {
+public class FileEntityStore implements EntityStore, ReferencesIndexProvider, SearchIndexProvider {
 
 	private static final Log log = Log.get(FileEntityStore.class);
 
@@ -50,6 +57,9 @@ public class FileEntityStore implements EntityStore {
 
 	private Map<Class, String> aliases = new HashMap<Class, String>();
 	private Map<Class<AEntity>, Map<String, AEntity>> entitiesByIdByType = new HashMap<Class<AEntity>, Map<String, AEntity>>();
+	private Map<String, AEntity> allEntitiesById = new HashMap<String, AEntity>();
+	private ReferencesIndex referencesIndex;
+	private SearchIndex<Searchable> searchIndex;
 
 	// --- dependencies ---
 
@@ -84,6 +94,20 @@ public class FileEntityStore implements EntityStore {
 		this.unitTestMode = unitTestMode;
 	}
 
+	/**
+	 * Needs to be enabled before loading.
+	 */
+	public void setReferencesIndexEnabled(boolean referencesIndexEnabled) {
+		this.referencesIndex = referencesIndexEnabled ? new ReferencesIndex() : null;
+	}
+
+	/**
+	 * Needs to be enabled before loading.
+	 */
+	public void setSearchIndexEnabled(boolean searchIndexEnabled) {
+		this.searchIndex = searchIndexEnabled ? new SearchIndex<Searchable>() : null;
+	}
+
 	// --- ---
 
 	public FileEntityStore() {}
@@ -146,11 +170,60 @@ public class FileEntityStore implements EntityStore {
 	}
 
 	@Override
-	public boolean containsWithId(String id) {
-		for (Map<String, AEntity> entitiesById : entitiesByIdByType.values()) {
-			if (entitiesById.containsKey(id)) return true;
+	public Set<String> getReferencingIds(String referencedId) {
+		if (referencesIndex == null) return null;
+		synchronized (referencesIndex) {
+			return referencesIndex.getReferencingIds(referencedId);
+		}
+	}
+
+	private void updateReferencesIndex(AEntity entity) {
+		if (referencesIndex == null) return;
+		synchronized (referencesIndex) {
+			referencesIndex.update(entity);
+		}
+	}
+
+	private void removeFromReferencesIndex(String entityId) {
+		if (referencesIndex == null) return;
+		synchronized (referencesIndex) {
+			referencesIndex.remove(entityId);
+		}
+	}
+
+	@Override
+	public List<Entity> search(SearchText searchText, final Class type, int maxResults) {
+		if (searchIndex == null) return null;
+		synchronized (searchIndex) {
+			List<Searchable> found = searchIndex.search(searchText, maxResults, type == null ? null
+					: new Predicate<Searchable>() {
+
+						@Override
+						public boolean test(Searchable e) {
+							return type.isAssignableFrom(e.getClass());
+						}
+					});
+			return new ArrayList<Entity>((List) found);
+		}
+	}
+
+	private void updateSearchIndex(AEntity entity) {
+		if (searchIndex == null) return;
+		synchronized (searchIndex) {
+			searchIndex.update(entity.getId(), entity);
+		}
+	}
+
+	private void removeFromSearchIndex(String entityId) {
+		if (searchIndex == null) return;
+		synchronized (searchIndex) {
+			searchIndex.remove(entityId);
 		}
-		return false;
+	}
+
+	@Override
+	public boolean containsWithId(String id) {
+		return allEntitiesById.containsKey(id);
 	}
 
 	@Override
@@ -210,17 +283,17 @@ public class FileEntityStore implements EntityStore {
 
 	@Override
 	public AEntity getById(String id) {
-		for (Map.Entry<Class<AEntity>, Map<String, AEntity>> daoEntry : entitiesByIdByType.entrySet()) {
-			AEntity entity = daoEntry.getValue().get(id);
-			if (entity != null) return entity;
-		}
-		throw new EntityDoesNotExistException(id);
+		AEntity entity = allEntitiesById.get(id);
+		if (entity == null) throw new EntityDoesNotExistException(id);
+		return entity;
 	}
 
 	@Override
 	public <C extends Collection<AEntity>> C getByIds(Collection<String> ids, C resultContainer) {
 		for (String id : ids) {
-			resultContainer.add(getById(id));
+			AEntity entity = allEntitiesById.get(id);
+			if (entity == null) throw new EntityDoesNotExistException(id);
+			resultContainer.add(entity);
 		}
 		return resultContainer;
 	}
@@ -238,7 +311,15 @@ public class FileEntityStore implements EntityStore {
 		aliases.put(cls, alias);
 
 		Map<String, AEntity> entities = new HashMap<String, AEntity>();
-		entitiesByIdByType.put((Class<AEntity>) cls, entities);
+		Map<String, AEntity> previousEntities = entitiesByIdByType.put((Class<AEntity>) cls, entities);
+		if (previousEntities != null) {
+			// reloading the type
+			for (String id : previousEntities.keySet()) {
+				allEntitiesById.remove(id);
+				removeFromReferencesIndex(id);
+				removeFromSearchIndex(id);
+			}
+		}
 
 		beanSerializer.setAlias(Str.lowercaseFirstLetter(alias), cls);
 		beanSerializer.setAlias(alias, cls);
@@ -282,6 +363,9 @@ public class FileEntityStore implements EntityStore {
 		}
 		AEntity entity = (AEntity) beanSerializer.deserialize(in);
 		container.put(entity.getId(), entity);
+		allEntitiesById.put(entity.getId(), entity);
+		updateReferencesIndex(entity);
+		updateSearchIndex(entity);
 		try {
 			in.close();
 		} catch (IOException ex) {
@@ -371,6 +455,9 @@ public class FileEntityStore implements EntityStore {
 		protected void complete() {
 			if (!unitTestMode) IO.move(tmpFile, file, true);
 			getDao(entity.getClass()).put(entity.getId(), entity);
+			allEntitiesById.put(entity.getId(), entity);
+			updateReferencesIndex(entity);
+			updateSearchIndex(entity);
 		}
 
 		public void wirteTemporaryFile() {
@@ -425,6 +512,9 @@ public class FileEntityStore implements EntityStore {
 		protected void complete() {
 			if (!unitTestMode) IO.delete(file);
 			getDao(entity.getClass()).remove(entity.getId());
+			allEntitiesById.remove(entity.getId());
+			removeFromReferencesIndex(entity.getId());
+			removeFromSearchIndex(entity.getId());
 		}
 
 		@Override
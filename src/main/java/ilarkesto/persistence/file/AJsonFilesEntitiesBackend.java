@@ -14,6 +14,7 @@
  */
 package ilarkesto.persistence.file;
 
+import ilarkesto.concurrent.DeamonThreadFactory;
 import ilarkesto.core.base.RuntimeTracker;
 import ilarkesto.core.base.Str;
 import ilarkesto.core.persistance.ACachingEntitiesBackend;
@@ -26,16 +27,34 @@ import ilarkesto.io.AFileStorage;
 import ilarkesto.io.IO;
 import ilarkesto.json.JsonMapper;
 import ilarkesto.json.JsonMapper.TypeResolver;
+import ilarkesto.persistence.file.EntitySegmentFile.Record;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public abstract class AJsonFilesEntitiesBackend extends ACachingEntitiesBackend {
 
+	private static final int LOADER_BATCH_SIZE = 500;
+
 	protected AFileStorage storage;
 
 	protected abstract AEntityJsonFileUpgrades createUpgrader();
@@ -47,9 +66,16 @@ public abstract class AJsonFilesEntitiesBackend extends ACachingEntitiesBackend
 	private DateAndTime loadTime;
 	private DateAndTime lastSaveTime;
 
+	private PendingChanges pendingChanges;
+	private int journalCounter;
+	private boolean flushScheduled;
+	private ScheduledExecutorService flushExecutor;
+	private final Object flushLock = new Object();
+
 	public AJsonFilesEntitiesBackend(AFileStorage storage) {
 		this.storage = storage;
 		load();
+		if (getWriteBehindMaxLatency() > 0) startWriteBehind();
 	}
 
 	private void load() {
@@ -63,37 +89,149 @@ public abstract class AJsonFilesEntitiesBackend extends ACachingEntitiesBackend
 		log.info("Loading entities from", storage, "| data-version", dataVersion, "| software-version",
 			softwareVersion);
 		RuntimeTracker rt = new RuntimeTracker();
+		replayJournals();
 		upgrader.upgradeEntitiesDir(storage.getFile(null), dataVersion);
+		int threadCount = getLoaderThreadCount();
+		if (threadCount > 1) {
+			loadParallel(upgrader, dataVersion, threadCount);
+		} else {
+			loadSequential(upgrader, dataVersion);
+		}
+
+		saveVersion(softwareVersion);
+
+		loadTime = DateAndTime.now();
+		log.info(cache.size(), "entities loaded in", rt.getRuntimeFormated());
+	}
+
+	private void loadSequential(AEntityJsonFileUpgrades upgrader, int dataVersion) {
 		TypeResolver typeResolver = createTypeResolver();
 		for (Class<? extends AEntity> type : getEntityTypes()) {
 			log.info("   ", type.getSimpleName());
-			RuntimeTracker rt2 = new RuntimeTracker();
-			int count = 0;
-			File dir = storage.getFile(type.getSimpleName());
-			File[] files = dir.listFiles();
-			if (files != null) {
-				for (File file : files) {
-					if (!file.isFile()) continue;
-					if (!file.getName().endsWith(".json")) continue;
-					upgrader.upgradeEntity(file, type, dataVersion);
-					if (!file.exists()) continue;
-					AEntity entity;
-					try {
-						entity = JsonMapper.deserialize(file, type, typeResolver);
-					} catch (Exception ex) {
-						throw new RuntimeException("Loading entity failed: " + file, ex);
+			EntityFilesLoader loader = new EntityFilesLoader(type, listEntityFiles(type), upgrader, dataVersion,
+					typeResolver);
+			loader.call();
+			cache.addAll(loader.entities);
+			logLoaded(loader.entities.size(), loader.endTime - loader.startTime);
+		}
+	}
+
+	/**
+	 * Upgrades may read files of other types (see <code>JsonUpgrader.upgradeTimeAndUser()</code>), so the files of
+	 * a type are upgraded only after all files of the previous types. Deserializing is done in parallel for all types
+	 * after the upgrades.
+	 */
+	private void loadParallel(AEntityJsonFileUpgrades upgrader, int dataVersion, int threadCount) {
+		log.info("Loading with", threadCount, "threads");
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount, new DeamonThreadFactory());
+		try {
+			List<Class<? extends AEntity>> types = getEntityTypes();
+			if (dataVersion < upgrader.getSoftwareVersion()) {
+				for (Class<? extends AEntity> type : types) {
+					initializeClass(type);
+					List<Future<EntityFilesLoader>> futures = submitLoaders(executor, type, upgrader, dataVersion,
+						true);
+					for (Future<EntityFilesLoader> future : futures) {
+						future.get();
 					}
-					cache.add(entity);
-					count++;
 				}
 			}
-			log.info("      ->", count, rt2.getRuntime() > 1000 ? rt2.getRuntimeFormated() : "");
+
+			Map<Class, List<Future<EntityFilesLoader>>> futuresByType = new HashMap<Class, List<Future<EntityFilesLoader>>>();
+			for (Class<? extends AEntity> type : types) {
+				// static initializers should not run concurrently in the loader threads
+				initializeClass(type);
+				futuresByType.put(type, submitLoaders(executor, type, upgrader, dataVersion, false));
+			}
+
+			for (Class<? extends AEntity> type : types) {
+				log.info("   ", type.getSimpleName());
+				int count = 0;
+				long startTime = Long.MAX_VALUE;
+				long endTime = Long.MIN_VALUE;
+				for (Future<EntityFilesLoader> future : futuresByType.get(type)) {
+					EntityFilesLoader loader = future.get();
+					cache.addAll(loader.entities);
+					count += loader.entities.size();
+					startTime = Math.min(startTime, loader.startTime);
+					endTime = Math.max(endTime, loader.endTime);
+				}
+				logLoaded(count, count == 0 ? 0 : endTime - startTime);
+			}
+		} catch (InterruptedException ex) {
+			throw new RuntimeException("Loading entities interrupted", ex);
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			throw new RuntimeException("Loading entities failed", cause);
+		} finally {
+			executor.shutdownNow();
 		}
+	}
 
-		saveVersion(softwareVersion);
+	private List<Future<EntityFilesLoader>> submitLoaders(ExecutorService executor, Class<? extends AEntity> type,
+			AEntityJsonFileUpgrades upgrader, int dataVersion, boolean upgradeOnly) {
+		List<File> files = listEntityFiles(type);
+		List<Future<EntityFilesLoader>> futures = new ArrayList<Future<EntityFilesLoader>>();
+		for (int i = 0; i < files.size(); i += LOADER_BATCH_SIZE) {
+			List<File> batch = files.subList(i, Math.min(i + LOADER_BATCH_SIZE, files.size()));
+			EntityFilesLoader loader = new EntityFilesLoader(type, batch, upgrader, dataVersion,
+					createTypeResolver());
+			loader.upgrade = upgradeOnly;
+			loader.deserialize = !upgradeOnly;
+			futures.add(executor.submit(loader));
+		}
+		return futures;
+	}
 
-		loadTime = DateAndTime.now();
-		log.info(cache.size(), "entities loaded in", rt.getRuntimeFormated());
+	/**
+	 * @param runtime wall-clock time from the start of the first to the end of the last batch of a type
+	 */
+	private void logLoaded(int count, long runtime) {
+		long throughput = runtime > 0 ? count * 1000l / runtime : count;
+		log.info("      ->", count, "in", runtime, "msec (" + throughput, "entities/s)");
+	}
+
+	private static void initializeClass(Class type) {
+		try {
+			Class.forName(type.getName(), true, type.getClassLoader());
+		} catch (ClassNotFoundException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	private List<File> listEntityFiles(Class<? extends AEntity> type) {
+		List<File> ret = new ArrayList<File>();
+		File dir = storage.getFile(type.getSimpleName());
+		File[] files = dir.listFiles();
+		if (files == null) return ret;
+		for (File file : files) {
+			if (!file.isFile()) continue;
+			if (!file.getName().endsWith(".json")) continue;
+			ret.add(file);
+		}
+		return ret;
+	}
+
+	/**
+	 * Number of threads used for upgrading and deserializing entity files while loading. Loading is sequential by
+	 * default. Override when the <code>TypeResolver</code> and the upgrades are thread safe.
+	 */
+	protected int getLoaderThreadCount() {
+		return 1;
+	}
+
+	/**
+	 * Maximum time in milliseconds a committed transaction stays in the journal before it is written to the entity
+	 * files. <code>0</code> (default) writes the files synchronously on commit. With a latency, commits are
+	 * acknowledged as soon as they are applied to the cache and appended to the journal, and all transactions of
+	 * the interval are written with a single <code>onEntityChangesSaved()</code> call.
+	 * <p>
+	 * Outsourced strings are not journaled. <code>saveOutsourcedString()</code> writes them synchronously, so after a
+	 * crash they can be newer than the entity files restored from the journal.
+	 */
+	protected long getWriteBehindMaxLatency() {
+		return 0;
 	}
 
 	private void saveVersion(int version) {
@@ -115,6 +253,11 @@ public abstract class AJsonFilesEntitiesBackend extends ACachingEntitiesBackend
 	@Override
 	protected void onUpdate(Collection<AEntity> modified, Collection<String> deleted,
 			Map<String, Map<String, String>> modifiedPropertiesByEntityIds, Runnable callback) {
+		if (flushExecutor != null) {
+			appendToJournal(modified, deleted);
+			if (callback != null) callback.run();
+			return;
+		}
 		if ((modified == null || modified.isEmpty()) && (deleted == null || deleted.isEmpty())) return;
 		List<File> files = new ArrayList<File>();
 		RuntimeTracker rt = new RuntimeTracker();
@@ -161,6 +304,173 @@ public abstract class AJsonFilesEntitiesBackend extends ACachingEntitiesBackend
 		if (callback != null) callback.run();
 	}
 
+	private void startWriteBehind() {
+		flushExecutor = Executors.newSingleThreadScheduledExecutor(new DeamonThreadFactory());
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				flush();
+			}
+		}, getClass().getSimpleName() + "-flush"));
+	}
+
+	private void appendToJournal(Collection<AEntity> modified, Collection<String> deleted) {
+		List<Record> records = new ArrayList<Record>();
+		List<AEntity> savedEntities = new ArrayList<AEntity>();
+		List<String> jsons = new ArrayList<String>();
+		Map<String, File> deletedFilesById = new LinkedHashMap<String, File>();
+		if (modified != null) {
+			for (AEntity entity : modified) {
+				if (entity instanceof Transient) continue;
+				String json = JsonMapper.serialize(entity);
+				records.add(new Record(entity.getId(), entity.getClass().getSimpleName(), toUtf8(json)));
+				savedEntities.add(entity);
+				jsons.add(json);
+			}
+		}
+		if (deleted != null) {
+			for (String id : deleted) {
+				AEntity entity;
+				try {
+					entity = cache.getById(id);
+				} catch (EntityDoesNotExistException ex) {
+					continue;
+				}
+				records.add(new Record(id, null, null));
+				deletedFilesById.put(id, getFile(entity));
+			}
+		}
+		if (records.isEmpty()) return;
+
+		if (pendingChanges == null) pendingChanges = new PendingChanges(++journalCounter);
+		pendingChanges.appendToJournal(EntitySegmentFile.createFrame(records));
+		for (int i = 0; i < savedEntities.size(); i++) {
+			AEntity entity = savedEntities.get(i);
+			pendingChanges.save(entity, jsons.get(i), getFile(entity));
+		}
+		for (Map.Entry<String, File> entry : deletedFilesById.entrySet()) {
+			pendingChanges.delete(entry.getKey(), entry.getValue());
+		}
+
+		scheduleFlush();
+	}
+
+	private synchronized void scheduleFlush() {
+		if (flushScheduled) return;
+		flushScheduled = true;
+		flushExecutor.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					flush();
+				} catch (Exception ex) {
+					log.error("Writing entity changes failed. Changes are kept in the journal and retried.", ex);
+				}
+			}
+		}, getWriteBehindMaxLatency(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Writes all changes from the journal to the entity files. When writing fails, the changes are kept for the
+	 * next flush, together with the changes committed in the meantime.
+	 */
+	@Override
+	public void flush() {
+		synchronized (flushLock) {
+			PendingChanges changes;
+			synchronized (this) {
+				changes = pendingChanges;
+				pendingChanges = null;
+				flushScheduled = false;
+			}
+			if (changes == null) return;
+
+			RuntimeTracker rt = new RuntimeTracker();
+			try {
+				changes.closeJournal();
+				for (Map.Entry<File, String> entry : changes.jsonByFile.entrySet()) {
+					// same encoding as JsonMapper.serialize(Object, File)
+					IO.writeFile(entry.getKey(), entry.getValue(), Charset.defaultCharset().name());
+				}
+				for (File file : changes.deletedFilesById.values()) {
+					IO.delete(file);
+				}
+			} catch (RuntimeException ex) {
+				synchronized (this) {
+					if (pendingChanges != null) changes.addNewerChanges(pendingChanges);
+					pendingChanges = changes;
+					if (flushExecutor != null && !flushExecutor.isShutdown()) scheduleFlush();
+				}
+				throw ex;
+			}
+			log.info("Entity changes saved:", rt.getRuntimeFormated(), "(" + changes.modified.size(), "saved,",
+				changes.deletedFilesById.size(), "deleted, journal", changes.journalNumber + ")");
+
+			lastSaveTime = DateAndTime.now();
+			onEntityChangesSaved(changes.modified.values(), changes.deletedFilesById.keySet(),
+				changes.created.values());
+			IO.delete(changes.journalFiles.toArray(new File[changes.journalFiles.size()]));
+		}
+	}
+
+	/**
+	 * Writes changes from journals, which have not been flushed before the last shutdown, to the entity files.
+	 */
+	private void replayJournals() {
+		TreeMap<Integer, File> journalFiles = new TreeMap<Integer, File>();
+		File[] files = getJournalDir().listFiles();
+		if (files == null) return;
+		for (File file : files) {
+			String name = file.getName();
+			if (!name.endsWith(".segment")) continue;
+			journalFiles.put(Integer.parseInt(name.substring(0, name.length() - 8)), file);
+		}
+		if (journalFiles.isEmpty()) return;
+
+		Map<String, Record> recordsById = new LinkedHashMap<String, Record>();
+		int lastJournalNumber = journalFiles.lastKey();
+		for (Map.Entry<Integer, File> entry : journalFiles.entrySet()) {
+			File file = entry.getValue();
+			log.info("Replaying journal", file);
+			// earlier journals were closed before they got flushed, only the last one can be incomplete
+			EntitySegmentFile.read(file, false, entry.getKey() == lastJournalNumber, recordsById);
+		}
+		for (Record record : recordsById.values()) {
+			if (record.isDelete()) {
+				for (Class<? extends AEntity> type : getEntityTypes()) {
+					IO.delete(storage.getFile(type.getSimpleName() + "/" + record.id + ".json"));
+				}
+			} else {
+				IO.writeFile(storage.getFile(record.type + "/" + record.id + ".json"),
+					fromUtf8(record.json), Charset.defaultCharset().name());
+			}
+		}
+		IO.delete(journalFiles.values().toArray(new File[journalFiles.size()]));
+		log.info("   ", recordsById.size(), "entity changes replayed");
+	}
+
+	private File getJournalDir() {
+		return storage.getFile("journal");
+	}
+
+	private static byte[] toUtf8(String s) {
+		try {
+			return s.getBytes(IO.UTF_8);
+		} catch (UnsupportedEncodingException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	private static String fromUtf8(byte[] data) {
+		try {
+			return new String(data, IO.UTF_8);
+		} catch (UnsupportedEncodingException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
 	@Override
 	public String loadOutsourcedString(Entity entity, String propertyName) {
 		File file = getOutsourcedPropertyFile(entity, propertyName);
@@ -191,6 +501,148 @@ public abstract class AJsonFilesEntitiesBackend extends ACachingEntitiesBackend
 		return storage.getFile(entity.getClass().getSimpleName() + "/" + entity.getId() + ".json");
 	}
 
+	private static class EntityFilesLoader implements Callable<EntityFilesLoader> {
+
+		private Class<? extends AEntity> type;
+		private List<File> files;
+		private AEntityJsonFileUpgrades upgrader;
+		private int dataVersion;
+		private TypeResolver typeResolver;
+		private boolean upgrade = true;
+		private boolean deserialize = true;
+
+		private List<AEntity> entities;
+		private long startTime;
+		private long endTime;
+
+		public EntityFilesLoader(Class<? extends AEntity> type, List<File> files, AEntityJsonFileUpgrades upgrader,
+				int dataVersion, TypeResolver typeResolver) {
+			super();
+			this.type = type;
+			this.files = files;
+			this.upgrader = upgrader;
+			this.dataVersion = dataVersion;
+			this.typeResolver = typeResolver;
+		}
+
+		@Override
+		public EntityFilesLoader call() {
+			startTime = System.currentTimeMillis();
+			entities = new ArrayList<AEntity>(files.size());
+			for (File file : files) {
+				if (upgrade) upgrader.upgradeEntity(file, type, dataVersion);
+				if (!deserialize || !file.exists()) continue;
+				try {
+					entities.add(JsonMapper.deserialize(file, type, typeResolver));
+				} catch (Exception ex) {
+					throw new RuntimeException("Loading entity failed: " + file, ex);
+				}
+			}
+			endTime = System.currentTimeMillis();
+			return this;
+		}
+
+	}
+
+	/**
+	 * Changes of committed transactions which are not written to the entity files yet.
+	 */
+	private class PendingChanges {
+
+		private int journalNumber;
+		/**
+		 * Journals containing these changes, the last one is appended to.
+		 */
+		private List<File> journalFiles = new ArrayList<File>();
+		private FileChannel journal;
+
+		private Map<String, AEntity> modified = new LinkedHashMap<String, AEntity>();
+		private Map<String, AEntity> created = new LinkedHashMap<String, AEntity>();
+		private Map<String, File> filesById = new LinkedHashMap<String, File>();
+		private Map<File, String> jsonByFile = new LinkedHashMap<File, String>();
+		private Map<String, File> deletedFilesById = new LinkedHashMap<String, File>();
+
+		public PendingChanges(int journalNumber) {
+			super();
+			this.journalNumber = journalNumber;
+			File journalFile = new File(getJournalDir().getPath() + "/" + journalNumber + ".segment");
+			IO.createDirectory(journalFile.getParentFile());
+			journalFiles.add(journalFile);
+			openJournal(false);
+		}
+
+		void save(AEntity entity, String json, File file) {
+			String id = entity.getId();
+			if (!modified.containsKey(id) && !file.exists()) created.put(id, entity);
+			modified.put(id, entity);
+			filesById.put(id, file);
+			jsonByFile.put(file, json);
+			deletedFilesById.remove(id);
+		}
+
+		void delete(String id, File file) {
+			modified.remove(id);
+			created.remove(id);
+			filesById.remove(id);
+			jsonByFile.remove(file);
+			deletedFilesById.put(id, file);
+		}
+
+		/**
+		 * Puts changes committed after these changes on top of them and continues with the journal of the newer
+		 * changes.
+		 */
+		void addNewerChanges(PendingChanges newer) {
+			for (Map.Entry<String, File> entry : newer.deletedFilesById.entrySet()) {
+				delete(entry.getKey(), entry.getValue());
+			}
+			for (AEntity entity : newer.modified.values()) {
+				File file = newer.filesById.get(entity.getId());
+				save(entity, newer.jsonByFile.get(file), file);
+			}
+			closeJournal();
+			journalFiles.addAll(newer.journalFiles);
+			journalNumber = newer.journalNumber;
+			journal = newer.journal;
+		}
+
+		void appendToJournal(byte[] frame) {
+			if (journal == null) openJournal(true);
+			ByteBuffer buffer = ByteBuffer.wrap(frame);
+			try {
+				while (buffer.hasRemaining()) {
+					journal.write(buffer);
+				}
+				journal.force(false);
+			} catch (IOException ex) {
+				throw new RuntimeException("Writing to journal failed: " + getJournalFile(), ex);
+			}
+		}
+
+		private void openJournal(boolean append) {
+			try {
+				journal = new FileOutputStream(getJournalFile(), append).getChannel();
+			} catch (IOException ex) {
+				throw new RuntimeException("Opening journal failed: " + getJournalFile(), ex);
+			}
+		}
+
+		void closeJournal() {
+			if (journal == null) return;
+			try {
+				journal.close();
+			} catch (IOException ex) {
+				throw new RuntimeException("Closing journal failed: " + getJournalFile(), ex);
+			}
+			journal = null;
+		}
+
+		private File getJournalFile() {
+			return journalFiles.get(journalFiles.size() - 1);
+		}
+
+	}
+
 	@Override
 	public String createInfo() {
 		StringBuilder sb = new StringBuilder();
@@ -0,0 +1,460 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence.file;
+
+import ilarkesto.concurrent.DeamonThreadFactory;
+import ilarkesto.core.base.RuntimeTracker;
+import ilarkesto.core.persistance.ACachingEntitiesBackend;
+import ilarkesto.core.persistance.AEntity;
+import ilarkesto.core.persistance.Entity;
+import ilarkesto.core.persistance.Transient;
+import ilarkesto.core.time.DateAndTime;
+import ilarkesto.io.AFileStorage;
+import ilarkesto.io.IO;
+import ilarkesto.json.JsonMapper;
+import ilarkesto.json.JsonMapper.TypeResolver;
+import ilarkesto.persistence.file.EntitySegmentFile.Record;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Log-structured alternative to <code>AJsonFilesEntitiesBackend</code>. Committed transactions are appended to
+ * segment files instead of writing one file per entity. On startup the cache is rebuilt by replaying the latest
+ * base (a compacted snapshot) and all segments after it. Sealed segments are compacted into a new base in the
+ * background.
+ */
+public abstract class AJsonSegmentsEntitiesBackend extends ACachingEntitiesBackend {
+
+	private static final String SEGMENT_SUFFIX = ".segment";
+	private static final String BASE_SUFFIX = ".base";
+	private static final String TMP_SUFFIX = ".tmp";
+	private static final int COMPACTION_FRAME_SIZE = 1000;
+
+	protected AFileStorage storage;
+
+	protected abstract List<Class<? extends AEntity>> getEntityTypes();
+
+	protected abstract TypeResolver createTypeResolver();
+
+	private File dir;
+	private int baseNumber;
+	private int activeSegmentNumber;
+	private FileChannel activeSegment;
+	private long activeSegmentSize;
+	private IOException writeFailure;
+	private ExecutorService compactionExecutor;
+	private boolean compactionScheduled;
+	private final Object compactionLock = new Object();
+
+	private DateAndTime loadTime;
+	private DateAndTime lastSaveTime;
+	private DateAndTime lastCompactionTime;
+
+	public AJsonSegmentsEntitiesBackend(AFileStorage storage) {
+		this.storage = storage;
+		load();
+	}
+
+	/**
+	 * Segments are sealed and a new one started when this size is exceeded.
+	 */
+	protected long getMaxSegmentSize() {
+		return 64 * 1024 * 1024;
+	}
+
+	/**
+	 * Number of sealed segments after which they get compacted into a new base.
+	 */
+	protected int getCompactionSegmentCount() {
+		return 8;
+	}
+
+	protected boolean isSyncOnCommit() {
+		return true;
+	}
+
+	protected boolean isMemoryMappedReplay() {
+		return false;
+	}
+
+	private void load() {
+		dir = storage.getFile("segments");
+		IO.createDirectory(dir);
+
+		log.info("Loading entities from", dir);
+		RuntimeTracker rt = new RuntimeTracker();
+
+		baseNumber = getLatestNumber(BASE_SUFFIX);
+		Map<String, Record> recordsById = new HashMap<String, Record>();
+		if (baseNumber > 0)
+			EntitySegmentFile.read(getBaseFile(baseNumber), isMemoryMappedReplay(), false, recordsById);
+
+		List<Integer> segmentNumbers = new ArrayList<Integer>();
+		for (int number : listNumbers(SEGMENT_SUFFIX)) {
+			if (number > baseNumber) segmentNumbers.add(number);
+		}
+		activeSegmentNumber = baseNumber + 1;
+		long activeSegmentValidSize = 0;
+		for (int number : segmentNumbers) {
+			// only the last segment can have been written when crashing, all others are sealed
+			boolean active = number == segmentNumbers.get(segmentNumbers.size() - 1);
+			activeSegmentNumber = number;
+			activeSegmentValidSize = EntitySegmentFile.read(getSegmentFile(number), isMemoryMappedReplay(), active,
+				recordsById);
+		}
+		log.info("   ", recordsById.size(), "records replayed in", rt.getRuntimeFormated());
+
+		Map<String, Class<? extends AEntity>> typesByName = new HashMap<String, Class<? extends AEntity>>();
+		for (Class<? extends AEntity> type : getEntityTypes()) {
+			typesByName.put(type.getSimpleName(), type);
+		}
+		TypeResolver typeResolver = createTypeResolver();
+		for (Record record : recordsById.values()) {
+			if (record.isDelete()) continue;
+			cache.add(deserialize(record, typesByName, typeResolver));
+		}
+
+		openActiveSegment(activeSegmentValidSize);
+		deleteObsoleteFiles();
+		deleteIncompleteBaseFiles();
+
+		loadTime = DateAndTime.now();
+		log.info(cache.size(), "entities loaded in", rt.getRuntimeFormated());
+	}
+
+	private AEntity deserialize(Record record, Map<String, Class<? extends AEntity>> typesByName,
+			TypeResolver typeResolver) {
+		Class<? extends AEntity> type = typesByName.get(record.type);
+		if (type == null) throw new IllegalStateException("Unknown entity type: " + record.type);
+		try {
+			return JsonMapper.deserialize(new String(record.json, IO.UTF_8), type, typeResolver);
+		} catch (Exception ex) {
+			throw new RuntimeException("Loading entity failed: " + record.type + ":" + record.id, ex);
+		}
+	}
+
+	private void openActiveSegment(long validSize) {
+		File file = getSegmentFile(activeSegmentNumber);
+		try {
+			activeSegment = new FileOutputStream(file, true).getChannel();
+			if (activeSegment.size() > validSize) {
+				log.warn("Truncating incomplete transaction at the end of", file, "to", validSize, "bytes");
+				activeSegment.truncate(validSize);
+			}
+			activeSegmentSize = activeSegment.size();
+		} catch (IOException ex) {
+			throw new RuntimeException("Opening segment file failed: " + file, ex);
+		}
+	}
+
+	@Override
+	protected void onUpdate(Collection<AEntity> modified, Collection<String> deleted,
+			Map<String, Map<String, String>> modifiedPropertiesByEntityIds, Runnable callback) {
+		List<Record> records = new ArrayList<Record>();
+		if (modified != null) {
+			for (AEntity entity : modified) {
+				if (entity instanceof Transient) continue;
+				if (deleted != null && deleted.contains(entity.getId())) continue;
+				records.add(new Record(entity.getId(), entity.getClass().getSimpleName(), serialize(entity)));
+			}
+		}
+		if (deleted != null) {
+			for (String id : deleted) {
+				records.add(new Record(id, null, null));
+			}
+		}
+
+		if (!records.isEmpty()) {
+			RuntimeTracker rt = new RuntimeTracker();
+			append(EntitySegmentFile.createFrame(records));
+			log.info("Entity changes appended to segment", activeSegmentNumber + ":", rt.getRuntimeFormated(), "("
+					+ records.size(), "records)");
+			lastSaveTime = DateAndTime.now();
+			onEntityChangesSaved(modified, deleted);
+		}
+
+		if (callback != null) callback.run();
+	}
+
+	private static byte[] serialize(AEntity entity) {
+		try {
+			return JsonMapper.serialize(entity).getBytes(IO.UTF_8);
+		} catch (UnsupportedEncodingException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	private void append(byte[] frame) {
+		if (writeFailure != null)
+			throw new IllegalStateException("Segment " + activeSegmentNumber
+					+ " could not be repaired after a failed write, restart required", writeFailure);
+		if (activeSegmentSize > 0 && activeSegmentSize + frame.length > getMaxSegmentSize()) sealActiveSegment();
+		try {
+			writeToActiveSegment(ByteBuffer.wrap(frame));
+			if (isSyncOnCommit()) activeSegment.force(false);
+		} catch (IOException ex) {
+			discardIncompleteFrame();
+			throw new RuntimeException("Writing to segment " + activeSegmentNumber + " failed", ex);
+		}
+		activeSegmentSize += frame.length;
+	}
+
+	void writeToActiveSegment(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			activeSegment.write(buffer);
+		}
+	}
+
+	/**
+	 * Cuts the segment back to the last complete frame, otherwise the next start would stop reading at the torn
+	 * frame and drop all frames appended after it. If that fails, further writes are refused.
+	 */
+	private void discardIncompleteFrame() {
+		try {
+			activeSegment.truncate(activeSegmentSize);
+		} catch (IOException ex) {
+			log.error("Truncating segment", activeSegmentNumber, "to", activeSegmentSize, "bytes failed:", ex);
+			writeFailure = ex;
+		}
+	}
+
+	private void sealActiveSegment() {
+		closeActiveSegment();
+		activeSegmentNumber++;
+		openActiveSegment(0);
+		if (activeSegmentNumber - 1 - baseNumber >= getCompactionSegmentCount()) scheduleCompaction();
+	}
+
+	private void closeActiveSegment() {
+		try {
+			activeSegment.force(true);
+			activeSegment.close();
+		} catch (IOException ex) {
+			throw new RuntimeException("Closing segment " + activeSegmentNumber + " failed", ex);
+		}
+	}
+
+	private void scheduleCompaction() {
+		if (compactionScheduled) return;
+		compactionScheduled = true;
+		if (compactionExecutor == null)
+			compactionExecutor = Executors.newSingleThreadExecutor(new DeamonThreadFactory());
+		compactionExecutor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					compact();
+				} catch (Exception ex) {
+					log.error("Compacting segments failed", ex);
+				} finally {
+					synchronized (AJsonSegmentsEntitiesBackend.this) {
+						compactionScheduled = false;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Merges the latest base and all sealed segments into a new base. Runs without blocking commits, since sealed
+	 * segments are not modified anymore.
+	 */
+	public void compact() {
+		synchronized (compactionLock) {
+			int fromBase;
+			int toSegment;
+			synchronized (this) {
+				fromBase = baseNumber;
+				toSegment = activeSegmentNumber - 1;
+			}
+			if (toSegment <= fromBase) return;
+
+			RuntimeTracker rt = new RuntimeTracker();
+			Map<String, Record> recordsById = new HashMap<String, Record>();
+			if (fromBase > 0) EntitySegmentFile.read(getBaseFile(fromBase), false, false, recordsById);
+			for (int number = fromBase + 1; number <= toSegment; number++) {
+				File file = getSegmentFile(number);
+				if (file.exists()) EntitySegmentFile.read(file, false, false, recordsById);
+			}
+
+			File baseFile = getBaseFile(toSegment);
+			File tmpFile = new File(baseFile.getPath() + TMP_SUFFIX);
+			writeBase(tmpFile, recordsById.values());
+			IO.move(tmpFile, baseFile, true);
+
+			synchronized (this) {
+				baseNumber = toSegment;
+				lastCompactionTime = DateAndTime.now();
+			}
+			deleteObsoleteFiles();
+			log.info("Segments", fromBase + 1, "to", toSegment, "compacted in", rt.getRuntimeFormated(), "("
+					+ recordsById.size(), "records)");
+		}
+	}
+
+	private void writeBase(File file, Collection<Record> records) {
+		try {
+			FileChannel channel = new FileOutputStream(file).getChannel();
+			try {
+				List<Record> frameRecords = new ArrayList<Record>(COMPACTION_FRAME_SIZE);
+				for (Record record : records) {
+					if (record.isDelete()) continue;
+					frameRecords.add(record);
+					if (frameRecords.size() < COMPACTION_FRAME_SIZE) continue;
+					write(channel, EntitySegmentFile.createFrame(frameRecords));
+					frameRecords.clear();
+				}
+				if (!frameRecords.isEmpty()) write(channel, EntitySegmentFile.createFrame(frameRecords));
+				channel.force(true);
+			} finally {
+				channel.close();
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Writing base file failed: " + file, ex);
+		}
+	}
+
+	private static void write(FileChannel channel, byte[] frame) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(frame);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private synchronized void deleteObsoleteFiles() {
+		for (int number : listNumbers(SEGMENT_SUFFIX)) {
+			if (number <= baseNumber) IO.delete(getSegmentFile(number));
+		}
+		for (int number : listNumbers(BASE_SUFFIX)) {
+			if (number < baseNumber) IO.delete(getBaseFile(number));
+		}
+	}
+
+	/**
+	 * Deletes base files which were not completely written because of a crash while compacting.
+	 */
+	private void deleteIncompleteBaseFiles() {
+		File[] files = dir.listFiles();
+		if (files == null) return;
+		for (File file : files) {
+			if (!file.getName().endsWith(BASE_SUFFIX + TMP_SUFFIX)) continue;
+			log.info("Deleting incomplete base file", file);
+			IO.delete(file);
+		}
+	}
+
+	public synchronized void close() {
+		if (compactionExecutor != null) compactionExecutor.shutdown();
+		closeActiveSegment();
+	}
+
+	private int getLatestNumber(String suffix) {
+		Set<Integer> numbers = listNumbers(suffix);
+		return numbers.isEmpty() ? 0 : ((TreeSet<Integer>) numbers).last();
+	}
+
+	private Set<Integer> listNumbers(String suffix) {
+		Set<Integer> ret = new TreeSet<Integer>();
+		File[] files = dir.listFiles();
+		if (files == null) return ret;
+		for (File file : files) {
+			String name = file.getName();
+			if (!name.endsWith(suffix)) continue;
+			try {
+				ret.add(Integer.parseInt(name.substring(0, name.length() - suffix.length())));
+			} catch (NumberFormatException ex) {
+				log.warn("Unsupported file in segments directory:", file);
+			}
+		}
+		return ret;
+	}
+
+	private File getSegmentFile(int number) {
+		return new File(dir.getPath() + "/" + formatNumber(number) + SEGMENT_SUFFIX);
+	}
+
+	private File getBaseFile(int number) {
+		return new File(dir.getPath() + "/" + formatNumber(number) + BASE_SUFFIX);
+	}
+
+	private static String formatNumber(int number) {
+		String s = String.valueOf(number);
+		while (s.length() < 8) {
+			s = "0" + s;
+		}
+		return s;
+	}
+
+	protected void onEntityChangesSaved(Collection<AEntity> modified, Collection<String> deleted) {}
+
+	@Override
+	public String loadOutsourcedString(Entity entity, String propertyName) {
+		File file = getOutsourcedPropertyFile(entity, propertyName);
+		if (!file.exists()) return null;
+		return IO.readFile(file, IO.UTF_8);
+	}
+
+	@Override
+	public void saveOutsourcedString(Entity entity, String propertyName, String value) {
+		File file = getOutsourcedPropertyFile(entity, propertyName);
+		if (value == null) {
+			IO.delete(file);
+		} else {
+			IO.writeFile(file, value, IO.UTF_8);
+		}
+	}
+
+	private File getOutsourcedPropertyFile(Entity entity, String propertyName) {
+		return storage.getFile(entity.getClass().getSimpleName() + "/" + entity.getId() + "." + propertyName + ".txt");
+	}
+
+	@Override
+	public synchronized String createInfo() {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append("\nEntity counts:\n");
+		for (Map.Entry<Class, Integer> entry : cache.countEntities().entrySet()) {
+			sb.append("* ").append(entry.getKey().getSimpleName()).append(": ").append(entry.getValue()).append("\n");
+		}
+
+		sb.append("\nSegments:\n");
+		sb.append("* base: ").append(baseNumber).append("\n");
+		sb.append("* active: ").append(activeSegmentNumber).append(" (").append(activeSegmentSize)
+				.append(" bytes)\n");
+
+		sb.append("\nTimes:\n");
+		sb.append("* loadTime: ").append(loadTime).append("\n");
+		sb.append("* lastSaveTime: ").append(lastSaveTime).append("\n");
+		sb.append("* lastCompactionTime: ").append(lastCompactionTime).append("\n");
+
+		return sb.toString();
+	}
+
+}
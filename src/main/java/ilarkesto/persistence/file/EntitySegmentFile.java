@@ -0,0 +1,213 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence.file;
+
+import ilarkesto.io.IO;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Format of the segment files of <code>AJsonSegmentsEntitiesBackend</code>. A segment is a sequence of frames, one
+ * frame per committed transaction: payload length (int), CRC32 of the payload (long), payload. The payload contains
+ * the number of records followed by the records. A save record consists of 'S', id, type and the JSON of the
+ * entity; a delete record of 'D' and id. Only the segment which was written last may end with an incomplete frame
+ * (torn tail of a crashed write), in all other files an incomplete or corrupt frame is an error.
+ */
+final class EntitySegmentFile {
+
+	private static final int FRAME_HEADER_SIZE = 12;
+
+	private EntitySegmentFile() {}
+
+	static byte[] createFrame(Collection<Record> records) {
+		ByteArrayOutputStream payloadBuffer = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(payloadBuffer);
+		try {
+			out.writeInt(records.size());
+			for (Record record : records) {
+				if (record.isDelete()) {
+					out.writeByte('D');
+					out.writeUTF(record.id);
+				} else {
+					out.writeByte('S');
+					out.writeUTF(record.id);
+					out.writeUTF(record.type);
+					out.writeInt(record.json.length);
+					out.write(record.json);
+				}
+			}
+			out.flush();
+		} catch (IOException ex) {
+			throw new RuntimeException("Writing segment records failed", ex);
+		}
+		byte[] payload = payloadBuffer.toByteArray();
+
+		CRC32 crc = new CRC32();
+		crc.update(payload, 0, payload.length);
+
+		ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + payload.length);
+		frame.putInt(payload.length);
+		frame.putLong(crc.getValue());
+		frame.put(payload);
+		return frame.array();
+	}
+
+	/**
+	 * Applies all valid frames of the segment to the records map. The latest record per entity wins, deletions are
+	 * kept as delete records.
+	 *
+	 * @param tornTailAllowed <code>true</code> if the file may end with an incomplete or corrupt frame, which is
+	 *            then ignored. Otherwise such a frame causes an <code>IllegalStateException</code>, since skipping
+	 *            it would drop all later changes.
+	 * @return length of the valid part of the segment
+	 */
+	static long read(File file, boolean memoryMapped, boolean tornTailAllowed, Map<String, Record> recordsById) {
+		ByteBuffer buffer = memoryMapped ? map(file) : ByteBuffer.wrap(IO.readFileToByteArray(file));
+		CRC32 crc = new CRC32();
+		byte[] chunk = buffer.hasArray() ? null : new byte[8192];
+		while (buffer.hasRemaining()) {
+			int frameStart = buffer.position();
+			if (buffer.remaining() < FRAME_HEADER_SIZE)
+				return invalidFrame(file, frameStart, "incomplete frame header", tornTailAllowed);
+			int length = buffer.getInt();
+			long checksum = buffer.getLong();
+			if (length < 0 || length > buffer.remaining())
+				return invalidFrame(file, frameStart, "incomplete frame", tornTailAllowed);
+			if (checksum(buffer, length, crc, chunk) != checksum)
+				return invalidFrame(file, frameStart, "checksum mismatch", tornTailAllowed);
+			ByteBuffer payload = buffer.slice();
+			payload.limit(length);
+			readPayload(payload, recordsById);
+			buffer.position(buffer.position() + length);
+		}
+		return buffer.position();
+	}
+
+	private static long invalidFrame(File file, int frameStart, String reason, boolean tornTailAllowed) {
+		if (tornTailAllowed) return frameStart;
+		throw new IllegalStateException("Corrupt segment file " + file + ": " + reason + " at offset " + frameStart);
+	}
+
+	/**
+	 * Checksum of the next <code>length</code> bytes, without moving the position of the buffer. Memory mapped
+	 * buffers are checksummed through the small <code>chunk</code> array instead of copying the whole payload.
+	 */
+	private static long checksum(ByteBuffer buffer, int length, CRC32 crc, byte[] chunk) {
+		crc.reset();
+		if (chunk == null) {
+			crc.update(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+			return crc.getValue();
+		}
+		ByteBuffer in = buffer.duplicate();
+		int remaining = length;
+		while (remaining > 0) {
+			int n = Math.min(remaining, chunk.length);
+			in.get(chunk, 0, n);
+			crc.update(chunk, 0, n);
+			remaining -= n;
+		}
+		return crc.getValue();
+	}
+
+	private static void readPayload(ByteBuffer payload, Map<String, Record> recordsById) {
+		DataInputStream in = new DataInputStream(new ByteBufferInputStream(payload));
+		try {
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				byte op = in.readByte();
+				String id = in.readUTF();
+				if (op == 'D') {
+					recordsById.put(id, new Record(id, null, null));
+					continue;
+				}
+				if (op != 'S') throw new IllegalStateException("Unknown segment record type: " + op);
+				String type = in.readUTF();
+				byte[] json = new byte[in.readInt()];
+				in.readFully(json);
+				recordsById.put(id, new Record(id, type, json));
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Reading segment records failed", ex);
+		}
+	}
+
+	private static ByteBuffer map(File file) {
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			} finally {
+				raf.close();
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException("Mapping segment file failed: " + file, ex);
+		}
+	}
+
+	private static final class ByteBufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		private ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (!buffer.hasRemaining()) return -1;
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+
+	}
+
+	static final class Record {
+
+		final String id;
+		final String type;
+		final byte[] json;
+
+		Record(String id, String type, byte[] json) {
+			super();
+			this.id = id;
+			this.type = type;
+			this.json = json;
+		}
+
+		boolean isDelete() {
+			return json == null;
+		}
+
+	}
+
+}
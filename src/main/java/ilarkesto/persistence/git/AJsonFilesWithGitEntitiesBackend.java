@@ -75,10 +75,7 @@ public abstract class AJsonFilesWithGitEntitiesBackend extends AJsonFilesEntitie
 			}
 		}
 
-		AWebApplication webApplication = AWebApplication.get();
-		webApplication.deleteFromClients(deleted);
-		webApplication.sendToAllIfTracking((Collection) modified);
-		webApplication.sendToAll((Collection) created);
+		AWebApplication.get().broadcastEntityChanges(modified, deleted, created);
 	}
 
 	@Override
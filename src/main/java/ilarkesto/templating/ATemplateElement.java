@@ -23,17 +23,14 @@ import java.util.Collections;
 
 public abstract class ATemplateElement {
 
-	protected Context context;
-
-	public abstract void onProcess();
+	public abstract void onProcess(Context context);
 
 	public final Context process(Context context) {
-		this.context = context;
-		onProcess();
+		onProcess(context);
 		return context;
 	}
 
-	protected Template getTemplate(String path) {
+	protected Template getTemplate(Context context, String path) {
 		if (Str.isBlank(path)) return null;
 		TemplateResolver templateResolver = context.getTemplateResolver();
 		if (templateResolver == null) return null;
@@ -41,20 +38,20 @@ public abstract class ATemplateElement {
 		return template;
 	}
 
-	protected String format(Object o) {
+	protected String format(Context context, Object o) {
 		return context.getTextFormater().format(o);
 	}
 
-	protected String escape(Object text) {
+	protected String escape(Context context, Object text) {
 		return context.getTextEscaper().escape(text.toString());
 	}
 
-	protected Object evalExpression(String expression) {
+	protected Object evalExpression(Context context, Expression expression) {
 		return context.getExpressionProcessor().eval(expression, context);
 	}
 
-	protected boolean evalExpressionAsBoolean(String expression) {
-		return isTrue(evalExpression(expression));
+	protected boolean evalExpressionAsBoolean(Context context, Expression expression) {
+		return isTrue(evalExpression(context, expression));
 	}
 
 	protected boolean isTrue(Object value) {
@@ -83,7 +80,7 @@ public abstract class ATemplateElement {
 		return Collections.emptyList();
 	}
 
-	protected void print(Object value) {
+	protected void print(Context context, Object value) {
 		context.print(value);
 	}
 
@@ -31,17 +31,20 @@ public class ComponentIncludeElement extends ContainerElement {
 	}
 
 	@Override
-	public void onProcess() {
+	public void onProcess(Context context) {
 		TemplateResolver previousTemplateResolver = context.getTemplateResolver();
 		InlineTemplateResolver inlineTemplateResolver = new InlineTemplateResolver(previousTemplateResolver);
 		context.setTemplateResolver(inlineTemplateResolver);
 
-		Template template = getTemplate(path);
-		if (template == null) return;
-		template.process(context);
+		try {
+			Template template = getTemplate(context, path);
+			if (template == null) return;
+			template.process(context);
 
-		super.onProcess();
-		context.setTemplateResolver(previousTemplateResolver);
+			super.onProcess(context);
+		} finally {
+			context.setTemplateResolver(previousTemplateResolver);
+		}
 	}
 
 	class InlineTemplateResolver implements TemplateResolver {
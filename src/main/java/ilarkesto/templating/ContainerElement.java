@@ -22,11 +22,11 @@ public class ContainerElement extends ATemplateElement {
 	protected List<ATemplateElement> children = new ArrayList<ATemplateElement>();
 
 	@Override
-	public void onProcess() {
-		processChildren();
+	public void onProcess(Context context) {
+		processChildren(context);
 	}
 
-	protected void processChildren() {
+	protected void processChildren(Context context) {
 		for (ATemplateElement child : children) {
 			child.process(context);
 		}
@@ -14,8 +14,7 @@
  */
 package ilarkesto.templating;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -26,20 +25,20 @@ public class Context {
 	private TextEscaper textEscaper = new HtmlTextEscaper();
 	private TemplateResolver templateResolver;
 
-	private StringWriter stringWriter;
-	private PrintWriter out;
+	private StringBuilder buffer;
+	private Appendable out;
 
 	private Map<String, Object> rootScope = new LinkedHashMap<String, Object>();
 	private Object scope = rootScope;
 
-	public Context(PrintWriter out) {
+	public Context(Appendable out) {
 		super();
 		this.out = out;
 	}
 
 	public Context() {
-		stringWriter = new StringWriter();
-		out = new PrintWriter(stringWriter);
+		buffer = new StringBuilder();
+		out = buffer;
 	}
 
 	public void put(String name, Object value) {
@@ -63,7 +62,11 @@ public class Context {
 	}
 
 	void print(Object text) {
-		out.print(text);
+		try {
+			out.append(String.valueOf(text));
+		} catch (IOException ex) {
+			throw new RuntimeException("Writing template output failed", ex);
+		}
 	}
 
 	public void setExpressionProcessor(ExpressionProcessor resolver) {
@@ -99,12 +102,10 @@ public class Context {
 	}
 
 	public String popOutput() {
-		if (stringWriter == null)
-			throw new IllegalStateException("Context was constructed with PrintWriter, peekOutput() not allowed");
-		out.close();
-		String ret = stringWriter.toString();
-		stringWriter = new StringWriter();
-		out = new PrintWriter(stringWriter);
+		if (buffer == null)
+			throw new IllegalStateException("Context was constructed with Appendable, popOutput() not allowed");
+		String ret = buffer.toString();
+		buffer.setLength(0);
 		return ret;
 	}
 
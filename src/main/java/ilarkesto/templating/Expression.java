@@ -0,0 +1,156 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.templating;
+
+import ilarkesto.base.Reflect;
+import ilarkesto.core.base.Str;
+import ilarkesto.core.logging.Log;
+import ilarkesto.json.JsonObject;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Path expression of a template, parsed once into its properties. Properties are separated by <code>/</code>, a
+ * leading <code>/</code> or <code>$</code> starts at the root scope. Properties are taken from maps, JSON objects
+ * or by getter methods, which are looked up once per runtime class.
+ */
+public final class Expression {
+
+	private static final Log log = Log.get(Expression.class);
+
+	private static final int MAX_CACHED_EXPRESSIONS = 10000;
+
+	private static final Map<String, Expression> expressionsByText = new ConcurrentHashMap<String, Expression>();
+	private static final Map<Class, Map<String, Getter>> gettersByType =
+			new ConcurrentHashMap<Class, Map<String, Getter>>();
+
+	private final String text;
+	private final boolean fromRootScope;
+	private final String[] properties;
+
+	public static Expression compile(String text) {
+		if (text == null) text = "";
+		Expression expression = expressionsByText.get(text);
+		if (expression == null) {
+			expression = new Expression(text);
+			if (expressionsByText.size() >= MAX_CACHED_EXPRESSIONS) expressionsByText.clear();
+			expressionsByText.put(text, expression);
+		}
+		return expression;
+	}
+
+	private Expression(String text) {
+		this.text = text;
+		if (Str.isBlank(text)) {
+			fromRootScope = false;
+			properties = new String[0];
+			return;
+		}
+
+		String path = text;
+		if (path.startsWith("/")) {
+			path = path.substring(1);
+			fromRootScope = true;
+		} else {
+			fromRootScope = path.startsWith("$");
+		}
+
+		List<String> ret = new ArrayList<String>();
+		int idx = path.indexOf('/');
+		while (idx > 0) {
+			ret.add(path.substring(0, idx));
+			path = path.substring(idx + 1);
+			idx = path.indexOf('/');
+		}
+		ret.add(path);
+		properties = ret.toArray(new String[ret.size()]);
+	}
+
+	public Object eval(Context context) {
+		if (properties.length == 0) return null;
+		Object object = fromRootScope ? context.getRootScope() : context.getScope();
+		for (String property : properties) {
+			if (object == null) return null;
+			object = getProperty(object, property);
+		}
+		return object;
+	}
+
+	private static Object getProperty(Object object, String property) {
+		if (object instanceof Map) return ((Map) object).get(property);
+
+		if (object instanceof JsonObject) return ((JsonObject) object).get(property);
+
+		Method getter = getGetter(object.getClass(), property).method;
+		if (getter == null) return null;
+		try {
+			return getter.invoke(object);
+		} catch (Exception ex) {
+			log.debug("getProperty() failed:", ex);
+			return null;
+		}
+	}
+
+	private static Getter getGetter(Class type, String property) {
+		Map<String, Getter> getters = gettersByType.get(type);
+		if (getters == null) {
+			getters = new ConcurrentHashMap<String, Getter>();
+			gettersByType.put(type, getters);
+		}
+		Getter getter = getters.get(property);
+		if (getter == null) {
+			getter = new Getter(findGetterMethod(type, property));
+			getters.put(property, getter);
+		}
+		return getter;
+	}
+
+	private static Method findGetterMethod(Class type, String property) {
+		String methodSuffix = Str.uppercaseFirstLetter(property);
+		Method method = Reflect.getDeclaredMethod(type, "get" + methodSuffix);
+		if (method == null) {
+			method = Reflect.getDeclaredMethod(type, "is" + methodSuffix);
+			if (method == null) return null;
+			Class<?> returnType = method.getReturnType();
+			if (returnType != boolean.class && returnType != Boolean.class) return null;
+		}
+		method.setAccessible(true);
+		return method;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	@Override
+	public String toString() {
+		return text;
+	}
+
+	private static final class Getter {
+
+		private final Method method;
+
+		private Getter(Method method) {
+			this.method = method;
+		}
+
+	}
+
+}
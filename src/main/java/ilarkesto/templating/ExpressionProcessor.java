@@ -14,48 +14,14 @@
  */
 package ilarkesto.templating;
 
-import ilarkesto.base.Reflect;
-import ilarkesto.base.Str;
-import ilarkesto.core.logging.Log;
-import ilarkesto.json.JsonObject;
-
-import java.util.Map;
-
 public class ExpressionProcessor {
 
-	private Log log = Log.get(ExpressionProcessor.class);
-
 	public Object eval(String expression, Context context) {
-		if (Str.isBlank(expression)) return null;
-		if (expression.startsWith("/")) return evalOnObject(expression.substring(1), context.getRootScope());
-		if (expression.startsWith("$")) return evalOnObject(expression, context.getRootScope());
-		return evalOnObject(expression, context.getScope());
-	}
-
-	private Object evalOnObject(String expression, Object object) {
-		if (object == null) return null;
-
-		int idx = expression.indexOf('/');
-		if (idx <= 0) return getFromObject(expression, object);
-
-		object = getFromObject(expression.substring(0, idx), object);
-		if (object == null) return null;
-		return evalOnObject(expression.substring(idx + 1), object);
+		return eval(Expression.compile(expression), context);
 	}
 
-	private Object getFromObject(String propertyExpression, Object object) {
-		String property = propertyExpression;
-
-		if (object instanceof Map) return ((Map) object).get(property);
-
-		if (object instanceof JsonObject) return ((JsonObject) object).get(property);
-
-		try {
-			return Reflect.getProperty(object, property);
-		} catch (Throwable ex) {
-			log.debug("getFromObject() failed:", ex);
-			return null;
-		}
+	public Object eval(Expression expression, Context context) {
+		return expression.eval(context);
 	}
 
 }
@@ -24,8 +24,8 @@ class IncludeElement extends ATemplateElement {
 	}
 
 	@Override
-	public void onProcess() {
-		Template template = getTemplate(path);
+	public void onProcess(Context context) {
+		Template template = getTemplate(context, path);
 		if (template == null) return;
 		template.process(context);
 	}
@@ -15,17 +15,15 @@
 package ilarkesto.templating;
 
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 
 class LoopElement extends ContainerElement {
 
-	private String expression;
+	private Expression expression;
 
 	private String name = "loop";
 
 	public LoopElement(String expression) {
-		this.expression = expression;
+		this.expression = Expression.compile(expression);
 	}
 
 	public LoopElement(String expression, ATemplateElement contentTemplate) {
@@ -34,34 +32,28 @@ class LoopElement extends ContainerElement {
 	}
 
 	@Override
-	public void onProcess() {
-		Object value = evalExpression(expression);
+	public void onProcess(Context context) {
+		Object value = evalExpression(context, expression);
 
 		Collection items = toCollection(value);
 		if (items == null || items.isEmpty()) return;
 
-		Map<String, Object> loopProperties = new HashMap<String, Object>();
 		String loopPropertiesName = "$" + name;
+		Object outerLoopProperties = context.getRootScope().get(loopPropertiesName);
+		LoopProperties loopProperties = new LoopProperties(items.size());
 		context.put(loopPropertiesName, loopProperties);
 
-		int count = items.size();
-		loopProperties.put("count", count);
-		int index = 0;
-		int position = 1;
-		loopProperties.put("last", false);
 		for (Object item : items) {
-			loopProperties.put("item", item);
-			loopProperties.put("index", index);
-			loopProperties.put("position", position);
-			if (index == 0) loopProperties.put("first", true);
-			if (index == 1) loopProperties.put("first", false);
-			if (index == count - 1) loopProperties.put("last", true);
+			loopProperties.item = item;
 			process(context, item);
-			index++;
-			position++;
+			loopProperties.index++;
 		}
 
-		context.remove(loopPropertiesName);
+		if (outerLoopProperties == null) {
+			context.remove(loopPropertiesName);
+		} else {
+			context.put(loopPropertiesName, outerLoopProperties);
+		}
 	}
 
 	private void process(Context context, Object item) {
@@ -70,7 +62,7 @@ class LoopElement extends ContainerElement {
 		Object oldScope = context.getScope();
 		if (changeScopeToItem) context.setScope(item);
 
-		processChildren();
+		processChildren(context);
 
 		if (changeScopeToItem) context.setScope(oldScope);
 	}
@@ -89,7 +81,46 @@ class LoopElement extends ContainerElement {
 	}
 
 	public String getExpression() {
-		return expression;
+		return expression.getText();
+	}
+
+	/**
+	 * Properties of the current iteration, available as <code>$loop</code>.
+	 */
+	static class LoopProperties {
+
+		private final int count;
+		private Object item;
+		private int index;
+
+		private LoopProperties(int count) {
+			this.count = count;
+		}
+
+		public Object getItem() {
+			return item;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public int getPosition() {
+			return index + 1;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public boolean isFirst() {
+			return index == 0;
+		}
+
+		public boolean isLast() {
+			return index == count - 1;
+		}
+
 	}
 
-}
\ No newline at end of file
+}
@@ -18,9 +18,14 @@ import ilarkesto.core.parsing.sax.ASaxParserState;
 import ilarkesto.core.parsing.sax.ParseException;
 
 import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MustacheLikeTemplateParser extends ATemplateParser {
 
+	private static final Map<String, ParsedTemplateFile> templateFilesByPath =
+			new ConcurrentHashMap<String, ParsedTemplateFile>();
+
 	@Override
 	protected String[] getTokens() {
 		return new String[] { "{{{", "{{" };
@@ -40,8 +45,35 @@ public class MustacheLikeTemplateParser extends ATemplateParser {
 		return new MustacheLikeTemplateParser().parse(template).getTemplate();
 	}
 
+	/**
+	 * Parses the template file or returns the template parsed before, as long as modification time and length of
+	 * the file are unchanged.
+	 */
 	public static Template parseTemplate(File templateFile) throws ParseException {
-		return new MustacheLikeTemplateParser().parse(templateFile).getTemplate();
+		String path = templateFile.getAbsolutePath();
+		long lastModified = templateFile.lastModified();
+		long length = templateFile.length();
+		ParsedTemplateFile parsed = templateFilesByPath.get(path);
+		if (parsed != null && parsed.lastModified == lastModified && parsed.length == length) return parsed.template;
+
+		Template template = new MustacheLikeTemplateParser().parse(templateFile).getTemplate();
+		templateFilesByPath.put(path, new ParsedTemplateFile(lastModified, length, template));
+		return template;
+	}
+
+	private static class ParsedTemplateFile {
+
+		private final long lastModified;
+		private final long length;
+		private final Template template;
+
+		public ParsedTemplateFile(long lastModified, long length, Template template) {
+			super();
+			this.lastModified = lastModified;
+			this.length = length;
+			this.template = template;
+		}
+
 	}
 
 	class MustacheState extends ASaxParserState {
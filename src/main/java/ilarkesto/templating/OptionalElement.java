@@ -16,18 +16,18 @@ package ilarkesto.templating;
 
 class OptionalElement extends ATemplateElement {
 
-	private String expression;
+	private Expression expression;
 	private ATemplateElement contentTemplate;
 
 	public OptionalElement(String expression, ATemplateElement contentTemplate) {
 		super();
-		this.expression = expression;
+		this.expression = Expression.compile(expression);
 		this.contentTemplate = contentTemplate;
 	}
 
 	@Override
-	public void onProcess() {
-		if (!evalExpressionAsBoolean(expression)) return;
+	public void onProcess(Context context) {
+		if (!evalExpressionAsBoolean(context, expression)) return;
 		contentTemplate.process(context);
 	}
 
@@ -16,18 +16,18 @@ package ilarkesto.templating;
 
 class ScopeElement extends ATemplateElement {
 
-	private String expression;
+	private Expression expression;
 	private ATemplateElement contentTemplate;
 
 	public ScopeElement(String expression, ATemplateElement contentTemplate) {
 		super();
-		this.expression = expression;
+		this.expression = Expression.compile(expression);
 		this.contentTemplate = contentTemplate;
 	}
 
 	@Override
-	public void onProcess() {
-		Object value = context.getExpressionProcessor().eval(expression, context);
+	public void onProcess(Context context) {
+		Object value = evalExpression(context, expression);
 		if (value == null) return;
 
 		Object scope = context.getScope();
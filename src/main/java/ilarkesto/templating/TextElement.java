@@ -24,7 +24,7 @@ class TextElement extends ATemplateElement {
 	}
 
 	@Override
-	public void onProcess() {
+	public void onProcess(Context context) {
 		if (text == null) return;
 		context.print(text);
 	}
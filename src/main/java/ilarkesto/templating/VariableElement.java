@@ -16,29 +16,29 @@ package ilarkesto.templating;
 
 class VariableElement extends ATemplateElement {
 
-	private String expression;
+	private Expression expression;
 	private String defaultValue;
 	private boolean escape = true;
 
 	public VariableElement(String expression) {
 		super();
-		this.expression = expression;
+		this.expression = Expression.compile(expression);
 	}
 
 	@Override
-	public void onProcess() {
-		Object value = evalExpression(expression);
+	public void onProcess(Context context) {
+		Object value = evalExpression(context, expression);
 		if (value == null) value = defaultValue;
 		if (value == null) return;
 
-		String formatedValue = format(value);
+		String formatedValue = format(context, value);
 
 		if (!escape) {
-			print(formatedValue);
+			print(context, formatedValue);
 			return;
 		}
 
-		print(escape(formatedValue));
+		print(context, escape(context, formatedValue));
 	}
 
 	public VariableElement setDefaultValue(String defaultValue) {
@@ -56,7 +56,7 @@ class VariableElement extends ATemplateElement {
 	}
 
 	public String getExpression() {
-		return expression;
+		return expression.getText();
 	}
 
 }
\ No newline at end of file
@@ -16,9 +16,11 @@ package ilarkesto.webapp;
 
 import ilarkesto.base.Str;
 import ilarkesto.base.Sys;
+import ilarkesto.core.persistance.Entity;
 import ilarkesto.core.persistance.TransferableEntity;
 import ilarkesto.di.app.AApplication;
 import ilarkesto.gwt.server.AGwtConversation;
+import ilarkesto.gwt.server.EntityChangeBroadcaster;
 import ilarkesto.logging.DefaultLogRecordHandler;
 import ilarkesto.webapp.jsonapi.JsonApiFactory;
 import ilarkesto.webapp.jsonapi.ReflectionJsonApiFactory;
@@ -67,6 +69,7 @@ public abstract class AWebApplication extends AApplication {
 	@Override
 	protected void onShutdown() {
 		if (gwtSuperDevMode != null) gwtSuperDevMode.stopCodeServer();
+		if (entityChangeBroadcaster != null) entityChangeBroadcaster.shutdown();
 		onShutdownWebApplication();
 	}
 
@@ -195,6 +198,22 @@ public abstract class AWebApplication extends AApplication {
 		}
 	}
 
+	/**
+	 * Sends the changes of saved entities to all conversations, serializing each entity once. The conversation of
+	 * the current request gets them synchronously, the others asynchronously.
+	 */
+	public void broadcastEntityChanges(Collection<? extends Entity> modified, Collection<String> deleted,
+			Collection<? extends Entity> created) {
+		getEntityChangeBroadcaster().broadcast(modified, deleted, created);
+	}
+
+	private EntityChangeBroadcaster entityChangeBroadcaster;
+
+	public synchronized EntityChangeBroadcaster getEntityChangeBroadcaster() {
+		if (entityChangeBroadcaster == null) entityChangeBroadcaster = new EntityChangeBroadcaster(this);
+		return entityChangeBroadcaster;
+	}
+
 	public void deleteFromClients(Collection<String> entityIds) {
 		if (entityIds == null || entityIds.isEmpty()) return;
 		for (AGwtConversation conversation : getGwtConversations()) {
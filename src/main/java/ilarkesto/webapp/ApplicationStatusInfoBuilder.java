@@ -78,6 +78,9 @@ public class ApplicationStatusInfoBuilder {
 
 		keyValueRow(html, "Available processors", String.valueOf(runtime.availableProcessors()));
 		keyValueRow(html, "Default locale", Locale.getDefault().toString());
+		keyValueRow(html, "Log records", DefaultLogRecordHandler.getWrittenCount() + " written, "
+				+ DefaultLogRecordHandler.getQueuedCount() + " queued, " + DefaultLogRecordHandler.getDroppedCount()
+				+ " dropped");
 
 		endTABLE(html);
 		html.flush();
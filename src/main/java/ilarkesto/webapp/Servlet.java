@@ -21,7 +21,10 @@ import ilarkesto.base.Tm;
 import ilarkesto.core.base.Filename;
 import ilarkesto.core.logging.Log;
 import ilarkesto.core.time.DateAndTime;
+import ilarkesto.io.FileContentCache;
 import ilarkesto.io.IO;
+import ilarkesto.net.ByteRange;
+import ilarkesto.net.Http;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -54,6 +57,14 @@ public abstract class Servlet {
 
 	public static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy, HH:mm:";
 
+	// sendfile support of Tomcat's NIO/APR connectors
+	private static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+	private static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+	private static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+	private static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
+	private static final FileContentCache fileContentCache = new FileContentCache(16 * 1024 * 1024, 64 * 1024);
+
 	private Servlet() {}
 
 	public static List<String> getEndpoints() {
@@ -140,11 +151,11 @@ public abstract class Servlet {
 	}
 
 	public static String createEtag(File file) {
-		return Long.toHexString(file.lastModified());
+		return Http.createEtag(file.lastModified());
 	}
 
 	public static String createEtag(DateAndTime lastModified) {
-		return Long.toHexString(lastModified.toMillis());
+		return Http.createEtag(lastModified.toMillis());
 	}
 
 	public static void writeCachingHeaders(HttpServletResponse httpResponse, String eTag, DateAndTime lastModified) {
@@ -187,26 +198,57 @@ public abstract class Servlet {
 			return;
 		}
 
+		String eTag = createEtag(file);
 		if (enableCaching) {
-			String eTag = createEtag(file);
-			String requestEtag = getEtag(httpRequest);
-			if (eTag.equals(requestEtag)) {
+			if (Http.isEtagMatching(getEtag(httpRequest), eTag)) {
 				log.debug("ETag valid. Returning: 304 Not Modified");
-				try {
-					httpResponse.sendError(HttpServletResponse.SC_NOT_MODIFIED);
-				} catch (IOException ex) {
-					throw new RuntimeException("Serving file failed: " + file, ex);
-				}
+				httpResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				setEtag(httpResponse, eTag);
 				return;
 			}
 			setEtag(httpResponse, eTag);
 		}
 
+		long length = file.length();
 		httpResponse.setContentType(getMimeType(file));
-		httpResponse.setContentLength((int) file.length());
+		httpResponse.setHeader(Http.RESPONSE_HEADER_ACCEPT_RANGES, "bytes");
 		if (setFilename) Servlet.setFilename(file.getName(), httpResponse);
+
+		long offset = 0;
+		long count = length;
+		ByteRange range = ByteRange.parse(httpRequest.getHeader(Http.REQUEST_HEADER_RANGE), length);
+		if (range != null && Http.isIfRangeMatching(httpRequest.getHeader(Http.REQUEST_HEADER_IF_RANGE), eTag)) {
+			if (!range.isSatisfiable()) {
+				httpResponse.setHeader(Http.RESPONSE_HEADER_CONTENT_RANGE, range.getUnsatisfiedContentRange());
+				httpResponse.setStatus(Http.RESPONSE_SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			}
+			httpResponse.setStatus(Http.RESPONSE_SC_PARTIAL_CONTENT);
+			httpResponse.setHeader(Http.RESPONSE_HEADER_CONTENT_RANGE, range.getContentRange());
+			offset = range.getStart();
+			count = range.getLength();
+		}
+		httpResponse.setHeader(Http.RESPONSE_HEADER_CONTENT_LENGTH, String.valueOf(count));
+		if ("HEAD".equals(httpRequest.getMethod())) return;
+
 		try {
-			IO.copyFile(file, httpResponse.getOutputStream());
+			if (count == length) {
+				byte[] data = fileContentCache.get(file);
+				if (data != null) {
+					httpResponse.getOutputStream().write(data);
+					return;
+				}
+			}
+
+			if (Boolean.TRUE.equals(httpRequest.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))) {
+				// the container sends the file after the servlet returned
+				httpRequest.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, file.getAbsolutePath());
+				httpRequest.setAttribute(SENDFILE_START_ATTRIBUTE, offset);
+				httpRequest.setAttribute(SENDFILE_END_ATTRIBUTE, offset + count);
+				return;
+			}
+
+			IO.transferFile(file, offset, count, httpResponse.getOutputStream());
 		} catch (IOException ex) {
 			throw new RuntimeException("Serving file failed: " + file, ex);
 		}
@@ -216,22 +258,7 @@ public abstract class Servlet {
 		// String ret = Files.probeContentType(file);
 		// if (ret != null) return ret;
 		String filenameSuffix = new Filename(file.getName()).getSuffix();
-		return getMimeTypeFromFilenameSuffix(filenameSuffix);
-	}
-
-	private static String getMimeTypeFromFilenameSuffix(String s) {
-		if (Str.isBlank(s)) return "application/octet-stream";
-		s = s.trim().toLowerCase();
-		if (s.equals("html") || s.equals("htm")) return "text/html";
-		if (s.equals("js")) return "text/javascript";
-		if (s.equals("css")) return "text/css";
-		if (s.equals("txt")) return "text/plain";
-		if (s.equals("ico")) return "image/x-icon";
-		if (s.equals("png")) return "image/png";
-		if (s.equals("jpg") || s.equals("jpeg")) return "image/jpeg";
-		if (s.equals("json")) return "application/json";
-		if (s.equals("xhtml")) return "application/xhtml+xml";
-		return "application/octet-stream";
+		return Http.getMimeTypeFromFilenameSuffix(filenameSuffix);
 	}
 
 	public static void setFilename(String fileName, HttpServletResponse httpResponse) {
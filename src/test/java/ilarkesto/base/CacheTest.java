@@ -0,0 +1,156 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.base;
+
+import ilarkesto.core.time.Tm;
+import ilarkesto.testng.ATest;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+public class CacheTest extends ATest {
+
+	@Test
+	public void lruEviction() {
+		Cache<Integer, String> cache = new Cache<Integer, String>(new CountingFactory());
+		cache.setMaxSize(3);
+		cache.get(1);
+		cache.get(2);
+		cache.get(3);
+		cache.get(1);
+		cache.get(4);
+		assertEquals(cache.size(), 3);
+		assertEquals(cache.getEvictionCount(), 1);
+		assertNull(cache.getIfPresent(2));
+		assertEquals(cache.getIfPresent(1), "1");
+	}
+
+	@Test
+	public void weight() {
+		Cache<Integer, String> cache = new Cache<Integer, String>(new CountingFactory());
+		cache.setMaxWeight(10, new Cache.Weigher<Integer, String>() {
+
+			@Override
+			public long weigh(Integer key, String value) {
+				return key;
+			}
+		});
+		cache.get(5);
+		cache.get(4);
+		cache.get(3);
+		assertNull(cache.getIfPresent(5));
+		assertEquals(cache.size(), 2);
+	}
+
+	@Test
+	public void statistics() {
+		CountingFactory factory = new CountingFactory();
+		Cache<Integer, String> cache = new Cache<Integer, String>(factory);
+		cache.get(1);
+		cache.get(1);
+		cache.get(2);
+		assertEquals(cache.getHitCount(), 1);
+		assertEquals(cache.getMissCount(), 2);
+		assertEquals(cache.getLoadCount(), 2);
+		assertEquals(factory.count.get(), 2);
+		cache.invalidate(1);
+		cache.get(1);
+		assertEquals(factory.count.get(), 3);
+	}
+
+	@Test
+	public void singleLoad() throws InterruptedException {
+		final CountDownLatch loading = new CountDownLatch(1);
+		final AtomicInteger loads = new AtomicInteger();
+		final Cache<Integer, String> cache = new Cache<Integer, String>(new Cache.Factory<Integer, String>() {
+
+			@Override
+			public String create(Integer key) {
+				loads.incrementAndGet();
+				try {
+					loading.await();
+				} catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				}
+				return String.valueOf(key);
+			}
+		});
+
+		final List<Object> results = new CopyOnWriteArrayList<Object>();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+
+				@Override
+				public void run() {
+					try {
+						results.add(cache.get(42));
+					} catch (Throwable ex) {
+						results.add(ex);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		Thread.sleep(100);
+		loading.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(loads.get(), 1);
+		assertSize(results, threads.length);
+		for (Object result : results) {
+			assertEquals(result, "42");
+		}
+	}
+
+	@Test
+	public void timeToLive() {
+		CountingFactory factory = new CountingFactory();
+		Cache<Integer, String> cache = new Cache<Integer, String>(factory);
+		cache.setTimeToLive(10000);
+		try {
+			cache.get(1);
+			Tm.setTimeOffset(5000);
+			assertEquals(cache.getIfPresent(1), "1");
+			cache.get(1);
+			assertEquals(factory.count.get(), 1);
+
+			Tm.setTimeOffset(10000);
+			assertNull(cache.getIfPresent(1));
+			assertEquals(cache.get(1), "1");
+			assertEquals(factory.count.get(), 2);
+		} finally {
+			Tm.setTimeOffset(0);
+		}
+	}
+
+	private static class CountingFactory implements Cache.Factory<Integer, String> {
+
+		private AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public String create(Integer key) {
+			count.incrementAndGet();
+			return String.valueOf(key);
+		}
+
+	}
+
+}
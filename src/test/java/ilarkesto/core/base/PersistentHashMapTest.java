@@ -0,0 +1,91 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.base;
+
+import ilarkesto.testng.ATest;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+public class PersistentHashMapTest extends ATest {
+
+	@Test
+	public void basic() {
+		PersistentHashMap<String, Integer> empty = PersistentHashMap.empty();
+		PersistentHashMap<String, Integer> a = empty.with("a", 1);
+		PersistentHashMap<String, Integer> ab = a.with("b", 2);
+		PersistentHashMap<String, Integer> ab3 = ab.with("b", 3);
+
+		assertEquals(empty.size(), 0);
+		assertEquals(a.size(), 1);
+		assertEquals(ab.size(), 2);
+		assertEquals(ab3.size(), 2);
+		assertEquals(ab.get("b"), Integer.valueOf(2));
+		assertEquals(ab3.get("b"), Integer.valueOf(3));
+		assertFalse(a.containsKey("b"));
+		assertSame(ab.without("x"), ab);
+		assertEquals(ab.without("a").size(), 1);
+		assertEquals(ab.size(), 2);
+	}
+
+	@Test
+	public void collisions() {
+		// "Aa" and "BB" have the same hash code
+		PersistentHashMap<String, String> map = PersistentHashMap.<String, String> empty().with("Aa", "1")
+				.with("BB", "2").with("C", "3");
+		assertEquals(map.size(), 3);
+		assertEquals(map.get("Aa"), "1");
+		assertEquals(map.get("BB"), "2");
+
+		map = map.without("Aa");
+		assertEquals(map.size(), 2);
+		assertNull(map.get("Aa"));
+		assertEquals(map.get("BB"), "2");
+		assertEquals(map, mapOf("BB", "2", "C", "3"));
+	}
+
+	@Test
+	public void random() {
+		Random random = new Random(1);
+		Map<String, Integer> expected = new HashMap<String, Integer>();
+		PersistentHashMap<String, Integer> map = PersistentHashMap.empty();
+		for (int i = 0; i < 20000; i++) {
+			String key = String.valueOf(random.nextInt(5000));
+			if (random.nextInt(3) == 0) {
+				expected.remove(key);
+				map = map.without(key);
+			} else {
+				expected.put(key, i);
+				map = map.with(key, i);
+			}
+			assertEquals(map.size(), expected.size());
+		}
+		assertEquals(map, expected);
+		assertEquals(new HashMap<String, Integer>(map), expected);
+		assertEquals(PersistentHashMap.copyOf(expected), expected);
+	}
+
+	private static Map<String, String> mapOf(String... keysAndValues) {
+		Map<String, String> ret = new HashMap<String, String>();
+		for (int i = 0; i < keysAndValues.length; i += 2) {
+			ret.put(keysAndValues[i], keysAndValues[i + 1]);
+		}
+		return ret;
+	}
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.base;
+
+import ilarkesto.testng.ATest;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+public class UuidTest extends ATest {
+
+	@Test
+	public void create() {
+		assertEquals(Uuid.create(0L, 0L), "00000000-0000-4000-8000-000000000000");
+		assertEquals(Uuid.create(-1L, -1L), "FFFFFFFF-FFFF-4FFF-BFFF-FFFFFFFFFFFF");
+		assertEquals(Uuid.create(0x0123456789ABCDEFL, 0x0123456789ABCDEFL), "01234567-89AB-4DEF-8123-456789ABCDEF");
+
+		String uuid = Uuid.create();
+		assertEquals(uuid.length(), 36);
+		assertEquals(uuid.charAt(14), '4');
+		assertTrue("89AB".indexOf(uuid.charAt(19)) >= 0, uuid);
+	}
+
+	@Test
+	public void createTimeOrdered() {
+		String uuid = Uuid.createTimeOrdered(0x0123456789ABL, -1L, 0L);
+		assertEquals(uuid, "01234567-89AB-7FFF-8000-000000000000");
+		assertTrue(Uuid.createTimeOrdered(1000, -1L, -1L).compareTo(Uuid.createTimeOrdered(1001, 0L, 0L)) < 0);
+	}
+
+	@Test
+	public void randomIdGenerator() {
+		Set<String> ids = new HashSet<String>();
+		RandomIdGenerator generator = new RandomIdGenerator();
+		for (int i = 0; i < 1000; i++) {
+			ids.add(generator.generateId());
+		}
+		assertEquals(ids.size(), 1000);
+
+		String timeOrderedId = new RandomIdGenerator(true).generateId();
+		assertEquals(timeOrderedId.charAt(14), '7');
+	}
+
+}
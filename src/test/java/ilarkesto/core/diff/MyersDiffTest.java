@@ -0,0 +1,74 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>, Artjom Kochtchi
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.diff;
+
+import ilarkesto.testng.ATest;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+public class MyersDiffTest extends ATest {
+
+	@Test
+	public void strings() {
+		assertEquals(MyersDiff.longestCommonSubsequence("", ""), "");
+		assertEquals(MyersDiff.longestCommonSubsequence("abc", ""), "");
+		assertEquals(MyersDiff.longestCommonSubsequence("abc", "abc"), "abc");
+		assertEquals(MyersDiff.longestCommonSubsequence("abcabba", "cbabac").length(), 4);
+		assertEquals(MyersDiff.longestCommonSubsequence("hello world", "hello happy world"), "hello world");
+	}
+
+	@Test
+	public void tokens() {
+		List<String> left = Arrays.asList("a", "\n", "b", "\n", "c");
+		List<String> right = Arrays.asList("a", "\n", "x", "\n", "c", "\n");
+		assertEquals(MyersDiff.longestCommonSubsequence(left, right), Arrays.asList("a", "\n", "\n", "c"));
+	}
+
+	@Test
+	public void sameLengthAsDynamicProgramming() {
+		Random random = new Random(42);
+		for (int i = 0; i < 2000; i++) {
+			String a = randomString(random);
+			String b = randomString(random);
+			String lcs = MyersDiff.longestCommonSubsequence(a, b);
+			assertEquals(lcs.length(), LongestCommonSubsequenceString.execute(a, b).length(), a + " / " + b);
+			assertTrue(isSubsequence(lcs, a), lcs + " / " + a);
+			assertTrue(isSubsequence(lcs, b), lcs + " / " + b);
+		}
+	}
+
+	private static String randomString(Random random) {
+		int alphabet = 1 + random.nextInt(4);
+		StringBuilder sb = new StringBuilder();
+		int len = random.nextInt(20);
+		for (int i = 0; i < len; i++) {
+			sb.append((char) ('a' + random.nextInt(alphabet)));
+		}
+		return sb.toString();
+	}
+
+	private static boolean isSubsequence(String s, String t) {
+		int j = 0;
+		for (int i = 0; i < t.length() && j < s.length(); i++) {
+			if (t.charAt(i) == s.charAt(j)) j++;
+		}
+		return j == s.length();
+	}
+
+}
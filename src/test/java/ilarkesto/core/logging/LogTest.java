@@ -0,0 +1,65 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.logging;
+
+import ilarkesto.core.logging.Log.Level;
+import ilarkesto.testng.ATest;
+
+import java.util.HashMap;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+public class LogTest extends ATest {
+
+	@AfterMethod
+	public void resetLevels() {
+		Log.setLevels(new HashMap<String, Level>());
+	}
+
+	@Test
+	public void hierarchicalLevels() {
+		Log log = Log.get(LogTest.class);
+		assertEquals(log.getCategory(), "ilarkesto.core.logging.LogTest");
+		assertTrue(log.isDebugEnabled());
+
+		Log.setLevel("ilarkesto.core", Level.WARN);
+		assertFalse(log.isInfoEnabled());
+		assertTrue(log.isEnabled(Level.WARN));
+
+		Log.setLevel("ilarkesto.core.logging", Level.INFO);
+		assertTrue(log.isInfoEnabled());
+		assertFalse(log.isDebugEnabled());
+
+		Log.setLevel("LogTest", Level.ERROR);
+		assertEquals(log.getLevel(), Level.ERROR);
+
+		Log.setLevel("ilarkesto.core.logging.LogTest", Level.DEBUG);
+		assertEquals(log.getLevel(), Level.DEBUG);
+
+		Log.setLevel("ilarkesto.core.logging.LogTest", null);
+		assertEquals(log.getLevel(), Level.ERROR);
+	}
+
+	@Test
+	public void rootLevel() {
+		Log log = Log.get("LogTest-root");
+		Log.setLevel(Log.ROOT_CATEGORY, Level.FATAL);
+		assertFalse(log.isEnabled(Level.ERROR));
+		Log.setLevels(new HashMap<String, Level>());
+		assertTrue(log.isDebugEnabled());
+	}
+
+}
@@ -17,7 +17,10 @@ package ilarkesto.core.persistance;
 import ilarkesto.base.Utl;
 import ilarkesto.testng.ATest;
 
+import java.util.Arrays;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.testng.annotations.Test;
 
@@ -33,6 +36,25 @@ public class EntityCacheTest extends ATest {
 		assertSize(cache.getAllAsList(), 3);
 	}
 
+	@Test
+	public void getByIds() {
+		EntitiesCache cache = new EntitiesCache();
+		Car car = new Car().setName("c");
+		Mercedes mercedes = new Mercedes();
+		cache.addAll(Arrays.asList(car, mercedes));
+
+		assertSame(cache.getById(mercedes.getId()), mercedes);
+		assertEquals(cache.getByIdsAsList(Arrays.asList(car.getId(), mercedes.getId())), Arrays.asList(car, mercedes));
+
+		cache.remove(car.getId());
+		assertFalse(cache.containsWithId(car.getId()));
+		assertEquals(cache.size(), 1);
+		try {
+			cache.getByIdsAsList(Arrays.asList(car.getId(), mercedes.getId()));
+			failExceptionExpected(EntityDoesNotExistException.class);
+		} catch (EntityDoesNotExistException ex) {}
+	}
+
 	// @Test
 	public void concurrency() {
 		final EntitiesCache cache = new EntitiesCache();
@@ -61,6 +83,74 @@ public class EntityCacheTest extends ATest {
 		assertSize(all, 3);
 	}
 
+	@Test
+	public void copyOnWrite() throws InterruptedException {
+		final EntitiesCache cache = new EntitiesCache();
+		cache.setCopyOnWrite(true);
+		cache.add(new Car().setName("c1"));
+		final Car c2 = new Car().setName("c2");
+		cache.add(c2);
+		cache.add(new Mercedes().setName("m1"));
+
+		final CountDownLatch readStarted = new CountDownLatch(1);
+		final CountDownLatch updated = new CountDownLatch(1);
+		Thread writer = new Thread() {
+
+			@Override
+			public void run() {
+				try {
+					readStarted.await();
+				} catch (InterruptedException ex) {
+					return;
+				}
+				cache.update(Arrays.asList(new Car().setName("new")), Arrays.asList(c2.getId()));
+				updated.countDown();
+			};
+		};
+		writer.start();
+
+		Set<AEntity> all = cache.findAllAsSet(new AEntityQuery<Car>() {
+
+			@Override
+			public boolean test(Car entity) {
+				readStarted.countDown();
+				try {
+					assertTrue(updated.await(10, TimeUnit.SECONDS));
+				} catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				}
+				return true;
+			}
+
+		});
+		assertSize(all, 3);
+		assertContains(all, c2);
+
+		writer.join();
+		assertSize(cache.getAllAsList(), 3);
+		assertFalse(cache.containsWithId(c2.getId()));
+	}
+
+	@Test
+	public void copyOnWriteIdIndex() {
+		EntitiesCache cache = new EntitiesCache();
+		cache.add(new Car().setName("c1"));
+		cache.setCopyOnWrite(true);
+		Car c2 = new Car().setName("c2");
+		cache.add(c2);
+		assertSame(cache.getById(c2.getId()), c2);
+		assertSize(cache.getAllIds(), 2);
+
+		cache.remove(c2.getId());
+		assertFalse(cache.containsWithId(c2.getId()));
+		assertSize(cache.getAllIds(), 1);
+
+		cache.setCopyOnWrite(false);
+		cache.add(c2);
+		assertSame(cache.getById(c2.getId()), c2);
+		assertSize(cache.getAllAsList(), 2);
+	}
+
 	@Test
 	public void query() {
 		EntitiesCache cache = new EntitiesCache();
@@ -97,6 +187,30 @@ public class EntityCacheTest extends ATest {
 		assertSize(cars, 3);
 	}
 
+	@Test
+	public void indexQuery() {
+		EntitiesCache cache = new EntitiesCache();
+		cache.add(new Car().setName("c1"));
+		Car c2 = new Car().setName("c2");
+		cache.add(c2);
+		cache.add(new Mercedes().setName("m1"));
+		cache.add(new Mercedes().setName("c2"));
+		cache.addIndex(CAR_NAME_INDEX);
+
+		assertSize(cache.findAllAsSet(CAR_NAME_INDEX.query("c2")), 2);
+		assertSize(cache.findAllAsSet(CAR_NAME_INDEX.query("x")), 0);
+		assertSize(cache.findAllAsSet(CAR_NAME_INDEX.queryRange("c", "d")), 3);
+		assertSize(cache.findAllAsSet(CAR_NAME_INDEX.queryRange("m", null)), 1);
+
+		c2.setName("x");
+		cache.add(c2);
+		assertSize(cache.findAllAsSet(CAR_NAME_INDEX.query("c2")), 1);
+		assertEquals(cache.findFirst(CAR_NAME_INDEX.query("x")), c2);
+
+		cache.remove(c2.getId());
+		assertNull(cache.findFirst(CAR_NAME_INDEX.query("x")));
+	}
+
 	@Test
 	public void isInstanceOf() {
 		EntitiesCache cache = new EntitiesCache();
@@ -106,6 +220,14 @@ public class EntityCacheTest extends ATest {
 		assertFalse(AEntityQuery.isInstanceOf(Car.class, Mercedes.class));
 	}
 
+	private static final EntityIndex<Car> CAR_NAME_INDEX = new EntityIndex<Car>("name", Car.class, true) {
+
+		@Override
+		public Object getKey(Car entity) {
+			return entity.name;
+		}
+	};
+
 	public static class Mercedes extends Car {}
 
 	public static class Car extends AEntity {
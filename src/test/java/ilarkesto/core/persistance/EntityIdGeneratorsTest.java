@@ -0,0 +1,43 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.persistance;
+
+import ilarkesto.core.persistance.EntityCacheTest.Car;
+import ilarkesto.core.persistance.EntityCacheTest.Mercedes;
+import ilarkesto.id.CountingIdGenerator;
+import ilarkesto.testng.ATest;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+public class EntityIdGeneratorsTest extends ATest {
+
+	@AfterMethod
+	public void reset() {
+		EntityIdGenerators.set(Car.class, null);
+	}
+
+	@Test
+	public void perType() {
+		EntityIdGenerators.set(Car.class, new CountingIdGenerator("car"));
+		assertEquals(new Car().getId(), "car1");
+		assertEquals(new Mercedes().getId(), "car2");
+		assertEquals(EntityIdGenerators.generateId(Car.class), "car3");
+
+		EntityIdGenerators.set(Car.class, null);
+		assertEquals(new Car().getId().length(), 36);
+	}
+
+}
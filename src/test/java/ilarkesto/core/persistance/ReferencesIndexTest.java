@@ -0,0 +1,93 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.persistance;
+
+import ilarkesto.testng.ATest;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+public class ReferencesIndexTest extends ATest {
+
+	@Test
+	public void cache() {
+		EntitiesCache cache = new EntitiesCache();
+		cache.setReferencesIndex(new ReferencesIndex());
+		Person p1 = new Person();
+		Person p2 = new Person();
+		p2.setOwnerId(p1.getId());
+		cache.add(p1);
+		cache.add(p2);
+		assertEquals(cache.getReferencesIndex().getReferencingIds(p1.getId()), Collections.singleton(p2.getId()));
+
+		p2.setOwnerId(null);
+		cache.add(p2);
+		assertSize(cache.getReferencesIndex().getReferencingIds(p1.getId()), 0);
+
+		p2.setOwnerId(p1.getId());
+		cache.add(p2);
+		cache.remove(p2.getId());
+		assertSize(cache.getReferencesIndex().getReferencingIds(p1.getId()), 0);
+	}
+
+	@Test
+	public void referenceSets() {
+		ReferencesIndex index = new ReferencesIndex();
+		Person p1 = new Person();
+		Person p2 = new Person();
+		Person p3 = new Person();
+		p3.setFriendsIds(Persistence.propertyAsString(Arrays.asList(p1.getId(), p2.getId())));
+		index.update(p3);
+		assertEquals(index.getReferencingIds(p1.getId()), Collections.singleton(p3.getId()));
+		assertEquals(index.getReferencingIds(p2.getId()), Collections.singleton(p3.getId()));
+		assertTrue(ReferencesIndex.isReferencing(p3, p2.getId()));
+		assertFalse(ReferencesIndex.isReferencing(p1, p2.getId()));
+
+		index.remove(p3.getId());
+		assertSize(index.getReferencingIds(p1.getId()), 0);
+	}
+
+	public static class Person extends AEntity {
+
+		private String ownerId;
+		private String friendsIds;
+
+		public Person() {
+			updateLastModified();
+		}
+
+		public void setOwnerId(String ownerId) {
+			this.ownerId = ownerId;
+			updateLastModified();
+		}
+
+		public void setFriendsIds(String friendsIds) {
+			this.friendsIds = friendsIds;
+			updateLastModified();
+		}
+
+		@Override
+		protected void storeProperties(Map<String, String> properties) {
+			super.storeProperties(properties);
+			properties.put("ownerId", ownerId);
+			properties.put("friendsIds", friendsIds);
+		}
+
+	}
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.core.search;
+
+import ilarkesto.testng.ATest;
+
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+public class SearchIndexTest extends ATest {
+
+	@Test
+	public void search() {
+		SearchIndex<Item> index = new SearchIndex<Item>();
+		index.update("1", new Item("Duke Nukem", "shooter"));
+		index.update("2", new Item("Nukem forever", null));
+		index.update("3", new Item("Dukes of Hazzard", "series"));
+		index.update("4", new Item("Marmaduke", "comic"));
+
+		assertEquals(index.search(new SearchText("duke nukem"), 0, null).size(), 1);
+		assertEquals(index.search(new SearchText("nukem"), 0, null).size(), 2);
+		assertEquals(index.search(new SearchText("xyz"), 0, null).size(), 0);
+
+		List<Item> dukes = index.search(new SearchText("duke"), 0, null);
+		assertEquals(dukes.size(), 3);
+		assertEquals(dukes.get(0).title, "Duke Nukem");
+		assertEquals(dukes.get(1).title, "Dukes of Hazzard");
+		assertEquals(dukes.get(2).title, "Marmaduke");
+
+		assertEquals(index.search(new SearchText("duke"), 2, null).size(), 2);
+	}
+
+	@Test
+	public void update() {
+		SearchIndex<Item> index = new SearchIndex<Item>();
+		Item item = new Item("Duke Nukem", "shooter");
+		index.update("1", item);
+		item.title = "Serious Sam";
+		index.update("1", item);
+		assertEquals(index.search(new SearchText("duke"), 0, null).size(), 0);
+		assertEquals(index.search(new SearchText("sam"), 0, null).size(), 1);
+
+		index.remove("1");
+		assertEquals(index.search(new SearchText("sam"), 0, null).size(), 0);
+		assertEquals(index.getTokenCount(), 0);
+		assertEquals(index.getGramCount(), 0);
+	}
+
+	@Test
+	public void substrings() {
+		SearchIndex<Item> index = new SearchIndex<Item>();
+		index.update("1", new Item("Marmaduke", null));
+		index.update("2", new Item("Armadillo", null));
+		index.update("3", new Item("Madame", null));
+
+		assertEquals(index.search(new SearchText("a"), 0, null).size(), 3);
+		assertEquals(index.search(new SearchText("ad"), 0, null).size(), 3);
+		assertEquals(index.search(new SearchText("rma"), 0, null).size(), 2);
+		assertEquals(index.search(new SearchText("armad"), 0, null).size(), 2);
+		assertEquals(index.search(new SearchText("maduk"), 0, null).size(), 1);
+		assertEquals(index.search(new SearchText("mada"), 0, null).size(), 1);
+		assertEquals(index.search(new SearchText("mado"), 0, null).size(), 0);
+
+		List<Item> armas = index.search(new SearchText("arma"), 0, null);
+		assertEquals(armas.get(0).title, "Armadillo");
+		assertEquals(armas.get(1).title, "Marmaduke");
+	}
+
+	@Test
+	public void punctuation() {
+		SearchIndex<Item> index = new SearchIndex<Item>();
+		index.update("1", new Item("e-mail address", null));
+		assertEquals(index.search(new SearchText("e-mail"), 0, null).size(), 1);
+		assertEquals(index.search(new SearchText("mail-a"), 0, null).size(), 0);
+	}
+
+	private static class Item implements Searchable {
+
+		private String title;
+		private String description;
+
+		public Item(String title, String description) {
+			super();
+			this.title = title;
+			this.description = description;
+		}
+
+		@Override
+		public boolean matches(SearchText searchText) {
+			return searchText.matches(title, description);
+		}
+
+	}
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.gwt.client.persistence;
+
+import ilarkesto.core.persistance.AEntity;
+import ilarkesto.core.persistance.Persistence;
+import ilarkesto.core.persistance.SingletonTransactionManager;
+import ilarkesto.testng.ATest;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class GwtRpcDatabaseTest extends ATest {
+
+	private GwtRpcDatabase database;
+
+	@BeforeMethod
+	public void init() {
+		database = new GwtRpcDatabase(new AGwtEntityFactory() {
+
+			@Override
+			public AEntity createEntity(String type, String id) {
+				return new Note().setId(id);
+			}
+
+			@Override
+			public Class<? extends AEntity> getType(String type) {
+				return Note.class;
+			}
+		});
+		Persistence.initialize(database, new SingletonTransactionManager());
+	}
+
+	@Test
+	public void updateDeltasFromServer() {
+		Map<String, String> data = map("id", "n1", "@type", "Note", "text", "a", "tag", "t", "color", "red");
+		database.updateFromServer(Arrays.asList(data));
+		Note note = (Note) database.getById("n1");
+
+		Map<String, String> delta = map("id", "n1", "@type", "Note", "text", "b", "tag", null);
+		Set<AEntity> updated = database.updateDeltasFromServer(Arrays.asList(delta));
+
+		assertEquals(updated.size(), 1);
+		assertContains(updated, note);
+		assertEquals(note.text, "b"); // changed
+		assertNull(note.tag); // removed
+		assertEquals(note.color, "red"); // unchanged
+	}
+
+	@Test
+	public void updateDeltasFromServerForUnknownEntity() {
+		Map<String, String> delta = map("id", "unknown", "@type", "Note", "text", "b");
+		Set<AEntity> updated = database.updateDeltasFromServer(Arrays.asList(delta));
+		assertSize(updated, 0);
+		assertFalse(database.containsWithId("unknown"));
+	}
+
+	private static Map<String, String> map(String... keysAndValues) {
+		Map<String, String> ret = new HashMap<String, String>();
+		for (int i = 0; i < keysAndValues.length; i += 2) {
+			ret.put(keysAndValues[i], keysAndValues[i + 1]);
+		}
+		return ret;
+	}
+
+	public static class Note extends AEntity {
+
+		private String text;
+		private String tag;
+		private String color;
+
+		@Override
+		public void updateProperties(Map<String, String> properties) {
+			super.updateProperties(properties);
+			for (Map.Entry<String, String> entry : properties.entrySet()) {
+				String property = entry.getKey();
+				String value = entry.getValue();
+				if (property.equals("text")) text = value;
+				if (property.equals("tag")) tag = value;
+				if (property.equals("color")) color = value;
+			}
+		}
+
+	}
+
+}
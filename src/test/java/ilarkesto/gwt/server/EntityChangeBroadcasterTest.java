@@ -0,0 +1,263 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.gwt.server;
+
+import ilarkesto.core.persistance.AEntity;
+import ilarkesto.core.persistance.Entity;
+import ilarkesto.core.persistance.TransferBus;
+import ilarkesto.gwt.client.ADataTransferObject;
+import ilarkesto.testng.ATest;
+import ilarkesto.webapp.AWebSession;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+public class EntityChangeBroadcasterTest extends ATest {
+
+	@Test
+	public void sameRequestDelivery() throws InterruptedException {
+		Conversation current = new Conversation(1);
+		Conversation other = new Conversation(2);
+		Broadcaster broadcaster = new Broadcaster(current, other);
+		Note note = new Note("a");
+
+		current.bindCurrentThread();
+		try {
+			broadcaster.broadcast(null, null, Arrays.asList(note));
+		} finally {
+			current.releaseCurrentThread();
+		}
+		assertTrue(current.popNextData().containsEntity(note.getId()));
+
+		waitForEntity(other, note);
+		assertFalse(current.getNextData().containsEntity(note.getId()));
+		broadcaster.shutdown();
+	}
+
+	@Test
+	public void sameRequestDeliveryKeepsOrder() {
+		Conversation current = new Conversation(1);
+		Broadcaster broadcaster = new Broadcaster(current);
+		Note a = new Note("a");
+		Note b = new Note("b");
+
+		// saved by another request, delivered in the background
+		broadcaster.broadcast(null, null, Arrays.asList(a));
+
+		current.bindCurrentThread();
+		try {
+			broadcaster.broadcast(null, Arrays.asList(a.getId()), Arrays.asList(b));
+		} finally {
+			current.releaseCurrentThread();
+		}
+
+		// the earlier batch is applied first, even if the background thread did not get to it yet
+		ADataTransferObject data = current.popNextData();
+		assertFalse(data.containsEntity(a.getId()));
+		assertTrue(data.containsDeletedEntity(a.getId()));
+		assertTrue(data.containsEntity(b.getId()));
+		broadcaster.shutdown();
+	}
+
+	@Test
+	public void invisibleEntitiesAreSkipped() {
+		Conversation current = new Conversation(1);
+		current.visible = false;
+		Broadcaster broadcaster = new Broadcaster(current);
+		Note note = new Note("a");
+
+		current.bindCurrentThread();
+		try {
+			broadcaster.broadcast(null, null, Arrays.asList(note));
+		} finally {
+			current.releaseCurrentThread();
+		}
+		assertFalse(current.popNextData().containsEntity(note.getId()));
+		broadcaster.shutdown();
+	}
+
+	@Test
+	public void delta() {
+		Conversation conversation = new Conversation(1);
+		Broadcaster broadcaster = new Broadcaster(conversation);
+		Note note = new Note("a");
+		note.tag = "t";
+		broadcast(broadcaster, conversation, null, note);
+		conversation.popNextData();
+
+		note.text = "b";
+		note.tag = null;
+		note.touch();
+		broadcast(broadcaster, conversation, note, null);
+
+		ADataTransferObject data = conversation.popNextData();
+		assertFalse(data.containsEntity(note.getId()));
+		assertSize(data.getEntityDeltas(), 1);
+		Map<String, String> delta = data.getEntityDeltas().iterator().next();
+		assertEquals(delta.get("id"), note.getId());
+		assertEquals(delta.get("@type"), note.createPropertiesMap().get("@type"));
+		assertEquals(delta.get("text"), "b");
+		assertEquals(delta.get("modificationTime"), note.getModificationTime().toString());
+		assertTrue(delta.containsKey("tag"));
+		assertNull(delta.get("tag"));
+		assertEquals(delta.size(), 5);
+		broadcaster.shutdown();
+	}
+
+	@Test
+	public void deltaWithPassengers() {
+		Conversation conversation = new Conversation(1);
+		Broadcaster broadcaster = new Broadcaster(conversation);
+		Note note = new Note("a");
+		broadcast(broadcaster, conversation, null, note);
+		conversation.popNextData();
+
+		conversation.passenger = new Note("passenger");
+		note.text = "b";
+		note.touch();
+		broadcast(broadcaster, conversation, note, null);
+
+		ADataTransferObject data = conversation.popNextData();
+		assertSize(data.getEntityDeltas(), 1);
+		assertTrue(data.containsEntity(conversation.passenger.getId()));
+		assertFalse(data.containsEntity(note.getId()));
+		broadcaster.shutdown();
+	}
+
+	@Test
+	public void fullTransferWithoutLastState() {
+		Conversation conversation = new Conversation(1);
+		Broadcaster broadcaster = new Broadcaster(conversation);
+		broadcaster.setMaxLastStates(1);
+		Note a = new Note("a");
+		Note b = new Note("b");
+		broadcast(broadcaster, conversation, null, a, b);
+		assertEquals(broadcaster.getLastStatesCount(), 1);
+		conversation.popNextData();
+
+		a.text = "a2";
+		a.touch();
+		b.text = "b2";
+		b.touch();
+		broadcast(broadcaster, conversation, b, null);
+		broadcast(broadcaster, conversation, a, null);
+
+		// only the state of b was kept
+		ADataTransferObject data = conversation.popNextData();
+		assertTrue(data.containsEntity(a.getId()));
+		assertSize(data.getEntityDeltas(), 1);
+		assertEquals(data.getEntityDeltas().iterator().next().get("id"), b.getId());
+		assertEquals(broadcaster.getLastStatesCount(), 1);
+		broadcaster.shutdown();
+	}
+
+	private static void broadcast(Broadcaster broadcaster, Conversation conversation, Note modified,
+			Note... created) {
+		conversation.bindCurrentThread();
+		try {
+			broadcaster.broadcast(modified == null ? null : Arrays.asList(modified), null,
+				created == null ? null : Arrays.asList(created));
+		} finally {
+			conversation.releaseCurrentThread();
+		}
+	}
+
+	private static void waitForEntity(Conversation conversation, Entity entity) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 10000;
+		while (!conversation.getNextData().containsEntity(entity.getId())) {
+			if (System.currentTimeMillis() > timeout) fail("Entity not delivered to " + conversation);
+			Thread.sleep(10);
+		}
+	}
+
+	static class Broadcaster extends EntityChangeBroadcaster {
+
+		private Set<AGwtConversation> conversations;
+
+		public Broadcaster(AGwtConversation... conversations) {
+			super(null);
+			this.conversations = Collections.unmodifiableSet(new LinkedHashSet<AGwtConversation>(Arrays
+					.asList(conversations)));
+		}
+
+		@Override
+		protected Set<AGwtConversation> getConversations() {
+			return conversations;
+		}
+
+	}
+
+	static class Conversation extends AGwtConversation<AWebSession> {
+
+		private volatile boolean visible = true;
+		private volatile Note passenger;
+
+		public Conversation(int number) {
+			super(null, number);
+		}
+
+		@Override
+		protected ADataTransferObject createDataTransferObject() {
+			return new ADataTransferObject() {};
+		}
+
+		@Override
+		protected boolean isEntityVisible(Entity entity) {
+			return visible;
+		}
+
+		@Override
+		protected void loadTransferBus(Entity entity, TransferBus transferBus) {
+			super.loadTransferBus(entity, transferBus);
+			if (passenger != null) transferBus.add(passenger);
+		}
+
+	}
+
+	public static class Note extends AEntity {
+
+		private String text;
+		private String tag;
+
+		public Note(String text) {
+			this.text = text;
+			updateLastModified();
+		}
+
+		/**
+		 * Updates the modification time, which has to differ from the previous one.
+		 */
+		public void touch() {
+			Long previous = getModificationTime();
+			do {
+				updateLastModified();
+			} while (getModificationTime().equals(previous));
+		}
+
+		@Override
+		protected void storeProperties(Map<String, String> properties) {
+			super.storeProperties(properties);
+			properties.put("text", text);
+			if (tag != null) properties.put("tag", tag);
+		}
+
+	}
+
+}
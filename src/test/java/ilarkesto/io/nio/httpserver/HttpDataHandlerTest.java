@@ -0,0 +1,248 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.io.nio.httpserver;
+
+import ilarkesto.io.nio.tcpserver.ServerDataEvent;
+import ilarkesto.io.nio.tcpserver.TcpConnection;
+import ilarkesto.testng.ATest;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class HttpDataHandlerTest extends ATest {
+
+	private HttpServer server;
+	private List<HttpRequest> requests;
+	private FakeConnection connection;
+	private HttpDataHandler handler;
+
+	@BeforeMethod
+	public void init() {
+		requests = new ArrayList<HttpRequest>();
+		server = new HttpServer(0, "test");
+		server.addRequestHandler(new HttpRequestHandler() {
+
+			@Override
+			public boolean onHttpRequest(HttpRequest request) {
+				requests.add(request);
+				request.sendResponse(HttpStatusCode.OK, "text/plain", request.getBody());
+				return true;
+			}
+		});
+		connection = new FakeConnection();
+		handler = new HttpDataHandler(server);
+	}
+
+	@Test
+	public void splitRequestLineAndHeaders() {
+		receive("GE");
+		receive("T /a HT");
+		receive("TP/1.1\r\nHo");
+		receive("st: exa");
+		receive("mple.com\r");
+		assertSize(requests, 0);
+		receive("\n\r\n");
+
+		assertSize(requests, 1);
+		HttpRequest request = requests.get(0);
+		assertEquals(request.getMethod(), HttpMethod.GET);
+		assertEquals(request.getUri(), "/a");
+		assertEquals(request.getVersion(), "HTTP/1.1");
+		assertEquals(request.getHeaderHost(), "example.com");
+		assertTrue(connection.getSent().startsWith("HTTP/1.1 200 OK\r\n"));
+		assertFalse(connection.isConnectionClosed());
+	}
+
+	@Test
+	public void pipelinedRequests() {
+		receive("GET /a HTTP/1.1\r\n\r\nPOST /b HTTP/1.1\r\nContent-Length: 3\r\n\r\nabcGET /c HTTP/1.1\r\n\r\n");
+
+		assertSize(requests, 3);
+		assertEquals(requests.get(0).getUri(), "/a");
+		assertEquals(requests.get(1).getUri(), "/b");
+		assertEquals(new String(requests.get(1).getBody()), "abc");
+		assertEquals(requests.get(2).getUri(), "/c");
+		assertEquals(requests.get(2).getBody().length, 0);
+		assertEquals(count(connection.getSent(), "HTTP/1.1 200 OK"), 3);
+		assertFalse(connection.isConnectionClosed());
+	}
+
+	@Test
+	public void chunkedBody() {
+		receive("POST /c HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n");
+		receive("3;name=value\r\nab");
+		receive("c\r\n2\r\nde\r");
+		receive("\n0\r\nX-Checksum: 42\r\n");
+		assertSize(requests, 0);
+		receive("\r\n");
+
+		assertSize(requests, 1);
+		HttpRequest request = requests.get(0);
+		assertEquals(new String(request.getBody()), "abcde");
+		assertEquals(request.getHeader("X-Checksum"), "42");
+		assertFalse(connection.isConnectionClosed());
+	}
+
+	@Test
+	public void expectContinue() {
+		receive("POST /e HTTP/1.1\r\nExpect: 100-continue\r\nContent-Length: 3\r\n\r\n");
+		assertEquals(connection.getSent(), "HTTP/1.1 100 Continue\r\n\r\n");
+		assertSize(requests, 0);
+
+		receive("abc");
+		assertSize(requests, 1);
+		assertEquals(new String(requests.get(0).getBody()), "abc");
+		assertTrue(connection.getSent().contains("HTTP/1.1 200 OK\r\n"));
+	}
+
+	@Test
+	public void keepAlive() {
+		receive("GET /a HTTP/1.1\r\n\r\n");
+		assertTrue(requests.get(0).isKeepAlive());
+		assertFalse(connection.isConnectionClosed());
+
+		receive("GET /b HTTP/1.1\r\nConnection: close\r\n\r\nGET /ignored HTTP/1.1\r\n\r\n");
+		assertSize(requests, 2);
+		assertFalse(requests.get(1).isKeepAlive());
+		assertTrue(connection.getSent().contains("connection: close\r\n"));
+		assertTrue(connection.isConnectionClosed());
+	}
+
+	@Test
+	public void keepAliveHttp10() {
+		receive("GET /a HTTP/1.0\r\nConnection: keep-alive\r\n\r\n");
+		assertTrue(requests.get(0).isKeepAlive());
+		assertFalse(connection.isConnectionClosed());
+
+		receive("GET /b HTTP/1.0\r\n\r\n");
+		assertFalse(requests.get(1).isKeepAlive());
+		assertTrue(connection.isConnectionClosed());
+	}
+
+	@Test
+	public void badRequest() {
+		receive("GARBAGE\r\n\r\n");
+		assertFailed(400);
+
+		init();
+		receive("POST / HTTP/1.1\r\nContent-Length: x\r\n\r\n");
+		assertFailed(400);
+
+		init();
+		receive("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n");
+		assertFailed(400);
+	}
+
+	@Test
+	public void requestEntityTooLarge() {
+		server.setMaxRequestBodySize(4);
+		receive("POST / HTTP/1.1\r\nContent-Length: 5\r\n\r\nabcde");
+		assertFailed(413);
+
+		init();
+		server.setMaxRequestBodySize(4);
+		receive("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n3\r\nabc\r\n2\r\n");
+		assertFailed(413);
+	}
+
+	@Test
+	public void requestHeaderFieldsTooLarge() {
+		receive("GET / HTTP/1.1\r\n" + headers(101) + "\r\n");
+		assertFailed(431);
+
+		init();
+		receive("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n0\r\n" + headers(101) + "\r\n");
+		assertFailed(431);
+
+		init();
+		StringBuilder longLine = new StringBuilder("X-Long: ");
+		while (longLine.length() <= 8192) {
+			longLine.append("xxxxxxxx");
+		}
+		receive("GET / HTTP/1.1\r\n" + longLine + "\r\n\r\n");
+		assertFailed(431);
+	}
+
+	@Test
+	public void notImplemented() {
+		receive("BREW /pot HTTP/1.1\r\n\r\n");
+		assertFailed(501);
+
+		init();
+		receive("POST / HTTP/1.1\r\nTransfer-Encoding: gzip\r\n\r\n");
+		assertFailed(501);
+	}
+
+	private void assertFailed(int code) {
+		assertSize(requests, 0);
+		assertTrue(connection.getSent().startsWith("HTTP/1.1 " + code + " "), connection.getSent());
+		assertTrue(connection.isConnectionClosed());
+	}
+
+	private void receive(String data) {
+		handler.onDataReceived(new ServerDataEvent(connection, data.getBytes(HttpRequest.HEADER_CHARSET)));
+	}
+
+	private static String headers(int count) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			sb.append("X-Header-").append(i).append(": ").append(i).append("\r\n");
+		}
+		return sb.toString();
+	}
+
+	private static int count(String s, String part) {
+		int count = 0;
+		int idx = s.indexOf(part);
+		while (idx >= 0) {
+			count++;
+			idx = s.indexOf(part, idx + part.length());
+		}
+		return count;
+	}
+
+	static class FakeConnection extends TcpConnection {
+
+		private StringBuilder sent = new StringBuilder();
+		private boolean connectionClosed;
+
+		@Override
+		public void sendData(ByteBuffer data) {
+			if (connectionClosed) throw new IllegalStateException("Connection already closed");
+			byte[] bytes = new byte[data.remaining()];
+			data.get(bytes);
+			sent.append(new String(bytes, HttpRequest.HEADER_CHARSET));
+		}
+
+		@Override
+		public void close() {
+			connectionClosed = true;
+		}
+
+		public String getSent() {
+			return sent.toString();
+		}
+
+		public boolean isConnectionClosed() {
+			return connectionClosed;
+		}
+
+	}
+
+}
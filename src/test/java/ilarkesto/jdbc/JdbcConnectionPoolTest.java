@@ -0,0 +1,232 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ * 
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.jdbc;
+
+import ilarkesto.jdbc.JdbcConnectionPool.PooledConnection;
+import ilarkesto.testng.ATest;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class JdbcConnectionPoolTest extends ATest {
+
+	private List<FakeConnection> connections;
+	private JdbcConnectionPool pool;
+
+	@BeforeMethod
+	public void init() {
+		connections = new ArrayList<FakeConnection>();
+		pool = new JdbcConnectionPool(new JdbcConnectionPool.Factory() {
+
+			@Override
+			public Connection createConnection() {
+				FakeConnection connection = new FakeConnection();
+				connections.add(connection);
+				return connection.proxy;
+			}
+		});
+	}
+
+	@Test
+	public void reuseConnectionAndStatements() throws Exception {
+		PooledConnection connection = pool.borrow();
+		PreparedStatement stmt = connection.prepareStatement("SELECT 1");
+		pool.release(connection);
+
+		PooledConnection connection2 = pool.borrow();
+		assertSame(connection2, connection);
+		assertSame(connection2.prepareStatement("SELECT 1"), stmt);
+		pool.release(connection2);
+
+		assertEquals(connections.size(), 1);
+		assertEquals(connections.get(0).preparedStatements, 1);
+		assertEquals(pool.getIdleCount(), 1);
+	}
+
+	@Test
+	public void evictCachedStatements() throws Exception {
+		pool.setMaxCachedStatements(2);
+		PooledConnection connection = pool.borrow();
+		connection.prepareStatement("SELECT 1");
+		connection.prepareStatement("SELECT 2");
+		connection.prepareStatement("SELECT 3");
+		assertEquals(connection.getCachedStatementCount(), 2);
+		connection.prepareStatement("SELECT 1");
+		assertEquals(connections.get(0).preparedStatements, 4);
+		assertEquals(connections.get(0).closedStatements, 2);
+	}
+
+	@Test
+	public void bounded() {
+		pool.setMaxSize(2);
+		pool.setMaxWaitTime(50);
+		pool.borrow();
+		PooledConnection connection = pool.borrow();
+		try {
+			pool.borrow();
+			fail("Exception expected");
+		} catch (RuntimeException ex) {}
+
+		pool.release(connection);
+		assertSame(pool.borrow(), connection);
+		assertEquals(pool.getSize(), 2);
+	}
+
+	@Test
+	public void validateIdleConnections() {
+		pool.setValidationIdleTime(0);
+		PooledConnection connection = pool.borrow();
+		pool.release(connection);
+		assertSame(pool.borrow(), connection);
+		pool.release(connection);
+		assertEquals(connections.get(0).validations, 1);
+
+		connections.get(0).valid = false;
+		PooledConnection connection2 = pool.borrow();
+		assertNotSame(connection2, connection);
+		assertTrue(connections.get(0).closed);
+		assertEquals(pool.getSize(), 1);
+	}
+
+	@Test
+	public void noValidationOfRecentlyUsedConnections() {
+		PooledConnection connection = pool.borrow();
+		pool.release(connection);
+		connections.get(0).valid = false;
+		assertSame(pool.borrow(), connection);
+		pool.release(connection);
+
+		connection.requireValidation();
+		assertNotSame(pool.borrow(), connection);
+	}
+
+	@Test
+	public void executeBatch() throws Exception {
+		PooledConnection connection = pool.borrow();
+		List<Object[]> paramsList = new ArrayList<Object[]>();
+		for (int i = 0; i < 5; i++) {
+			paramsList.add(new Object[] { i, "name" + i });
+		}
+		int[] updateCounts = Jdbc.executeBatch(connection.prepareStatement("INSERT"), paramsList, 2);
+		assertEquals(updateCounts.length, 5);
+		assertEquals(connections.get(0).executedBatches, Arrays.asList(2, 2, 1));
+		assertEquals(connections.get(0).params, 10);
+	}
+
+	@Test
+	public void close() {
+		PooledConnection connection = pool.borrow();
+		PooledConnection connection2 = pool.borrow();
+		pool.release(connection);
+		pool.close();
+		assertTrue(connections.get(0).closed);
+		assertFalse(connections.get(1).closed);
+		pool.release(connection2);
+		assertTrue(connections.get(1).closed);
+		assertEquals(pool.getSize(), 0);
+	}
+
+	/**
+	 * Records what is done with the connection and its statements.
+	 */
+	private static class FakeConnection implements InvocationHandler {
+
+		private Connection proxy = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+			new Class[] { Connection.class }, this);
+
+		private boolean valid = true;
+		private boolean closed;
+		private int validations;
+		private int preparedStatements;
+		private int closedStatements;
+		private int params;
+		private List<Integer> executedBatches = new ArrayList<Integer>();
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.equals("isValid")) {
+				validations++;
+				return valid;
+			}
+			if (name.equals("isClosed")) return closed;
+			if (name.equals("close")) {
+				closed = true;
+				return null;
+			}
+			if (name.equals("prepareStatement")) {
+				preparedStatements++;
+				return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { PreparedStatement.class },
+					new FakeStatement());
+			}
+			return defaultValue(method);
+		}
+
+		private class FakeStatement implements InvocationHandler {
+
+			private boolean statementClosed;
+			private int batch;
+
+			@Override
+			public Object invoke(Object stmt, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if (name.equals("getConnection")) return proxy;
+				if (name.equals("isClosed")) return statementClosed;
+				if (name.equals("close")) {
+					statementClosed = true;
+					closedStatements++;
+					return null;
+				}
+				if (name.equals("setObject")) {
+					params++;
+					return null;
+				}
+				if (name.equals("addBatch")) {
+					batch++;
+					return null;
+				}
+				if (name.equals("executeBatch")) {
+					executedBatches.add(batch);
+					int[] ret = new int[batch];
+					Arrays.fill(ret, 1);
+					batch = 0;
+					return ret;
+				}
+				if (name.equals("toString")) return "FakeStatement";
+				return defaultValue(method);
+			}
+
+		}
+
+		private static Object defaultValue(Method method) {
+			Class<?> type = method.getReturnType();
+			if (type == boolean.class) return false;
+			if (type == int.class) return 0;
+			if (type == long.class) return 0L;
+			return null;
+		}
+
+	}
+
+}
@@ -3,7 +3,9 @@ package ilarkesto.json;
 import ilarkesto.core.base.Utl;
 import ilarkesto.testng.ATest;
 
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.math.BigDecimal;
 import java.util.List;
@@ -142,6 +144,20 @@ public class JsonTest extends ATest {
 		assertEquals(JsonObject.parse("{\"a\":\"v\",}").toString(), "{\"a\":\"v\"}");
 	}
 
+	@Test
+	public void parseReader() throws IOException {
+		StringBuilder longValue = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			longValue.append(i % 10);
+		}
+		String json = "{\"a\":\"" + longValue + "\",\"b\":\"x\\\"y\\u20acz\",\"c\":[1,2.5,{\"d\":null}],\"e\":false}";
+		JsonObject jo = JsonObject.parse(new StringReader(json));
+		assertEquals(jo.getString("a"), longValue.toString());
+		assertEquals(jo.getString("b"), "x\"y€z");
+		assertEquals(jo.toString(), JsonObject.parse(json).toString());
+		assertEquals(JsonObject.parse(new StringReader(" \n")).toString(), "{}");
+	}
+
 	@Test
 	public void getParent() {
 		JsonObject witek = new JsonObject();
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.logging;
+
+import ilarkesto.core.logging.Log.Level;
+import ilarkesto.core.logging.LogRecord;
+import ilarkesto.testng.ATest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+public class LogRingBufferTest extends ATest {
+
+	@Test
+	public void wraparound() {
+		LogRingBuffer buffer = new LogRingBuffer(4);
+		List<LogRecord> batch = new ArrayList<LogRecord>();
+		int n = 0;
+		for (int round = 0; round < 10; round++) {
+			for (int i = 0; i < 3; i++) {
+				assertTrue(buffer.offer(record(Level.INFO, n++)));
+			}
+			assertEquals(buffer.getQueuedCount(), 3);
+			assertEquals(buffer.drainTo(batch, 2), 2);
+			assertEquals(buffer.drainTo(batch, 10), 1);
+			assertEquals(buffer.drainTo(batch, 10), 0);
+		}
+		assertSize(batch, 30);
+		for (int i = 0; i < batch.size(); i++) {
+			assertEquals(batch.get(i).parameters[0], i);
+		}
+		assertEquals(buffer.getProducedCount(), 30);
+		assertEquals(buffer.getConsumedCount(), 30);
+		assertEquals(buffer.getDroppedCount(), 0);
+	}
+
+	@Test
+	public void dropBelowBlockingLevel() {
+		LogRingBuffer buffer = new LogRingBuffer(2);
+		buffer.setBlockingLevel(Level.WARN);
+		assertTrue(buffer.offer(record(Level.DEBUG, 1)));
+		assertTrue(buffer.offer(record(Level.INFO, 2)));
+		assertFalse(buffer.offer(record(Level.DEBUG, 3)));
+		assertFalse(buffer.offer(record(Level.INFO, 4)));
+		assertEquals(buffer.getDroppedCount(), 2);
+		assertEquals(buffer.getQueuedCount(), 2);
+	}
+
+	@Test
+	public void blockUntilConsumed() throws InterruptedException {
+		final LogRingBuffer buffer = new LogRingBuffer(2);
+		buffer.offer(record(Level.INFO, 1));
+		buffer.offer(record(Level.INFO, 2));
+
+		final CountDownLatch registered = new CountDownLatch(1);
+		final List<LogRecord> batch = new ArrayList<LogRecord>();
+		Thread consumer = new Thread() {
+
+			@Override
+			public void run() {
+				buffer.setConsumerThread(this);
+				registered.countDown();
+				while (batch.size() < 3) {
+					buffer.drainTo(batch, 10);
+					buffer.awaitRecords(TimeUnit.MILLISECONDS.toNanos(10));
+				}
+			}
+		};
+		consumer.start();
+		assertTrue(registered.await(10, TimeUnit.SECONDS));
+
+		assertTrue(buffer.offer(record(Level.ERROR, 3)));
+		consumer.join(10000);
+		assertFalse(consumer.isAlive());
+		assertSize(batch, 3);
+		assertEquals(buffer.getDroppedCount(), 0);
+	}
+
+	@Test
+	public void fullWithoutConsumer() {
+		LogRingBuffer buffer = new LogRingBuffer(2);
+		buffer.offer(record(Level.INFO, 1));
+		buffer.offer(record(Level.INFO, 2));
+		assertFalse(buffer.offer(record(Level.ERROR, 3)));
+		assertEquals(buffer.getDroppedCount(), 0);
+	}
+
+	@Test
+	public void fullWhileConsumerLogs() {
+		LogRingBuffer buffer = new LogRingBuffer(2);
+		buffer.setConsumerThread(Thread.currentThread());
+		buffer.offer(record(Level.INFO, 1));
+		buffer.offer(record(Level.INFO, 2));
+		assertFalse(buffer.offer(record(Level.ERROR, 3)));
+	}
+
+	@Test
+	public void consumerDiesWhileWaiting() throws InterruptedException {
+		final LogRingBuffer buffer = new LogRingBuffer(2);
+		buffer.offer(record(Level.INFO, 1));
+		buffer.offer(record(Level.INFO, 2));
+		final CountDownLatch registered = new CountDownLatch(1);
+		Thread consumer = new Thread() {
+
+			@Override
+			public void run() {
+				buffer.setConsumerThread(this);
+				registered.countDown();
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException ex) {}
+			}
+		};
+		consumer.start();
+		assertTrue(registered.await(10, TimeUnit.SECONDS));
+
+		assertFalse(buffer.offer(record(Level.ERROR, 3)));
+		assertFalse(consumer.isAlive());
+	}
+
+	@Test
+	public void close() {
+		LogRingBuffer buffer = new LogRingBuffer(4);
+		buffer.offer(record(Level.INFO, 1));
+		buffer.close();
+		assertTrue(buffer.isClosed());
+		assertFalse(buffer.offer(record(Level.ERROR, 2)));
+
+		List<LogRecord> batch = new ArrayList<LogRecord>();
+		assertEquals(buffer.drainTo(batch, 10), 1);
+		assertEquals(batch.get(0).parameters[0], 1);
+		assertEquals(buffer.getDroppedCount(), 0);
+	}
+
+	private static LogRecord record(Level level, int n) {
+		return new LogRecord(System.currentTimeMillis(), "test", level, n);
+	}
+
+}
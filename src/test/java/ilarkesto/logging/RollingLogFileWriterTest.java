@@ -0,0 +1,98 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.logging;
+
+import ilarkesto.io.IO;
+import ilarkesto.testng.ATest;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.testng.annotations.Test;
+
+public class RollingLogFileWriterTest extends ATest {
+
+	@Test
+	public void append() throws IOException {
+		File file = createFile("append");
+		RollingLogFileWriter writer = new RollingLogFileWriter(file, 1000, 2);
+		writer.write("a");
+		assertFalse(file.exists() && file.length() > 0); // buffered
+		writer.flush();
+		writer.close();
+
+		writer = new RollingLogFileWriter(file, 1000, 2);
+		writer.write("b");
+		writer.flush();
+		writer.close();
+		assertEquals(IO.readFile(file, IO.UTF_8), "ab");
+	}
+
+	@Test
+	public void roll() throws IOException {
+		File file = createFile("roll");
+		RollingLogFileWriter writer = new RollingLogFileWriter(file, 10, 2);
+		for (int i = 1; i <= 4; i++) {
+			writer.write("batch" + i + "____");
+			writer.flush();
+		}
+		writer.write("current");
+		writer.flush();
+		writer.close();
+
+		assertEquals(IO.readFile(file, IO.UTF_8), "current");
+		assertEquals(IO.readFile(rolled(file, 1), IO.UTF_8), "batch4____");
+		assertEquals(IO.readFile(rolled(file, 2), IO.UTF_8), "batch3____");
+		assertFalse(rolled(file, 3).exists());
+	}
+
+	@Test
+	public void rollWithoutKeptFiles() throws IOException {
+		File file = createFile("rollWithoutKeptFiles");
+		RollingLogFileWriter writer = new RollingLogFileWriter(file, 10, 0);
+		writer.write("0123456789");
+		writer.flush();
+		assertFalse(file.exists());
+		assertFalse(rolled(file, 1).exists());
+
+		writer.write("x");
+		writer.flush();
+		writer.close();
+		assertEquals(IO.readFile(file, IO.UTF_8), "x");
+	}
+
+	@Test
+	public void rollCountsBytes() throws IOException {
+		File file = createFile("rollCountsBytes");
+		RollingLogFileWriter writer = new RollingLogFileWriter(file, 10, 1);
+		writer.write("äöüäöü"); // 12 bytes in UTF-8
+		writer.flush();
+		writer.close();
+		assertFalse(file.exists());
+		assertEquals(IO.readFile(rolled(file, 1), IO.UTF_8), "äöüäöü");
+	}
+
+	private File createFile(String name) {
+		File dir = getTestOutputFile(name);
+		IO.delete(dir);
+		IO.createDirectory(dir);
+		return new File(dir, "test.log");
+	}
+
+	private static File rolled(File file, int i) {
+		return new File(file.getPath() + "." + i);
+	}
+
+}
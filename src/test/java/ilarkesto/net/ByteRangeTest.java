@@ -0,0 +1,70 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.net;
+
+import ilarkesto.testng.ATest;
+
+import org.testng.annotations.Test;
+
+public class ByteRangeTest extends ATest {
+
+	@Test
+	public void parse() {
+		ByteRange range = ByteRange.parse("bytes=0-99", 1000);
+		assertTrue(range.isSatisfiable());
+		assertEquals(range.getStart(), 0);
+		assertEquals(range.getEnd(), 99);
+		assertEquals(range.getLength(), 100);
+		assertEquals(range.getContentRange(), "bytes 0-99/1000");
+
+		range = ByteRange.parse("bytes=900-", 1000);
+		assertEquals(range.getStart(), 900);
+		assertEquals(range.getEnd(), 999);
+
+		range = ByteRange.parse("bytes=-100", 1000);
+		assertEquals(range.getStart(), 900);
+		assertEquals(range.getEnd(), 999);
+
+		range = ByteRange.parse("bytes=990-2000", 1000);
+		assertEquals(range.getEnd(), 999);
+	}
+
+	@Test
+	public void fullContent() {
+		assertNull(ByteRange.parse(null, 1000));
+		assertNull(ByteRange.parse("items=0-1", 1000));
+		assertNull(ByteRange.parse("bytes=0-1,5-6", 1000));
+		assertNull(ByteRange.parse("bytes=5-1", 1000));
+		assertNull(ByteRange.parse("bytes=a-b", 1000));
+	}
+
+	@Test
+	public void unsatisfiable() {
+		ByteRange range = ByteRange.parse("bytes=1000-", 1000);
+		assertFalse(range.isSatisfiable());
+		assertEquals(range.getUnsatisfiedContentRange(), "bytes */1000");
+		assertFalse(ByteRange.parse("bytes=-0", 1000).isSatisfiable());
+	}
+
+	@Test
+	public void etag() {
+		assertTrue(Http.isEtagMatching("abc", "abc"));
+		assertTrue(Http.isEtagMatching("\"x\", W/\"abc\"", "abc"));
+		assertTrue(Http.isEtagMatching("*", "abc"));
+		assertFalse(Http.isEtagMatching("abd", "abc"));
+		assertFalse(Http.isEtagMatching(null, "abc"));
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence.file;
+
+import ilarkesto.core.persistance.AEntity;
+import ilarkesto.io.AFileStorage;
+import ilarkesto.io.IO;
+import ilarkesto.json.JsonMapper.TypeResolver;
+import ilarkesto.testng.ATest;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+public class AJsonFilesEntitiesBackendTest extends ATest {
+
+	@Test
+	public void writeBehindWithoutChanges() {
+		AFileStorage storage = createStorage("writeBehindWithoutChanges");
+		Backend backend = new Backend(storage);
+		backend.update(Collections.<AEntity> emptyList(), Collections.<String> emptyList(), null, null);
+		assertFalse(storage.getFile("journal/1.segment").exists());
+	}
+
+	@Test
+	public void writeBehindFlushFailure() {
+		AFileStorage storage = createStorage("writeBehindFlushFailure");
+		Backend backend = new Backend(storage);
+		Note a = new Note("a");
+		backend.update(Arrays.<AEntity> asList(a), null, null, null);
+
+		File file = storage.getFile("Note/" + a.getId() + ".json");
+		// a directory in place of the entity file lets writing fail
+		IO.createDirectory(file);
+		try {
+			backend.flush();
+			failExceptionExpected(RuntimeException.class);
+		} catch (RuntimeException ex) {}
+		assertTrue(storage.getFile("journal/1.segment").exists());
+
+		Note b = new Note("b");
+		backend.update(Arrays.<AEntity> asList(b), null, null, null);
+		IO.delete(file);
+		backend.flush();
+		assertTrue(file.exists());
+		assertTrue(storage.getFile("Note/" + b.getId() + ".json").exists());
+		assertFalse(storage.getFile("journal/1.segment").exists());
+		assertFalse(storage.getFile("journal/2.segment").exists());
+
+		backend = new Backend(storage);
+		assertEquals(backend.getAllAsList().size(), 2);
+	}
+
+	private AFileStorage createStorage(String name) {
+		IO.delete(getTestOutputFile(name));
+		return getTestFileStorage(name);
+	}
+
+	public static class Note extends AEntity {
+
+		private String text;
+
+		public Note() {}
+
+		public Note(String text) {
+			this.text = text;
+		}
+
+	}
+
+	static class Backend extends AJsonFilesEntitiesBackend {
+
+		public Backend(AFileStorage storage) {
+			super(storage);
+		}
+
+		@Override
+		protected long getWriteBehindMaxLatency() {
+			// flushed by the tests
+			return 3600000;
+		}
+
+		@Override
+		protected AEntityJsonFileUpgrades createUpgrader() {
+			return new AEntityJsonFileUpgrades() {
+
+				@Override
+				protected void initialize() {}
+			};
+		}
+
+		@Override
+		protected List<Class<? extends AEntity>> getEntityTypes() {
+			return Collections.<Class<? extends AEntity>> singletonList(Note.class);
+		}
+
+		@Override
+		protected TypeResolver createTypeResolver() {
+			return TypeResolver.NONE;
+		}
+
+	}
+
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence.file;
+
+import ilarkesto.core.persistance.AEntity;
+import ilarkesto.io.AFileStorage;
+import ilarkesto.io.IO;
+import ilarkesto.json.JsonMapper.TypeResolver;
+import ilarkesto.testng.ATest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+public class AJsonSegmentsEntitiesBackendTest extends ATest {
+
+	@Test
+	public void roundTrip() {
+		AFileStorage storage = createStorage("roundTrip");
+		Backend backend = new Backend(storage, Long.MAX_VALUE);
+		Note a = new Note("a");
+		Note b = new Note("b");
+		backend.update(Arrays.<AEntity> asList(a, b), null, null, null);
+		a.text = "a2";
+		backend.update(Arrays.<AEntity> asList(a), Arrays.asList(b.getId()), null, null);
+		backend.close();
+
+		backend = new Backend(storage, Long.MAX_VALUE);
+		assertEquals(backend.getAllAsList().size(), 1);
+		assertEquals(((Note) backend.getById(a.getId())).text, "a2");
+		assertFalse(backend.containsWithId(b.getId()));
+		backend.close();
+	}
+
+	@Test
+	public void compaction() {
+		AFileStorage storage = createStorage("compaction");
+		// every transaction seals the previous segment
+		Backend backend = new Backend(storage, 1);
+		Note a = new Note("a");
+		Note b = new Note("b");
+		backend.update(Arrays.<AEntity> asList(a), null, null, null);
+		backend.update(Arrays.<AEntity> asList(b), null, null, null);
+		backend.update(null, Arrays.asList(a.getId()), null, null);
+		b.text = "b2";
+		backend.update(Arrays.<AEntity> asList(b), null, null, null);
+		backend.compact();
+		backend.close();
+
+		File dir = storage.getFile("segments");
+		assertTrue(new File(dir, "00000003.base").exists());
+		assertFalse(new File(dir, "00000001.segment").exists());
+		assertFalse(new File(dir, "00000003.segment").exists());
+		assertTrue(new File(dir, "00000004.segment").exists());
+
+		File incompleteBase = new File(dir, "00000004.base.tmp");
+		IO.copyDataToFile(new byte[] { 1, 2, 3 }, incompleteBase);
+
+		backend = new Backend(storage, 1);
+		assertEquals(backend.getAllAsList().size(), 1);
+		assertEquals(((Note) backend.getById(b.getId())).text, "b2");
+		assertFalse(incompleteBase.exists());
+		backend.close();
+	}
+
+	@Test
+	public void tornTail() throws Exception {
+		AFileStorage storage = createStorage("tornTail");
+		Backend backend = new Backend(storage, Long.MAX_VALUE);
+		Note a = new Note("a");
+		backend.update(Arrays.<AEntity> asList(a), null, null, null);
+		backend.close();
+
+		File segment = storage.getFile("segments/00000001.segment");
+		long validSize = segment.length();
+		byte[] frame = EntitySegmentFile.createFrame(Collections.singletonList(new EntitySegmentFile.Record("x",
+				"Note", "{}".getBytes(IO.UTF_8))));
+		FileOutputStream out = new FileOutputStream(segment, true);
+		out.write(frame, 0, frame.length - 2);
+		out.close();
+
+		backend = new Backend(storage, Long.MAX_VALUE);
+		assertEquals(segment.length(), validSize);
+		assertEquals(backend.getAllAsList().size(), 1);
+		Note b = new Note("b");
+		backend.update(Arrays.<AEntity> asList(b), null, null, null);
+		backend.close();
+
+		backend = new Backend(storage, Long.MAX_VALUE);
+		assertEquals(backend.getAllAsList().size(), 2);
+		backend.close();
+	}
+
+	@Test
+	public void corruptSealedSegment() {
+		AFileStorage storage = createStorage("corruptSealedSegment");
+		Backend backend = new Backend(storage, 1);
+		backend.update(Arrays.<AEntity> asList(new Note("a")), null, null, null);
+		backend.update(Arrays.<AEntity> asList(new Note("b")), null, null, null);
+		backend.close();
+
+		File sealed = storage.getFile("segments/00000001.segment");
+		byte[] data = IO.readFileToByteArray(sealed);
+		data[data.length - 2] ^= 1;
+		IO.copyDataToFile(data, sealed);
+
+		try {
+			new Backend(storage, 1);
+			failExceptionExpected(IllegalStateException.class);
+		} catch (IllegalStateException ex) {}
+	}
+
+	@Test
+	public void failedWrite() {
+		AFileStorage storage = createStorage("failedWrite");
+		Backend backend = new Backend(storage, Long.MAX_VALUE);
+		Note a = new Note("a");
+		backend.update(Arrays.<AEntity> asList(a), null, null, null);
+
+		backend.failNextWrite = true;
+		try {
+			backend.update(Arrays.<AEntity> asList(new Note("b")), null, null, null);
+			failExceptionExpected(RuntimeException.class);
+		} catch (RuntimeException ex) {}
+
+		Note c = new Note("c");
+		backend.update(Arrays.<AEntity> asList(c), null, null, null);
+		backend.close();
+
+		backend = new Backend(storage, Long.MAX_VALUE);
+		assertEquals(backend.getAllAsList().size(), 2);
+		assertTrue(backend.containsWithId(a.getId()));
+		assertTrue(backend.containsWithId(c.getId()));
+		backend.close();
+	}
+
+	private AFileStorage createStorage(String name) {
+		IO.delete(getTestOutputFile(name));
+		return getTestFileStorage(name);
+	}
+
+	public static class Note extends AEntity {
+
+		private String text;
+
+		public Note() {}
+
+		public Note(String text) {
+			this.text = text;
+		}
+
+	}
+
+	static class Backend extends AJsonSegmentsEntitiesBackend {
+
+		private long maxSegmentSize;
+		private boolean failNextWrite;
+
+		public Backend(AFileStorage storage, long maxSegmentSize) {
+			super(storage);
+			this.maxSegmentSize = maxSegmentSize;
+		}
+
+		@Override
+		protected long getMaxSegmentSize() {
+			return maxSegmentSize;
+		}
+
+		@Override
+		void writeToActiveSegment(ByteBuffer buffer) throws IOException {
+			if (!failNextWrite) {
+				super.writeToActiveSegment(buffer);
+				return;
+			}
+			failNextWrite = false;
+			buffer.limit(buffer.position() + buffer.remaining() / 2);
+			super.writeToActiveSegment(buffer);
+			throw new IOException("Disk full");
+		}
+
+		@Override
+		protected int getCompactionSegmentCount() {
+			return Integer.MAX_VALUE;
+		}
+
+		@Override
+		protected List<Class<? extends AEntity>> getEntityTypes() {
+			return Collections.<Class<? extends AEntity>> singletonList(Note.class);
+		}
+
+		@Override
+		protected TypeResolver createTypeResolver() {
+			return TypeResolver.NONE;
+		}
+
+	}
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2011 Witoslaw Koczewsi <wi@koczewski.de>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with this program. If not,
+ * see <http://www.gnu.org/licenses/>.
+ */
+package ilarkesto.persistence.file;
+
+import ilarkesto.io.IO;
+import ilarkesto.persistence.file.EntitySegmentFile.Record;
+import ilarkesto.testng.ATest;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+public class EntitySegmentFileTest extends ATest {
+
+	@Test
+	public void replay() throws Exception {
+		byte[] frame1 = EntitySegmentFile.createFrame(Arrays.asList(record("a", "{\"v\":1}"), record("b", "{}")));
+		byte[] frame2 = EntitySegmentFile.createFrame(Arrays.asList(record("a", "{\"v\":2}"), new Record("b", null,
+				null)));
+		byte[] torn = EntitySegmentFile.createFrame(Arrays.asList(record("c", "{}")));
+
+		byte[] data = new byte[frame1.length + frame2.length + torn.length - 3];
+		System.arraycopy(frame1, 0, data, 0, frame1.length);
+		System.arraycopy(frame2, 0, data, frame1.length, frame2.length);
+		System.arraycopy(torn, 0, data, frame1.length + frame2.length, torn.length - 3);
+		File file = new File(OUTPUT_DIR + "/segments/00000001.segment");
+		IO.createDirectory(file.getParentFile());
+		IO.copyDataToFile(data, file);
+
+		for (boolean memoryMapped : new boolean[] { false, true }) {
+			Map<String, Record> records = new HashMap<String, Record>();
+			long validLength = EntitySegmentFile.read(file, memoryMapped, true, records);
+			assertEquals(validLength, frame1.length + frame2.length);
+			assertEquals(records.size(), 2);
+			assertTrue(records.get("b").isDelete());
+			assertEquals(new String(records.get("a").json, IO.UTF_8), "{\"v\":2}");
+
+			try {
+				EntitySegmentFile.read(file, memoryMapped, false, new HashMap<String, Record>());
+				failExceptionExpected(IllegalStateException.class);
+			} catch (IllegalStateException ex) {}
+		}
+	}
+
+	@Test
+	public void checksumMismatch() throws Exception {
+		byte[] frame1 = EntitySegmentFile.createFrame(Arrays.asList(record("a", "{\"v\":1}")));
+		byte[] frame2 = EntitySegmentFile.createFrame(Arrays.asList(new Record("a", null, null)));
+		byte[] data = new byte[frame1.length + frame2.length];
+		System.arraycopy(frame1, 0, data, 0, frame1.length);
+		System.arraycopy(frame2, 0, data, frame1.length, frame2.length);
+		data[frame1.length - 1] ^= 1;
+		File file = new File(OUTPUT_DIR + "/segments/00000002.segment");
+		IO.createDirectory(file.getParentFile());
+		IO.copyDataToFile(data, file);
+
+		for (boolean memoryMapped : new boolean[] { false, true }) {
+			Map<String, Record> records = new HashMap<String, Record>();
+			assertEquals(EntitySegmentFile.read(file, memoryMapped, true, records), 0);
+			assertEquals(records.size(), 0);
+
+			try {
+				EntitySegmentFile.read(file, memoryMapped, false, records);
+				failExceptionExpected(IllegalStateException.class);
+			} catch (IllegalStateException ex) {}
+		}
+	}
+
+	private static Record record(String id, String json) throws Exception {
+		return new Record(id, "Car", json.getBytes(IO.UTF_8));
+	}
+
+}
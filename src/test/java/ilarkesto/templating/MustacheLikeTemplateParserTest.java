@@ -15,8 +15,10 @@
 package ilarkesto.templating;
 
 import ilarkesto.core.parsing.sax.ParseException;
+import ilarkesto.io.IO;
 import ilarkesto.testng.ATest;
 
+import java.io.File;
 import java.util.Arrays;
 
 import org.testng.annotations.Test;
@@ -114,6 +116,19 @@ public class MustacheLikeTemplateParserTest extends ATest {
 		assertEquals(variable.getExpression(), "html");
 	}
 
+	@Test
+	public void parseTemplateFile() throws ParseException {
+		File file = getTestOutputFile("template.html");
+		IO.writeFile(file, "hello {{a}}", IO.UTF_8);
+		Template template = MustacheLikeTemplateParser.parseTemplate(file);
+		assertSame(MustacheLikeTemplateParser.parseTemplate(file), template);
+
+		IO.writeFile(file, "hello {{html}}!", IO.UTF_8);
+		Template modifiedTemplate = MustacheLikeTemplateParser.parseTemplate(file);
+		assertNotSame(modifiedTemplate, template);
+		assertSize(modifiedTemplate.children, 3);
+	}
+
 	@Test
 	public void text() throws ParseException {
 		Template template = MustacheLikeTemplateParser.parseTemplate("hello world");
@@ -106,6 +106,16 @@ public class TemplateTest extends ATest {
 		assertTemplateProcess("falsefalsetrue");
 	}
 
+	@Test
+	public void loopNested() {
+		context.put("items", Arrays.asList("a", "b"));
+
+		LoopElement innerLoop = new LoopElement("/items", new VariableElement("$loop/index"));
+		template = new Template().add(new LoopElement("items").add(innerLoop).add(new VariableElement("$loop/item")));
+		assertTemplateProcess("01a01b");
+		assertNull(context.getRootScope().get("$loop"));
+	}
+
 	@Test
 	public void optional() {
 		context.put("a", "a-value");